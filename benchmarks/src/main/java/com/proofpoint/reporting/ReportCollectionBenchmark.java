@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.proofpoint.stats.TimeStat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.weakref.jmx.MBeanExporter;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of looking up an existing stat in a report collection by an int key,
+ * an enum key and a string key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReportCollectionBenchmark
+{
+    private static final int[] RESPONSE_CODES = {200, 201, 204, 304, 400, 404, 500, 503};
+    private static final String[] NAMES = {"alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta"};
+    private static final TimeUnit[] UNITS = TimeUnit.values();
+
+    private BenchmarkCollection collection;
+    private int index;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        ReportExporter reportExporter = new ReportExporter(new ReportedBeanRegistry(), new MinuteBucketIdProvider(),
+                new MBeanExporter(ManagementFactory.getPlatformMBeanServer()))
+        {
+            @Override
+            public void export(String name, Object object)
+            {
+            }
+        };
+        collection = new ReportCollectionFactory(reportExporter).createReportCollection(BenchmarkCollection.class);
+    }
+
+    @Benchmark
+    public TimeStat intKey()
+    {
+        return collection.byResponseCode(RESPONSE_CODES[next()]);
+    }
+
+    @Benchmark
+    public TimeStat enumKey()
+    {
+        return collection.byUnit(UNITS[next() % UNITS.length]);
+    }
+
+    @Benchmark
+    public TimeStat stringKey()
+    {
+        return collection.byName(NAMES[next()]);
+    }
+
+    private int next()
+    {
+        index = (index + 1) & 7;
+        return index;
+    }
+
+    public interface BenchmarkCollection
+    {
+        TimeStat byResponseCode(@Key("responseCode") int responseCode);
+
+        TimeStat byUnit(@Key("unit") TimeUnit unit);
+
+        TimeStat byName(@Key("key") String name);
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+                .include(".*" + ReportCollectionBenchmark.class.getSimpleName() + ".*")
+                .build()).run();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.io.ByteStreams;
+import com.proofpoint.http.client.Request;
+import com.proofpoint.http.client.Response;
+import com.proofpoint.http.client.testing.TestingHttpClient;
+import com.proofpoint.http.client.testing.TestingResponse;
+import com.proofpoint.node.NodeInfo;
+import com.proofpoint.reporting.ReportClientConfig.ReportFormat;
+import com.proofpoint.stats.CounterStat;
+import com.proofpoint.stats.DistributionStat;
+import com.proofpoint.stats.TimeStat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.weakref.jmx.Nested;
+
+import javax.management.ObjectName;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.proofpoint.http.client.HttpStatus.NO_CONTENT;
+
+/**
+ * Cost of one collection over {@code beanCount} reported beans, each with a counter,
+ * a time stat and a distribution stat, with and without writing the report in each
+ * format, reading the beans on one or more collection threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReportCollectorBenchmark
+{
+    @Param({"1000", "5000"})
+    private int beanCount;
+
+    @Param({"1", "4"})
+    private int collectionThreads;
+
+    @Param({"JSON", "COMPACT"})
+    private ReportFormat format;
+
+    private ReportCollector reportCollector;
+    private ReportClient reportClient;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        TestingBucketIdProvider bucketIdProvider = new TestingBucketIdProvider();
+        ReportedBeanRegistry registry = new ReportedBeanRegistry();
+        for (int i = 0; i < beanCount; i++) {
+            BenchmarkStats stats = new BenchmarkStats();
+            ReportExporter.notifyBucketIdProvider(stats, bucketIdProvider, null);
+            stats.record();
+            registry.register(ReportedBean.forTarget(stats), ObjectName.getInstance("com.proofpoint.benchmark", "name", "Bean" + i));
+        }
+
+        // the collector reports the previous bucket
+        bucketIdProvider.advance();
+
+        ReportClientConfig reportClientConfig = new ReportClientConfig()
+                .setCollectionThreads(collectionThreads)
+                .setFormat(format);
+        reportClient = new ReportClient(
+                new NodeInfo("benchmark"),
+                new TestingHttpClient(new TestingHttpClient.Processor()
+                {
+                    @Override
+                    public Response handle(Request request)
+                            throws Exception
+                    {
+                        request.getBodyGenerator().write(ByteStreams.nullOutputStream());
+                        return new TestingResponse(NO_CONTENT, ImmutableListMultimap.<String, String>of(), new byte[0]);
+                    }
+                }),
+                reportClientConfig);
+        reportCollector = new ReportCollector(new MinuteBucketIdProvider(), registry, reportClient, new ReportQueue(reportClientConfig), new ReportHistory(reportClientConfig), reportClientConfig);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        reportCollector.stop();
+    }
+
+    @Benchmark
+    public void collect(final Blackhole blackhole)
+    {
+        reportCollector.collect(System.currentTimeMillis(), new ReportSink()
+        {
+            @Override
+            public void add(ReportName reportName, String name, Number value)
+            {
+                blackhole.consume(value);
+            }
+        });
+    }
+
+    @Benchmark
+    public void collectAndReport()
+    {
+        long systemTimeMillis = System.currentTimeMillis();
+        ReportWriter writer = reportClient.createReportWriter(systemTimeMillis);
+        reportCollector.collect(systemTimeMillis, writer);
+        reportClient.report(writer.finish());
+    }
+
+    public static class BenchmarkStats
+    {
+        private final CounterStat counter = new CounterStat();
+        private final TimeStat time = new TimeStat();
+        private final DistributionStat distribution = new DistributionStat();
+
+        private void record()
+        {
+            for (int i = 0; i < 100; i++) {
+                counter.update(1);
+                time.add(ThreadLocalRandom.current().nextInt(1_000_000), TimeUnit.NANOSECONDS);
+                distribution.add(ThreadLocalRandom.current().nextInt(10_000));
+            }
+        }
+
+        @Nested
+        public CounterStat getCounter()
+        {
+            return counter;
+        }
+
+        @Nested
+        public TimeStat getTime()
+        {
+            return time;
+        }
+
+        @Nested
+        public DistributionStat getDistribution()
+        {
+            return distribution;
+        }
+    }
+
+    private static class TestingBucketIdProvider
+            implements BucketIdProvider
+    {
+        private int bucketId;
+
+        @Override
+        public int get()
+        {
+            return bucketId;
+        }
+
+        private void advance()
+        {
+            bucketId++;
+        }
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+                .include(".*" + ReportCollectorBenchmark.class.getSimpleName() + ".*")
+                .build()).run();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import com.proofpoint.reporting.BucketIdProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of adding to a {@link BucketedCounter}, including rotating to a new bucket
+ * every {@code bucketNanos}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BucketedBenchmark
+{
+    // a microsecond rotates constantly; an hour never rotates during the run
+    @Param({"1000", "3600000000000"})
+    private long bucketNanos;
+
+    private final BucketedCounter counter = new BucketedCounter();
+
+    @Setup
+    public void setup()
+    {
+        final long start = System.nanoTime();
+        counter.setBucketIdProvider(new BucketIdProvider()
+        {
+            @Override
+            public int get()
+            {
+                return (int) ((System.nanoTime() - start) / bucketNanos);
+            }
+        });
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BucketedCounter add()
+    {
+        counter.add(1);
+        return counter;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public BucketedCounter addContended()
+    {
+        counter.add(1);
+        return counter;
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+                .include(".*" + BucketedBenchmark.class.getSimpleName() + ".*")
+                .build()).run();
+    }
+}
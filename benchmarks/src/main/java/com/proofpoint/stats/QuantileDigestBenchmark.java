@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class QuantileDigestBenchmark
+{
+    private static final int VALUE_COUNT = 1 << 16;
+
+    @Param({"0.0", "0.01"})
+    private double alpha;
+
+    private final long[] values = new long[VALUE_COUNT];
+    private int index;
+
+    private QuantileDigest digest;
+    private QuantileDigest other;
+    private byte[] serialized;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            values[i] = Math.abs(random.nextLong()) % 1_000_000;
+        }
+
+        digest = new QuantileDigest(0.01, alpha);
+        other = new QuantileDigest(0.01, alpha);
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            digest.add(values[i]);
+            other.add(values[VALUE_COUNT - i - 1] + 500_000);
+        }
+
+        ByteArrayDataOutput output = ByteStreams.newDataOutput();
+        digest.serialize(output);
+        serialized = output.toByteArray();
+    }
+
+    @Benchmark
+    public QuantileDigest add()
+    {
+        digest.add(values[index++ & (VALUE_COUNT - 1)]);
+        return digest;
+    }
+
+    @Benchmark
+    public QuantileDigest merge()
+    {
+        QuantileDigest merged = new QuantileDigest(digest);
+        merged.merge(other);
+        return merged;
+    }
+
+    @Benchmark
+    public byte[] serialize()
+    {
+        ByteArrayDataOutput output = ByteStreams.newDataOutput(digest.estimatedSerializedSizeInBytes());
+        digest.serialize(output);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public QuantileDigest deserialize()
+    {
+        return QuantileDigest.deserialize(ByteStreams.newDataInput(serialized));
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+                .include(".*" + QuantileDigestBenchmark.class.getSimpleName() + ".*")
+                .build()).run();
+    }
+}
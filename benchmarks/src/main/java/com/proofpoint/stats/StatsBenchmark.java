@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.proofpoint.stats.TimeStat.Backend.LOG_LINEAR_HISTOGRAM;
+
+/**
+ * Cost of recording one value into each stat by a single thread. See
+ * {@link StatsContendedBenchmark} for the same stats shared by several threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(1)
+public class StatsBenchmark
+{
+    private final Distribution distribution = new Distribution(ExponentialDecay.oneMinute());
+    private final Distribution stripedDistribution = new Distribution(ExponentialDecay.oneMinute(), Runtime.getRuntime().availableProcessors());
+    private final DistributionStat distributionStat = new DistributionStat();
+    private final DistributionStat stripedDistributionStat = new DistributionStat(Runtime.getRuntime().availableProcessors());
+    private final TimeStat timeStat = new TimeStat();
+    private final TimeStat histogramTimeStat = new TimeStat(LOG_LINEAR_HISTOGRAM);
+    private final CounterStat counterStat = new CounterStat();
+    private final DecayCounter decayCounter = new DecayCounter(ExponentialDecay.oneMinute());
+
+    @Benchmark
+    public Distribution distributionAdd()
+    {
+        distribution.add(nextValue());
+        return distribution;
+    }
+
+    @Benchmark
+    public Distribution stripedDistributionAdd()
+    {
+        stripedDistribution.add(nextValue());
+        return stripedDistribution;
+    }
+
+    @Benchmark
+    public DistributionStat distributionStatAdd()
+    {
+        distributionStat.add(nextValue());
+        return distributionStat;
+    }
+
+    @Benchmark
+    public DistributionStat stripedDistributionStatAdd()
+    {
+        stripedDistributionStat.add(nextValue());
+        return stripedDistributionStat;
+    }
+
+    @Benchmark
+    public TimeStat timeStatAdd()
+    {
+        timeStat.add(nextValue(), TimeUnit.NANOSECONDS);
+        return timeStat;
+    }
+
+    @Benchmark
+    public TimeStat histogramTimeStatAdd()
+    {
+        histogramTimeStat.add(nextValue(), TimeUnit.NANOSECONDS);
+        return histogramTimeStat;
+    }
+
+    @Benchmark
+    public CounterStat counterStatUpdate()
+    {
+        counterStat.update(1);
+        return counterStat;
+    }
+
+    @Benchmark
+    public DecayCounter decayCounterAdd()
+    {
+        decayCounter.add(1);
+        return decayCounter;
+    }
+
+    private static long nextValue()
+    {
+        return ThreadLocalRandom.current().nextInt(1_000_000);
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+                .include(".*" + StatsBenchmark.class.getSimpleName() + ".*")
+                .build()).run();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+class ConcurrencyLimitFilter
+        implements Filter
+{
+    public static final String IN_FLIGHT = ConcurrencyLimitFilter.class.getName() + ".IN_FLIGHT";
+
+    private final ConcurrencyLimiter limiter;
+    private final ConcurrencyLimitStats stats;
+
+    ConcurrencyLimitFilter(ConcurrencyLimiter limiter, ConcurrencyLimitStats stats)
+    {
+        this.limiter = checkNotNull(limiter, "limiter is null");
+        this.stats = checkNotNull(stats, "stats is null");
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig)
+            throws ServletException
+    {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException
+    {
+        int inFlight = limiter.tryAcquire();
+        if (inFlight == 0) {
+            stats.rejected();
+            ((HttpServletResponse) response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        try {
+            // the request time is reported to the limiter by StatsRecordingHandler
+            request.setAttribute(IN_FLIGHT, inFlight);
+            chain.doFilter(request, response);
+        }
+        finally {
+            limiter.release();
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+    }
+}
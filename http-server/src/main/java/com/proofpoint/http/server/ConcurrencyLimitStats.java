@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import com.proofpoint.reporting.Gauge;
+import com.proofpoint.stats.CounterStat;
+import org.weakref.jmx.Nested;
+
+/**
+ * Tracks the adaptive concurrency limit of the HTTP server, when enabled, and the
+ * requests rejected because the limit was reached.
+ */
+public class ConcurrencyLimitStats
+{
+    private final CounterStat rejected = new CounterStat();
+    private volatile ConcurrencyLimiter limiter;
+
+    void setLimiter(ConcurrencyLimiter limiter)
+    {
+        this.limiter = limiter;
+    }
+
+    void rejected()
+    {
+        rejected.update(1);
+    }
+
+    @Gauge(description = "Current limit on the number of requests in flight")
+    public int getLimit()
+    {
+        ConcurrencyLimiter limiter = this.limiter;
+        if (limiter == null) {
+            return 0;
+        }
+        return limiter.getLimit();
+    }
+
+    @Gauge(description = "Number of requests in flight under the limit")
+    public int getInFlight()
+    {
+        ConcurrencyLimiter limiter = this.limiter;
+        if (limiter == null) {
+            return 0;
+        }
+        return limiter.getInFlight();
+    }
+
+    @Nested
+    public CounterStat getRejected()
+    {
+        return rejected;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Limits the number of requests in flight, adjusting the limit with a latency
+ * gradient.
+ * <p>
+ * Request times are averaged over windows of at least {@value #MIN_WINDOW_SAMPLES}
+ * requests and one second. At the end of each window, the limit is scaled by the
+ * ratio of the long-term average request time to the window's average, clamped
+ * to [0.5, 1], and a headroom of the square root of the limit is added. So the
+ * limit grows while request times are steady and shrinks as they rise above the
+ * long-term average. The limit is not changed by windows in which fewer than
+ * half the permits were in use.
+ */
+@ThreadSafe
+class ConcurrencyLimiter
+{
+    @VisibleForTesting
+    static final int MIN_WINDOW_SAMPLES = 10;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double LONG_WINDOW_WEIGHT = 1.0 / 20;
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final Ticker ticker;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    @GuardedBy("this")
+    private double estimatedLimit;
+    @GuardedBy("this")
+    private double longRttNanos;
+    @GuardedBy("this")
+    private long windowStart;
+    @GuardedBy("this")
+    private int windowSamples;
+    @GuardedBy("this")
+    private long windowRttSum;
+    @GuardedBy("this")
+    private int windowMaxInFlight;
+
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit)
+    {
+        this(initialLimit, minLimit, maxLimit, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Ticker ticker)
+    {
+        checkArgument(minLimit >= 1, "minLimit must be at least 1");
+        checkArgument(maxLimit >= minLimit, "maxLimit must be at least minLimit");
+        checkArgument(initialLimit >= minLimit && initialLimit <= maxLimit, "initialLimit must be between minLimit and maxLimit");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.ticker = checkNotNull(ticker, "ticker is null");
+        limit = initialLimit;
+        estimatedLimit = initialLimit;
+        windowStart = ticker.read();
+    }
+
+    /**
+     * Takes a permit if fewer than the limit are in use.
+     *
+     * @return the number of permits in use including the one taken, or zero
+     * if no permit was taken
+     */
+    int tryAcquire()
+    {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return 0;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    void release()
+    {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Records the time taken by a request that ran with a permit.
+     *
+     * @param rttNanos the request time in nanoseconds
+     * @param inFlight the number of permits in use when the request took its permit
+     */
+    synchronized void addSample(long rttNanos, int inFlight)
+    {
+        windowSamples++;
+        windowRttSum += Math.max(rttNanos, 1);
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+
+        long now = ticker.read();
+        if (windowSamples < MIN_WINDOW_SAMPLES || now - windowStart < WINDOW_NANOS) {
+            return;
+        }
+
+        double shortRttNanos = (double) windowRttSum / windowSamples;
+        if (longRttNanos == 0) {
+            longRttNanos = shortRttNanos;
+        }
+        else {
+            longRttNanos += (shortRttNanos - longRttNanos) * LONG_WINDOW_WEIGHT;
+            // recover quickly from a period of high request times
+            if (longRttNanos > shortRttNanos * 2) {
+                longRttNanos *= 0.95;
+            }
+        }
+
+        if (windowMaxInFlight * 2 >= estimatedLimit) {
+            double gradient = Math.max(0.5, Math.min(1.0, longRttNanos / shortRttNanos));
+            double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            estimatedLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit));
+            limit = (int) estimatedLimit;
+        }
+
+        windowStart = now;
+        windowSamples = 0;
+        windowRttSum = 0;
+        windowMaxInFlight = 0;
+    }
+
+    int getLimit()
+    {
+        return limit;
+    }
+
+    int getInFlight()
+    {
+        return inFlight.get();
+    }
+}
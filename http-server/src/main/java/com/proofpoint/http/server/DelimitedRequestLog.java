@@ -18,18 +18,21 @@ package com.proofpoint.http.server;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.encoder.EncoderBase;
+import com.google.common.annotations.VisibleForTesting;
+import com.proofpoint.http.server.HttpServerConfig.LogQueueFullPolicy;
 import com.proofpoint.log.Logging;
 import com.proofpoint.tracetoken.TraceTokenManager;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.RequestLog;
 import org.eclipse.jetty.server.Response;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.DateTimeFormatterBuilder;
-import org.joda.time.format.ISODateTimeFormat;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
-import static com.proofpoint.http.server.HttpRequestEvent.createHttpRequestEvent;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 class DelimitedRequestLog
         implements RequestLog
@@ -37,9 +40,30 @@ class DelimitedRequestLog
     // Tab-separated
     // Time, ip, method, url, user, agent, response code, request length, response length, response time
 
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final long MAX_WRITER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
     private final TraceTokenManager traceTokenManager;
     private final CurrentTimeMillisProvider currentTimeMillisProvider;
-    private final Appender<HttpRequestEvent> appender;
+    private final Appender<ByteBuffer> appender;
+    private final ThreadLocal<RequestLogEncoder> encoders = new ThreadLocal<RequestLogEncoder>()
+    {
+        @Override
+        protected RequestLogEncoder initialValue()
+        {
+            return new RequestLogEncoder();
+        }
+    };
+
+    // asynchronous mode only
+    private final RingBuffer<byte[]> queue;
+    private final LogQueueFullPolicy queueFullPolicy;
+    private final RequestLogStats stats;
+    private final Thread writerThread;
+    private ByteBuffer batchBuffer = ByteBuffer.allocate(64 * 1024);
+    private volatile boolean writerParked = false;
+    private volatile boolean stopped = false;
 
     public DelimitedRequestLog(String filename, int maxHistory, long maxSizeInBytes, TraceTokenManager traceTokenManager)
             throws IOException
@@ -51,20 +75,115 @@ class DelimitedRequestLog
             int maxHistory, long maxSizeInBytes, TraceTokenManager traceTokenManager,
             CurrentTimeMillisProvider currentTimeMillisProvider)
             throws IOException
+    {
+        this(filename, maxHistory, maxSizeInBytes, traceTokenManager, currentTimeMillisProvider, 0, LogQueueFullPolicy.DROP, null);
+    }
+
+    /**
+     * Creates a request log that is written by a background thread. Request threads
+     * add their encoded lines to a queue of {@code queueSize} lines, which the writer
+     * drains in batches, writing and flushing each batch at once. When the queue is
+     * full, lines are dropped or the request threads wait, according to the policy.
+     * A {@code queueSize} of zero writes the log from the request threads.
+     */
+    public DelimitedRequestLog(String filename,
+            int maxHistory, long maxSizeInBytes, TraceTokenManager traceTokenManager,
+            CurrentTimeMillisProvider currentTimeMillisProvider,
+            int queueSize, LogQueueFullPolicy queueFullPolicy, @Nullable RequestLogStats stats)
+            throws IOException
     {
         this.traceTokenManager = traceTokenManager;
         this.currentTimeMillisProvider = currentTimeMillisProvider;
+        this.queueFullPolicy = checkNotNull(queueFullPolicy, "queueFullPolicy is null");
+        this.stats = stats == null ? new RequestLogStats() : stats;
 
-        appender = Logging.createFileAppender(filename, maxHistory, maxSizeInBytes, new EventEncoder(), new LoggerContext());
+        appender = Logging.createFileAppender(filename, maxHistory, maxSizeInBytes, new LineEncoder(), new LoggerContext());
+
+        if (queueSize == 0) {
+            queue = null;
+            writerThread = null;
+        }
+        else {
+            queue = new RingBuffer<>(queueSize);
+            this.stats.setQueue(queue);
+            writerThread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    writeQueuedLines();
+                }
+            }, "http-request-log-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
     }
 
     public void log(Request request, Response response)
     {
         long currentTime = currentTimeMillisProvider.getCurrentTimeMillis();
-        HttpRequestEvent event = createHttpRequestEvent(request, response, traceTokenManager, currentTime);
+        ByteBuffer line = encoders.get().encode(request, response, traceTokenManager, currentTime);
 
-        synchronized (appender) {
-            appender.doAppend(event);
+        if (queue == null) {
+            synchronized (appender) {
+                appender.doAppend(line);
+            }
+            return;
+        }
+
+        if (stopped) {
+            // nothing drains the queue once the writer has exited
+            stats.dropped();
+            return;
+        }
+        byte[] bytes = new byte[line.remaining()];
+        line.get(bytes);
+        while (!queue.offer(bytes)) {
+            if (queueFullPolicy == LogQueueFullPolicy.DROP || stopped) {
+                stats.dropped();
+                return;
+            }
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+        }
+        stats.queued();
+        if (writerParked) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private void writeQueuedLines()
+    {
+        while (true) {
+            int count = 0;
+            batchBuffer.clear();
+            byte[] line;
+            while (count < MAX_BATCH_SIZE && (line = queue.poll()) != null) {
+                if (batchBuffer.remaining() < line.length) {
+                    ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(batchBuffer.capacity() * 2, batchBuffer.position() + line.length));
+                    batchBuffer.flip();
+                    newBuffer.put(batchBuffer);
+                    batchBuffer = newBuffer;
+                }
+                batchBuffer.put(line);
+                ++count;
+            }
+
+            if (count > 0) {
+                batchBuffer.flip();
+                appender.doAppend(batchBuffer);
+                continue;
+            }
+            if (stopped && queue.isEmpty()) {
+                return;
+            }
+
+            // a producer that sees the flag set after adding its line unparks this thread
+            writerParked = true;
+            if (queue.isEmpty() && !stopped) {
+                LockSupport.parkNanos(this, MAX_WRITER_PARK_NANOS);
+            }
+            writerParked = false;
         }
     }
 
@@ -76,9 +195,20 @@ class DelimitedRequestLog
     public void stop()
             throws Exception
     {
+        if (writerThread != null) {
+            stopped = true;
+            LockSupport.unpark(writerThread);
+            writerThread.join();
+        }
         appender.stop();
     }
 
+    @VisibleForTesting
+    RequestLogStats getStats()
+    {
+        return stats;
+    }
+
     public boolean isRunning()
     {
         return true;
@@ -117,43 +247,16 @@ class DelimitedRequestLog
     {
     }
 
-    private static class EventEncoder extends EncoderBase<HttpRequestEvent>
+    /**
+     * Writes lines, or batches of lines, that are already encoded.
+     */
+    private static class LineEncoder extends EncoderBase<ByteBuffer>
     {
-
-        private DateTimeFormatter isoFormatter = new DateTimeFormatterBuilder()
-                        .append(ISODateTimeFormat.dateHourMinuteSecondFraction())
-                        .appendTimeZoneOffset("Z", true, 2, 2)
-                        .toFormatter();
-
         @Override
-        public void doEncode(HttpRequestEvent event)
+        public void doEncode(ByteBuffer lines)
                 throws IOException
         {
-            StringBuilder builder = new StringBuilder();
-            builder.append(isoFormatter.print(event.getTimeStamp()))
-                    .append('\t')
-                    .append(event.getClientAddress())
-                    .append('\t')
-                    .append(event.getMethod())
-                    .append('\t')
-                    .append(event.getRequestUri()) // TODO: escape
-                    .append('\t')
-                    .append(event.getUser())
-                    .append('\t')
-                    .append(event.getAgent()) // TODO: escape
-                    .append('\t')
-                    .append(event.getResponseCode())
-                    .append('\t')
-                    .append(event.getRequestSize())
-                    .append('\t')
-                    .append(event.getResponseSize())
-                    .append('\t')
-                    .append(event.getTimeToLastByte())
-                    .append('\t')
-                    .append(event.getTraceToken())
-                    .append('\n');
-
-            outputStream.write(builder.toString().getBytes("UTF-8"));
+            outputStream.write(lines.array(), lines.arrayOffset() + lines.position(), lines.remaining());
             outputStream.flush();
         }
 
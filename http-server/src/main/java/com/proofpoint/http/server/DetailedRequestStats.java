@@ -21,4 +21,8 @@ import com.proofpoint.stats.TimeStat;
 public interface DetailedRequestStats
 {
     TimeStat requestTime(@Key("responseCode") int responseCode);
+
+    TimeStat schedulingDelay(@Key("responseCode") int responseCode);
+
+    TimeStat timeToFirstByte(@Key("responseCode") int responseCode);
 }
@@ -47,6 +47,7 @@ import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.util.thread.ThreadPool;
 
+import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.management.MBeanServer;
@@ -69,6 +70,7 @@ public class HttpServer
     private final ServerConnector httpConnector;
     private final ServerConnector httpsConnector;
     private final ServerConnector adminConnector;
+    private final RequestLogStats requestLogStats;
 
     @SuppressWarnings({"deprecation"})
     public HttpServer(HttpServerInfo httpServerInfo,
@@ -85,7 +87,10 @@ public class HttpServer
             QueryStringFilter queryStringFilter,
             TraceTokenManager tokenManager,
             RequestStats stats,
-            DetailedRequestStats detailedRequestStats)
+            DetailedRequestStats detailedRequestStats,
+            @Nullable RequestLogStats requestLogStats,
+            @Nullable RequestQueueStats requestQueueStats,
+            @Nullable ConcurrencyLimitStats concurrencyLimitStats)
             throws IOException
     {
         checkNotNull(httpServerInfo, "httpServerInfo is null");
@@ -93,8 +98,9 @@ public class HttpServer
         checkNotNull(config, "config is null");
         checkNotNull(queryStringFilter, "queryStringFilter is null");
         checkNotNull(theServlet, "theServlet is null");
+        this.requestLogStats = requestLogStats;
 
-        QueuedThreadPool threadPool = new QueuedThreadPool(config.getMaxThreads());
+        QueuedThreadPool threadPool = new QueueTimingThreadPool(config.getMaxThreads());
         threadPool.setMinThreads(config.getMinThreads());
         threadPool.setIdleTimeout(Ints.checkedCast(config.getThreadMaxIdleTime().toMillis()));
         threadPool.setName("http-worker");
@@ -196,6 +202,8 @@ public class HttpServer
          *
          * server
          *    |--- statistics handler
+         *           |--- request timing handler
+         *           |--- (optional) load shedding handler
          *           |--- context handler
          *           |       |--- (no) admin filter
          *           |       |--- timing filter
@@ -204,6 +212,7 @@ public class HttpServer
          *           |       |--- gzip response filter
          *           |       |--- gzip request filter
          *           |       |--- security handler
+         *           |       |--- (optional) concurrency limit filter
          *           |       |--- user provided filters
          *           |       |--- the servlet (normally GuiceContainer)
          *           |       |--- resource handlers
@@ -225,23 +234,50 @@ public class HttpServer
             handlers.addHandler(new ClassPathResourceHandler(resource.getBaseUri(), resource.getClassPathResourceBase(), resource.getWelcomeFiles()));
         }
 
-        handlers.addHandler(createServletContext(theServlet, parameters, false, filters, queryStringFilter, tokenManager, loginService, "http", "https"));
+        ConcurrencyLimiter concurrencyLimiter = null;
+        Filter concurrencyLimitFilter = null;
+        if (config.isConcurrencyLimitEnabled()) {
+            concurrencyLimiter = new ConcurrencyLimiter(config.getConcurrencyLimitInitial(), config.getConcurrencyLimitMin(), config.getConcurrencyLimitMax());
+            if (concurrencyLimitStats == null) {
+                concurrencyLimitStats = new ConcurrencyLimitStats();
+            }
+            concurrencyLimitStats.setLimiter(concurrencyLimiter);
+            concurrencyLimitFilter = new ConcurrencyLimitFilter(concurrencyLimiter, concurrencyLimitStats);
+        }
+
+        ServletContextHandler servletContext = createServletContext(theServlet, parameters, false, concurrencyLimitFilter, filters, queryStringFilter, tokenManager, loginService, "http", "https");
+        if (config.getMaxQueuedRequests() == null && config.getMaxQueueWait() == null) {
+            if (requestQueueStats != null) {
+                requestQueueStats.setThreadPool(threadPool);
+            }
+            handlers.addHandler(servletContext);
+        } else {
+            if (requestQueueStats == null) {
+                requestQueueStats = new RequestQueueStats();
+            }
+            requestQueueStats.setThreadPool(threadPool);
+            LoadSheddingHandler loadSheddingHandler = new LoadSheddingHandler(threadPool, config.getMaxQueuedRequests(), config.getMaxQueueWait(), config.getQueueRetryAfter(), requestQueueStats);
+            loadSheddingHandler.setHandler(servletContext);
+            handlers.addHandler(loadSheddingHandler);
+        }
         RequestLogHandler logHandler = createLogHandler(config, tokenManager);
         if (logHandler != null) {
             handlers.addHandler(logHandler);
         }
 
         RequestLogHandler statsRecorder = new RequestLogHandler();
-        statsRecorder.setRequestLog(new StatsRecordingHandler(stats, detailedRequestStats));
+        statsRecorder.setRequestLog(new StatsRecordingHandler(stats, detailedRequestStats, concurrencyLimiter));
         handlers.addHandler(statsRecorder);
 
         // add handlers to Jetty
+        RequestTimingHandler timingHandler = new RequestTimingHandler();
+        timingHandler.setHandler(handlers);
         StatisticsHandler statsHandler = new StatisticsHandler();
-        statsHandler.setHandler(handlers);
+        statsHandler.setHandler(timingHandler);
 
         HandlerList rootHandlers = new HandlerList();
         if (config.isAdminEnabled()) {
-            rootHandlers.addHandler(createServletContext(theServlet, adminParameters, true, adminFilters, queryStringFilter, tokenManager, loginService, "admin"));
+            rootHandlers.addHandler(createServletContext(theServlet, adminParameters, true, null, adminFilters, queryStringFilter, tokenManager, loginService, "admin"));
         }
         rootHandlers.addHandler(statsHandler);
         server.setHandler(rootHandlers);
@@ -250,6 +286,7 @@ public class HttpServer
     private static ServletContextHandler createServletContext(Servlet theServlet,
             Map<String, String> parameters,
             boolean isAdmin,
+            @Nullable Filter concurrencyLimitFilter,
             Set<Filter> filters,
             QueryStringFilter queryStringFilter,
             TraceTokenManager tokenManager,
@@ -272,6 +309,10 @@ public class HttpServer
             SecurityHandler securityHandler = createSecurityHandler(loginService);
             context.setSecurityHandler(securityHandler);
         }
+        // -- concurrency limit filter
+        if (concurrencyLimitFilter != null) {
+            context.addFilter(new FilterHolder(concurrencyLimitFilter), "/*", null);
+        }
         // -- user provided filters
         for (Filter filter : filters) {
             context.addFilter(new FilterHolder(filter), "/*", null);
@@ -325,7 +366,8 @@ public class HttpServer
             throw new IOException(format("Cannot create %s and path does not already exist", logPath.getAbsolutePath()));
         }
 
-        RequestLog requestLog = new DelimitedRequestLog(config.getLogPath(), config.getLogMaxHistory(), config.getLogMaxSegmentSize().toBytes(), tokenManager);
+        RequestLog requestLog = new DelimitedRequestLog(config.getLogPath(), config.getLogMaxHistory(), config.getLogMaxSegmentSize().toBytes(), tokenManager,
+                new SystemCurrentTimeMillisProvider(), config.isLogAsync() ? config.getLogQueueSize() : 0, config.getLogQueueFullPolicy(), requestLogStats);
         logHandler.setRequestLog(requestLog);
 
         return logHandler;
@@ -22,13 +22,20 @@ import com.proofpoint.configuration.LegacyConfig;
 import com.proofpoint.units.DataSize;
 import com.proofpoint.units.DataSize.Unit;
 import com.proofpoint.units.Duration;
+import com.proofpoint.units.MinDuration;
 
 import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
 import java.util.concurrent.TimeUnit;
 
 @DefunctConfig({"jetty.http.enabled", "jetty.http.port", "jetty.https.enabled", "jetty.https.port", "jetty.https.keystore.path", "jetty.https.keystore.password", "http-server.https.keystore.password", "jetty.log.path", "jetty.threads.max", "jetty.threads.min", "jetty.threads.max-idle-time-ms", "jetty.log.retain-days", "jetty.auth.users-file", "jetty.net.max-idle-time-ms"})
 public class HttpServerConfig
 {
+    public static enum LogQueueFullPolicy
+    {
+        DROP, BLOCK
+    }
+
     private boolean httpEnabled = true;
     private int httpPort = 8080;
 
@@ -41,10 +48,20 @@ public class HttpServerConfig
     private Duration logRetentionTime = new Duration(90, TimeUnit.DAYS);
     private DataSize logMaxSegmentSize = new DataSize(100, Unit.MEGABYTE);
     private int logMaxHistory = 30;
+    private boolean logAsync = false;
+    private int logQueueSize = 8192;
+    private LogQueueFullPolicy logQueueFullPolicy = LogQueueFullPolicy.DROP;
 
     private int minThreads = 2;
     private int maxThreads = 200;
     private Duration threadMaxIdleTime = new Duration(1, TimeUnit.MINUTES);
+    private Integer maxQueuedRequests;
+    private Duration maxQueueWait;
+    private Duration queueRetryAfter = new Duration(1, TimeUnit.SECONDS);
+    private boolean concurrencyLimitEnabled = false;
+    private int concurrencyLimitInitial = 20;
+    private int concurrencyLimitMin = 1;
+    private int concurrencyLimitMax = 200;
     private Duration networkMaxIdleTime = new Duration(200, TimeUnit.SECONDS);
     private DataSize maxRequestHeaderSize;
 
@@ -214,6 +231,44 @@ public class HttpServerConfig
         return this;
     }
 
+    public boolean isLogAsync()
+    {
+        return logAsync;
+    }
+
+    @Config("http-server.log.async")
+    public HttpServerConfig setLogAsync(boolean logAsync)
+    {
+        this.logAsync = logAsync;
+        return this;
+    }
+
+    @Min(1)
+    public int getLogQueueSize()
+    {
+        return logQueueSize;
+    }
+
+    @Config("http-server.log.queue-size")
+    public HttpServerConfig setLogQueueSize(int logQueueSize)
+    {
+        this.logQueueSize = logQueueSize;
+        return this;
+    }
+
+    @NotNull
+    public LogQueueFullPolicy getLogQueueFullPolicy()
+    {
+        return logQueueFullPolicy;
+    }
+
+    @Config("http-server.log.queue-full-policy")
+    public HttpServerConfig setLogQueueFullPolicy(LogQueueFullPolicy logQueueFullPolicy)
+    {
+        this.logQueueFullPolicy = logQueueFullPolicy;
+        return this;
+    }
+
     public String getUserAuthFile()
     {
         return userAuthFile;
@@ -226,6 +281,96 @@ public class HttpServerConfig
         return this;
     }
 
+    @Min(0)
+    public Integer getMaxQueuedRequests()
+    {
+        return maxQueuedRequests;
+    }
+
+    @Config("http-server.queue.max-requests")
+    public HttpServerConfig setMaxQueuedRequests(Integer maxQueuedRequests)
+    {
+        this.maxQueuedRequests = maxQueuedRequests;
+        return this;
+    }
+
+    public Duration getMaxQueueWait()
+    {
+        return maxQueueWait;
+    }
+
+    @Config("http-server.queue.max-wait")
+    public HttpServerConfig setMaxQueueWait(Duration maxQueueWait)
+    {
+        this.maxQueueWait = maxQueueWait;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1s")
+    public Duration getQueueRetryAfter()
+    {
+        return queueRetryAfter;
+    }
+
+    @Config("http-server.queue.retry-after")
+    public HttpServerConfig setQueueRetryAfter(Duration queueRetryAfter)
+    {
+        this.queueRetryAfter = queueRetryAfter;
+        return this;
+    }
+
+    public boolean isConcurrencyLimitEnabled()
+    {
+        return concurrencyLimitEnabled;
+    }
+
+    @Config("http-server.concurrency-limit.enabled")
+    public HttpServerConfig setConcurrencyLimitEnabled(boolean concurrencyLimitEnabled)
+    {
+        this.concurrencyLimitEnabled = concurrencyLimitEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getConcurrencyLimitInitial()
+    {
+        return concurrencyLimitInitial;
+    }
+
+    @Config("http-server.concurrency-limit.initial")
+    public HttpServerConfig setConcurrencyLimitInitial(int concurrencyLimitInitial)
+    {
+        this.concurrencyLimitInitial = concurrencyLimitInitial;
+        return this;
+    }
+
+    @Min(1)
+    public int getConcurrencyLimitMin()
+    {
+        return concurrencyLimitMin;
+    }
+
+    @Config("http-server.concurrency-limit.min")
+    public HttpServerConfig setConcurrencyLimitMin(int concurrencyLimitMin)
+    {
+        this.concurrencyLimitMin = concurrencyLimitMin;
+        return this;
+    }
+
+    @Min(1)
+    public int getConcurrencyLimitMax()
+    {
+        return concurrencyLimitMax;
+    }
+
+    @Config("http-server.concurrency-limit.max")
+    public HttpServerConfig setConcurrencyLimitMax(int concurrencyLimitMax)
+    {
+        this.concurrencyLimitMax = concurrencyLimitMax;
+        return this;
+    }
+
     public Duration getNetworkMaxIdleTime()
     {
         return networkMaxIdleTime;
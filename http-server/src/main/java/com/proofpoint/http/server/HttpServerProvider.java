@@ -22,6 +22,7 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.proofpoint.http.server.HttpServerBinder.HttpResourceBinding;
 import com.proofpoint.node.NodeInfo;
+import com.proofpoint.reporting.ReportExporter;
 import com.proofpoint.tracetoken.TraceTokenManager;
 import org.eclipse.jetty.security.LoginService;
 
@@ -33,6 +34,7 @@ import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.weakref.jmx.ObjectNames.generatedNameOf;
 
 /**
  * Provides an instance of a Jetty server ready to be configured with
@@ -52,6 +54,10 @@ public class HttpServerProvider
     private LoginService loginService;
     private final RequestStats stats;
     private final DetailedRequestStats detailedRequestStats;
+    private RequestLogStats requestLogStats;
+    private RequestQueueStats requestQueueStats;
+    private ConcurrencyLimitStats concurrencyLimitStats;
+    private ReportExporter reportExporter;
     private final Set<Filter> filters;
     private final Set<Filter> adminFilters;
     private QueryStringFilter queryStringFilter;
@@ -122,8 +128,44 @@ public class HttpServerProvider
         this.traceTokenManager = tokenManager;
     }
 
+    @Inject(optional = true)
+    public void setRequestLogStats(RequestLogStats requestLogStats)
+    {
+        this.requestLogStats = requestLogStats;
+    }
+
+    @Inject(optional = true)
+    public void setRequestQueueStats(RequestQueueStats requestQueueStats)
+    {
+        this.requestQueueStats = requestQueueStats;
+    }
+
+    @Inject(optional = true)
+    public void setConcurrencyLimitStats(ConcurrencyLimitStats concurrencyLimitStats)
+    {
+        this.concurrencyLimitStats = concurrencyLimitStats;
+    }
+
+    @Inject(optional = true)
+    public void setReportExporter(ReportExporter reportExporter)
+    {
+        this.reportExporter = reportExporter;
+    }
+
     public HttpServer get()
     {
+        // the stats of the asynchronous request log, load shedding and concurrency limit are only reported when enabled
+        boolean loadSheddingEnabled = config.getMaxQueuedRequests() != null || config.getMaxQueueWait() != null;
+        if (config.isLogAsync() && requestLogStats == null) {
+            requestLogStats = new RequestLogStats();
+        }
+        if (loadSheddingEnabled && requestQueueStats == null) {
+            requestQueueStats = new RequestQueueStats();
+        }
+        if (config.isConcurrencyLimitEnabled() && concurrencyLimitStats == null) {
+            concurrencyLimitStats = new ConcurrencyLimitStats();
+        }
+
         try {
             HttpServer httpServer = new HttpServer(httpServerInfo,
                     nodeInfo,
@@ -139,9 +181,24 @@ public class HttpServerProvider
                     queryStringFilter,
                     traceTokenManager,
                     stats,
-                    detailedRequestStats
+                    detailedRequestStats,
+                    requestLogStats,
+                    requestQueueStats,
+                    concurrencyLimitStats
             );
             httpServer.start();
+
+            if (reportExporter != null) {
+                if (config.isLogAsync()) {
+                    reportExporter.export(generatedNameOf(RequestLogStats.class), requestLogStats);
+                }
+                if (loadSheddingEnabled) {
+                    reportExporter.export(generatedNameOf(RequestQueueStats.class), requestQueueStats);
+                }
+                if (config.isConcurrencyLimitEnabled()) {
+                    reportExporter.export(generatedNameOf(ConcurrencyLimitStats.class), concurrencyLimitStats);
+                }
+            }
             return httpServer;
         }
         catch (Exception e) {
@@ -58,6 +58,12 @@ final class Inet4Network implements Comparable<Inet4Network>
         return (ip >= start) && (ip <= end);
     }
 
+    boolean containsAddress(int address)
+    {
+        long ip = address & 0xffffffffL;
+        return (ip >= start) && (ip <= end);
+    }
+
     @Override
     public String toString()
     {
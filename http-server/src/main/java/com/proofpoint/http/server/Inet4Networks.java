@@ -50,6 +50,19 @@ class Inet4Networks
         return false;
     }
 
+    /**
+     * @param address an IPv4 address as an integer in network byte order
+     */
+    static boolean isPrivateNetworkAddress(int address)
+    {
+        for (Inet4Network privateNetwork : PRIVATE_NETWORKS) {
+            if (privateNetwork.containsAddress(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private Inet4Networks()
     {
     }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import com.proofpoint.units.Duration;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Responds with a 503 and a Retry-After header, without handling the request, when
+ * more than the maximum number of jobs are waiting for a worker thread or the
+ * request waited longer than the maximum wait time. The wait is the one recorded
+ * by the enclosing {@link RequestTimingHandler}.
+ */
+class LoadSheddingHandler
+        extends HandlerWrapper
+{
+    private final QueuedThreadPool threadPool;
+    private final int maxQueuedRequests;
+    private final long maxQueueWaitNanos;
+    private final String retryAfter;
+    private final RequestQueueStats stats;
+
+    LoadSheddingHandler(QueuedThreadPool threadPool, @Nullable Integer maxQueuedRequests, @Nullable Duration maxQueueWait, Duration retryAfter, RequestQueueStats stats)
+    {
+        this.threadPool = checkNotNull(threadPool, "threadPool is null");
+        this.maxQueuedRequests = maxQueuedRequests == null ? Integer.MAX_VALUE : maxQueuedRequests;
+        this.maxQueueWaitNanos = maxQueueWait == null ? Long.MAX_VALUE : maxQueueWait.roundTo(TimeUnit.NANOSECONDS);
+        this.retryAfter = Long.toString((long) Math.ceil(checkNotNull(retryAfter, "retryAfter is null").getValue(TimeUnit.SECONDS)));
+        this.stats = checkNotNull(stats, "stats is null");
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException
+    {
+        if (baseRequest.isHandled()) {
+            return;
+        }
+
+        long queueNanos = RequestTimingHandler.getQueueNanos(baseRequest);
+        stats.waited(queueNanos);
+        if (queueNanos > maxQueueWaitNanos || threadPool.getQueueSize() > maxQueuedRequests) {
+            stats.rejected();
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", retryAfter);
+            baseRequest.setHandled(true);
+            return;
+        }
+        super.handle(target, baseRequest, request, response);
+    }
+}
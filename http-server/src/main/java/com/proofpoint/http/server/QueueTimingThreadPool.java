@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * A {@link QueuedThreadPool} that records how long the job each of its threads is
+ * running waited in the queue.
+ */
+class QueueTimingThreadPool
+        extends QueuedThreadPool
+{
+    QueueTimingThreadPool(int maxThreads)
+    {
+        super(maxThreads);
+    }
+
+    /**
+     * The time in nanoseconds the job the current thread is running waited to be
+     * run, or zero if the current thread is not a thread of a queue timing pool.
+     * <p>
+     * The time is reset to zero when read, since a job may handle several
+     * requests of a keep-alive or pipelined connection and only the first of
+     * them waited for the job to be run.
+     */
+    static long takeCurrentJobQueueNanos()
+    {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof WorkerThread) {
+            WorkerThread workerThread = (WorkerThread) thread;
+            long jobQueueNanos = workerThread.jobQueueNanos;
+            workerThread.jobQueueNanos = 0;
+            return jobQueueNanos;
+        }
+        return 0;
+    }
+
+    @Override
+    public void execute(Runnable job)
+    {
+        super.execute(new TimedJob(job, System.nanoTime()));
+    }
+
+    @Override
+    protected Thread newThread(Runnable runnable)
+    {
+        return new WorkerThread(runnable);
+    }
+
+    @Override
+    protected void runJob(Runnable job)
+    {
+        Thread thread = Thread.currentThread();
+        if (job instanceof TimedJob && thread instanceof WorkerThread) {
+            TimedJob timedJob = (TimedJob) job;
+            WorkerThread workerThread = (WorkerThread) thread;
+            workerThread.jobQueueNanos = Math.max(System.nanoTime() - timedJob.queuedTime, 0);
+            try {
+                timedJob.job.run();
+            }
+            finally {
+                workerThread.jobQueueNanos = 0;
+            }
+        }
+        else {
+            super.runJob(job);
+        }
+    }
+
+    private static class TimedJob
+            implements Runnable
+    {
+        private final Runnable job;
+        private final long queuedTime;
+
+        private TimedJob(Runnable job, long queuedTime)
+        {
+            this.job = job;
+            this.queuedTime = queuedTime;
+        }
+
+        @Override
+        public void run()
+        {
+            job.run();
+        }
+
+        @Override
+        public String toString()
+        {
+            return job.toString();
+        }
+    }
+
+    private static class WorkerThread
+            extends Thread
+    {
+        // only accessed by the thread itself
+        private long jobQueueNanos;
+
+        private WorkerThread(Runnable runnable)
+        {
+            super(runnable);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import com.proofpoint.tracetoken.TraceTokenManager;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.DateTimeFormatterBuilder;
+import org.joda.time.format.ISODateTimeFormat;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Enumeration;
+
+import static java.lang.Math.max;
+
+/**
+ * Encodes the tab-delimited request log line of a request as UTF-8 into a reused
+ * buffer, without creating an {@link HttpRequestEvent}.
+ * <p>
+ * The fields are the same as those of the event: the time the request was
+ * received, client address, method, URI, user, user agent, response code, request
+ * size, response size, time to last byte and trace token. Tabs, line breaks, other
+ * control characters and backslashes in the URI and user agent are escaped with a
+ * backslash. The formatted time is cached for the current second.
+ */
+@NotThreadSafe
+class RequestLogEncoder
+{
+    private static final DateTimeFormatter ISO_FORMATTER = new DateTimeFormatterBuilder()
+            .append(ISODateTimeFormat.dateHourMinuteSecondFraction())
+            .appendTimeZoneOffset("Z", true, 2, 2)
+            .toFormatter();
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    private long cachedSecond = Long.MIN_VALUE;
+    // the formatted time up to and including the decimal point, and the time zone offset that follows the millis
+    private byte[] cachedTimePrefix;
+    private byte[] cachedTimeSuffix;
+
+    // the address chosen by the client address scan
+    private String clientAddress;
+    private int clientAddressStart;
+    private int clientAddressEnd;
+
+    /**
+     * Returns the buffer holding the encoded line, ready to be read. The buffer is
+     * reused by the next call.
+     */
+    ByteBuffer encode(Request request, Response response, @Nullable TraceTokenManager traceTokenManager, long currentTimeMillis)
+    {
+        buffer.clear();
+
+        long timestamp = request.getTimeStamp();
+        writeTimestamp(timestamp);
+        writeTab();
+
+        writeClientAddress(request);
+        writeTab();
+
+        String method = request.getMethod();
+        if (method == null) {
+            writeBytes(NULL);
+        }
+        else {
+            ensureCapacity(method.length() * 3);
+            for (int i = 0; i < method.length(); i++) {
+                writeChar(Character.toUpperCase(method.charAt(i)), false);
+            }
+        }
+        writeTab();
+
+        HttpURI uri = request.getUri();
+        writeString(uri == null ? null : uri.toString(), true);
+        writeTab();
+
+        Principal principal = request.getUserPrincipal();
+        writeString(principal == null ? null : principal.getName(), false);
+        writeTab();
+
+        writeString(request.getHeader("User-Agent"), true);
+        writeTab();
+
+        writeLong(response.getStatus());
+        writeTab();
+        writeLong(request.getContentRead());
+        writeTab();
+        writeLong(response.getContentCount());
+        writeTab();
+        writeLong(max(currentTimeMillis - timestamp, 0));
+        writeTab();
+
+        writeString(traceTokenManager == null ? null : traceTokenManager.getCurrentRequestToken(), false);
+        ensureCapacity(1);
+        buffer.put((byte) '\n');
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private void writeTimestamp(long timestamp)
+    {
+        long second = timestamp / 1000;
+        if (timestamp % 1000 < 0) {
+            --second;
+        }
+        if (second != cachedSecond) {
+            String formatted = ISO_FORMATTER.print(second * 1000);
+            int decimalPoint = formatted.lastIndexOf('.');
+            cachedTimePrefix = formatted.substring(0, decimalPoint + 1).getBytes(StandardCharsets.US_ASCII);
+            cachedTimeSuffix = formatted.substring(decimalPoint + 4).getBytes(StandardCharsets.US_ASCII);
+            cachedSecond = second;
+        }
+        int millis = (int) (timestamp - second * 1000);
+        writeBytes(cachedTimePrefix);
+        ensureCapacity(3);
+        buffer.put((byte) ('0' + millis / 100));
+        buffer.put((byte) ('0' + millis / 10 % 10));
+        buffer.put((byte) ('0' + millis % 10));
+        writeBytes(cachedTimeSuffix);
+    }
+
+    /**
+     * Writes the last address that is not in a private network, in the order of
+     * the remote address followed by the X-Forwarded-For addresses, or else the
+     * remote address.
+     */
+    private void writeClientAddress(Request request)
+    {
+        String remoteAddress = request.getRemoteAddr();
+        clientAddress = null;
+        if (remoteAddress != null) {
+            scanAddresses(remoteAddress);
+        }
+        for (Enumeration<String> e = request.getHeaders("X-FORWARDED-FOR"); e != null && e.hasMoreElements(); ) {
+            scanAddresses(e.nextElement());
+        }
+
+        if (clientAddress == null) {
+            writeString(remoteAddress, false);
+        }
+        else {
+            ensureCapacity((clientAddressEnd - clientAddressStart) * 3);
+            for (int i = clientAddressStart; i < clientAddressEnd; i++) {
+                writeChar(clientAddress.charAt(i), false);
+            }
+        }
+        clientAddress = null;
+    }
+
+    private void scanAddresses(String addresses)
+    {
+        int start = 0;
+        while (start <= addresses.length()) {
+            int end = addresses.indexOf(',', start);
+            if (end < 0) {
+                end = addresses.length();
+            }
+            int trimmedStart = start;
+            int trimmedEnd = end;
+            while (trimmedStart < trimmedEnd && Character.isWhitespace(addresses.charAt(trimmedStart))) {
+                ++trimmedStart;
+            }
+            while (trimmedEnd > trimmedStart && Character.isWhitespace(addresses.charAt(trimmedEnd - 1))) {
+                --trimmedEnd;
+            }
+            if (trimmedStart < trimmedEnd && isPublicAddress(addresses, trimmedStart, trimmedEnd)) {
+                clientAddress = addresses;
+                clientAddressStart = trimmedStart;
+                clientAddressEnd = trimmedEnd;
+            }
+            start = end + 1;
+        }
+    }
+
+    private static boolean isPublicAddress(String addresses, int start, int end)
+    {
+        long address = parseIpv4Address(addresses, start, end);
+        if (address >= 0) {
+            return !Inet4Networks.isPrivateNetworkAddress((int) address);
+        }
+        try {
+            return !Inet4Networks.isPrivateNetworkAddress(addresses.substring(start, end));
+        }
+        catch (IllegalArgumentException ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a dotted quad without leading zeros, returning -1 for anything else.
+     */
+    private static long parseIpv4Address(String value, int start, int end)
+    {
+        long address = 0;
+        int octets = 0;
+        int position = start;
+        while (position < end) {
+            int octetStart = position;
+            int octet = 0;
+            while (position < end && position - octetStart < 3) {
+                char c = value.charAt(position);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                octet = octet * 10 + (c - '0');
+                ++position;
+            }
+            int length = position - octetStart;
+            if (length == 0 || octet > 255 || (length > 1 && value.charAt(octetStart) == '0')) {
+                return -1;
+            }
+            address = (address << 8) | octet;
+            ++octets;
+            if (position < end) {
+                if (octets == 4 || value.charAt(position) != '.') {
+                    return -1;
+                }
+                ++position;
+                if (position == end) {
+                    return -1;
+                }
+            }
+        }
+        return octets == 4 ? address : -1;
+    }
+
+    private void writeTab()
+    {
+        ensureCapacity(1);
+        buffer.put((byte) '\t');
+    }
+
+    private void writeBytes(byte[] bytes)
+    {
+        ensureCapacity(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void writeLong(long value)
+    {
+        ensureCapacity(20);
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                writeBytes(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            ++digits;
+        }
+        int position = buffer.position() + digits;
+        buffer.position(position);
+        do {
+            buffer.put(--position, (byte) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+    }
+
+    private void writeString(@Nullable String value, boolean escape)
+    {
+        if (value == null) {
+            writeBytes(NULL);
+            return;
+        }
+        // at most six bytes per char, for an escaped control character
+        ensureCapacity(value.length() * 6);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xf0 | (codePoint >>> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >>> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((codePoint >>> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+            }
+            else {
+                writeChar(c, escape);
+            }
+        }
+    }
+
+    /**
+     * Writes a char other than a surrogate pair, for which the caller has ensured
+     * capacity.
+     */
+    private void writeChar(char c, boolean escape)
+    {
+        if (escape && (c < 0x20 || c == '\\' || c == 0x7f)) {
+            buffer.put((byte) '\\');
+            switch (c) {
+                case '\t':
+                    buffer.put((byte) 't');
+                    break;
+                case '\n':
+                    buffer.put((byte) 'n');
+                    break;
+                case '\r':
+                    buffer.put((byte) 'r');
+                    break;
+                case '\\':
+                    buffer.put((byte) '\\');
+                    break;
+                default:
+                    buffer.put((byte) 'u');
+                    buffer.put((byte) '0');
+                    buffer.put((byte) '0');
+                    buffer.put(HEX_DIGITS[c >>> 4]);
+                    buffer.put(HEX_DIGITS[c & 0xf]);
+            }
+        }
+        else if (c < 0x80) {
+            buffer.put((byte) c);
+        }
+        else if (c < 0x800) {
+            buffer.put((byte) (0xc0 | (c >>> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3f)));
+        }
+        else if (Character.isSurrogate(c)) {
+            // unpaired
+            buffer.put((byte) '?');
+        }
+        else {
+            buffer.put((byte) (0xe0 | (c >>> 12)));
+            buffer.put((byte) (0x80 | ((c >>> 6) & 0x3f)));
+            buffer.put((byte) (0x80 | (c & 0x3f)));
+        }
+    }
+
+    private void ensureCapacity(int length)
+    {
+        if (buffer.remaining() < length) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+    }
+}
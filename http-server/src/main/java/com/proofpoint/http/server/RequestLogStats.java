@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import com.proofpoint.reporting.Gauge;
+import com.proofpoint.stats.CounterStat;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.Nullable;
+
+/**
+ * Counts the records of the asynchronous request log.
+ */
+public class RequestLogStats
+{
+    private final CounterStat queued = new CounterStat();
+    private final CounterStat dropped = new CounterStat();
+    @Nullable
+    private volatile RingBuffer<?> queue = null;
+
+    void setQueue(RingBuffer<?> queue)
+    {
+        this.queue = queue;
+    }
+
+    void queued()
+    {
+        queued.update(1);
+    }
+
+    void dropped()
+    {
+        dropped.update(1);
+    }
+
+    @Nested
+    public CounterStat getQueued()
+    {
+        return queued;
+    }
+
+    @Nested
+    public CounterStat getDropped()
+    {
+        return dropped;
+    }
+
+    @Gauge(description = "Number of records queued but not yet written")
+    public long getQueueDepth()
+    {
+        RingBuffer<?> queue = this.queue;
+        if (queue == null) {
+            return 0;
+        }
+        return queue.size();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import com.proofpoint.reporting.Gauge;
+import com.proofpoint.stats.CounterStat;
+import com.proofpoint.stats.TimeStat;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.weakref.jmx.Nested;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the queue of the HTTP server's worker thread pool and the requests
+ * rejected because the queue was too long.
+ */
+public class RequestQueueStats
+{
+    private final TimeStat waitTime = new TimeStat();
+    private final CounterStat rejected = new CounterStat();
+    private volatile QueuedThreadPool threadPool;
+
+    void setThreadPool(QueuedThreadPool threadPool)
+    {
+        this.threadPool = threadPool;
+    }
+
+    void waited(long nanos)
+    {
+        waitTime.add(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void rejected()
+    {
+        rejected.update(1);
+    }
+
+    @Gauge(description = "Number of jobs waiting for a worker thread")
+    public int getQueueDepth()
+    {
+        QueuedThreadPool threadPool = this.threadPool;
+        if (threadPool == null) {
+            return 0;
+        }
+        return threadPool.getQueueSize();
+    }
+
+    @Nested
+    public TimeStat getWaitTime()
+    {
+        return waitTime;
+    }
+
+    @Nested
+    public CounterStat getRejected()
+    {
+        return rejected;
+    }
+}
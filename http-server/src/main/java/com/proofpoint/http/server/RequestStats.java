@@ -15,30 +15,51 @@
  */
 package com.proofpoint.http.server;
 
+import com.google.common.base.Ticker;
+import com.proofpoint.reporting.ForStats;
 import com.proofpoint.stats.DistributionStat;
 import com.proofpoint.stats.TimeStat;
 import com.proofpoint.units.Duration;
 import org.weakref.jmx.Nested;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 public class RequestStats
 {
     private final TimeStat requestTime;
+    private final TimeStat schedulingDelay;
+    private final TimeStat timeToFirstByte;
     private final DistributionStat readBytes;
     private final DistributionStat writtenBytes;
 
-    @Inject
     public RequestStats()
     {
-        requestTime = new TimeStat();
-        readBytes = new DistributionStat();
-        writtenBytes = new DistributionStat();
+        this(Ticker.systemTicker());
+    }
+
+    @Inject
+    public RequestStats(@ForStats Ticker ticker)
+    {
+        requestTime = new TimeStat(ticker);
+        schedulingDelay = new TimeStat(ticker);
+        timeToFirstByte = new TimeStat(ticker);
+        readBytes = new DistributionStat(Runtime.getRuntime().availableProcessors(), ticker);
+        writtenBytes = new DistributionStat(Runtime.getRuntime().availableProcessors(), ticker);
     }
 
     public void record(String method, int responseCode, long requestSizeInBytes, long responseSizeInBytes, Duration schedulingDelay, Duration requestProcessingTime)
+    {
+        record(method, responseCode, requestSizeInBytes, responseSizeInBytes, schedulingDelay, null, requestProcessingTime);
+    }
+
+    public void record(String method, int responseCode, long requestSizeInBytes, long responseSizeInBytes, Duration schedulingDelay, @Nullable Duration timeToFirstByte, Duration requestProcessingTime)
     {
         requestTime.add(requestProcessingTime);
+        this.schedulingDelay.add(schedulingDelay);
+        if (timeToFirstByte != null) {
+            this.timeToFirstByte.add(timeToFirstByte);
+        }
         readBytes.add(requestSizeInBytes);
         writtenBytes.add(responseSizeInBytes);
     }
@@ -49,6 +70,18 @@ public class RequestStats
         return requestTime;
     }
 
+    @Nested
+    public TimeStat getSchedulingDelay()
+    {
+        return schedulingDelay;
+    }
+
+    @Nested
+    public TimeStat getTimeToFirstByte()
+    {
+        return timeToFirstByte;
+    }
+
     @Nested
     public DistributionStat getReadBytes()
     {
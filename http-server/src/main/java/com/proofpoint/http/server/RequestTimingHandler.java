@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Records, in {@link System#nanoTime()} units, when a request's connection was
+ * queued for a worker thread and when the request was dispatched to the handlers.
+ * The start time is the time the job that parsed the request was queued, so the
+ * difference between the two is the time spent waiting for a worker thread. Only
+ * the first request handled by a job is charged that wait; later requests of the
+ * same connection start when they are dispatched.
+ */
+class RequestTimingHandler
+        extends HandlerWrapper
+{
+    public static final String START_NANOS = RequestTimingHandler.class.getName() + ".START_NANOS";
+    public static final String DISPATCH_NANOS = RequestTimingHandler.class.getName() + ".DISPATCH_NANOS";
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException
+    {
+        // only the initial dispatch of an async request is timed
+        if (baseRequest.getAttribute(DISPATCH_NANOS) == null) {
+            long dispatchNanos = System.nanoTime();
+            baseRequest.setAttribute(START_NANOS, dispatchNanos - QueueTimingThreadPool.takeCurrentJobQueueNanos());
+            baseRequest.setAttribute(DISPATCH_NANOS, dispatchNanos);
+        }
+        super.handle(target, baseRequest, request, response);
+    }
+
+    /**
+     * The time in nanoseconds the request waited for a worker thread, or zero if
+     * it was not dispatched through a RequestTimingHandler.
+     */
+    static long getQueueNanos(Request request)
+    {
+        Object startNanos = request.getAttribute(START_NANOS);
+        Object dispatchNanos = request.getAttribute(DISPATCH_NANOS);
+        if (startNanos instanceof Long && dispatchNanos instanceof Long) {
+            return Math.max((Long) dispatchNanos - (Long) startNanos, 0);
+        }
+        return 0;
+    }
+}
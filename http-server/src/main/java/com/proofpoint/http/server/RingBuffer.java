@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded queue that any number of threads add to without locking and a single
+ * thread polls.
+ * <p>
+ * Each slot has a sequence number. A producer claims the slot at the tail when its
+ * sequence equals the tail, and publishes its element by advancing the sequence.
+ * The consumer frees the slot by setting its sequence to the tail value of the next
+ * lap around the ring.
+ */
+@ThreadSafe
+class RingBuffer<T>
+{
+    private final int mask;
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity the minimum capacity, rounded up to a power of two
+     */
+    RingBuffer(int capacity)
+    {
+        checkArgument(capacity > 0 && capacity <= 1 << 30, "capacity out of range");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        elements = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Adds the element unless the buffer is full.
+     */
+    boolean offer(T element)
+    {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            }
+            else if (sequence < position) {
+                // the consumer has not yet freed the slot of the previous lap
+                return false;
+            }
+            // otherwise another producer claimed the slot
+        }
+    }
+
+    /**
+     * Removes the oldest element. Must only be called by the consumer thread.
+     */
+    @Nullable
+    T poll()
+    {
+        long position = head.get();
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        T element = elements.get(index);
+        elements.lazySet(index, null);
+        sequences.set(index, position + mask + 1);
+        head.lazySet(position + 1);
+        return element;
+    }
+
+    boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    /**
+     * The number of claimed slots, which includes elements still being added.
+     */
+    int size()
+    {
+        return (int) Math.max(tail.get() - head.get(), 0);
+    }
+}
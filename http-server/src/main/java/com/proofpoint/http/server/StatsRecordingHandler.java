@@ -20,6 +20,7 @@ import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.RequestLog;
 import org.eclipse.jetty.server.Response;
 
+import javax.annotation.Nullable;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -30,24 +31,61 @@ public class StatsRecordingHandler
 {
     private final RequestStats stats;
     private final DetailedRequestStats detailedRequestStats;
+    private final ConcurrencyLimiter concurrencyLimiter;
 
     public StatsRecordingHandler(RequestStats stats, DetailedRequestStats detailedRequestStats)
+    {
+        this(stats, detailedRequestStats, null);
+    }
+
+    StatsRecordingHandler(RequestStats stats, DetailedRequestStats detailedRequestStats, @Nullable ConcurrencyLimiter concurrencyLimiter)
     {
         this.stats = checkNotNull(stats, "stats is null");
         this.detailedRequestStats = checkNotNull(detailedRequestStats, "detailedRequestStats is null");
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
     @Override
     public void log(Request request, Response response)
     {
-        Duration requestTime = new Duration(max(0, System.currentTimeMillis() - request.getTimeStamp()), TimeUnit.MILLISECONDS);
-
-        long dispatchTime = request.getTimeStamp();
-
-        Duration schedulingDelay = new Duration(max(0, dispatchTime - request.getTimeStamp()), TimeUnit.MILLISECONDS);
-
-        stats.record(request.getMethod(), response.getStatus(), request.getContentRead(), response.getContentCount(), schedulingDelay, requestTime);
-        detailedRequestStats.requestTime(response.getStatus()).add(requestTime);
+        long completeNanos = System.nanoTime();
+
+        Duration requestTime;
+        Duration schedulingDelay;
+        Duration timeToFirstByte = null;
+        Object dispatchNanos = request.getAttribute(RequestTimingHandler.DISPATCH_NANOS);
+        if (dispatchNanos instanceof Long) {
+            // the request and first byte times count from the dispatch, as they did when
+            // measured from the request timestamp; the wait before it is the scheduling delay
+            long dispatch = (Long) dispatchNanos;
+            requestTime = new Duration(max(0, completeNanos - dispatch), TimeUnit.NANOSECONDS);
+            schedulingDelay = new Duration(RequestTimingHandler.getQueueNanos(request), TimeUnit.NANOSECONDS);
+
+            Object firstByteNanos = request.getAttribute(TimingFilter.FIRST_BYTE_NANOS);
+            if (firstByteNanos instanceof Long) {
+                timeToFirstByte = new Duration(max(0, (Long) firstByteNanos - dispatch), TimeUnit.NANOSECONDS);
+            }
+        }
+        else {
+            // the request was not dispatched through a RequestTimingHandler
+            requestTime = new Duration(max(0, System.currentTimeMillis() - request.getTimeStamp()), TimeUnit.MILLISECONDS);
+            schedulingDelay = new Duration(0, TimeUnit.NANOSECONDS);
+        }
+
+        int responseCode = response.getStatus();
+        stats.record(request.getMethod(), responseCode, request.getContentRead(), response.getContentCount(), schedulingDelay, timeToFirstByte, requestTime);
+        detailedRequestStats.requestTime(responseCode).add(requestTime);
+        detailedRequestStats.schedulingDelay(responseCode).add(schedulingDelay);
+        if (timeToFirstByte != null) {
+            detailedRequestStats.timeToFirstByte(responseCode).add(timeToFirstByte);
+        }
+
+        if (concurrencyLimiter != null) {
+            Object inFlight = request.getAttribute(ConcurrencyLimitFilter.IN_FLIGHT);
+            if (inFlight instanceof Integer) {
+                concurrencyLimiter.addSample(requestTime.roundTo(TimeUnit.NANOSECONDS), (Integer) inFlight);
+            }
+        }
     }
 
     @Override
@@ -35,6 +35,7 @@ class TimingFilter
         implements Filter
 {
     public static final String FIRST_BYTE_TIME = TimingFilter.class.getName() + ".FIRST_BYTE_TIME";
+    public static final String FIRST_BYTE_NANOS = TimingFilter.class.getName() + ".FIRST_BYTE_NANOS";
 
     @Override
     public void init(FilterConfig filterConfig)
@@ -54,6 +55,7 @@ class TimingFilter
             Long firstByteTime = response.getFirstByteTime();
             if (firstByteTime != null) {
                 servletRequest.setAttribute(FIRST_BYTE_TIME, firstByteTime);
+                servletRequest.setAttribute(FIRST_BYTE_NANOS, response.getFirstByteNanos());
             }
         }
     }
@@ -105,12 +107,24 @@ class TimingFilter
             }
             return null;
         }
+
+        public long getFirstByteNanos()
+        {
+            if (outputStream != null) {
+                return outputStream.getFirstByteNanos();
+            }
+            if (printWriter != null) {
+                return printWriter.getFirstByteNanos();
+            }
+            return 0;
+        }
     }
 
     private static class TimedServletOutputStream extends ServletOutputStream
     {
         private final ServletOutputStream delegate;
         private Long firstByteTime;
+        private long firstByteNanos;
 
         private TimedServletOutputStream(ServletOutputStream delegate)
         {
@@ -122,10 +136,16 @@ class TimingFilter
             return firstByteTime;
         }
 
+        public long getFirstByteNanos()
+        {
+            return firstByteNanos;
+        }
+
         private void recordFirstByteTime()
         {
             if (firstByteTime == null) {
                 firstByteTime = System.currentTimeMillis();
+                firstByteNanos = System.nanoTime();
             }
         }
 
@@ -303,6 +323,7 @@ class TimingFilter
     private static class TimedPrintWriter extends PrintWriter
     {
         private Long firstByteTime;
+        private long firstByteNanos;
 
         private TimedPrintWriter(PrintWriter delegate)
         {
@@ -314,10 +335,16 @@ class TimingFilter
             return firstByteTime;
         }
 
+        public long getFirstByteNanos()
+        {
+            return firstByteNanos;
+        }
+
         private void recordFirstByteTime()
         {
             if (firstByteTime == null) {
                 firstByteTime = System.currentTimeMillis();
+                firstByteNanos = System.nanoTime();
             }
         }
 
@@ -90,7 +90,10 @@ public class TestingHttpServer extends HttpServer
                 queryStringFilter,
                 traceTokenManager,
                 new RequestStats(),
-                new DetailedRequestStats()
+                new DetailedRequestStats(),
+                null,
+                null,
+                null
         );
         this.httpServerInfo = httpServerInfo;
     }
@@ -119,5 +122,17 @@ public class TestingHttpServer extends HttpServer
         {
             return new TimeStat();
         }
+
+        @Override
+        public TimeStat schedulingDelay(int responseCode)
+        {
+            return new TimeStat();
+        }
+
+        @Override
+        public TimeStat timeToFirstByte(int responseCode)
+        {
+            return new TimeStat();
+        }
     }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import com.proofpoint.testing.TestingTicker;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.proofpoint.http.server.ConcurrencyLimiter.MIN_WINDOW_SAMPLES;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestConcurrencyLimiter
+{
+    private TestingTicker ticker;
+
+    @BeforeMethod
+    public void setup()
+    {
+        ticker = new TestingTicker();
+    }
+
+    @Test
+    public void testAcquireUpToLimit()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, ticker);
+        assertEquals(limiter.tryAcquire(), 1);
+        assertEquals(limiter.tryAcquire(), 2);
+        assertEquals(limiter.tryAcquire(), 0);
+        assertEquals(limiter.getInFlight(), 2);
+
+        limiter.release();
+        assertEquals(limiter.tryAcquire(), 2);
+    }
+
+    @Test
+    public void testLimitGrowsWhileRequestTimesAreSteady()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100, ticker);
+        for (int i = 0; i < 20; i++) {
+            addWindow(limiter, 10, limiter.getLimit());
+        }
+        assertTrue(limiter.getLimit() > 20, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitShrinksWhenRequestTimesRise()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(50, 1, 100, ticker);
+        addWindow(limiter, 10, 50);
+        int steadyLimit = limiter.getLimit();
+
+        for (int i = 0; i < 5; i++) {
+            addWindow(limiter, 100, limiter.getLimit());
+        }
+        assertTrue(limiter.getLimit() < steadyLimit, "limit " + limiter.getLimit() + " not below " + steadyLimit);
+    }
+
+    @Test
+    public void testLimitBounded()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(5, 5, 8, ticker);
+        for (int i = 0; i < 50; i++) {
+            addWindow(limiter, 10, limiter.getLimit());
+        }
+        assertEquals(limiter.getLimit(), 8);
+
+        for (int i = 0; i < 20; i++) {
+            addWindow(limiter, 10L << i, limiter.getLimit());
+            assertTrue(limiter.getLimit() >= 5, "limit " + limiter.getLimit());
+        }
+        assertEquals(limiter.getLimit(), 5);
+    }
+
+    @Test
+    public void testLimitUnchangedWhenUnderused()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(50, 1, 100, ticker);
+        for (int i = 0; i < 20; i++) {
+            addWindow(limiter, 10, 1);
+        }
+        assertEquals(limiter.getLimit(), 50);
+    }
+
+    @Test
+    public void testLimitUnchangedWithinWindow()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100, ticker);
+        for (int i = 0; i < MIN_WINDOW_SAMPLES * 10; i++) {
+            limiter.addSample(TimeUnit.MILLISECONDS.toNanos(10), 10);
+        }
+        assertEquals(limiter.getLimit(), 10);
+    }
+
+    private void addWindow(ConcurrencyLimiter limiter, long rttMillis, int inFlight)
+    {
+        ticker.increment(1, TimeUnit.SECONDS);
+        for (int i = 0; i < MIN_WINDOW_SAMPLES; i++) {
+            limiter.addSample(TimeUnit.MILLISECONDS.toNanos(rttMillis), inFlight);
+        }
+    }
+}
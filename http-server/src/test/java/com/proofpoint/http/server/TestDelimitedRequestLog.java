@@ -18,6 +18,7 @@ package com.proofpoint.http.server;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.Files;
+import com.proofpoint.http.server.HttpServerConfig.LogQueueFullPolicy;
 import com.proofpoint.tracetoken.TraceTokenManager;
 import org.eclipse.jetty.http.HttpURI;
 import org.eclipse.jetty.server.Request;
@@ -34,9 +35,12 @@ import java.io.File;
 import java.io.IOException;
 import java.security.Principal;
 import java.util.Collections;
+import java.util.List;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class TestDelimitedRequestLog
 {
@@ -132,4 +136,79 @@ public class TestDelimitedRequestLog
                 tokenManager.getCurrentRequestToken());
         Assert.assertEquals(actual, expected);
     }
+
+    @Test
+    public void testAsyncWriteLog()
+            throws Exception
+    {
+        testAsyncWriteLog(LogQueueFullPolicy.BLOCK);
+        testAsyncWriteLog(LogQueueFullPolicy.DROP);
+    }
+
+    @Test
+    public void testLogAfterStopDropped()
+            throws Exception
+    {
+        RequestLogStats stats = new RequestLogStats();
+        DelimitedRequestLog logger = new DelimitedRequestLog(file.getAbsolutePath(), 1, 1_000_000_000, new TraceTokenManager(),
+                new MockCurrentTimeMillisProvider(2000), 4, LogQueueFullPolicy.BLOCK, stats);
+        logger.stop();
+
+        Request request = mock(Request.class);
+        when(request.getTimeStamp()).thenReturn(1000L);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getUri()).thenReturn(new HttpURI("http://www.example.com/"));
+        Response response = mock(Response.class);
+        when(response.getStatus()).thenReturn(204);
+        logger.log(request, response);
+
+        assertEquals(stats.getQueued().getTotalCount(), 0);
+        assertEquals(stats.getDropped().getTotalCount(), 1);
+        assertEquals(stats.getQueueDepth(), 0);
+        assertEquals(Files.readLines(file, Charsets.UTF_8).size(), 0);
+    }
+
+    private void testAsyncWriteLog(LogQueueFullPolicy queueFullPolicy)
+            throws Exception
+    {
+        RequestLogStats stats = new RequestLogStats();
+        DelimitedRequestLog logger = new DelimitedRequestLog(file.getAbsolutePath(), 1, 1_000_000_000, new TraceTokenManager(),
+                new MockCurrentTimeMillisProvider(2000), 4, queueFullPolicy, stats);
+
+        Response response = mock(Response.class);
+        when(response.getStatus()).thenReturn(204);
+        for (int i = 0; i < 1000; i++) {
+            Request request = mock(Request.class);
+            when(request.getTimeStamp()).thenReturn(1000L);
+            when(request.getRemoteAddr()).thenReturn("4.4.4.4");
+            when(request.getMethod()).thenReturn("GET");
+            when(request.getUri()).thenReturn(new HttpURI("http://www.example.com/" + i));
+            logger.log(request, response);
+        }
+        logger.stop();
+
+        long queued = stats.getQueued().getTotalCount();
+        long dropped = stats.getDropped().getTotalCount();
+        assertEquals(queued + dropped, 1000);
+        if (queueFullPolicy == LogQueueFullPolicy.BLOCK) {
+            assertEquals(dropped, 0);
+        }
+        assertEquals(stats.getQueueDepth(), 0);
+
+        List<String> lines = Files.readLines(file, Charsets.UTF_8);
+        assertEquals(lines.size(), queued);
+        int last = -1;
+        for (String line : lines) {
+            String[] fields = line.split("\t");
+            assertEquals(fields[0], isoFormatter.print(1000));
+            assertEquals(fields[6], "204");
+            assertEquals(fields[9], "1000");
+
+            // records are written in the order they were logged
+            int index = Integer.parseInt(fields[3].substring("http://www.example.com/".length()));
+            assertTrue(index > last);
+            last = index;
+        }
+        Files.write(new byte[0], file);
+    }
 }
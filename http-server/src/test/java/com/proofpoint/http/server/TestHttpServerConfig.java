@@ -17,6 +17,7 @@ package com.proofpoint.http.server;
 
 import com.google.common.collect.ImmutableMap;
 import com.proofpoint.configuration.testing.ConfigAssertions;
+import com.proofpoint.http.server.HttpServerConfig.LogQueueFullPolicy;
 import com.proofpoint.units.DataSize;
 import com.proofpoint.units.DataSize.Unit;
 import com.proofpoint.units.Duration;
@@ -45,9 +46,19 @@ public class TestHttpServerConfig
                 .setLogRetentionTime((new Duration(90, TimeUnit.DAYS)))
                 .setLogMaxSegmentSize(new DataSize(100, Unit.MEGABYTE))
                 .setLogMaxHistory(30)
+                .setLogAsync(false)
+                .setLogQueueSize(8192)
+                .setLogQueueFullPolicy(LogQueueFullPolicy.DROP)
                 .setMinThreads(2)
                 .setMaxThreads(200)
                 .setThreadMaxIdleTime(new Duration(1, TimeUnit.MINUTES))
+                .setMaxQueuedRequests(null)
+                .setMaxQueueWait(null)
+                .setQueueRetryAfter(new Duration(1, TimeUnit.SECONDS))
+                .setConcurrencyLimitEnabled(false)
+                .setConcurrencyLimitInitial(20)
+                .setConcurrencyLimitMin(1)
+                .setConcurrencyLimitMax(200)
                 .setNetworkMaxIdleTime(new Duration(200, TimeUnit.SECONDS))
                 .setUserAuthFile(null)
                 .setAdminEnabled(true)
@@ -72,9 +83,19 @@ public class TestHttpServerConfig
                 .put("http-server.log.retention-time", "1d")
                 .put("http-server.log.max-size", "1GB")
                 .put("http-server.log.max-history", "25")
+                .put("http-server.log.async", "true")
+                .put("http-server.log.queue-size", "1000")
+                .put("http-server.log.queue-full-policy", "BLOCK")
                 .put("http-server.threads.min", "100")
                 .put("http-server.threads.max", "500")
                 .put("http-server.threads.max-idle-time", "10m")
+                .put("http-server.queue.max-requests", "1000")
+                .put("http-server.queue.max-wait", "2s")
+                .put("http-server.queue.retry-after", "5s")
+                .put("http-server.concurrency-limit.enabled", "true")
+                .put("http-server.concurrency-limit.initial", "50")
+                .put("http-server.concurrency-limit.min", "10")
+                .put("http-server.concurrency-limit.max", "100")
                 .put("http-server.net.max-idle-time", "20m")
                 .put("http-server.auth.users-file", "/auth")
                 .put("http-server.admin.enabled", "false")
@@ -95,9 +116,19 @@ public class TestHttpServerConfig
                 .setLogRetentionTime(new Duration(1, TimeUnit.DAYS))
                 .setLogMaxSegmentSize(new DataSize(1, Unit.GIGABYTE))
                 .setLogMaxHistory(25)
+                .setLogAsync(true)
+                .setLogQueueSize(1000)
+                .setLogQueueFullPolicy(LogQueueFullPolicy.BLOCK)
                 .setMinThreads(100)
                 .setMaxThreads(500)
                 .setThreadMaxIdleTime(new Duration(10, TimeUnit.MINUTES))
+                .setMaxQueuedRequests(1000)
+                .setMaxQueueWait(new Duration(2, TimeUnit.SECONDS))
+                .setQueueRetryAfter(new Duration(5, TimeUnit.SECONDS))
+                .setConcurrencyLimitEnabled(true)
+                .setConcurrencyLimitInitial(50)
+                .setConcurrencyLimitMin(10)
+                .setConcurrencyLimitMax(100)
                 .setNetworkMaxIdleTime(new Duration(20, TimeUnit.MINUTES))
                 .setMaxRequestHeaderSize(new DataSize(32, DataSize.Unit.KILOBYTE))
                 .setUserAuthFile("/auth")
@@ -49,6 +49,7 @@ import org.testng.annotations.Test;
 import org.weakref.jmx.guice.MBeanModule;
 
 import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.Filter;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
@@ -67,11 +68,16 @@ import static com.proofpoint.http.client.Request.Builder.prepareGet;
 import static com.proofpoint.http.client.StatusResponseHandler.createStatusResponseHandler;
 import static com.proofpoint.http.client.StringResponseHandler.createStringResponseHandler;
 import static com.proofpoint.http.server.HttpServerBinder.httpServerBinder;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
+import static org.weakref.jmx.ObjectNames.generatedNameOf;
 
 public class TestHttpServerModule
 {
@@ -233,6 +239,46 @@ public class TestHttpServerModule
         }
     }
 
+    @Test
+    public void testStatsExportedOnlyWhenEnabled()
+            throws Exception
+    {
+        Map<String, String> properties = new ImmutableMap.Builder<String, String>()
+                .put("http-server.http.port", "0")
+                .put("http-server.log.path", new File(tempDir, "http-request.log").getAbsolutePath())
+                .put("http-server.queue.max-requests", "100")
+                .build();
+
+        final MBeanServer mbeanServer = mock(MBeanServer.class);
+        ConfigurationFactory configFactory = new ConfigurationFactory(properties);
+        Injector injector = Guice.createInjector(new HttpServerModule(),
+                new ApplicationNameModule("test-application"),
+                new TestingNodeModule(),
+                new ConfigurationModule(configFactory),
+                new NullEventModule(),
+                new MBeanModule(),
+                new ReportingModule(),
+                new Module()
+                {
+                    @Override
+                    public void configure(Binder binder)
+                    {
+                        binder.bind(Servlet.class).annotatedWith(TheServlet.class).to(DummyServlet.class);
+                        binder.bind(MBeanServer.class).toInstance(mbeanServer);
+                    }
+                });
+
+        HttpServer server = injector.getInstance(HttpServer.class);
+        try {
+            verify(mbeanServer).registerMBean(any(), eq(new ObjectName(generatedNameOf(RequestQueueStats.class))));
+            verify(mbeanServer, never()).registerMBean(any(), eq(new ObjectName(generatedNameOf(RequestLogStats.class))));
+            verify(mbeanServer, never()).registerMBean(any(), eq(new ObjectName(generatedNameOf(ConcurrencyLimitStats.class))));
+        }
+        finally {
+            server.stop();
+        }
+    }
+
     private void assertResource(URI baseUri, HttpClient client, String path, String contents)
     {
         HttpUriBuilder uriBuilder = uriBuilderFrom(baseUri);
@@ -60,6 +60,8 @@ public class TestHttpServerProvider
     private NodeInfo nodeInfo;
     private HttpServerConfig config;
     private HttpServerInfo httpServerInfo;
+    private RequestQueueStats requestQueueStats;
+    private ConcurrencyLimitStats concurrencyLimitStats;
 
     @BeforeMethod
     public void setup()
@@ -79,6 +81,8 @@ public class TestHttpServerProvider
                 .setNodeInternalHostname("localhost")
         );
         httpServerInfo = new HttpServerInfo(config, nodeInfo);
+        requestQueueStats = new RequestQueueStats();
+        concurrencyLimitStats = new ConcurrencyLimitStats();
     }
 
     @AfterMethod
@@ -116,6 +120,75 @@ public class TestHttpServerProvider
         }
     }
 
+    @Test
+    public void testQueueWaitNotRecordedWithoutLimits()
+            throws Exception
+    {
+        createServer();
+        server.start();
+
+        try (JettyHttpClient httpClient = new JettyHttpClient()) {
+            StatusResponse response = httpClient.execute(prepareGet().setUri(httpServerInfo.getHttpUri()).build(), createStatusResponseHandler());
+
+            assertEquals(response.getStatusCode(), HttpServletResponse.SC_OK);
+        }
+        assertEquals(requestQueueStats.getWaitTime().getAllTime().getCount(), 0.0);
+    }
+
+    @Test
+    public void testQueueWaitRecorded()
+            throws Exception
+    {
+        config.setMaxQueuedRequests(100);
+        createServer();
+        server.start();
+
+        try (JettyHttpClient httpClient = new JettyHttpClient()) {
+            StatusResponse response = httpClient.execute(prepareGet().setUri(httpServerInfo.getHttpUri()).build(), createStatusResponseHandler());
+
+            assertEquals(response.getStatusCode(), HttpServletResponse.SC_OK);
+        }
+        assertEquals(requestQueueStats.getWaitTime().getAllTime().getCount(), 1.0);
+        assertEquals(requestQueueStats.getRejected().getTotalCount(), 0);
+    }
+
+    @Test
+    public void testMaxQueueWaitSheds()
+            throws Exception
+    {
+        config.setMaxQueueWait(new Duration(0, TimeUnit.NANOSECONDS))
+                .setQueueRetryAfter(new Duration(1500, TimeUnit.MILLISECONDS));
+        createServer();
+        server.start();
+
+        try (JettyHttpClient httpClient = new JettyHttpClient()) {
+            StatusResponse response = httpClient.execute(prepareGet().setUri(httpServerInfo.getHttpUri()).build(), createStatusResponseHandler());
+
+            assertEquals(response.getStatusCode(), HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            assertEquals(response.getHeader("Retry-After"), "2");
+        }
+        assertEquals(requestQueueStats.getRejected().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testConcurrencyLimit()
+            throws Exception
+    {
+        config.setConcurrencyLimitEnabled(true)
+                .setConcurrencyLimitInitial(5);
+        createServer();
+        server.start();
+
+        try (JettyHttpClient httpClient = new JettyHttpClient()) {
+            StatusResponse response = httpClient.execute(prepareGet().setUri(httpServerInfo.getHttpUri()).build(), createStatusResponseHandler());
+
+            assertEquals(response.getStatusCode(), HttpServletResponse.SC_OK);
+        }
+        assertEquals(concurrencyLimitStats.getLimit(), 5);
+        assertEquals(concurrencyLimitStats.getInFlight(), 0);
+        assertEquals(concurrencyLimitStats.getRejected().getTotalCount(), 0);
+    }
+
     @Test
     public void testHttps()
             throws Exception
@@ -250,6 +323,8 @@ public class TestHttpServerProvider
         );
         serverProvider.setLoginService(loginServiceProvider.get());
         serverProvider.setTokenManager(new TraceTokenManager());
+        serverProvider.setRequestQueueStats(requestQueueStats);
+        serverProvider.setConcurrencyLimitStats(concurrencyLimitStats);
         server = serverProvider.get();
     }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import com.proofpoint.units.Duration;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+public class TestLoadSheddingHandler
+{
+    private QueuedThreadPool threadPool;
+    private RequestQueueStats stats;
+    private Handler handler;
+    private Request request;
+    private HttpServletResponse response;
+
+    @BeforeMethod
+    public void setup()
+    {
+        threadPool = mock(QueuedThreadPool.class);
+        stats = new RequestQueueStats();
+        handler = mock(Handler.class);
+        request = mock(Request.class);
+        response = mock(HttpServletResponse.class);
+    }
+
+    @Test
+    public void testQueueOverLimitSheds()
+            throws Exception
+    {
+        when(threadPool.getQueueSize()).thenReturn(3);
+        LoadSheddingHandler loadSheddingHandler = createLoadSheddingHandler(2);
+
+        loadSheddingHandler.handle("/", request, request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(response).setHeader("Retry-After", "2");
+        verify(request).setHandled(true);
+        verify(handler, never()).handle(anyString(), any(Request.class), any(Request.class), any(HttpServletResponse.class));
+        assertEquals(stats.getRejected().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testQueueAtLimitPassesThrough()
+            throws Exception
+    {
+        when(threadPool.getQueueSize()).thenReturn(2);
+        LoadSheddingHandler loadSheddingHandler = createLoadSheddingHandler(2);
+
+        loadSheddingHandler.handle("/", request, request, response);
+
+        verify(handler).handle("/", request, request, response);
+        verify(response, never()).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        assertEquals(stats.getRejected().getTotalCount(), 0);
+        assertEquals(stats.getWaitTime().getAllTime().getCount(), 1.0);
+    }
+
+    @Test
+    public void testQueueWaitOverLimitSheds()
+            throws Exception
+    {
+        when(request.getAttribute(RequestTimingHandler.START_NANOS)).thenReturn(1_000L);
+        when(request.getAttribute(RequestTimingHandler.DISPATCH_NANOS)).thenReturn(3_000L);
+        LoadSheddingHandler loadSheddingHandler = new LoadSheddingHandler(threadPool, null, new Duration(1, TimeUnit.MICROSECONDS), new Duration(1, TimeUnit.SECONDS), stats);
+        loadSheddingHandler.setHandler(handler);
+        loadSheddingHandler.start();
+
+        loadSheddingHandler.handle("/", request, request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(response).setHeader("Retry-After", "1");
+        verify(handler, never()).handle(anyString(), any(Request.class), any(Request.class), any(HttpServletResponse.class));
+        assertEquals(stats.getWaitTime().getAllTime().getMax(), 2e-6, 1e-9);
+    }
+
+    @Test
+    public void testQueueWaitUnderLimitPassesThrough()
+            throws Exception
+    {
+        when(request.getAttribute(RequestTimingHandler.START_NANOS)).thenReturn(1_000L);
+        when(request.getAttribute(RequestTimingHandler.DISPATCH_NANOS)).thenReturn(1_500L);
+        LoadSheddingHandler loadSheddingHandler = new LoadSheddingHandler(threadPool, null, new Duration(1, TimeUnit.MICROSECONDS), new Duration(1, TimeUnit.SECONDS), stats);
+        loadSheddingHandler.setHandler(handler);
+        loadSheddingHandler.start();
+
+        loadSheddingHandler.handle("/", request, request, response);
+
+        verify(handler).handle("/", request, request, response);
+        assertEquals(stats.getRejected().getTotalCount(), 0);
+    }
+
+    private LoadSheddingHandler createLoadSheddingHandler(int maxQueuedRequests)
+            throws Exception
+    {
+        LoadSheddingHandler loadSheddingHandler = new LoadSheddingHandler(threadPool, maxQueuedRequests, null, new Duration(1500, TimeUnit.MILLISECONDS), stats);
+        loadSheddingHandler.setHandler(handler);
+        loadSheddingHandler.start();
+        return loadSheddingHandler;
+    }
+}
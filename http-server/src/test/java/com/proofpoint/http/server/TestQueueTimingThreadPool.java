@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.proofpoint.testing.Assertions.assertGreaterThanOrEqual;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestQueueTimingThreadPool
+{
+    @Test
+    public void testQueueNanosReadOnce()
+            throws Exception
+    {
+        QueueTimingThreadPool threadPool = new QueueTimingThreadPool(1);
+        threadPool.setMinThreads(1);
+        threadPool.start();
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(1);
+            final AtomicLong first = new AtomicLong(-1);
+            final AtomicLong second = new AtomicLong(-1);
+
+            threadPool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            threadPool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    first.set(QueueTimingThreadPool.takeCurrentJobQueueNanos());
+                    second.set(QueueTimingThreadPool.takeCurrentJobQueueNanos());
+                    done.countDown();
+                }
+            });
+            Thread.sleep(20);
+            release.countDown();
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertGreaterThanOrEqual(first.get(), TimeUnit.MILLISECONDS.toNanos(20));
+            assertEquals(second.get(), 0);
+        }
+        finally {
+            threadPool.stop();
+        }
+    }
+
+    @Test
+    public void testQueueNanosOutsidePool()
+    {
+        assertEquals(QueueTimingThreadPool.takeCurrentJobQueueNanos(), 0);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.DateTimeFormatterBuilder;
+import org.joda.time.format.ISODateTimeFormat;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+public class TestRequestLogEncoder
+{
+    private static final DateTimeFormatter ISO_FORMATTER = new DateTimeFormatterBuilder()
+            .append(ISODateTimeFormat.dateHourMinuteSecondFraction())
+            .appendTimeZoneOffset("Z", true, 2, 2)
+            .toFormatter();
+
+    private RequestLogEncoder encoder;
+    private Request request;
+    private Response response;
+
+    @BeforeMethod
+    public void setup()
+    {
+        encoder = new RequestLogEncoder();
+        request = mock(Request.class);
+        response = mock(Response.class);
+        when(request.getTimeStamp()).thenReturn(1_000_000L);
+        when(request.getRemoteAddr()).thenReturn("4.4.4.4");
+        when(request.getMethod()).thenReturn("get");
+        when(request.getUri()).thenReturn(new HttpURI("/path"));
+        when(request.getContentRead()).thenReturn(12L);
+        when(response.getStatus()).thenReturn(200);
+        when(response.getContentCount()).thenReturn(-1L);
+    }
+
+    @Test
+    public void testFields()
+    {
+        assertEquals(encode(1_000_250), ISO_FORMATTER.print(1_000_000) + "\t4.4.4.4\tGET\t/path\tnull\tnull\t200\t12\t-1\t250\tnull\n");
+    }
+
+    @Test
+    public void testTimestamp()
+    {
+        for (long timestamp : new long[] {0, 999, 1000, 1_000_001, 1_000_999, 1_001_000, 1_394_000_000_007L, -1, -1000, -1001}) {
+            when(request.getTimeStamp()).thenReturn(timestamp);
+            assertEquals(encode(timestamp).split("\t")[0], ISO_FORMATTER.print(timestamp));
+        }
+    }
+
+    @Test
+    public void testEscaping()
+    {
+        when(request.getUri()).thenReturn(new HttpURI("/a\tb\\c\nd"));
+        when(request.getHeader("User-Agent")).thenReturn("agent\r\u0001é中😀\ud83d");
+        String[] fields = encode(1_000_000).split("\t");
+        assertEquals(fields[3], "/a\\tb\\\\c\\nd");
+        assertEquals(fields[5], "agent\\r\\u0001é中😀?");
+    }
+
+    @Test
+    public void testClientAddress()
+    {
+        when(request.getRemoteAddr()).thenReturn("9.9.9.9");
+        when(request.getHeaders("X-FORWARDED-FOR")).thenReturn(Collections.enumeration(ImmutableList.of("1.1.1.1, 2.2.2.2", " 3.3.3.3 , 10.0.0.1,192.168.1.1")));
+        assertEquals(encode(1_000_000).split("\t")[1], "3.3.3.3");
+
+        // invalid and private addresses are skipped
+        when(request.getHeaders("X-FORWARDED-FOR")).thenReturn(Collections.enumeration(ImmutableList.of("5.5.5.5,unknown,1.2.3.256,01.2.3.4,1.2.3,1.2.3.4.5,1..2.3,,127.0.0.1")));
+        assertEquals(encode(1_000_000).split("\t")[1], "5.5.5.5");
+
+        when(request.getHeaders("X-FORWARDED-FOR")).thenReturn(Collections.enumeration(ImmutableList.of("2001:db8::1")));
+        assertEquals(encode(1_000_000).split("\t")[1], "2001:db8::1");
+
+        // the remote address is used when every address is private
+        when(request.getRemoteAddr()).thenReturn("10.1.1.1");
+        when(request.getHeaders("X-FORWARDED-FOR")).thenReturn(Collections.enumeration(ImmutableList.of("172.16.0.1")));
+        assertEquals(encode(1_000_000).split("\t")[1], "10.1.1.1");
+    }
+
+    @Test
+    public void testBufferGrows()
+    {
+        StringBuilder agent = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            agent.append("agenté\t");
+        }
+        when(request.getHeader("User-Agent")).thenReturn(agent.toString());
+        assertEquals(encode(1_000_000).split("\t")[5], agent.toString().replace("\t", "\\t"));
+        assertEquals(encode(1_000_000).split("\t")[5], agent.toString().replace("\t", "\\t"));
+    }
+
+    private String encode(long currentTimeMillis)
+    {
+        ByteBuffer buffer = encoder.encode(request, response, null, currentTimeMillis);
+        return new String(buffer.array(), buffer.position(), buffer.remaining(), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestRingBuffer
+{
+    @Test
+    public void testOfferAndPoll()
+    {
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(3);
+        assertEquals(ringBuffer.capacity(), 4);
+        assertTrue(ringBuffer.isEmpty());
+        assertNull(ringBuffer.poll());
+
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(ringBuffer.offer(i));
+            }
+            assertFalse(ringBuffer.offer(4));
+            assertEquals(ringBuffer.size(), 4);
+
+            assertEquals(ringBuffer.poll(), (Integer) 0);
+            assertTrue(ringBuffer.offer(4));
+            for (int i = 1; i <= 4; i++) {
+                assertEquals(ringBuffer.poll(), (Integer) i);
+            }
+            assertNull(ringBuffer.poll());
+            assertTrue(ringBuffer.isEmpty());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers()
+            throws Exception
+    {
+        final RingBuffer<int[]> ringBuffer = new RingBuffer<>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        final int producers = 4;
+        final int perProducer = 20_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < producers; i++) {
+            final int producer = i;
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int j = 0; j < perProducer; j++) {
+                        while (!ringBuffer.offer(new int[] {producer, j})) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            int[] element = ringBuffer.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            // each producer's elements arrive in order
+            assertEquals(element[1], next[element[0]]);
+            ++next[element[0]];
+            ++received;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(ringBuffer.poll());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.http.server;
+
+import com.proofpoint.stats.TimeStat;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestStatsRecordingHandler
+{
+    private RequestStats stats;
+    private TestingDetailedRequestStats detailedRequestStats;
+    private StatsRecordingHandler handler;
+    private Request request;
+    private Response response;
+
+    @BeforeMethod
+    public void setup()
+    {
+        stats = new RequestStats();
+        detailedRequestStats = new TestingDetailedRequestStats();
+        handler = new StatsRecordingHandler(stats, detailedRequestStats);
+        request = mock(Request.class);
+        response = mock(Response.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(response.getStatus()).thenReturn(200);
+    }
+
+    @Test
+    public void testNanosecondTiming()
+    {
+        long startNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(300);
+        when(request.getAttribute(RequestTimingHandler.START_NANOS)).thenReturn(startNanos);
+        when(request.getAttribute(RequestTimingHandler.DISPATCH_NANOS)).thenReturn(startNanos + TimeUnit.MILLISECONDS.toNanos(100));
+        when(request.getAttribute(TimingFilter.FIRST_BYTE_NANOS)).thenReturn(startNanos + TimeUnit.MILLISECONDS.toNanos(200));
+
+        handler.log(request, response);
+
+        assertEquals(stats.getSchedulingDelay().getAllTime().getCount(), 1.0);
+        assertEquals(stats.getSchedulingDelay().getAllTime().getMax(), 0.1, 0.1 / 32);
+        assertEquals(stats.getTimeToFirstByte().getAllTime().getCount(), 1.0);
+        assertEquals(stats.getTimeToFirstByte().getAllTime().getMax(), 0.1, 0.1 / 32);
+        assertEquals(stats.getRequestTime().getAllTime().getCount(), 1.0);
+        // the request time excludes the scheduling delay
+        assertTrue(stats.getRequestTime().getAllTime().getMax() >= 0.2 * (1 - 1.0 / 32));
+        assertTrue(stats.getRequestTime().getAllTime().getMax() < 0.3 * (1 - 1.0 / 32));
+
+        assertEquals(detailedRequestStats.schedulingDelay(200).getAllTime().getCount(), 1.0);
+        assertEquals(detailedRequestStats.timeToFirstByte(200).getAllTime().getCount(), 1.0);
+        assertEquals(detailedRequestStats.requestTime(200).getAllTime().getCount(), 1.0);
+    }
+
+    @Test
+    public void testNoFirstByte()
+    {
+        long startNanos = System.nanoTime();
+        when(request.getAttribute(RequestTimingHandler.START_NANOS)).thenReturn(startNanos);
+        when(request.getAttribute(RequestTimingHandler.DISPATCH_NANOS)).thenReturn(startNanos);
+
+        handler.log(request, response);
+
+        assertEquals(stats.getRequestTime().getAllTime().getCount(), 1.0);
+        assertEquals(stats.getSchedulingDelay().getAllTime().getCount(), 1.0);
+        assertEquals(stats.getTimeToFirstByte().getAllTime().getCount(), 0.0);
+        assertNull(detailedRequestStats.timeStats.get("timeToFirstByte200"));
+    }
+
+    @Test
+    public void testNotTimed()
+    {
+        when(request.getTimeStamp()).thenReturn(System.currentTimeMillis() - 100);
+
+        handler.log(request, response);
+
+        assertEquals(stats.getRequestTime().getAllTime().getCount(), 1.0);
+        assertTrue(stats.getRequestTime().getAllTime().getMax() >= 0.1 * (1 - 1.0 / 32));
+        assertEquals(stats.getSchedulingDelay().getAllTime().getMax(), 0.0);
+    }
+
+    private static class TestingDetailedRequestStats
+            implements DetailedRequestStats
+    {
+        private final Map<String, TimeStat> timeStats = new HashMap<>();
+
+        @Override
+        public TimeStat requestTime(int responseCode)
+        {
+            return get("requestTime" + responseCode);
+        }
+
+        @Override
+        public TimeStat schedulingDelay(int responseCode)
+        {
+            return get("schedulingDelay" + responseCode);
+        }
+
+        @Override
+        public TimeStat timeToFirstByte(int responseCode)
+        {
+            return get("timeToFirstByte" + responseCode);
+        }
+
+        private TimeStat get(String key)
+        {
+            TimeStat timeStat = timeStats.get(key);
+            if (timeStat == null) {
+                timeStat = new TimeStat();
+                timeStats.put(key, timeStat);
+            }
+            return timeStat;
+        }
+    }
+}
@@ -114,6 +114,34 @@ public class TestTestingHttpServer
         }
     }
 
+    @Test
+    public void testShedsRequests()
+            throws Exception
+    {
+        DummyServlet servlet = new DummyServlet();
+        NodeInfo nodeInfo = new NodeInfo("test");
+        HttpServerConfig config = new HttpServerConfig()
+                .setHttpPort(0)
+                .setMaxQueueWait(new Duration(0, SECONDS));
+        HttpServerInfo httpServerInfo = new HttpServerInfo(config, nodeInfo);
+        TestingHttpServer server = new TestingHttpServer(httpServerInfo, nodeInfo, config, servlet, ImmutableMap.<String, String>of());
+
+        try {
+            server.start();
+
+            try (HttpClient client = new JettyHttpClient(new HttpClientConfig().setConnectTimeout(new Duration(1, SECONDS)))) {
+                StatusResponse response = client.execute(prepareGet().setUri(server.getBaseUrl()).build(), createStatusResponseHandler());
+
+                assertEquals(response.getStatusCode(), HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                assertEquals(response.getHeader(HttpHeaders.RETRY_AFTER), "1");
+                assertEquals(servlet.getCallCount(), 0);
+            }
+        }
+        finally {
+            server.stop();
+        }
+    }
+
     @Test
     public void testFilteredRequest()
             throws Exception
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.proofpoint.reporting.CompactReportWriter.MAGIC;
+import static com.proofpoint.reporting.CompactReportWriter.VALUE_DECIMAL;
+import static com.proofpoint.reporting.CompactReportWriter.VALUE_DOUBLE;
+import static com.proofpoint.reporting.CompactReportWriter.VALUE_INTEGRAL_DOUBLE;
+import static com.proofpoint.reporting.CompactReportWriter.VALUE_LONG;
+
+/**
+ * Decodes a report in the compact binary format into the data points of the
+ * equivalent JSON report, each a map with the keys {@code name}, {@code timestamp},
+ * {@code value} and {@code tags}.
+ * <p>
+ * Timestamps are {@link Long}, values are {@link Long} for integer values,
+ * {@link Double} for floating point values and {@link BigDecimal} for others.
+ */
+public final class CompactReportDecoder
+{
+    private final byte[] report;
+    private int position = 0;
+    private final List<String> strings = new ArrayList<>();
+    private final List<Bean> beans = new ArrayList<>();
+
+    private CompactReportDecoder(byte[] report)
+    {
+        this.report = report;
+    }
+
+    /**
+     * Returns true if the report is in the compact binary format.
+     */
+    public static boolean isCompactReport(byte[] report)
+    {
+        checkNotNull(report, "report is null");
+        return report.length >= 4 && new CompactReportDecoder(report).readInt() == MAGIC;
+    }
+
+    public static List<Map<String, Object>> decode(byte[] report)
+    {
+        checkNotNull(report, "report is null");
+        checkArgument(isCompactReport(report), "report is not in the compact format");
+        return new CompactReportDecoder(inflate(report)).decode();
+    }
+
+    private static byte[] inflate(byte[] report)
+    {
+        Inflater inflater = new Inflater(true);
+        try (InputStream inputStream = new InflaterInputStream(new ByteArrayInputStream(report, 4, report.length - 4), inflater)) {
+            return ByteStreams.toByteArray(inputStream);
+        }
+        catch (EOFException e) {
+            throw new IllegalArgumentException("report is truncated", e);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("report is corrupt", e);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private List<Map<String, Object>> decode()
+    {
+        long timestamp = readVarLong();
+        Map<String, String> instanceTags = readTags();
+
+        ImmutableList.Builder<Map<String, Object>> builder = ImmutableList.builder();
+        while (position < report.length) {
+            Bean bean = readBeanReference();
+            String name = bean.namePrefix + readStringReference();
+            Number value = readValue();
+
+            Map<String, String> tags = new LinkedHashMap<>(instanceTags);
+            tags.putAll(bean.tags);
+
+            Map<String, Object> dataPoint = new LinkedHashMap<>();
+            dataPoint.put("name", name);
+            dataPoint.put("timestamp", timestamp);
+            dataPoint.put("value", value);
+            dataPoint.put("tags", tags);
+            builder.add(dataPoint);
+        }
+        return builder.build();
+    }
+
+    private Map<String, String> readTags()
+    {
+        int count = readVarInt();
+        ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        for (int i = 0; i < count; i++) {
+            builder.put(readStringReference(), readStringReference());
+        }
+        return builder.build();
+    }
+
+    private Bean readBeanReference()
+    {
+        int reference = readVarInt();
+        if (reference == 0) {
+            Bean bean = new Bean(readStringReference(), readTags());
+            beans.add(bean);
+            return bean;
+        }
+        checkArgument(reference <= beans.size(), "bean reference %s is undefined", reference);
+        return beans.get(reference - 1);
+    }
+
+    private String readStringReference()
+    {
+        int reference = readVarInt();
+        if (reference == 0) {
+            String value = readString();
+            strings.add(value);
+            return value;
+        }
+        checkArgument(reference <= strings.size(), "string reference %s is undefined", reference);
+        return strings.get(reference - 1);
+    }
+
+    private Number readValue()
+    {
+        int type = readByte();
+        switch (type) {
+            case VALUE_LONG:
+                return unzigzag(readVarLong());
+            case VALUE_INTEGRAL_DOUBLE:
+                return (double) unzigzag(readVarLong());
+            case VALUE_DOUBLE:
+                return Double.longBitsToDouble(readLong());
+            case VALUE_DECIMAL:
+                return new BigDecimal(readString());
+            default:
+                throw new IllegalArgumentException("unknown value type " + type);
+        }
+    }
+
+    private String readString()
+    {
+        int length = readVarInt();
+        checkArgument(length >= 0 && length <= report.length - position, "report is truncated");
+        String value = new String(report, position, length, UTF_8);
+        position += length;
+        return value;
+    }
+
+    private int readVarInt()
+    {
+        long value = readVarLong();
+        checkArgument(value >= 0 && value <= Integer.MAX_VALUE, "varint %s is out of range", value);
+        return (int) value;
+    }
+
+    private long readVarLong()
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint is too long");
+    }
+
+    private int readByte()
+    {
+        checkArgument(position < report.length, "report is truncated");
+        return report[position++] & 0xFF;
+    }
+
+    private int readInt()
+    {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    private long readLong()
+    {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Bean
+    {
+        private final String namePrefix;
+        private final Map<String, String> tags;
+
+        private Bean(String namePrefix, Map<String, String> tags)
+        {
+            this.namePrefix = namePrefix;
+            this.tags = tags;
+        }
+    }
+}
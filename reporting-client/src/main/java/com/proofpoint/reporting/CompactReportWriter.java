@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.propagate;
+
+/**
+ * Writes the data points of one report in the compact binary format as they are
+ * collected.
+ * <p>
+ * A report is the 4 byte magic number {@link #MAGIC} followed by the rest of the
+ * report compressed with raw deflate at {@link Deflater#BEST_SPEED}. The rest starts
+ * with the collection time in milliseconds as a varint and the instance tags, which
+ * apply to every data point. Every data point in a report shares the collection
+ * time. Each data point is then a reference to its bean, a reference to its attribute
+ * name and its value.
+ * <p>
+ * Strings and beans are written once per report, the first time they are used, and
+ * referenced by index after that. A reference is a varint of the index plus one, or
+ * zero followed by the definition of a new entry, which gets the next index. A string
+ * is defined by its length in bytes as a varint followed by its UTF-8 bytes. A bean is
+ * defined by a string reference to its metric name prefix, its tag count as a varint
+ * and string references to each tag's key and value.
+ * <p>
+ * A value is one of the type bytes below followed by a zigzag varint for
+ * {@link #VALUE_LONG} and {@link #VALUE_INTEGRAL_DOUBLE}, 8 bytes of IEEE 754 double
+ * for {@link #VALUE_DOUBLE}, and the decimal representation as a defined string for
+ * {@link #VALUE_DECIMAL}. Multi-byte fixed width values are big-endian.
+ *
+ * @see CompactReportDecoder
+ */
+@NotThreadSafe
+class CompactReportWriter
+        implements ReportWriter
+{
+    static final int MAGIC = 0x52505431; // RPT1
+    static final String CONTENT_TYPE = "application/vnd.proofpoint.compact-report";
+
+    static final int VALUE_LONG = 0;
+    static final int VALUE_INTEGRAL_DOUBLE = 1;
+    static final int VALUE_DOUBLE = 2;
+    static final int VALUE_DECIMAL = 3;
+
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+    private final Map<String, Integer> attributeNameIndexes = new HashMap<>();
+    private final Map<ReportName, Integer> beanIndexes = new IdentityHashMap<>();
+    private char[] nameBuffer = new char[64];
+    private byte[] buffer = new byte[4096];
+    private int size = 0;
+    private int stringCount = 0;
+    private boolean finished = false;
+
+    CompactReportWriter(long systemTimeMillis, Map<String, String> instanceTags)
+    {
+        checkNotNull(instanceTags, "instanceTags is null");
+        writeVarLong(systemTimeMillis);
+        writeVarInt(instanceTags.size());
+        for (Entry<String, String> entry : instanceTags.entrySet()) {
+            writeStringReference(entry.getKey());
+            writeStringReference(entry.getValue());
+        }
+    }
+
+    @Override
+    public void add(ReportName reportName, String name, Number value)
+    {
+        checkState(!finished, "report is finished");
+        writeBeanReference(reportName);
+        writeAttributeNameReference(name);
+        writeValue(value);
+    }
+
+    @Override
+    public byte[] finish()
+    {
+        checkState(!finished, "report is finished");
+        finished = true;
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(size / 2 + 16);
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            dataOutputStream.writeInt(MAGIC);
+            DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(dataOutputStream, deflater, 8192);
+            deflaterOutputStream.write(buffer, 0, size);
+            deflaterOutputStream.finish();
+        }
+        catch (IOException e) {
+            throw propagate(e);
+        }
+        finally {
+            deflater.end();
+        }
+        return outputStream.toByteArray();
+    }
+
+    private void writeBeanReference(ReportName reportName)
+    {
+        Integer index = beanIndexes.get(reportName);
+        if (index != null) {
+            writeVarInt(index + 1);
+            return;
+        }
+        beanIndexes.put(reportName, beanIndexes.size());
+        writeVarInt(0);
+        writeStringReference(reportName.getNamePrefix());
+        Map<String, String> tags = reportName.getTags();
+        writeVarInt(tags.size());
+        for (Entry<String, String> entry : tags.entrySet()) {
+            writeStringReference(entry.getKey());
+            writeStringReference(entry.getValue());
+        }
+    }
+
+    private void writeAttributeNameReference(String name)
+    {
+        Integer index = attributeNameIndexes.get(name);
+        if (index != null) {
+            writeVarInt(index + 1);
+            return;
+        }
+
+        // attribute names are sanitized like the rest of the metric name
+        if (nameBuffer.length < name.length()) {
+            nameBuffer = new char[Math.max(name.length(), nameBuffer.length * 2)];
+        }
+        for (int i = 0; i < name.length(); i++) {
+            nameBuffer[i] = ReportName.sanitize(name.charAt(i));
+        }
+        attributeNameIndexes.put(name, stringCount++);
+        writeVarInt(0);
+        writeString(new String(nameBuffer, 0, name.length()));
+    }
+
+    private void writeStringReference(String value)
+    {
+        Integer index = stringIndexes.get(value);
+        if (index != null) {
+            writeVarInt(index + 1);
+            return;
+        }
+        stringIndexes.put(value, stringCount++);
+        writeVarInt(0);
+        writeString(value);
+    }
+
+    private void writeValue(Number value)
+    {
+        if (value instanceof Double || value instanceof Float) {
+            double doubleValue = value.doubleValue();
+            long longValue = (long) doubleValue;
+            if (longValue == doubleValue && (longValue != 0 || Double.doubleToRawLongBits(doubleValue) == 0)) {
+                writeByte(VALUE_INTEGRAL_DOUBLE);
+                writeVarLong(zigzag(longValue));
+            }
+            else {
+                writeByte(VALUE_DOUBLE);
+                writeLong(Double.doubleToRawLongBits(doubleValue));
+            }
+        }
+        else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writeByte(VALUE_LONG);
+            writeVarLong(zigzag(value.longValue()));
+        }
+        else {
+            writeByte(VALUE_DECIMAL);
+            writeString(value.toString());
+        }
+    }
+
+    private void writeString(String value)
+    {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void writeVarInt(int value)
+    {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long value)
+    {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    private void writeByte(int value)
+    {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+    }
+
+    private void writeLong(long value)
+    {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[size++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void ensureCapacity(int bytes)
+    {
+        if (size + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(size + bytes, buffer.length * 2));
+        }
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+}
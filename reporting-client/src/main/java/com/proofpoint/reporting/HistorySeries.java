@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The stored values of one metric, as returned by the reporting history resource.
+ */
+@Immutable
+@JsonPropertyOrder({"name", "tags", "points"})
+public class HistorySeries
+{
+    private final String name;
+    private final Map<String, String> tags;
+    private final long[] timestamps;
+    private final double[] values;
+
+    private HistorySeries(String name, Map<String, String> tags, long[] timestamps, double[] values)
+    {
+        this.name = checkNotNull(name, "name is null");
+        this.tags = ImmutableMap.copyOf(checkNotNull(tags, "tags is null"));
+        this.timestamps = timestamps;
+        this.values = values;
+    }
+
+    @JsonProperty
+    public String getName()
+    {
+        return name;
+    }
+
+    @JsonProperty
+    public Map<String, String> getTags()
+    {
+        return tags;
+    }
+
+    /**
+     * The data points in time order, each a pair of the time in milliseconds since
+     * the epoch and the value.
+     */
+    @JsonProperty
+    public List<List<Number>> getPoints()
+    {
+        ImmutableList.Builder<List<Number>> points = ImmutableList.builder();
+        for (int i = 0; i < timestamps.length; i++) {
+            points.add(ImmutableList.<Number>of(timestamps[i], values[i]));
+        }
+        return points.build();
+    }
+
+    static class Builder
+    {
+        private final String name;
+        private final Map<String, String> tags;
+        private long[] timestamps = new long[16];
+        private double[] values = new double[16];
+        private int size = 0;
+
+        Builder(String name, Map<String, String> tags)
+        {
+            this.name = name;
+            this.tags = tags;
+        }
+
+        void add(long timestamp, double value)
+        {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            ++size;
+        }
+
+        HistorySeries build()
+        {
+            return new HistorySeries(name, tags, Arrays.copyOf(timestamps, size), Arrays.copyOf(values, size));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.propagate;
+
+/**
+ * Writes the data points of one report into a gzip compressed JSON array as they
+ * are collected.
+ * <p>
+ * The metric name prefix and serialized tags of each reported bean come from its
+ * {@link ReportName}, which the registry caches for as long as the bean is registered.
+ * A bean tag with the same key as an instance tag replaces the instance tag.
+ */
+@NotThreadSafe
+class JsonReportWriter
+        implements ReportWriter
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final SerializableString NAME = new SerializedString("name");
+    private static final SerializableString TIMESTAMP = new SerializedString("timestamp");
+    private static final SerializableString VALUE = new SerializedString("value");
+    private static final SerializableString TAGS = new SerializedString("tags");
+
+    private final long systemTimeMillis;
+    private final Map<String, String> instanceTags;
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    private final GZIPOutputStream gzipOutputStream;
+    private final JsonGenerator generator;
+    private char[] nameBuffer = new char[128];
+    private boolean finished = false;
+
+    JsonReportWriter(long systemTimeMillis, Map<String, String> instanceTags)
+    {
+        this.systemTimeMillis = systemTimeMillis;
+        this.instanceTags = checkNotNull(instanceTags, "instanceTags is null");
+        try {
+            gzipOutputStream = new GZIPOutputStream(outputStream);
+            generator = JSON_FACTORY.createGenerator(gzipOutputStream, JsonEncoding.UTF8);
+            generator.writeStartArray();
+        }
+        catch (IOException e) {
+            throw propagate(e);
+        }
+    }
+
+    @Override
+    public void add(ReportName reportName, String name, Number value)
+    {
+        checkState(!finished, "report is finished");
+        try {
+            generator.writeStartObject();
+            generator.writeFieldName(NAME);
+            writeName(reportName.getNamePrefix(), name);
+            generator.writeFieldName(TIMESTAMP);
+            generator.writeNumber(systemTimeMillis);
+            generator.writeFieldName(VALUE);
+            writeValue(value);
+            generator.writeFieldName(TAGS);
+            generator.writeRawValue(reportName.getSerializedTags(instanceTags));
+            generator.writeEndObject();
+        }
+        catch (IOException e) {
+            throw propagate(e);
+        }
+    }
+
+    @Override
+    public byte[] finish()
+    {
+        checkState(!finished, "report is finished");
+        finished = true;
+        try {
+            generator.writeEndArray();
+            generator.flush();
+            gzipOutputStream.finish();
+        }
+        catch (IOException e) {
+            throw propagate(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private void writeName(String namePrefix, String name)
+            throws IOException
+    {
+        int length = namePrefix.length() + name.length();
+        if (nameBuffer.length < length) {
+            nameBuffer = new char[Math.max(length, nameBuffer.length * 2)];
+        }
+        namePrefix.getChars(0, namePrefix.length(), nameBuffer, 0);
+        for (int i = 0; i < name.length(); i++) {
+            nameBuffer[namePrefix.length() + i] = ReportName.sanitize(name.charAt(i));
+        }
+        generator.writeString(nameBuffer, 0, length);
+    }
+
+    private void writeValue(Number value)
+            throws IOException
+    {
+        if (value instanceof Double) {
+            generator.writeNumber(value.doubleValue());
+        }
+        else if (value instanceof Float) {
+            generator.writeNumber(value.floatValue());
+        }
+        else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(value.longValue());
+        }
+        else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        }
+        else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        }
+        else {
+            generator.writeNumber(value.toString());
+        }
+    }
+}
@@ -15,52 +15,39 @@
  */
 package com.proofpoint.reporting;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonEncoding;
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
-import com.google.common.collect.Table;
-import com.google.common.collect.Table.Cell;
 import com.google.inject.Inject;
-import com.proofpoint.http.client.BodyGenerator;
 import com.proofpoint.http.client.HttpClient;
 import com.proofpoint.http.client.Request;
 import com.proofpoint.http.client.StatusResponseHandler.StatusResponse;
 import com.proofpoint.log.Logger;
 import com.proofpoint.node.NodeInfo;
+import com.proofpoint.reporting.ReportClientConfig.ReportFormat;
+import com.proofpoint.stats.CounterStat;
 
-import javax.management.ObjectName;
-import java.io.OutputStream;
 import java.net.URI;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.zip.GZIPOutputStream;
 
-import static com.google.common.base.CaseFormat.LOWER_CAMEL;
-import static com.google.common.base.CaseFormat.UPPER_CAMEL;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.proofpoint.http.client.Request.Builder.preparePost;
+import static com.proofpoint.http.client.StaticBodyGenerator.createStaticBodyGenerator;
 import static com.proofpoint.http.client.StatusResponseHandler.createStatusResponseHandler;
+import static com.proofpoint.reporting.CompactReportDecoder.isCompactReport;
 
 class ReportClient
 {
     private static final Logger logger = Logger.get(ReportClient.class);
-    private static final JsonFactory JSON_FACTORY = new JsonFactory();
     private static final URI UPLOAD_URI = URI.create("api/v1/datapoints");
     private final Map<String, String> instanceTags;
     private final HttpClient httpClient;
-    private final ObjectMapper objectMapper;
     private final boolean enabled;
+    private final ReportFormat format;
+    private final CounterStat discarded = new CounterStat();
 
     @Inject
-    ReportClient(NodeInfo nodeInfo, @ForReportClient HttpClient httpClient, ReportClientConfig reportClientConfig, ObjectMapper objectMapper)
+    ReportClient(NodeInfo nodeInfo, @ForReportClient HttpClient httpClient, ReportClientConfig reportClientConfig)
     {
-        this.objectMapper = objectMapper;
         checkNotNull(nodeInfo, "nodeInfo is null");
         checkNotNull(reportClientConfig, "reportClientConfig is null");
 
@@ -74,116 +61,65 @@ class ReportClient
 
         this.httpClient = checkNotNull(httpClient, "httpClient is null");
         enabled = reportClientConfig.isEnabled();
+        format = reportClientConfig.getFormat();
     }
 
-    public void report(long systemTimeMillis, Table<ObjectName, String, Number> collectedData)
+    /**
+     * Returns a writer for a report of values collected at {@code systemTimeMillis}.
+     */
+    ReportWriter createReportWriter(long systemTimeMillis)
+    {
+        if (format == ReportFormat.COMPACT) {
+            return new CompactReportWriter(systemTimeMillis, instanceTags);
+        }
+        return new JsonReportWriter(systemTimeMillis, instanceTags);
+    }
+
+    /**
+     * Uploads a report completed by a writer from {@link #createReportWriter(long)}.
+     * The report may have been written in a different format than the current one,
+     * such as when it was queued before a restart.
+     *
+     * @return false if the upload failed and should be retried
+     */
+    public boolean report(byte[] report)
     {
         if (!enabled) {
-            return;
+            return true;
         }
 
         Request request = preparePost()
                 .setUri(UPLOAD_URI)
-                .setHeader("Content-Type", "application/gzip")
-                .setBodyGenerator(new CompressBodyGenerator(systemTimeMillis, collectedData))
+                .setHeader("Content-Type", isCompactReport(report) ? CompactReportWriter.CONTENT_TYPE : "application/gzip")
+                .setBodyGenerator(createStaticBodyGenerator(report))
                 .build();
+        StatusResponse response;
         try {
-            StatusResponse response = httpClient.execute(request, createStatusResponseHandler());
-            if (response.getStatusCode() != 204) {
-                logger.warn("Failed to report stats: %s %s", response.getStatusCode(), response.getStatusMessage());
-            }
+            response = httpClient.execute(request, createStatusResponseHandler());
         }
         catch (RuntimeException e) {
             logger.warn(e, "Exception when trying to report stats");
+            return false;
         }
-    }
-
-    private static class DataPoint
-    {
-        private static final Pattern QUOTED_PATTERN = Pattern.compile("\"(.*)\"");
-        private static final Pattern BACKQUOTE_PATTERN = Pattern.compile("\\\\(.)");
-        private static final Pattern NOT_ACCEPTED_CHARACTER_PATTERN = Pattern.compile("[^-A-Za-z0-9./_]");
-        @JsonProperty
-        private final String name;
-        @JsonProperty
-        private final long timestamp;
-        @JsonProperty
-        private final Number value;
-        @JsonProperty
-        private final Map<String, String> tags;
-
-        public DataPoint(long systemTimeMillis, Cell<ObjectName, String, Number> cell, Map<String, String> instanceTags)
-        {
-            Map<String,String> propertyList = cell.getRowKey().getKeyPropertyList();
-
-            StringBuilder nameBuilder = new StringBuilder();
-            if (propertyList.containsKey("type")) {
-                nameBuilder.append(LOWER_CAMEL.to(UPPER_CAMEL, dequote(propertyList.get("type"))))
-                        .append(".");
-            }
-            if (propertyList.containsKey("name")) {
-                nameBuilder.append(LOWER_CAMEL.to(UPPER_CAMEL, dequote(propertyList.get("name"))))
-                        .append(".");
-            }
-            nameBuilder.append(cell.getColumnKey());
-            name = NOT_ACCEPTED_CHARACTER_PATTERN.matcher(nameBuilder.toString()).replaceAll("_");
 
-            timestamp = systemTimeMillis;
-            value = cell.getValue();
-            Builder<String, String> builder = ImmutableMap.<String, String>builder()
-                    .putAll(instanceTags)
-                    .put("package", cell.getRowKey().getDomain());
-            for (Entry<String, String> entry : propertyList.entrySet()) {
-                if (!entry.getKey().equals("type") && !entry.getKey().equals("name")) {
-                    String dequoted = dequote(entry.getValue());
-                    builder.put(entry.getKey(), NOT_ACCEPTED_CHARACTER_PATTERN.matcher(dequoted).replaceAll("_"));
-                }
-            }
-            tags = builder.build();
+        int statusCode = response.getStatusCode();
+        if (statusCode / 100 == 2) {
+            return true;
         }
-
-        private static String dequote(String value)
-        {
-            Matcher matcher = QUOTED_PATTERN.matcher(value);
-            String dequoted;
-            if (matcher.matches()) {
-                dequoted = BACKQUOTE_PATTERN.matcher(matcher.group(1)).replaceAll("$1");
-            }
-            else {
-                dequoted = value;
-            }
-            return dequoted;
+        if (statusCode / 100 == 4) {
+            logger.warn("Failed to report stats, discarding report: %s %s", statusCode, response.getStatusMessage());
+            discarded.update(1);
+            return true;
         }
+        logger.warn("Failed to report stats: %s %s", statusCode, response.getStatusMessage());
+        return false;
     }
 
-    private class CompressBodyGenerator implements BodyGenerator
+    /**
+     * Returns the reports rejected by the server, which are not retried.
+     */
+    CounterStat getDiscarded()
     {
-        private final long systemTimeMillis;
-        private final Table<ObjectName,String,Number> collectedData;
-
-        public CompressBodyGenerator(long systemTimeMillis, Table<ObjectName, String, Number> collectedData)
-        {
-            this.systemTimeMillis = systemTimeMillis;
-            this.collectedData = collectedData;
-        }
-
-        @Override
-        public void write(OutputStream out)
-                throws Exception
-        {
-            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(out);
-            JsonGenerator generator = JSON_FACTORY.createGenerator(gzipOutputStream, JsonEncoding.UTF8)
-                .setCodec(objectMapper);
-
-            generator.writeStartArray();
-
-            for (Cell<ObjectName, String, Number> cell : collectedData.cellSet()) {
-                generator.writeObject(new DataPoint(systemTimeMillis, cell, instanceTags));
-            }
-
-            generator.writeEndArray();
-            generator.flush();
-            gzipOutputStream.finish();
-        }
+        return discarded;
     }
 }
@@ -17,17 +17,38 @@ package com.proofpoint.reporting;
 
 import com.google.common.collect.ImmutableMap;
 import com.proofpoint.configuration.Config;
+import com.proofpoint.configuration.ConfigDescription;
 import com.proofpoint.configuration.ConfigMap;
 import com.proofpoint.configuration.DefunctConfig;
 import com.proofpoint.configuration.LegacyConfig;
+import com.proofpoint.units.DataSize;
+import com.proofpoint.units.DataSize.Unit;
+import com.proofpoint.units.Duration;
+import com.proofpoint.units.MinDuration;
 
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @DefunctConfig("report.uri")
 public class ReportClientConfig
 {
+    public static enum ReportFormat
+    {
+        JSON, COMPACT
+    }
+
     private boolean enabled = true;
     private Map<String, String> tags = ImmutableMap.of();
+    private boolean changedOnly = false;
+    private Duration fullReportInterval = new Duration(15, TimeUnit.MINUTES);
+    private String queueDirectory = null;
+    private DataSize queueMaxSize = new DataSize(16, Unit.MEGABYTE);
+    private int collectionThreads = 1;
+    private ReportFormat format = ReportFormat.JSON;
+    private Duration historyDuration = new Duration(0, TimeUnit.SECONDS);
+    private DataSize historyMaxSize = new DataSize(8, Unit.MEGABYTE);
 
     public boolean isEnabled()
     {
@@ -54,4 +75,114 @@ public class ReportClientConfig
         this.tags = tags;
         return this;
     }
+
+    public boolean isChangedOnly()
+    {
+        return changedOnly;
+    }
+
+    @Config("reporting.changed-only")
+    @ConfigDescription("Report only the values that changed since the previous report, with a full report every reporting.full-report-interval")
+    public ReportClientConfig setChangedOnly(boolean changedOnly)
+    {
+        this.changedOnly = changedOnly;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1m")
+    public Duration getFullReportInterval()
+    {
+        return fullReportInterval;
+    }
+
+    @Config("reporting.full-report-interval")
+    public ReportClientConfig setFullReportInterval(Duration fullReportInterval)
+    {
+        this.fullReportInterval = fullReportInterval;
+        return this;
+    }
+
+    public String getQueueDirectory()
+    {
+        return queueDirectory;
+    }
+
+    @Config("reporting.queue.directory")
+    @ConfigDescription("Directory in which to keep reports awaiting upload; if not set, they are kept in memory")
+    public ReportClientConfig setQueueDirectory(String queueDirectory)
+    {
+        this.queueDirectory = queueDirectory;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getQueueMaxSize()
+    {
+        return queueMaxSize;
+    }
+
+    @Config("reporting.queue.max-size")
+    @ConfigDescription("Maximum size of the reports awaiting upload, above which the oldest are dropped")
+    public ReportClientConfig setQueueMaxSize(DataSize queueMaxSize)
+    {
+        this.queueMaxSize = queueMaxSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getCollectionThreads()
+    {
+        return collectionThreads;
+    }
+
+    @Config("reporting.collection-threads")
+    @ConfigDescription("Number of threads reading the reported values of large registries in parallel")
+    public ReportClientConfig setCollectionThreads(int collectionThreads)
+    {
+        this.collectionThreads = collectionThreads;
+        return this;
+    }
+
+    @NotNull
+    public ReportFormat getFormat()
+    {
+        return format;
+    }
+
+    @Config("reporting.format")
+    @ConfigDescription("Encoding of uploaded reports: JSON for gzip compressed JSON or COMPACT for the compact binary format")
+    public ReportClientConfig setFormat(ReportFormat format)
+    {
+        this.format = format;
+        return this;
+    }
+
+    @NotNull
+    public Duration getHistoryDuration()
+    {
+        return historyDuration;
+    }
+
+    @Config("reporting.history.duration")
+    @ConfigDescription("How long to keep the collected values in memory for the reporting history resource; 0s, the default, disables the history")
+    public ReportClientConfig setHistoryDuration(Duration historyDuration)
+    {
+        this.historyDuration = historyDuration;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getHistoryMaxSize()
+    {
+        return historyMaxSize;
+    }
+
+    @Config("reporting.history.max-size")
+    @ConfigDescription("Maximum size of the values kept in memory, above which the oldest are dropped")
+    public ReportClientConfig setHistoryMaxSize(DataSize historyMaxSize)
+    {
+        this.historyMaxSize = historyMaxSize;
+        return this;
+    }
 }
@@ -15,56 +15,100 @@
  */
 package com.proofpoint.reporting;
 
-import com.google.common.collect.ImmutableTable;
-import com.google.common.collect.Table;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.inject.Inject;
+import com.proofpoint.log.Logger;
+import com.proofpoint.reporting.ReportHistory.FrameWriter;
+import com.proofpoint.reporting.ReportedBeanRegistry.RegisteredBean;
 
+import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.management.AttributeNotFoundException;
 import javax.management.MBeanException;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 import javax.management.ReflectionException;
-import java.util.Map.Entry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor.DiscardOldestPolicy;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
+import static com.google.common.util.concurrent.Futures.getUnchecked;
 import static com.proofpoint.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 
 class ReportCollector
 {
+    private static final Logger log = Logger.get(ReportCollector.class);
+    private static final long INITIAL_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int SHARDS_PER_THREAD = 4;
+    private static final int MIN_SHARD_SIZE = 100;
+
     private ScheduledExecutorService collectionExecutorService = newSingleThreadScheduledExecutor(daemonThreadsNamed("reporting-collector-%s"));
     private MinuteBucketIdProvider bucketIdProvider;
     private ReportedBeanRegistry reportedBeanRegistry;
     private ExecutorService clientExecutorService;
+    private final int collectionThreads;
+    private final ExecutorService shardExecutorService;
     private ReportClient reportClient;
-    private static ObjectName REPORT_COLLECTOR_OBJECT_NAME;
+    private final ReportQueue reportQueue;
+    private final ReportHistory reportHistory;
+    private final boolean enabled;
+    private final boolean changedOnly;
+    private final long fullReportIntervalMillis;
+
+    // only accessed by the collection thread; reused so that a collection only allocates the values it reads
+    private final Map<RegisteredBean, Number[]> lastReportedValues = new WeakHashMap<>();
+    private long nextFullReportMillis = Long.MIN_VALUE;
+    private long lostReportCount = 0;
+    private final List<RegisteredBean> registeredBeans = new ArrayList<>();
+    private Number[][] lastValues = new Number[0][];
+    private final List<Shard> shards = new ArrayList<>();
+
+    private static ReportName REPORT_COLLECTOR_REPORT_NAME;
 
     static {
         try {
-            REPORT_COLLECTOR_OBJECT_NAME = ObjectName.getInstance("com.proofpoint.reporting", "name", "ReportCollector");
+            REPORT_COLLECTOR_REPORT_NAME = new ReportName(ObjectName.getInstance("com.proofpoint.reporting", "name", "ReportCollector"));
         }
         catch (MalformedObjectNameException e) {
-            REPORT_COLLECTOR_OBJECT_NAME = null;
+            REPORT_COLLECTOR_REPORT_NAME = null;
         }
     }
 
     @Inject
-    ReportCollector(MinuteBucketIdProvider bucketIdProvider, ReportedBeanRegistry reportedBeanRegistry, ReportClient reportClient)
+    ReportCollector(MinuteBucketIdProvider bucketIdProvider, ReportedBeanRegistry reportedBeanRegistry, ReportClient reportClient, ReportQueue reportQueue, ReportHistory reportHistory, ReportClientConfig reportClientConfig)
     {
         this.bucketIdProvider = checkNotNull(bucketIdProvider, "bucketIdProvider is null");
         this.reportedBeanRegistry = checkNotNull(reportedBeanRegistry, "reportedBeanRegistry is null");
         this.reportClient = checkNotNull(reportClient, "reportClient is null");
-        clientExecutorService = new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS, new LinkedBlockingQueue<Runnable>(5),
-                daemonThreadsNamed("reporting-client-%s"),
-                new DiscardOldestPolicy());
+        this.reportQueue = checkNotNull(reportQueue, "reportQueue is null");
+        this.reportHistory = checkNotNull(reportHistory, "reportHistory is null");
+        checkNotNull(reportClientConfig, "reportClientConfig is null");
+        enabled = reportClientConfig.isEnabled();
+        changedOnly = reportClientConfig.isChangedOnly();
+        fullReportIntervalMillis = reportClientConfig.getFullReportInterval().toMillis();
+        clientExecutorService = newSingleThreadExecutor(daemonThreadsNamed("reporting-client-%s"));
+        collectionThreads = reportClientConfig.getCollectionThreads();
+        if (collectionThreads > 1) {
+            shardExecutorService = newFixedThreadPool(collectionThreads, daemonThreadsNamed("reporting-collector-shard-%s"));
+        }
+        else {
+            shardExecutorService = null;
+        }
     }
 
     @PostConstruct
@@ -77,16 +121,207 @@ class ReportCollector
             {
                 collectData();
             }
-        }, 1, 1, TimeUnit.MINUTES);
+        }, bucketIdProvider.getBucketWidthMillis(), bucketIdProvider.getBucketWidthMillis(), TimeUnit.MILLISECONDS);
+        clientExecutorService.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    uploadQueuedReports();
+                }
+                catch (InterruptedException ignored) {
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        collectionExecutorService.shutdownNow();
+        if (shardExecutorService != null) {
+            shardExecutorService.shutdownNow();
+        }
+        clientExecutorService.shutdownNow();
+        reportQueue.close();
     }
 
     private void collectData()
     {
-        final long lastSystemTimeMillis = bucketIdProvider.getLastSystemTimeMillis();
-        ImmutableTable.Builder<ObjectName, String, Number> builder = ImmutableTable.builder();
+        boolean historyEnabled = reportHistory.isEnabled();
+        if (!enabled && !historyEnabled) {
+            return;
+        }
+
+        long lastSystemTimeMillis = bucketIdProvider.getLastSystemTimeMillis();
+        ReportWriter writer = null;
+        FrameWriter frameWriter = null;
+        try {
+            if (enabled) {
+                writer = reportClient.createReportWriter(lastSystemTimeMillis);
+            }
+            if (historyEnabled) {
+                frameWriter = reportHistory.startFrame(lastSystemTimeMillis);
+            }
+
+            collect(lastSystemTimeMillis, writer, frameWriter);
+            if (writer != null) {
+                reportQueue.add(writer.finish());
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            log.warn(e, "Unable to collect report");
+        }
+        finally {
+            if (frameWriter != null) {
+                frameWriter.finish();
+            }
+        }
+    }
+
+    /**
+     * Uploads the queued reports in order until interrupted, retrying a failed
+     * upload with exponential backoff.
+     */
+    @VisibleForTesting
+    void uploadQueuedReports()
+            throws InterruptedException
+    {
+        long retryDelayMillis = INITIAL_RETRY_DELAY_MILLIS;
+        while (true) {
+            byte[] report = reportQueue.take();
+            if (reportClient.report(report)) {
+                reportQueue.remove(report);
+                retryDelayMillis = INITIAL_RETRY_DELAY_MILLIS;
+            }
+            else {
+                Thread.sleep(retryDelayMillis);
+                retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void collect(long systemTimeMillis, ReportSink sink)
+    {
+        collect(systemTimeMillis, sink, null);
+    }
+
+    /**
+     * Reads the reportable values and adds them to the report sink and the history
+     * sink, either of which may be null. When only changed values are reported,
+     * values equal to the ones read by the previous collection are not added to the
+     * report, except in a full report; the history gets every value. A report
+     * dropped from the queue or discarded by the server may have held the only
+     * copy of a changed value, so the report after one is lost is a full report.
+     * <p>
+     * With more than one collection thread, the registered beans are split into
+     * shards read in parallel, whose values are added to the sinks in order.
+     */
+    @VisibleForTesting
+    void collect(long systemTimeMillis, @Nullable ReportSink reportSink, @Nullable ReportSink historySink)
+    {
+        long startTime = System.nanoTime();
+        boolean fullReport = !changedOnly || systemTimeMillis >= nextFullReportMillis;
+        if (changedOnly && reportSink != null) {
+            long lostReportCount = reportQueue.getDropped().getTotalCount() + reportClient.getDiscarded().getTotalCount();
+            if (lostReportCount != this.lostReportCount) {
+                this.lostReportCount = lostReportCount;
+                fullReport = true;
+            }
+            if (fullReport) {
+                nextFullReportMillis = systemTimeMillis + fullReportIntervalMillis;
+            }
+        }
+
+        for (RegisteredBean registeredBean : reportedBeanRegistry.getRegisteredBeans()) {
+            registeredBeans.add(registeredBean);
+        }
+        Number[][] lastValues = null;
+        if (changedOnly && reportSink != null) {
+            if (this.lastValues.length < registeredBeans.size()) {
+                this.lastValues = new Number[registeredBeans.size() + registeredBeans.size() / 2][];
+            }
+            lastValues = this.lastValues;
+            for (int i = 0; i < registeredBeans.size(); i++) {
+                RegisteredBean registeredBean = registeredBeans.get(i);
+                lastValues[i] = lastReportedValues.get(registeredBean);
+                if (lastValues[i] == null) {
+                    lastValues[i] = new Number[registeredBean.getReportedBean().getAttributes().size()];
+                    lastReportedValues.put(registeredBean, lastValues[i]);
+                }
+            }
+        }
+
+        int numAtributes;
+        try {
+            if (shardExecutorService == null || registeredBeans.size() < 2 * MIN_SHARD_SIZE) {
+                numAtributes = collect(registeredBeans, lastValues, 0, registeredBeans.size(), fullReport, reportSink, historySink);
+            }
+            else {
+                numAtributes = collectSharded(lastValues, fullReport, reportSink, historySink);
+            }
+        }
+        finally {
+            // don't keep unregistered beans reachable until the next collection
+            if (lastValues != null) {
+                Arrays.fill(lastValues, 0, registeredBeans.size(), null);
+            }
+            registeredBeans.clear();
+        }
+
+        double collectionTime = (System.nanoTime() - startTime) / 1_000_000_000.0;
+        if (reportSink != null) {
+            reportSink.add(REPORT_COLLECTOR_REPORT_NAME, "NumMetrics", numAtributes);
+            reportSink.add(REPORT_COLLECTOR_REPORT_NAME, "CollectionTime", collectionTime);
+        }
+        if (historySink != null) {
+            historySink.add(REPORT_COLLECTOR_REPORT_NAME, "NumMetrics", numAtributes);
+            historySink.add(REPORT_COLLECTOR_REPORT_NAME, "CollectionTime", collectionTime);
+        }
+    }
+
+    private int collectSharded(Number[][] lastValues, boolean fullReport, @Nullable ReportSink reportSink, @Nullable ReportSink historySink)
+    {
+        int shardCount = Math.min(collectionThreads * SHARDS_PER_THREAD, registeredBeans.size() / MIN_SHARD_SIZE);
+        while (shards.size() < shardCount) {
+            shards.add(new Shard());
+        }
+        List<Shard> tasks = shards.subList(0, shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            int from = (int) ((long) registeredBeans.size() * shard / shardCount);
+            int to = (int) ((long) registeredBeans.size() * (shard + 1) / shardCount);
+            tasks.get(shard).prepare(registeredBeans, lastValues, from, to, fullReport, reportSink != null, historySink != null);
+        }
+
+        List<Future<Integer>> futures;
+        try {
+            futures = shardExecutorService.invokeAll(tasks);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw propagate(e);
+        }
+
         int numAtributes = 0;
-        for (Entry<ObjectName, ReportedBean> reportedBeanEntry : reportedBeanRegistry.getReportedBeans().entrySet()) {
-            for (ReportedBeanAttribute attribute : reportedBeanEntry.getValue().getAttributes()) {
+        for (int shard = 0; shard < shardCount; shard++) {
+            numAtributes += getUnchecked(futures.get(shard));
+            tasks.get(shard).writeTo(reportSink, historySink);
+        }
+        return numAtributes;
+    }
+
+    private static int collect(List<RegisteredBean> registeredBeans, @Nullable Number[][] allLastValues, int from, int to, boolean fullReport,
+            @Nullable ReportSink reportSink, @Nullable ReportSink historySink)
+    {
+        int numAtributes = 0;
+        for (int i = from; i < to; i++) {
+            RegisteredBean registeredBean = registeredBeans.get(i);
+            Number[] lastValues = allLastValues == null ? null : allLastValues[i];
+
+            int index = 0;
+            for (ReportedBeanAttribute attribute : registeredBean.getReportedBean().getAttributes()) {
                 Number value = null;
 
                 try {
@@ -97,20 +332,28 @@ class ReportCollector
 
                 if (isReportable(value)) {
                     ++numAtributes;
-                    builder.put(reportedBeanEntry.getKey(), attribute.getName(), value);
+                    if (historySink != null) {
+                        historySink.add(registeredBean.getReportName(), attribute.getName(), value);
+                    }
+                    if (lastValues == null) {
+                        if (reportSink != null) {
+                            reportSink.add(registeredBean.getReportName(), attribute.getName(), value);
+                        }
+                    }
+                    else {
+                        if (fullReport || !value.equals(lastValues[index])) {
+                            reportSink.add(registeredBean.getReportName(), attribute.getName(), value);
+                        }
+                        lastValues[index] = value;
+                    }
+                }
+                else if (lastValues != null) {
+                    lastValues[index] = null;
                 }
+                ++index;
             }
         }
-        builder.put(REPORT_COLLECTOR_OBJECT_NAME, "NumMetrics", numAtributes);
-        final Table<ObjectName, String, Number> collectedData = builder.build();
-        clientExecutorService.submit(new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                reportClient.report(lastSystemTimeMillis, collectedData);
-            }
-        });
+        return numAtributes;
     }
 
     private static boolean isReportable(Number value)
@@ -135,4 +378,97 @@ class ReportCollector
         }
         return true;
     }
+
+    /**
+     * Holds the values read by one shard until they are added to the report.
+     */
+    private static class BufferedReportSink
+            implements ReportSink
+    {
+        private ReportName[] reportNames = new ReportName[64];
+        private String[] names = new String[64];
+        private Number[] values = new Number[64];
+        private int size = 0;
+
+        @Override
+        public void add(ReportName reportName, String name, Number value)
+        {
+            if (size == values.length) {
+                int capacity = size * 2;
+                reportNames = Arrays.copyOf(reportNames, capacity);
+                names = Arrays.copyOf(names, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            reportNames[size] = reportName;
+            names[size] = name;
+            values[size] = value;
+            ++size;
+        }
+
+        void writeTo(ReportSink sink)
+        {
+            for (int i = 0; i < size; i++) {
+                sink.add(reportNames[i], names[i], values[i]);
+            }
+        }
+
+        void clear()
+        {
+            Arrays.fill(reportNames, 0, size, null);
+            Arrays.fill(names, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * Reads one shard of the registered beans into buffers for the report and the
+     * history. Reused by every sharded collection.
+     */
+    private static class Shard
+            implements Callable<Integer>
+    {
+        private final BufferedReportSink reportBuffer = new BufferedReportSink();
+        private final BufferedReportSink historyBuffer = new BufferedReportSink();
+        private List<RegisteredBean> registeredBeans;
+        private Number[][] lastValues;
+        private int from;
+        private int to;
+        private boolean fullReport;
+        private boolean report;
+        private boolean history;
+
+        void prepare(List<RegisteredBean> registeredBeans, @Nullable Number[][] lastValues, int from, int to, boolean fullReport, boolean report, boolean history)
+        {
+            reportBuffer.clear();
+            historyBuffer.clear();
+            this.registeredBeans = registeredBeans;
+            this.lastValues = lastValues;
+            this.from = from;
+            this.to = to;
+            this.fullReport = fullReport;
+            this.report = report;
+            this.history = history;
+        }
+
+        @Override
+        public Integer call()
+        {
+            return collect(registeredBeans, lastValues, from, to, fullReport, report ? reportBuffer : null, history ? historyBuffer : null);
+        }
+
+        void writeTo(@Nullable ReportSink reportSink, @Nullable ReportSink historySink)
+        {
+            if (reportSink != null) {
+                reportBuffer.writeTo(reportSink);
+            }
+            if (historySink != null) {
+                historyBuffer.writeTo(historySink);
+            }
+            reportBuffer.clear();
+            historyBuffer.clear();
+            registeredBeans = null;
+            lastValues = null;
+        }
+    }
 }
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Keeps the values of the most recent collections in memory, so that they can be
+ * queried locally when the reporting service is unavailable.
+ * <p>
+ * Each collection is stored as a frame of data points, each encoded as the
+ * difference from the previous point's series id and the XOR of its value with
+ * the previous value of its series. Every {@value #KEYFRAME_INTERVAL} frames start
+ * a new group whose values are encoded against zero, and the oldest groups are
+ * dropped once they are older than {@code reporting.history.duration} or the
+ * frames exceed {@code reporting.history.max-size}.
+ * <p>
+ * Values are stored as doubles, so longs beyond 2<sup>53</sup> lose precision.
+ */
+@ThreadSafe
+class ReportHistory
+{
+    static final int KEYFRAME_INTERVAL = 16;
+    // estimated size of a frame other than its data
+    private static final int FRAME_OVERHEAD = 48;
+
+    private final long durationMillis;
+    private final long maxSize;
+
+    @GuardedBy("this")
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    @GuardedBy("this")
+    private long size = 0;
+    @GuardedBy("this")
+    private boolean groupDropped = false;
+
+    private final Map<Integer, Series> seriesById = new ConcurrentHashMap<>();
+
+    // only accessed by the collection thread
+    private final Map<ReportName, Map<String, Series>> seriesByReportName = new HashMap<>();
+    private int nextSeriesId = 0;
+    private long frameNumber = 0;
+    private long group = -1;
+    private int framesInGroup = KEYFRAME_INTERVAL;
+    private final FrameWriter frameWriter = new FrameWriter();
+
+    @Inject
+    ReportHistory(ReportClientConfig reportClientConfig)
+    {
+        checkNotNull(reportClientConfig, "reportClientConfig is null");
+        durationMillis = reportClientConfig.getHistoryDuration().toMillis();
+        maxSize = reportClientConfig.getHistoryMaxSize().toBytes();
+    }
+
+    boolean isEnabled()
+    {
+        return durationMillis > 0 && maxSize > 0;
+    }
+
+    /**
+     * Starts the frame of a collection. The returned sink must only be used by
+     * the collection thread, until {@link FrameWriter#finish()} is called.
+     */
+    FrameWriter startFrame(long systemTimeMillis)
+    {
+        boolean keyframe;
+        synchronized (this) {
+            keyframe = groupDropped || framesInGroup == KEYFRAME_INTERVAL;
+            groupDropped = false;
+        }
+        if (keyframe) {
+            ++group;
+            framesInGroup = 0;
+        }
+        ++framesInGroup;
+        ++frameNumber;
+        frameWriter.start(systemTimeMillis, keyframe);
+        return frameWriter;
+    }
+
+    /**
+     * Returns the stored values of the series whose name matches the pattern,
+     * between the times in milliseconds since the epoch, inclusive.
+     */
+    List<HistorySeries> query(@Nullable Pattern namePattern, long fromMillis, long toMillis)
+    {
+        List<Frame> frames;
+        synchronized (this) {
+            frames = new ArrayList<>(this.frames);
+        }
+
+        // start decoding at the last group beginning at or before the requested time
+        int start = 0;
+        for (int i = 0; i < frames.size(); i++) {
+            Frame frame = frames.get(i);
+            if (frame.timestamp > fromMillis) {
+                break;
+            }
+            if (frame.keyframe) {
+                start = i;
+            }
+        }
+
+        Map<Integer, Long> lastBits = new HashMap<>();
+        Map<Integer, HistorySeries.Builder> matchedSeries = new HashMap<>();
+        Map<List<Object>, HistorySeries.Builder> results = new LinkedHashMap<>();
+        for (Frame frame : frames.subList(start, frames.size())) {
+            if (frame.timestamp > toMillis) {
+                break;
+            }
+            if (frame.keyframe) {
+                lastBits.clear();
+            }
+            boolean inRange = frame.timestamp >= fromMillis;
+
+            byte[] data = frame.data;
+            int position = 0;
+            int seriesId = 0;
+            while (position < data.length) {
+                // series id delta, zigzag varint
+                int delta = 0;
+                int shift = 0;
+                int b;
+                do {
+                    b = data[position++];
+                    delta |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                seriesId += (delta >>> 1) ^ -(delta & 1);
+
+                // XOR with the series' previous value
+                int header = data[position++] & 0xff;
+                long xor = 0;
+                int length = header & 0x0f;
+                if (length != 0) {
+                    int trailingBytes = 8 - (header >>> 4) - length;
+                    for (int i = 0; i < length; i++) {
+                        xor = (xor << 8) | (data[position++] & 0xff);
+                    }
+                    xor <<= trailingBytes * 8;
+                }
+                Long previous = lastBits.get(seriesId);
+                long bits = (previous == null ? 0 : previous) ^ xor;
+                lastBits.put(seriesId, bits);
+
+                if (inRange) {
+                    HistorySeries.Builder builder = getMatchingSeries(seriesId, namePattern, matchedSeries, results);
+                    if (builder != null) {
+                        builder.add(frame.timestamp, Double.longBitsToDouble(bits));
+                    }
+                }
+            }
+        }
+
+        ImmutableList.Builder<HistorySeries> series = ImmutableList.builder();
+        for (HistorySeries.Builder builder : results.values()) {
+            series.add(builder.build());
+        }
+        return series.build();
+    }
+
+    @Nullable
+    private HistorySeries.Builder getMatchingSeries(int seriesId, @Nullable Pattern namePattern, Map<Integer, HistorySeries.Builder> matchedSeries, Map<List<Object>, HistorySeries.Builder> results)
+    {
+        if (matchedSeries.containsKey(seriesId)) {
+            return matchedSeries.get(seriesId);
+        }
+        HistorySeries.Builder builder = null;
+        // a series dropped since the frames were copied is no longer queryable
+        Series series = seriesById.get(seriesId);
+        if (series != null && (namePattern == null || namePattern.matcher(series.name).find())) {
+            // a bean registered again under the same name continues the same series
+            List<Object> key = ImmutableList.<Object>of(series.name, series.tags);
+            builder = results.get(key);
+            if (builder == null) {
+                builder = new HistorySeries.Builder(series.name, series.tags);
+                results.put(key, builder);
+            }
+        }
+        matchedSeries.put(seriesId, builder);
+        return builder;
+    }
+
+    private void addFrame(Frame frame)
+    {
+        long oldestFrameNumber;
+        synchronized (this) {
+            frames.add(frame);
+            size += frame.data.length + FRAME_OVERHEAD;
+
+            long minTimestamp = frame.timestamp - durationMillis;
+            while (!frames.isEmpty() && (size > maxSize || frames.getFirst().timestamp < minTimestamp)) {
+                // drop a whole group, as its frames can't be decoded without its first one
+                do {
+                    Frame dropped = frames.removeFirst();
+                    size -= dropped.data.length + FRAME_OVERHEAD;
+                } while (!frames.isEmpty() && !frames.getFirst().keyframe);
+            }
+
+            if (frames.isEmpty()) {
+                groupDropped = true;
+                return;
+            }
+            oldestFrameNumber = frames.getFirst().number;
+        }
+
+        // forget the series not in any remaining frame
+        for (Iterator<Map<String, Series>> reportNameIterator = seriesByReportName.values().iterator(); reportNameIterator.hasNext(); ) {
+            Map<String, Series> seriesByName = reportNameIterator.next();
+            for (Iterator<Series> iterator = seriesByName.values().iterator(); iterator.hasNext(); ) {
+                Series series = iterator.next();
+                if (series.lastFrameNumber < oldestFrameNumber) {
+                    seriesById.remove(series.id);
+                    iterator.remove();
+                }
+            }
+            if (seriesByName.isEmpty()) {
+                reportNameIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Encodes the data points of one collection.
+     */
+    @NotThreadSafe
+    class FrameWriter
+            implements ReportSink
+    {
+        private byte[] buffer = new byte[4096];
+        private int position;
+        private long systemTimeMillis;
+        private boolean keyframe;
+        private boolean started = false;
+        private int lastSeriesId;
+        private ReportName lastReportName;
+        private Map<String, Series> lastSeriesByName;
+
+        private void start(long systemTimeMillis, boolean keyframe)
+        {
+            checkState(!started, "previous frame not finished");
+            this.systemTimeMillis = systemTimeMillis;
+            this.keyframe = keyframe;
+            started = true;
+            position = 0;
+            lastSeriesId = 0;
+        }
+
+        @Override
+        public void add(ReportName reportName, String name, Number value)
+        {
+            checkState(started, "frame not started");
+            Series series = getSeries(reportName, name);
+
+            ensureCapacity(5 + 1 + 8);
+            int delta = series.id - lastSeriesId;
+            writeVarint((delta << 1) ^ (delta >> 31));
+            lastSeriesId = series.id;
+
+            long bits = Double.doubleToRawLongBits(value.doubleValue());
+            long xor = bits;
+            if (series.lastGroup == group) {
+                xor ^= series.lastBits;
+            }
+            series.lastBits = bits;
+            series.lastGroup = group;
+            series.lastFrameNumber = frameNumber;
+
+            if (xor == 0) {
+                buffer[position++] = 0;
+                return;
+            }
+            int leadingBytes = Long.numberOfLeadingZeros(xor) / 8;
+            int trailingBytes = Long.numberOfTrailingZeros(xor) / 8;
+            int length = 8 - leadingBytes - trailingBytes;
+            buffer[position++] = (byte) ((leadingBytes << 4) | length);
+            for (int i = length - 1; i >= 0; i--) {
+                buffer[position++] = (byte) (xor >>> ((trailingBytes + i) * 8));
+            }
+        }
+
+        void finish()
+        {
+            checkState(started, "frame not started");
+            started = false;
+            lastReportName = null;
+            lastSeriesByName = null;
+            addFrame(new Frame(frameNumber, systemTimeMillis, keyframe, Arrays.copyOf(buffer, position)));
+        }
+
+        private Series getSeries(ReportName reportName, String name)
+        {
+            // consecutive points are usually attributes of the same bean
+            if (reportName != lastReportName) {
+                lastSeriesByName = seriesByReportName.get(reportName);
+                if (lastSeriesByName == null) {
+                    lastSeriesByName = new HashMap<>();
+                    seriesByReportName.put(reportName, lastSeriesByName);
+                }
+                lastReportName = reportName;
+            }
+            Series series = lastSeriesByName.get(name);
+            if (series == null) {
+                series = new Series(nextSeriesId++, reportName.getNamePrefix() + name, reportName.getTags());
+                lastSeriesByName.put(name, series);
+                seriesById.put(series.id, series);
+            }
+            return series;
+        }
+
+        private void ensureCapacity(int length)
+        {
+            if (position + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+            }
+        }
+
+        private void writeVarint(int value)
+        {
+            while ((value & ~0x7f) != 0) {
+                buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+    }
+
+    private static class Frame
+    {
+        private final long number;
+        private final long timestamp;
+        private final boolean keyframe;
+        private final byte[] data;
+
+        private Frame(long number, long timestamp, boolean keyframe, byte[] data)
+        {
+            this.number = number;
+            this.timestamp = timestamp;
+            this.keyframe = keyframe;
+            this.data = data;
+        }
+    }
+
+    private static class Series
+    {
+        private final int id;
+        private final String name;
+        private final Map<String, String> tags;
+
+        // only accessed by the collection thread
+        private long lastBits;
+        private long lastGroup = -1;
+        private long lastFrameNumber;
+
+        private Series(int id, String name, Map<String, String> tags)
+        {
+            this.id = id;
+            this.name = name;
+            this.tags = tags;
+        }
+    }
+}
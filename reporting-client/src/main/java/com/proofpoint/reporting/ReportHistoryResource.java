@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.google.inject.Inject;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Returns the values kept by the reporting history. The optional {@code name}
+ * parameter is a regular expression found in the names of the returned metrics, and
+ * {@code from} and {@code to} limit the points to a time range, in milliseconds since
+ * the epoch.
+ */
+@Path("/admin/reporting/history")
+public class ReportHistoryResource
+{
+    private final ReportHistory reportHistory;
+
+    @Inject
+    ReportHistoryResource(ReportHistory reportHistory)
+    {
+        this.reportHistory = checkNotNull(reportHistory, "reportHistory is null");
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<HistorySeries> getHistory(@QueryParam("name") String name, @QueryParam("from") Long fromMillis, @QueryParam("to") Long toMillis)
+    {
+        Pattern namePattern = null;
+        if (name != null) {
+            try {
+                namePattern = Pattern.compile(name);
+            }
+            catch (PatternSyntaxException e) {
+                throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                        .type(MediaType.TEXT_PLAIN)
+                        .entity("Invalid name pattern: " + e.getMessage())
+                        .build());
+            }
+        }
+        return reportHistory.query(namePattern,
+                fromMillis == null ? Long.MIN_VALUE : fromMillis,
+                toMillis == null ? Long.MAX_VALUE : toMillis);
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import com.proofpoint.log.Logger;
+import com.proofpoint.stats.CounterStat;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.primitives.Ints.checkedCast;
+
+/**
+ * A bounded FIFO queue of compressed reports awaiting upload.
+ * <p>
+ * Reports are appended to fixed-size segments, which are memory-mapped files in
+ * the queue directory or, when there is no directory, heap buffers. A segment is
+ * deleted once all of its reports are removed. Reports left in the directory by a
+ * previous process are recovered on startup. When adding a report would exceed
+ * the maximum size, the oldest segments are dropped.
+ * <p>
+ * Delivery is at least once: a report that was uploaded but whose removal had
+ * not reached the segment file before a crash is uploaded again on restart.
+ */
+@ThreadSafe
+public class ReportQueue
+        implements Closeable
+{
+    private static final Logger log = Logger.get(ReportQueue.class);
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    @VisibleForTesting
+    static final int SEGMENT_SIZE = 1024 * 1024;
+
+    @Nullable
+    private final File directory;
+    private final int segmentSize;
+    private final long maxSize;
+
+    @GuardedBy("this")
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    @GuardedBy("this")
+    private long nextSegmentId = 0;
+    @GuardedBy("this")
+    private long allocatedSize = 0;
+    @GuardedBy("this")
+    private int depth = 0;
+    @GuardedBy("this")
+    private long size = 0;
+    @GuardedBy("this")
+    private byte[] head = null;
+
+    private final CounterStat dropped = new CounterStat();
+
+    @Inject
+    public ReportQueue(ReportClientConfig reportClientConfig)
+            throws IOException
+    {
+        this(reportClientConfig.getQueueDirectory() == null ? null : new File(reportClientConfig.getQueueDirectory()),
+                SEGMENT_SIZE,
+                reportClientConfig.getQueueMaxSize().toBytes());
+    }
+
+    @VisibleForTesting
+    ReportQueue(@Nullable File directory, int segmentSize, long maxSize)
+            throws IOException
+    {
+        checkArgument(segmentSize > Segment.HEADER_SIZE + Segment.RECORD_HEADER_SIZE, "segmentSize is too small");
+        checkArgument(maxSize >= segmentSize, "maxSize is less than segmentSize");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+
+        if (directory != null) {
+            recover(directory);
+        }
+    }
+
+    /**
+     * Appends a report, dropping the oldest reports if necessary to make room for it.
+     */
+    public synchronized void add(byte[] report)
+            throws IOException
+    {
+        int recordSize = Segment.RECORD_HEADER_SIZE + report.length;
+        Segment tail = segments.peekLast();
+        if (tail == null || !tail.hasRoom(recordSize)) {
+            long capacity = Math.max(segmentSize, (long) Segment.HEADER_SIZE + recordSize);
+            if (capacity > maxSize) {
+                dropped.update(1);
+                log.warn("Dropping report of %s bytes, which is larger than the report queue", report.length);
+                return;
+            }
+
+            if (tail != null && tail.isEmpty()) {
+                removeSegment(segments.removeLast());
+            }
+            while (allocatedSize + capacity > maxSize) {
+                dropOldestSegment();
+            }
+
+            tail = createSegment(checkedCast(capacity));
+            segments.addLast(tail);
+            allocatedSize += tail.getCapacity();
+        }
+
+        tail.append(report);
+        ++depth;
+        size += report.length;
+        notifyAll();
+    }
+
+    /**
+     * Returns the oldest report, waiting for one if the queue is empty. The report
+     * stays in the queue until passed to {@link #remove(byte[])}.
+     */
+    public synchronized byte[] take()
+            throws InterruptedException
+    {
+        while (depth == 0) {
+            wait();
+        }
+        if (head == null) {
+            head = headSegment().peek();
+        }
+        return head;
+    }
+
+    /**
+     * Removes a report returned by {@link #take()}. Does nothing if the report
+     * has since been dropped.
+     */
+    public synchronized void remove(byte[] report)
+    {
+        if (report != head) {
+            return;
+        }
+        head = null;
+
+        Segment segment = headSegment();
+        int length = segment.remove();
+        --depth;
+        size -= length;
+        if (segment.isEmpty() && segments.size() > 1) {
+            removeSegment(segments.removeFirst());
+        }
+    }
+
+    @Gauge(description = "Number of reports in the queue")
+    public synchronized int getDepth()
+    {
+        return depth;
+    }
+
+    @Gauge(description = "Total bytes of the reports in the queue")
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    @Gauge(description = "Bytes allocated to queue segments")
+    public synchronized long getAllocatedSize()
+    {
+        return allocatedSize;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getDropped()
+    {
+        return dropped;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        for (Segment segment : segments) {
+            segment.force();
+        }
+    }
+
+    private Segment headSegment()
+    {
+        Segment segment = segments.peekFirst();
+        while (segment.isEmpty()) {
+            removeSegment(segments.removeFirst());
+            segment = segments.peekFirst();
+        }
+        return segment;
+    }
+
+    private void dropOldestSegment()
+    {
+        Segment segment = segments.removeFirst();
+        if (!segment.isEmpty()) {
+            log.warn("Report queue is full, dropping %s reports", segment.getDepth());
+            dropped.update(segment.getDepth());
+            depth -= segment.getDepth();
+            size -= segment.getSize();
+            head = null;
+        }
+        removeSegment(segment);
+    }
+
+    private void removeSegment(Segment segment)
+    {
+        allocatedSize -= segment.getCapacity();
+        segment.delete();
+    }
+
+    private Segment createSegment(int capacity)
+            throws IOException
+    {
+        long id = nextSegmentId++;
+        if (directory == null) {
+            return Segment.create(null, ByteBuffer.allocate(capacity));
+        }
+        File file = new File(directory, String.format("%019d%s", id, SEGMENT_SUFFIX));
+        return Segment.create(file, map(file, capacity));
+    }
+
+    private void recover(File directory)
+            throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create report queue directory " + directory);
+        }
+
+        File[] files = directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(SEGMENT_SUFFIX) && name.length() == 19 + SEGMENT_SUFFIX.length();
+            }
+        });
+        if (files == null) {
+            throw new IOException("Unable to list report queue directory " + directory);
+        }
+        Arrays.sort(files);
+
+        for (File file : files) {
+            long id;
+            try {
+                id = Long.parseLong(file.getName().substring(0, 19));
+            }
+            catch (NumberFormatException e) {
+                continue;
+            }
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+
+            Segment segment = Segment.open(file, map(file, checkedCast(file.length())));
+            if (segment == null) {
+                log.warn("Deleting invalid report queue segment %s", file);
+                if (!file.delete()) {
+                    log.warn("Unable to delete %s", file);
+                }
+                continue;
+            }
+            segments.addLast(segment);
+            allocatedSize += segment.getCapacity();
+            depth += segment.getDepth();
+            size += segment.getSize();
+        }
+
+        while (!segments.isEmpty() && (allocatedSize > maxSize || segments.peekFirst().isEmpty())) {
+            dropOldestSegment();
+        }
+        if (depth > 0) {
+            log.info("Recovered %s queued reports from %s", depth, directory);
+        }
+    }
+
+    private static MappedByteBuffer map(File file, int capacity)
+            throws IOException
+    {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(capacity);
+            return randomAccessFile.getChannel().map(MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    /**
+     * A segment is a header holding a magic number and the position of its first
+     * unremoved record, followed by records of a length, a CRC32 of the report and
+     * the report. A zero length marks the end of the records.
+     */
+    private static class Segment
+    {
+        private static final int MAGIC = 0x52505131;
+        private static final int READ_POSITION_OFFSET = 4;
+        private static final int HEADER_SIZE = 8;
+        private static final int RECORD_HEADER_SIZE = 8;
+
+        @Nullable
+        private final File file;
+        private final ByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+        private int depth;
+        private long size;
+
+        private Segment(@Nullable File file, ByteBuffer buffer, int readPosition, int writePosition, int depth, long size)
+        {
+            this.file = file;
+            this.buffer = buffer;
+            this.readPosition = readPosition;
+            this.writePosition = writePosition;
+            this.depth = depth;
+            this.size = size;
+        }
+
+        static Segment create(@Nullable File file, ByteBuffer buffer)
+        {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(READ_POSITION_OFFSET, HEADER_SIZE);
+            buffer.putInt(HEADER_SIZE, 0);
+            return new Segment(file, buffer, HEADER_SIZE, HEADER_SIZE, 0, 0);
+        }
+
+        @Nullable
+        static Segment open(File file, ByteBuffer buffer)
+        {
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                return null;
+            }
+            int readPosition = buffer.getInt(READ_POSITION_OFFSET);
+            if (readPosition < HEADER_SIZE || readPosition > buffer.capacity()) {
+                return null;
+            }
+
+            // a record that is incomplete or fails its checksum ends the segment
+            int position = readPosition;
+            int depth = 0;
+            long size = 0;
+            CRC32 crc32 = new CRC32();
+            while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || length > buffer.capacity() - position - RECORD_HEADER_SIZE) {
+                    break;
+                }
+                byte[] report = read(buffer, position + RECORD_HEADER_SIZE, length);
+                crc32.reset();
+                crc32.update(report);
+                if ((int) crc32.getValue() != buffer.getInt(position + 4)) {
+                    break;
+                }
+                position += RECORD_HEADER_SIZE + length;
+                ++depth;
+                size += length;
+            }
+            return new Segment(file, buffer, readPosition, position, depth, size);
+        }
+
+        int getCapacity()
+        {
+            return buffer.capacity();
+        }
+
+        int getDepth()
+        {
+            return depth;
+        }
+
+        long getSize()
+        {
+            return size;
+        }
+
+        boolean isEmpty()
+        {
+            return depth == 0;
+        }
+
+        boolean hasRoom(int recordSize)
+        {
+            return recordSize <= buffer.capacity() - writePosition;
+        }
+
+        void append(byte[] report)
+        {
+            CRC32 crc32 = new CRC32();
+            crc32.update(report);
+
+            // the length is written last, so a partially written record is not read back
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(writePosition + RECORD_HEADER_SIZE);
+            duplicate.put(report);
+            int endPosition = duplicate.position();
+            if (endPosition + 4 <= buffer.capacity()) {
+                buffer.putInt(endPosition, 0);
+            }
+            buffer.putInt(writePosition + 4, (int) crc32.getValue());
+            buffer.putInt(writePosition, report.length);
+            writePosition = endPosition;
+            ++depth;
+            size += report.length;
+            force();
+        }
+
+        byte[] peek()
+        {
+            return read(buffer, readPosition + RECORD_HEADER_SIZE, buffer.getInt(readPosition));
+        }
+
+        int remove()
+        {
+            int length = buffer.getInt(readPosition);
+            readPosition += RECORD_HEADER_SIZE + length;
+            buffer.putInt(READ_POSITION_OFFSET, readPosition);
+            force();
+            --depth;
+            size -= length;
+            return length;
+        }
+
+        void force()
+        {
+            if (buffer instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) buffer).force();
+            }
+        }
+
+        void delete()
+        {
+            if (buffer instanceof MappedByteBuffer) {
+                unmap((MappedByteBuffer) buffer);
+            }
+            if (file != null && !file.delete()) {
+                log.warn("Unable to delete report queue segment %s", file);
+            }
+        }
+
+        /**
+         * Releases the mapping now rather than when the buffer is garbage collected,
+         * so the space of a deleted segment file is freed. The buffer must not be
+         * used afterwards.
+         */
+        private static void unmap(MappedByteBuffer buffer)
+        {
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    Method cleanMethod = cleaner.getClass().getMethod("clean");
+                    cleanMethod.setAccessible(true);
+                    cleanMethod.invoke(cleaner);
+                }
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                log.debug(e, "Unable to unmap report queue segment; it is unmapped when garbage collected");
+            }
+        }
+
+        private static byte[] read(ByteBuffer buffer, int position, int length)
+        {
+            byte[] bytes = new byte[length];
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(position);
+            duplicate.get(bytes);
+            return bytes;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import com.google.inject.Scopes;
 
 import static com.proofpoint.configuration.ConfigurationModule.bindConfig;
 import static com.proofpoint.discovery.client.DiscoveryBinder.discoveryBinder;
+import static com.proofpoint.reporting.ReportBinder.reportBinder;
 
 public class ReportingClientModule
     implements Module
@@ -30,8 +31,13 @@ public class ReportingClientModule
     {
         binder.bind(ReportCollector.class).in(Scopes.SINGLETON);
         binder.bind(ReportClient.class).in(Scopes.SINGLETON);
+        binder.bind(ReportQueue.class).in(Scopes.SINGLETON);
+        binder.bind(ReportHistory.class).in(Scopes.SINGLETON);
+        binder.bind(ReportHistoryResource.class).in(Scopes.SINGLETON);
+        reportBinder(binder).export(ReportQueue.class).withGeneratedName();
 
         discoveryBinder(binder).bindDiscoveredHttpClient("reporting", ForReportClient.class);
         bindConfig(binder).to(ReportClientConfig.class);
+        bindConfig(binder).to(ReportingConfig.class);
     }
 }
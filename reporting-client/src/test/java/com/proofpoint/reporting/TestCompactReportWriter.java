@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.Test;
+
+import javax.management.ObjectName;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestCompactReportWriter
+{
+    @Test
+    public void testValues()
+            throws Exception
+    {
+        ReportName reportName = new ReportName(ObjectName.getInstance("com.example:type=Foo,name=Bar"));
+        Number[] values = {
+                0, -1, 1L, Long.MIN_VALUE, Long.MAX_VALUE, (short) 3, (byte) -4,
+                0.0, -0.0, 1.0, -2.0, 1.5, Double.NaN, Double.NEGATIVE_INFINITY, 1e300, 2.5f,
+                new BigDecimal("1.25"), new BigInteger("123456789012345678901234567890")
+        };
+        CompactReportWriter writer = new CompactReportWriter(1234, ImmutableMap.<String, String>of());
+        for (int i = 0; i < values.length; i++) {
+            writer.add(reportName, "Value" + i, values[i]);
+        }
+
+        List<Map<String, Object>> dataPoints = CompactReportDecoder.decode(writer.finish());
+        assertEquals(dataPoints.size(), values.length);
+        for (int i = 0; i < values.length; i++) {
+            Object expected;
+            if (values[i] instanceof Double || values[i] instanceof Float) {
+                expected = values[i].doubleValue();
+            }
+            else if (values[i] instanceof BigDecimal || values[i] instanceof BigInteger) {
+                expected = new BigDecimal(values[i].toString());
+            }
+            else {
+                expected = values[i].longValue();
+            }
+            assertEquals(dataPoints.get(i).get("name"), "Foo.Bar.Value" + i);
+            assertEquals(dataPoints.get(i).get("value"), expected, "value " + i);
+        }
+        assertEquals(Double.doubleToRawLongBits((Double) dataPoints.get(8).get("value")), Double.doubleToRawLongBits(-0.0));
+    }
+
+    @Test
+    public void testReferences()
+            throws Exception
+    {
+        ReportName foo = new ReportName(ObjectName.getInstance("com.example:type=Foo,tag=value"));
+        ReportName bar = new ReportName(ObjectName.getInstance("com.example:name=Bar,tag=value"));
+        CompactReportWriter writer = new CompactReportWriter(1234, ImmutableMap.of("host", "value"));
+        writer.add(foo, "Count", 1);
+        writer.add(bar, "Count", 2);
+        writer.add(foo, "Max:1", 3);
+        writer.add(bar, "Max:1", 4);
+        byte[] report = writer.finish();
+
+        List<Map<String, Object>> dataPoints = CompactReportDecoder.decode(report);
+        assertEquals(dataPoints.size(), 4);
+        assertDataPoint(dataPoints.get(0), "Foo.Count", 1L, ImmutableMap.of("host", "value", "package", "com.example", "tag", "value"));
+        assertDataPoint(dataPoints.get(1), "Bar.Count", 2L, ImmutableMap.of("host", "value", "package", "com.example", "tag", "value"));
+        assertDataPoint(dataPoints.get(2), "Foo.Max_1", 3L, ImmutableMap.of("host", "value", "package", "com.example", "tag", "value"));
+        assertDataPoint(dataPoints.get(3), "Bar.Max_1", 4L, ImmutableMap.of("host", "value", "package", "com.example", "tag", "value"));
+
+        for (Map<String, Object> dataPoint : dataPoints) {
+            assertEquals(dataPoint.get("timestamp"), 1234L);
+        }
+    }
+
+    @Test
+    public void testIsCompactReport()
+    {
+        assertTrue(CompactReportDecoder.isCompactReport(new CompactReportWriter(0, ImmutableMap.<String, String>of()).finish()));
+        assertFalse(CompactReportDecoder.isCompactReport(new JsonReportWriter(0, ImmutableMap.<String, String>of()).finish()));
+        assertFalse(CompactReportDecoder.isCompactReport(new byte[0]));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "report is truncated")
+    public void testTruncated()
+            throws Exception
+    {
+        CompactReportWriter writer = new CompactReportWriter(1234, ImmutableMap.<String, String>of());
+        writer.add(new ReportName(ObjectName.getInstance("com.example:name=Foo")), "Count", 1.5);
+        byte[] report = writer.finish();
+        CompactReportDecoder.decode(Arrays.copyOf(report, report.length - 1));
+    }
+
+    private static void assertDataPoint(Map<String, Object> dataPoint, String name, Object value, Map<String, String> tags)
+    {
+        assertEquals(dataPoint.get("name"), name);
+        assertEquals(dataPoint.get("value"), value);
+        assertEquals(dataPoint.get("tags"), tags);
+    }
+}
@@ -25,13 +25,14 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
 import com.proofpoint.http.client.HttpClient;
 import com.proofpoint.http.client.Request;
 import com.proofpoint.http.client.Response;
 import com.proofpoint.http.client.testing.TestingHttpClient;
-import com.proofpoint.json.ObjectMapperProvider;
 import com.proofpoint.node.NodeConfig;
 import com.proofpoint.node.NodeInfo;
+import com.proofpoint.reporting.ReportClientConfig.ReportFormat;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -58,7 +59,6 @@ public class TestReportClient
     private Table<ObjectName, String, Number> collectedData;
     private HttpClient httpClient;
     private List<Map<String, Object>> sentJson;
-    private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
 
     @BeforeMethod
     public void setup()
@@ -89,16 +89,16 @@ public class TestReportClient
                 throw new UnsupportedOperationException();
             }
         });
-        ReportClient client = new ReportClient(nodeInfo, httpClient, new ReportClientConfig().setEnabled(false), objectMapper);
-        client.report(System.currentTimeMillis(), collectedData);
+        ReportClient client = new ReportClient(nodeInfo, httpClient, new ReportClientConfig().setEnabled(false));
+        report(client, System.currentTimeMillis(), collectedData);
     }
 
     @Test
     public void testReportData()
     {
 
-        ReportClient client = new ReportClient(nodeInfo, httpClient, new ReportClientConfig(), objectMapper);
-        client.report(TEST_TIME, collectedData);
+        ReportClient client = new ReportClient(nodeInfo, httpClient, new ReportClientConfig());
+        report(client, TEST_TIME, collectedData);
         assertEquals(sentJson.size(), 2);
 
         for (Map<String, Object> map : sentJson) {
@@ -123,14 +123,52 @@ public class TestReportClient
         assertEquals(tags.keySet(), ImmutableSet.of("application", "host", "environment", "pool", "package"));
     }
 
+    @Test
+    public void testCompactFormat()
+    {
+        ReportClient client = new ReportClient(nodeInfo, httpClient, new ReportClientConfig().setFormat(ReportFormat.COMPACT));
+        report(client, TEST_TIME, collectedData);
+        assertEquals(sentJson.size(), 2);
+
+        for (Map<String, Object> map : sentJson) {
+            assertEquals(map.keySet(), ImmutableSet.of("name", "timestamp", "value", "tags"));
+            assertEquals(map.get("timestamp"), (long) TEST_TIME);
+            Map<String, String> tags = (Map<String, String>) map.get("tags");
+            assertEquals(tags.get("application"), "test-application");
+            assertEquals(tags.get("host"), "test.hostname");
+            assertEquals(tags.get("environment"), "test_environment");
+            assertEquals(tags.get("pool"), "test_pool");
+        }
+        assertEquals(sentJson.get(0).get("name"), "Foo.Ba_r.Size");
+        assertEquals(sentJson.get(1).get("name"), "Foo.Size");
+        assertEquals(sentJson.get(0).get("value"), 1.2);
+        assertEquals(sentJson.get(1).get("value"), 1.1);
+        Map<String, String> tags = (Map<String, String>) sentJson.get(0).get("tags");
+        assertEquals(tags.keySet(), ImmutableSet.of("application", "host", "environment", "pool", "package", "tag1"));
+        assertEquals(tags.get("package"), "com.example");
+        assertEquals(tags.get("tag1"), "B_a_z");
+    }
+
+    @Test
+    public void testQueuedReportKeepsItsFormat()
+    {
+        ReportClient jsonClient = new ReportClient(nodeInfo, httpClient, new ReportClientConfig());
+        ReportWriter writer = new ReportClient(nodeInfo, httpClient, new ReportClientConfig().setFormat(ReportFormat.COMPACT))
+                .createReportWriter(TEST_TIME);
+        writer.add(new ReportName(collectedData.rowKeySet().iterator().next()), "Size", 1);
+        jsonClient.report(writer.finish());
+        assertEquals(sentJson.size(), 1);
+        assertEquals(sentJson.get(0).get("value"), 1L);
+    }
+
     @Test
     public void testConfiguredTags()
     {
 
         ReportClient client = new ReportClient(nodeInfo, httpClient,
                 new ReportClientConfig()
-                        .setTags(ImmutableMap.of("foo", "ba:r", "baz", "quux")), objectMapper);
-        client.report(TEST_TIME, collectedData);
+                        .setTags(ImmutableMap.of("foo", "ba:r", "baz", "quux")));
+        report(client, TEST_TIME, collectedData);
         assertEquals(sentJson.size(), 2);
 
         for (Map<String, Object> map : sentJson) {
@@ -146,6 +184,35 @@ public class TestReportClient
         assertEquals(tags.keySet(), ImmutableSet.of("application", "host", "environment", "pool", "foo", "baz", "package"));
     }
 
+    @Test
+    public void testBeanTagReplacesConfiguredTag()
+    {
+        for (ReportFormat format : ReportFormat.values()) {
+            ReportClient client = new ReportClient(nodeInfo, httpClient,
+                    new ReportClientConfig()
+                            .setFormat(format)
+                            .setTags(ImmutableMap.of("tag1", "configured")));
+            report(client, TEST_TIME, collectedData);
+            assertEquals(sentJson.size(), 2);
+
+            Map<String, String> tags = (Map<String, String>) sentJson.get(0).get("tags");
+            assertEquals(tags.keySet(), ImmutableSet.of("application", "host", "environment", "pool", "package", "tag1"));
+            assertEquals(tags.get("tag1"), "B_a_z");
+            tags = (Map<String, String>) sentJson.get(1).get("tags");
+            assertEquals(tags.get("tag1"), "configured");
+            sentJson = null;
+        }
+    }
+
+    private static void report(ReportClient client, long systemTimeMillis, Table<ObjectName, String, Number> collectedData)
+    {
+        ReportWriter writer = client.createReportWriter(systemTimeMillis);
+        for (Cell<ObjectName, String, Number> cell : collectedData.cellSet()) {
+            writer.add(new ReportName(cell.getRowKey()), cell.getColumnKey(), cell.getValue());
+        }
+        client.report(writer.finish());
+    }
+
     private class TestingResponseFunction
             implements Function<Request, Response>
     {
@@ -155,16 +222,21 @@ public class TestReportClient
             assertNull(sentJson);
             assertEquals(input.getMethod(), "POST");
             assertEquals(input.getUri().toString(), "api/v1/datapoints");
-            assertEquals(input.getHeader("Content-Type"), "application/gzip");
 
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             try {
                 input.getBodyGenerator().write(outputStream);
-                GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+                if (input.getHeader("Content-Type").equals(CompactReportWriter.CONTENT_TYPE)) {
+                    sentJson = CompactReportDecoder.decode(outputStream.toByteArray());
+                }
+                else {
+                    assertEquals(input.getHeader("Content-Type"), "application/gzip");
+                    GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
 
-                sentJson = new ObjectMapper().readValue(inputStream, new TypeReference<List<Map<String, Object>>>()
-                {
-                });
+                    sentJson = new ObjectMapper().readValue(inputStream, new TypeReference<List<Map<String, Object>>>()
+                    {
+                    });
+                }
                 sentJson = Lists.newArrayList(sentJson);
                 Collections.sort(sentJson, new Comparator<Map<String, Object>>()
                 {
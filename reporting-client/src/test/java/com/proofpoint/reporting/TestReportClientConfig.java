@@ -16,9 +16,14 @@
 package com.proofpoint.reporting;
 
 import com.google.common.collect.ImmutableMap;
+import com.proofpoint.reporting.ReportClientConfig.ReportFormat;
+import com.proofpoint.units.DataSize;
+import com.proofpoint.units.DataSize.Unit;
+import com.proofpoint.units.Duration;
 import org.testng.annotations.Test;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.proofpoint.configuration.testing.ConfigAssertions.assertFullMapping;
 import static com.proofpoint.configuration.testing.ConfigAssertions.assertLegacyEquivalence;
@@ -32,7 +37,15 @@ public class TestReportClientConfig
     {
         assertRecordedDefaults(recordDefaults(ReportClientConfig.class)
                 .setEnabled(true)
-                .setTags(ImmutableMap.<String, String>of()));
+                .setTags(ImmutableMap.<String, String>of())
+                .setChangedOnly(false)
+                .setFullReportInterval(new Duration(15, TimeUnit.MINUTES))
+                .setQueueDirectory(null)
+                .setQueueMaxSize(new DataSize(16, Unit.MEGABYTE))
+                .setCollectionThreads(1)
+                .setFormat(ReportFormat.JSON)
+                .setHistoryDuration(new Duration(0, TimeUnit.SECONDS))
+                .setHistoryMaxSize(new DataSize(8, Unit.MEGABYTE)));
     }
 
     @Test
@@ -41,11 +54,27 @@ public class TestReportClientConfig
         Map<String, String> properties = new ImmutableMap.Builder<String, String>()
                 .put("reporting.enabled", "false")
                 .put("reporting.tag.foo", "bar")
+                .put("reporting.changed-only", "true")
+                .put("reporting.full-report-interval", "1h")
+                .put("reporting.queue.directory", "var/reporting")
+                .put("reporting.queue.max-size", "1GB")
+                .put("reporting.collection-threads", "4")
+                .put("reporting.format", "COMPACT")
+                .put("reporting.history.duration", "6h")
+                .put("reporting.history.max-size", "64MB")
                 .build();
 
         ReportClientConfig expected = new ReportClientConfig()
                 .setEnabled(false)
-                .setTags(ImmutableMap.of("foo", "bar"));
+                .setTags(ImmutableMap.of("foo", "bar"))
+                .setChangedOnly(true)
+                .setFullReportInterval(new Duration(1, TimeUnit.HOURS))
+                .setQueueDirectory("var/reporting")
+                .setQueueMaxSize(new DataSize(1, Unit.GIGABYTE))
+                .setCollectionThreads(4)
+                .setFormat(ReportFormat.COMPACT)
+                .setHistoryDuration(new Duration(6, TimeUnit.HOURS))
+                .setHistoryMaxSize(new DataSize(64, Unit.MEGABYTE));
 
         assertFullMapping(properties, expected);
     }
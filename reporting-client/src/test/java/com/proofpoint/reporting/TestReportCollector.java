@@ -15,29 +15,96 @@
  */
 package com.proofpoint.reporting;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
 import com.google.inject.Binder;
 import com.google.inject.Guice;
+import com.google.inject.Injector;
 import com.google.inject.Module;
 import com.google.inject.Scopes;
 import com.proofpoint.configuration.ConfigurationFactory;
 import com.proofpoint.configuration.ConfigurationModule;
 import com.proofpoint.discovery.client.testing.TestingDiscoveryModule;
+import com.proofpoint.http.client.HttpClient;
+import com.proofpoint.http.client.Request;
+import com.proofpoint.http.client.RequestStats;
+import com.proofpoint.http.client.ResponseHandler;
+import com.proofpoint.http.client.StatusResponseHandler.StatusResponse;
+import com.proofpoint.http.client.jetty.JettyHttpClient;
+import com.proofpoint.http.server.HttpServerConfig;
+import com.proofpoint.http.server.HttpServerInfo;
+import com.proofpoint.http.server.testing.TestingHttpServer;
 import com.proofpoint.json.JsonModule;
 import com.proofpoint.node.ApplicationNameModule;
+import com.proofpoint.node.NodeInfo;
 import com.proofpoint.node.testing.TestingNodeModule;
+import com.proofpoint.units.Duration;
 import org.testng.annotations.Test;
 import org.weakref.jmx.guice.MBeanModule;
 import org.weakref.jmx.testing.TestingMBeanServer;
 
 import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static com.proofpoint.http.client.Request.Builder.fromRequest;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 public class TestReportCollector
 {
+    private static final ObjectName REPORT_COLLECTOR_OBJECT_NAME;
+
+    static {
+        try {
+            REPORT_COLLECTOR_OBJECT_NAME = ObjectName.getInstance("com.proofpoint.reporting:name=ReportCollector");
+        }
+        catch (MalformedObjectNameException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     @Test
     public void testReportingModule()
     {
-        Guice.createInjector(
+        Injector injector = createInjector(ImmutableMap.<String, String>of());
+        injector.getInstance(ReportHistoryResource.class);
+    }
+
+    @Test
+    public void testBucketWidth()
+    {
+        Injector injector = createInjector(ImmutableMap.of("reporting.bucket-width", "10s"));
+        MinuteBucketIdProvider bucketIdProvider = injector.getInstance(MinuteBucketIdProvider.class);
+        assertEquals(bucketIdProvider.getBucketWidthMillis(), 10_000);
+        assertSame(injector.getInstance(BucketIdProvider.class), bucketIdProvider);
+    }
+
+    private static Injector createInjector(Map<String, String> properties)
+    {
+        return Guice.createInjector(
                 new ApplicationNameModule("test-application"),
                 new TestingNodeModule(),
                 new TestingDiscoveryModule(),
@@ -50,9 +117,347 @@ public class TestReportCollector
                         binder.bind(MBeanServer.class).to(TestingMBeanServer.class).in(Scopes.SINGLETON);
                     }
                 },
-                new ConfigurationModule(new ConfigurationFactory(ImmutableMap.<String, String>of())),
+                new ConfigurationModule(new ConfigurationFactory(properties)),
                 new JsonModule(),
                 new ReportingModule(),
                 new ReportingClientModule());
     }
+
+    @Test
+    public void testCollect()
+            throws Exception
+    {
+        ReportedBeanRegistry registry = new ReportedBeanRegistry();
+        ObjectName objectName = ObjectName.getInstance("com.example:name=Foo");
+        registry.register(ReportedBean.forTarget(new ReportedObject()), objectName);
+        ReportCollector reportCollector = createReportCollector(registry, new ReportClientConfig());
+
+        Table<ObjectName, String, Number> collected = collect(reportCollector, 0);
+        assertEquals(collected.row(objectName), ImmutableMap.of("Value", 3, "Constant", 1));
+        assertEquals(collected.row(REPORT_COLLECTOR_OBJECT_NAME).keySet(), ImmutableSet.of("NumMetrics", "CollectionTime"));
+        assertEquals(collected.get(REPORT_COLLECTOR_OBJECT_NAME, "NumMetrics"), 2);
+        assertEquals(collect(reportCollector, 60_000).row(objectName), collected.row(objectName));
+    }
+
+    @Test
+    public void testChangedOnly()
+            throws Exception
+    {
+        ReportedBeanRegistry registry = new ReportedBeanRegistry();
+        ObjectName objectName = ObjectName.getInstance("com.example:name=Foo");
+        ReportedObject reportedObject = new ReportedObject();
+        registry.register(ReportedBean.forTarget(reportedObject), objectName);
+        ReportCollector reportCollector = createReportCollector(registry, new ReportClientConfig()
+                .setChangedOnly(true)
+                .setFullReportInterval(new Duration(3, TimeUnit.MINUTES)));
+
+        assertEquals(collect(reportCollector, 0).row(objectName), ImmutableMap.of("Value", 3, "Constant", 1));
+        assertEquals(collect(reportCollector, 60_000).row(objectName), ImmutableMap.of());
+
+        reportedObject.value = 4;
+        Table<ObjectName, String, Number> collected = collect(reportCollector, 120_000);
+        assertEquals(collected.row(objectName), ImmutableMap.of("Value", 4));
+        assertEquals(collected.get(REPORT_COLLECTOR_OBJECT_NAME, "NumMetrics"), 2);
+
+        assertEquals(collect(reportCollector, 180_000).row(objectName), ImmutableMap.of("Value", 4, "Constant", 1), "full report");
+        assertEquals(collect(reportCollector, 240_000).row(objectName), ImmutableMap.of());
+
+        // a bean registered again is reported in full
+        registry.unregister(objectName);
+        registry.register(ReportedBean.forTarget(reportedObject), objectName);
+        assertEquals(collect(reportCollector, 300_000).row(objectName), ImmutableMap.of("Value", 4, "Constant", 1));
+    }
+
+    @Test
+    public void testChangedOnlyFullReportAfterLostReport()
+            throws Exception
+    {
+        ReportedBeanRegistry registry = new ReportedBeanRegistry();
+        ObjectName objectName = ObjectName.getInstance("com.example:name=Foo");
+        registry.register(ReportedBean.forTarget(new ReportedObject()), objectName);
+        ReportClientConfig reportClientConfig = new ReportClientConfig().setChangedOnly(true);
+        HttpClient httpClient = mock(HttpClient.class);
+        when(httpClient.execute(any(Request.class), any(ResponseHandler.class)))
+                .thenReturn(new StatusResponse(400, "Bad Request", ImmutableListMultimap.<String, String>of()));
+        ReportClient reportClient = new ReportClient(new NodeInfo("test_environment"), httpClient, reportClientConfig);
+        ReportQueue reportQueue = new ReportQueue(null, 1024, 1024);
+        ReportCollector reportCollector = new ReportCollector(new MinuteBucketIdProvider(), registry, reportClient, reportQueue, new ReportHistory(reportClientConfig), reportClientConfig);
+
+        assertEquals(collect(reportCollector, 0).row(objectName), ImmutableMap.of("Value", 3, "Constant", 1));
+        assertEquals(collect(reportCollector, 60_000).row(objectName), ImmutableMap.of());
+
+        // a report too large for the queue is dropped
+        reportQueue.add(new byte[2048]);
+        assertEquals(collect(reportCollector, 120_000).row(objectName), ImmutableMap.of("Value", 3, "Constant", 1), "full report after drop");
+        assertEquals(collect(reportCollector, 180_000).row(objectName), ImmutableMap.of());
+
+        assertTrue(reportClient.report(new byte[16]));
+        assertEquals(collect(reportCollector, 240_000).row(objectName), ImmutableMap.of("Value", 3, "Constant", 1), "full report after discard");
+        assertEquals(collect(reportCollector, 300_000).row(objectName), ImmutableMap.of());
+    }
+
+    @Test
+    public void testHistoryGetsUnchangedValues()
+            throws Exception
+    {
+        for (int collectionThreads : new int[] {1, 4}) {
+            ReportedBeanRegistry registry = new ReportedBeanRegistry();
+            for (int i = 0; i < 1000; i++) {
+                registry.register(ReportedBean.forTarget(new ReportedObject()), ObjectName.getInstance("com.example", "name", "Foo" + i));
+            }
+            ReportCollector reportCollector = createReportCollector(registry, new ReportClientConfig()
+                    .setChangedOnly(true)
+                    .setCollectionThreads(collectionThreads));
+            try {
+                collect(reportCollector, 0, HashBasedTable.<ObjectName, String, Number>create());
+
+                Table<ObjectName, String, Number> history = HashBasedTable.create();
+                Table<ObjectName, String, Number> reported = collect(reportCollector, 60_000, history);
+                assertEquals(reported.rowKeySet(), ImmutableSet.of(REPORT_COLLECTOR_OBJECT_NAME));
+                assertEquals(history.size(), 2002);
+                assertEquals(history.row(ObjectName.getInstance("com.example:name=Foo7")), ImmutableMap.of("Value", 3, "Constant", 1));
+            }
+            finally {
+                reportCollector.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testShardedCollection()
+            throws Exception
+    {
+        ReportedBeanRegistry registry = new ReportedBeanRegistry();
+        for (int i = 0; i < 1000; i++) {
+            ReportedObject reportedObject = new ReportedObject();
+            reportedObject.value = i;
+            registry.register(ReportedBean.forTarget(reportedObject), ObjectName.getInstance("com.example", "name", "Foo" + i));
+        }
+
+        ReportCollector serialCollector = createReportCollector(registry, new ReportClientConfig());
+        ReportCollector shardedCollector = createReportCollector(registry, new ReportClientConfig().setCollectionThreads(4));
+        try {
+            final List<String> serialOrder = new ArrayList<>();
+            serialCollector.collect(0, new ReportSink()
+            {
+                @Override
+                public void add(ReportName reportName, String name, Number value)
+                {
+                    serialOrder.add(reportName.getObjectName() + " " + name + " " + value);
+                }
+            });
+            final List<String> shardedOrder = new ArrayList<>();
+            shardedCollector.collect(0, new ReportSink()
+            {
+                @Override
+                public void add(ReportName reportName, String name, Number value)
+                {
+                    shardedOrder.add(reportName.getObjectName() + " " + name + " " + value);
+                }
+            });
+
+            assertEquals(shardedOrder.size(), 2002);
+            assertEquals(shardedOrder.subList(0, 2001), serialOrder.subList(0, 2001));
+            assertEquals(shardedOrder.get(2000), "com.proofpoint.reporting:name=ReportCollector NumMetrics 2000");
+        }
+        finally {
+            serialCollector.stop();
+            shardedCollector.stop();
+        }
+    }
+
+    @Test
+    public void testUploadRetriedUntilAccepted()
+            throws Exception
+    {
+        UploadServlet servlet = new UploadServlet(2);
+        NodeInfo nodeInfo = new NodeInfo("test_environment");
+        HttpServerConfig httpServerConfig = new HttpServerConfig().setHttpPort(0);
+        TestingHttpServer server = new TestingHttpServer(new HttpServerInfo(httpServerConfig, nodeInfo), nodeInfo, httpServerConfig, servlet,
+                ImmutableMap.<String, String>of());
+        server.start();
+        try (HttpClient httpClient = new JettyHttpClient()) {
+            ReportClientConfig reportClientConfig = new ReportClientConfig();
+            ReportClient reportClient = new ReportClient(nodeInfo, new BaseUriHttpClient(server.getBaseUrl().resolve("/"), httpClient), reportClientConfig);
+            ReportQueue reportQueue = new ReportQueue(reportClientConfig);
+            final ReportCollector reportCollector = new ReportCollector(new MinuteBucketIdProvider(), new ReportedBeanRegistry(), reportClient, reportQueue, new ReportHistory(reportClientConfig), reportClientConfig);
+
+            ReportName reportName = new ReportName(ObjectName.getInstance("com.example:name=Foo"));
+            for (int i = 0; i < 2; i++) {
+                ReportWriter writer = reportClient.createReportWriter(i);
+                writer.add(reportName, "Value", i);
+                reportQueue.add(writer.finish());
+            }
+
+            Thread uploader = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        reportCollector.uploadQueuedReports();
+                    }
+                    catch (InterruptedException ignored) {
+                    }
+                }
+            });
+            uploader.start();
+            try {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+                while (reportQueue.getDepth() > 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+            }
+            finally {
+                uploader.interrupt();
+                uploader.join();
+            }
+
+            assertEquals(reportQueue.getDepth(), 0);
+            assertEquals(servlet.getRequestCount(), 4);
+            assertEquals(servlet.getAcceptedTimestamps(), ImmutableList.of(0, 1));
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    private static ReportCollector createReportCollector(ReportedBeanRegistry registry, ReportClientConfig reportClientConfig)
+            throws IOException
+    {
+        return new ReportCollector(new MinuteBucketIdProvider(), registry,
+                new ReportClient(new NodeInfo("test_environment"), mock(HttpClient.class), reportClientConfig),
+                new ReportQueue(reportClientConfig),
+                new ReportHistory(reportClientConfig),
+                reportClientConfig);
+    }
+
+    private static Table<ObjectName, String, Number> collect(ReportCollector reportCollector, long systemTimeMillis, final Table<ObjectName, String, Number> history)
+    {
+        final Table<ObjectName, String, Number> collected = HashBasedTable.create();
+        reportCollector.collect(systemTimeMillis, new ReportSink()
+        {
+            @Override
+            public void add(ReportName reportName, String name, Number value)
+            {
+                collected.put(reportName.getObjectName(), name, value);
+            }
+        }, new ReportSink()
+        {
+            @Override
+            public void add(ReportName reportName, String name, Number value)
+            {
+                history.put(reportName.getObjectName(), name, value);
+            }
+        });
+        return collected;
+    }
+
+    private static Table<ObjectName, String, Number> collect(ReportCollector reportCollector, long systemTimeMillis)
+    {
+        final Table<ObjectName, String, Number> collected = HashBasedTable.create();
+        reportCollector.collect(systemTimeMillis, new ReportSink()
+        {
+            @Override
+            public void add(ReportName reportName, String name, Number value)
+            {
+                collected.put(reportName.getObjectName(), name, value);
+            }
+        });
+        return collected;
+    }
+
+    public static class ReportedObject
+    {
+        private int value = 3;
+
+        @Reported
+        public int getValue()
+        {
+            return value;
+        }
+
+        @Reported
+        public int getConstant()
+        {
+            return 1;
+        }
+
+        @Reported
+        public double getNotANumber()
+        {
+            return Double.NaN;
+        }
+    }
+
+    private static class UploadServlet
+            extends HttpServlet
+    {
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private final AtomicInteger failuresRemaining;
+        private final AtomicInteger requestCount = new AtomicInteger();
+        private final List<Object> acceptedTimestamps = new CopyOnWriteArrayList<>();
+
+        private UploadServlet(int failures)
+        {
+            failuresRemaining = new AtomicInteger(failures);
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest request, HttpServletResponse response)
+                throws IOException
+        {
+            requestCount.incrementAndGet();
+            if (failuresRemaining.getAndDecrement() > 0) {
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            List<Map<String, Object>> points = objectMapper.readValue(new GZIPInputStream(request.getInputStream()), new TypeReference<List<Map<String, Object>>>()
+            {
+            });
+            acceptedTimestamps.add(points.get(0).get("timestamp"));
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        }
+
+        private int getRequestCount()
+        {
+            return requestCount.get();
+        }
+
+        private List<Object> getAcceptedTimestamps()
+        {
+            return acceptedTimestamps;
+        }
+    }
+
+    private static class BaseUriHttpClient
+            implements HttpClient
+    {
+        private final URI baseUri;
+        private final HttpClient delegate;
+
+        private BaseUriHttpClient(URI baseUri, HttpClient delegate)
+        {
+            this.baseUri = baseUri;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public <T, E extends Exception> T execute(Request request, ResponseHandler<T, E> responseHandler)
+                throws E
+        {
+            return delegate.execute(fromRequest(request).setUri(baseUri.resolve(request.getUri())).build(), responseHandler);
+        }
+
+        @Override
+        public RequestStats getStats()
+        {
+            return delegate.getStats();
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.proofpoint.reporting.ReportHistory.FrameWriter;
+import com.proofpoint.units.DataSize;
+import com.proofpoint.units.DataSize.Unit;
+import com.proofpoint.units.Duration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.management.ObjectName;
+import javax.ws.rs.WebApplicationException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestReportHistory
+{
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private ReportName fooName;
+    private ReportName barName;
+
+    @BeforeMethod
+    public void setup()
+            throws Exception
+    {
+        fooName = new ReportName(ObjectName.getInstance("com.example:name=Foo,tag=a"));
+        barName = new ReportName(ObjectName.getInstance("com.example:name=Bar"));
+    }
+
+    @Test
+    public void testQuery()
+    {
+        ReportHistory history = new ReportHistory(historyConfig());
+        assertTrue(history.isEnabled());
+
+        double[] values = {0, 1.5, -1.5, 1e300, Long.MAX_VALUE / 1024, 1.5, 3, 3, Double.MIN_VALUE, -0.0};
+        for (int i = 0; i < 40; i++) {
+            FrameWriter frameWriter = history.startFrame(i * MINUTE);
+            frameWriter.add(fooName, "Count", i);
+            frameWriter.add(fooName, "Value", values[i % values.length]);
+            frameWriter.add(barName, "Count", 1000 - i);
+            frameWriter.finish();
+        }
+
+        List<HistorySeries> series = history.query(null, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(series.size(), 3);
+        assertEquals(series.get(0).getName(), "Foo.Count");
+        assertEquals(series.get(0).getTags(), ImmutableMap.of("package", "com.example", "tag", "a"));
+        assertEquals(series.get(1).getName(), "Foo.Value");
+        assertEquals(series.get(2).getName(), "Bar.Count");
+        assertEquals(series.get(2).getTags(), ImmutableMap.of("package", "com.example"));
+
+        for (int i = 0; i < 40; i++) {
+            assertEquals(series.get(0).getPoints().get(i), ImmutableList.<Number>of(i * MINUTE, (double) i));
+            assertEquals(series.get(1).getPoints().get(i), ImmutableList.<Number>of(i * MINUTE, values[i % values.length]));
+            assertEquals(series.get(2).getPoints().get(i), ImmutableList.<Number>of(i * MINUTE, 1000.0 - i));
+        }
+    }
+
+    @Test
+    public void testNameAndTimeRange()
+    {
+        ReportHistory history = new ReportHistory(historyConfig());
+        for (int i = 0; i < 40; i++) {
+            FrameWriter frameWriter = history.startFrame(i * MINUTE);
+            frameWriter.add(fooName, "Count", i);
+            frameWriter.add(barName, "Count", 1000 - i);
+            frameWriter.finish();
+        }
+
+        List<HistorySeries> series = history.query(Pattern.compile("^Bar\\."), 20 * MINUTE, 22 * MINUTE);
+        assertEquals(series.size(), 1);
+        assertEquals(series.get(0).getName(), "Bar.Count");
+        assertEquals(series.get(0).getPoints(), ImmutableList.of(
+                ImmutableList.<Number>of(20 * MINUTE, 980.0),
+                ImmutableList.<Number>of(21 * MINUTE, 979.0),
+                ImmutableList.<Number>of(22 * MINUTE, 978.0)));
+
+        assertEquals(history.query(Pattern.compile("Baz"), Long.MIN_VALUE, Long.MAX_VALUE), ImmutableList.of());
+        assertEquals(history.query(null, 50 * MINUTE, Long.MAX_VALUE), ImmutableList.of());
+    }
+
+    @Test
+    public void testSeriesMissingFromFrames()
+    {
+        ReportHistory history = new ReportHistory(historyConfig());
+        for (int i = 0; i < 40; i++) {
+            FrameWriter frameWriter = history.startFrame(i * MINUTE);
+            if (i % 3 == 0) {
+                frameWriter.add(fooName, "Count", i);
+            }
+            frameWriter.add(barName, "Count", 7);
+            frameWriter.finish();
+        }
+
+        List<HistorySeries> series = history.query(null, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(series.get(0).getName(), "Foo.Count");
+        assertEquals(series.get(0).getPoints().size(), 14);
+        for (int i = 0; i < 14; i++) {
+            assertEquals(series.get(0).getPoints().get(i), ImmutableList.<Number>of(i * 3 * MINUTE, i * 3.0));
+        }
+        assertEquals(series.get(1).getPoints().size(), 40);
+    }
+
+    @Test
+    public void testDuration()
+    {
+        ReportHistory history = new ReportHistory(new ReportClientConfig()
+                .setHistoryDuration(new Duration(30, TimeUnit.MINUTES)));
+        for (int i = 0; i < 100; i++) {
+            FrameWriter frameWriter = history.startFrame(i * MINUTE);
+            frameWriter.add(fooName, "Count", i);
+            frameWriter.finish();
+        }
+
+        // whole groups of frames are dropped
+        List<List<Number>> points = history.query(null, Long.MIN_VALUE, Long.MAX_VALUE).get(0).getPoints();
+        assertEquals(points.size(), 100 - 5 * ReportHistory.KEYFRAME_INTERVAL);
+        for (int i = 0; i < points.size(); i++) {
+            int expected = 5 * ReportHistory.KEYFRAME_INTERVAL + i;
+            assertEquals(points.get(i), ImmutableList.<Number>of(expected * MINUTE, (double) expected));
+        }
+    }
+
+    @Test
+    public void testMaxSize()
+    {
+        ReportHistory history = new ReportHistory(historyConfig()
+                .setHistoryMaxSize(new DataSize(16, Unit.KILOBYTE)));
+        for (int i = 0; i < 500; i++) {
+            FrameWriter frameWriter = history.startFrame(i * MINUTE);
+            for (int j = 0; j < 10; j++) {
+                frameWriter.add(fooName, "Value" + j, i * 0.37 + j);
+            }
+            frameWriter.finish();
+        }
+
+        List<HistorySeries> series = history.query(null, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(series.size(), 10);
+        List<List<Number>> points = series.get(3).getPoints();
+        assertTrue(points.size() < 500);
+        assertTrue(points.size() >= ReportHistory.KEYFRAME_INTERVAL);
+        assertEquals(points.get(points.size() - 1), ImmutableList.<Number>of(499 * MINUTE, 499 * 0.37 + 3));
+        for (int i = 0; i < points.size(); i++) {
+            long timestamp = (long) points.get(i).get(0);
+            assertEquals(points.get(i).get(1), timestamp / MINUTE * 0.37 + 3);
+        }
+    }
+
+    @Test
+    public void testFrameLargerThanMaxSize()
+    {
+        ReportHistory history = new ReportHistory(historyConfig()
+                .setHistoryMaxSize(new DataSize(100, Unit.BYTE)));
+        for (int i = 0; i < 3; i++) {
+            FrameWriter frameWriter = history.startFrame(i * MINUTE);
+            for (int j = 0; j < 100; j++) {
+                frameWriter.add(fooName, "Value" + j, j + 0.5);
+            }
+            frameWriter.finish();
+        }
+        assertEquals(history.query(null, Long.MIN_VALUE, Long.MAX_VALUE), ImmutableList.of());
+
+        history = new ReportHistory(historyConfig()
+                .setHistoryMaxSize(new DataSize(200, Unit.BYTE)));
+        for (int i = 0; i < 3; i++) {
+            FrameWriter frameWriter = history.startFrame(i * MINUTE);
+            frameWriter.add(fooName, "Value", i % 2 == 0 ? 1.0e100 + i : i);
+            for (int j = 0; j < i * 20; j++) {
+                frameWriter.add(barName, "Value" + j, j + 0.5);
+            }
+            frameWriter.finish();
+        }
+        // the next frame after the history was emptied is encoded on its own
+        FrameWriter frameWriter = history.startFrame(3 * MINUTE);
+        frameWriter.add(fooName, "Value", 7);
+        frameWriter.finish();
+        assertEquals(history.query(null, Long.MIN_VALUE, Long.MAX_VALUE).get(0).getPoints(), ImmutableList.of(
+                ImmutableList.<Number>of(3 * MINUTE, 7.0)));
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        assertFalse(new ReportHistory(new ReportClientConfig()).isEnabled());
+        assertFalse(new ReportHistory(new ReportClientConfig().setHistoryDuration(new Duration(0, TimeUnit.SECONDS))).isEnabled());
+        assertFalse(new ReportHistory(historyConfig().setHistoryMaxSize(new DataSize(0, Unit.BYTE))).isEnabled());
+    }
+
+    @Test
+    public void testResource()
+    {
+        ReportHistory history = new ReportHistory(historyConfig());
+        for (int i = 0; i < 3; i++) {
+            FrameWriter frameWriter = history.startFrame(i * MINUTE);
+            frameWriter.add(fooName, "Count", i);
+            frameWriter.add(barName, "Count", i);
+            frameWriter.finish();
+        }
+        ReportHistoryResource resource = new ReportHistoryResource(history);
+
+        assertEquals(resource.getHistory(null, null, null).size(), 2);
+        List<HistorySeries> series = resource.getHistory("Foo", MINUTE, null);
+        assertEquals(series.size(), 1);
+        assertEquals(series.get(0).getPoints(), ImmutableList.of(
+                ImmutableList.<Number>of(MINUTE, 1.0),
+                ImmutableList.<Number>of(2 * MINUTE, 2.0)));
+        assertEquals(resource.getHistory(null, null, MINUTE).get(1).getPoints().size(), 2);
+
+        try {
+            resource.getHistory("(", null, null);
+            fail("expected WebApplicationException");
+        }
+        catch (WebApplicationException e) {
+            assertEquals(e.getResponse().getStatus(), 400);
+        }
+    }
+
+    private static ReportClientConfig historyConfig()
+    {
+        return new ReportClientConfig().setHistoryDuration(new Duration(1, TimeUnit.HOURS));
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.google.common.io.Files;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static com.proofpoint.testing.FileUtils.deleteRecursively;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestReportQueue
+{
+    private static final int SEGMENT_SIZE = 64;
+    private File directory;
+
+    @BeforeMethod
+    public void setup()
+    {
+        directory = Files.createTempDir();
+    }
+
+    @AfterMethod
+    public void teardown()
+    {
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void testFifo()
+            throws Exception
+    {
+        for (File queueDirectory : Arrays.asList(null, directory)) {
+            ReportQueue queue = new ReportQueue(queueDirectory, SEGMENT_SIZE, 10 * SEGMENT_SIZE);
+            for (int i = 0; i < 10; i++) {
+                queue.add(report(i, 20));
+            }
+            assertEquals(queue.getDepth(), 10);
+            assertEquals(queue.getSize(), 200);
+
+            for (int i = 0; i < 10; i++) {
+                byte[] report = queue.take();
+                assertEquals(report, report(i, 20));
+                assertEquals(queue.take(), report, "take does not remove");
+                queue.remove(report);
+            }
+            assertEquals(queue.getDepth(), 0);
+            assertEquals(queue.getSize(), 0);
+            assertEquals(queue.getAllocatedSize(), SEGMENT_SIZE);
+        }
+    }
+
+    @Test
+    public void testReportedGauges()
+            throws Exception
+    {
+        ReportQueue queue = new ReportQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE);
+        ReportedBean reportedBean = ReportedBean.forTarget(queue);
+        for (int i = 0; i < 3; i++) {
+            queue.add(report(i, 20));
+        }
+
+        assertEquals(reportedBean.getAttribute("Depth"), 3);
+        assertEquals(reportedBean.getAttribute("Size"), 60L);
+        assertEquals(reportedBean.getAttribute("AllocatedSize"), (long) 2 * SEGMENT_SIZE);
+        queue.close();
+    }
+
+    @Test
+    public void testDropsOldestSegmentWhenFull()
+            throws Exception
+    {
+        ReportQueue queue = new ReportQueue(directory, SEGMENT_SIZE, 2 * SEGMENT_SIZE);
+        for (int i = 0; i < 6; i++) {
+            queue.add(report(i, 20));
+        }
+
+        // two reports fit in a segment, so the first segment was dropped
+        assertEquals(queue.getDepth(), 4);
+        assertEquals(queue.getDropped().getTotalCount(), 2);
+        assertEquals(queue.getAllocatedSize(), 2 * SEGMENT_SIZE);
+        assertEquals(queue.take(), report(2, 20));
+        assertEquals(directory.list().length, 2);
+    }
+
+    @Test
+    public void testRemoveOfDroppedReportIgnored()
+            throws Exception
+    {
+        ReportQueue queue = new ReportQueue(null, SEGMENT_SIZE, 2 * SEGMENT_SIZE);
+        queue.add(report(0, 20));
+        byte[] report = queue.take();
+        for (int i = 1; i < 6; i++) {
+            queue.add(report(i, 20));
+        }
+
+        queue.remove(report);
+        assertEquals(queue.getDepth(), 4);
+        assertEquals(queue.take(), report(2, 20));
+    }
+
+    @Test
+    public void testLargeReport()
+            throws Exception
+    {
+        ReportQueue queue = new ReportQueue(null, SEGMENT_SIZE, 4 * SEGMENT_SIZE);
+        queue.add(report(0, 100));
+        queue.add(report(1, 20));
+        assertEquals(queue.take(), report(0, 100));
+
+        queue.add(report(2, 4 * SEGMENT_SIZE));
+        assertEquals(queue.getDropped().getTotalCount(), 1);
+        assertEquals(queue.getDepth(), 2);
+    }
+
+    @Test
+    public void testRecovery()
+            throws Exception
+    {
+        ReportQueue queue = new ReportQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE);
+        for (int i = 0; i < 5; i++) {
+            queue.add(report(i, 20));
+        }
+        queue.remove(queue.take());
+        queue.remove(queue.take());
+        queue.close();
+
+        queue = new ReportQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE);
+        assertEquals(queue.getDepth(), 3);
+        assertEquals(queue.getSize(), 60);
+        queue.add(report(5, 20));
+        for (int i = 2; i < 6; i++) {
+            byte[] report = queue.take();
+            assertEquals(report, report(i, 20));
+            queue.remove(report);
+        }
+        assertEquals(queue.getDepth(), 0);
+    }
+
+    @Test
+    public void testRecoveryIgnoresCorruptRecord()
+            throws Exception
+    {
+        ReportQueue queue = new ReportQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE);
+        queue.add(report(0, 20));
+        queue.add(report(1, 20));
+        queue.close();
+
+        File[] files = directory.listFiles();
+        assertEquals(files.length, 1);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            // last byte of the second report
+            file.seek(8 + 28 + 28 - 1);
+            file.write(0xFF);
+        }
+
+        queue = new ReportQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE);
+        assertEquals(queue.getDepth(), 1);
+        assertEquals(queue.take(), report(0, 20));
+    }
+
+    @Test
+    public void testRecoveryDeletesInvalidSegment()
+            throws Exception
+    {
+        File file = new File(directory, "0000000000000000007.segment");
+        Files.write(new byte[SEGMENT_SIZE], file);
+
+        ReportQueue queue = new ReportQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE);
+        assertFalse(file.exists());
+        queue.add(report(0, 20));
+        assertTrue(new File(directory, "0000000000000000008.segment").exists());
+    }
+
+    private static byte[] report(int id, int size)
+    {
+        byte[] report = new byte[size];
+        Arrays.fill(report, (byte) id);
+        return report;
+    }
+}
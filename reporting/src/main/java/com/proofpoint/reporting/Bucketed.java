@@ -17,8 +17,19 @@ package com.proofpoint.reporting;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
-import com.proofpoint.reporting.BucketIdProvider;
 
+/**
+ * Base class for stats that are reported per bucket. Buckets are as wide as
+ * {@code reporting.bucket-width}, one minute by default. Updates are applied to the
+ * current bucket, which is published through a volatile reference, so updates
+ * within a bucket never lock. When the bucket id changes, the first caller to see
+ * it rotates the buckets while holding a lock, so only that thread creates the
+ * new buckets.
+ * <p>
+ * An update that races with rotation may land in the bucket that just became
+ * the previous bucket. If that bucket has already been reported, the update
+ * is lost.
+ */
 public abstract class Bucketed<T>
 {
     private static final BucketIdProvider INITIAL_BUCKET_ID_PROVIDER = new BucketIdProvider()
@@ -29,47 +40,75 @@ public abstract class Bucketed<T>
             return -5;
         }
     };
-    private BucketIdProvider bucketIdProvider = INITIAL_BUCKET_ID_PROVIDER;
-    private int currentBucketId = -10;
-    private T previousBucket = null;
-    private T currentBucket = null;
+    private volatile BucketIdProvider bucketIdProvider = INITIAL_BUCKET_ID_PROVIDER;
+    private volatile Buckets<T> buckets = new Buckets<>(-10, null, null);
 
     protected abstract T createBucket();
 
-    protected synchronized <R> R applyToCurrentBucket(Function<T, R> function)
+    protected <R> R applyToCurrentBucket(Function<T, R> function)
     {
-        rotateBucketIfNeeded();
-        return function.apply(currentBucket);
+        return function.apply(rotateBucketIfNeeded().current);
+    }
+
+    protected T getCurrentBucket()
+    {
+        return rotateBucketIfNeeded().current;
     }
 
     @SuppressWarnings("UnusedDeclaration") // Called via reflection
-    private synchronized T getPreviousBucket()
+    private T getPreviousBucket()
     {
-        rotateBucketIfNeeded();
-        return previousBucket;
+        return rotateBucketIfNeeded().previous;
     }
 
     @VisibleForTesting
     public synchronized void setBucketIdProvider(BucketIdProvider bucketIdProvider)
     {
         this.bucketIdProvider = bucketIdProvider;
-        currentBucketId = bucketIdProvider.get();
-        currentBucket = createBucket();
-        previousBucket = createBucket();
+        buckets = new Buckets<>(bucketIdProvider.get(), createBucket(), createBucket());
     }
 
-    private void rotateBucketIfNeeded()
+    private Buckets<T> rotateBucketIfNeeded()
     {
         int bucketId = bucketIdProvider.get();
-        if (bucketId != currentBucketId) {
-            if (currentBucketId + 1 == bucketId) {
-                previousBucket = currentBucket;
-            }
-            else {
-                previousBucket = createBucket();
-            }
-            currentBucketId = bucketId;
-            currentBucket = createBucket();
+        Buckets<T> buckets = this.buckets;
+        // a caller that read the bucket id before another thread rotated uses the newer buckets
+        if (buckets.bucketId >= bucketId) {
+            return buckets;
+        }
+        return rotateBucket(bucketId);
+    }
+
+    private synchronized Buckets<T> rotateBucket(int bucketId)
+    {
+        Buckets<T> buckets = this.buckets;
+        if (buckets.bucketId >= bucketId) {
+            return buckets;
+        }
+
+        T previousBucket;
+        if (buckets.bucketId + 1 == bucketId) {
+            previousBucket = buckets.current;
+        }
+        else {
+            previousBucket = createBucket();
+        }
+        Buckets<T> rotated = new Buckets<>(bucketId, createBucket(), previousBucket);
+        this.buckets = rotated;
+        return rotated;
+    }
+
+    private static class Buckets<T>
+    {
+        private final int bucketId;
+        private final T current;
+        private final T previous;
+
+        private Buckets(int bucketId, T current, T previous)
+        {
+            this.bucketId = bucketId;
+            this.current = current;
+            this.previous = previous;
         }
     }
 }
@@ -59,6 +59,6 @@ class BucketedReportedBeanAttribute implements ReportedBeanAttribute
     public Number getValue(Object target)
             throws AttributeNotFoundException, MBeanException, ReflectionException
     {
-        return delegate.getValue(invoke(firstNonNull(target, holder), GET_PREVIOUS_BUCKET));
+        return delegate.getValue(invoke(firstNonNull(target, holder), GET_PREVIOUS_BUCKET, "getPreviousBucket"));
     }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.google.common.base.Ticker;
+import com.google.inject.Inject;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link Ticker} that returns a value refreshed by a background thread instead
+ * of calling {@link System#nanoTime()} on every read. Reads lag the system ticker
+ * by at most the resolution.
+ * <p>
+ * The thread runs between {@link #start()} and {@link #close()}; outside of that
+ * window reads go to the underlying ticker. {@link ReportingModule} binds one
+ * instance as the {@link ForStats} ticker, shared by the decaying stats and
+ * {@link MinuteBucketIdProvider}.
+ */
+@ThreadSafe
+public class CoarseTicker
+        extends Ticker
+        implements Closeable
+{
+    private static final long DEFAULT_RESOLUTION_MILLIS = 10;
+
+    private final Ticker ticker;
+    private final long resolutionNanos;
+    @GuardedBy("this")
+    private Thread thread;
+    private volatile boolean running;
+    private volatile long nanos;
+
+    @Inject
+    public CoarseTicker()
+    {
+        this(DEFAULT_RESOLUTION_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public CoarseTicker(long resolution, TimeUnit unit)
+    {
+        this(resolution, unit, Ticker.systemTicker());
+    }
+
+    CoarseTicker(long resolution, TimeUnit unit, Ticker ticker)
+    {
+        checkArgument(resolution > 0, "resolution must be > 0");
+        checkNotNull(unit, "unit is null");
+        this.ticker = checkNotNull(ticker, "ticker is null");
+        resolutionNanos = unit.toNanos(resolution);
+        nanos = ticker.read();
+    }
+
+    @PostConstruct
+    public synchronized void start()
+    {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(resolutionNanos);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    update();
+                }
+            }
+        }, "coarse-ticker");
+        thread.setDaemon(true);
+        update();
+        running = true;
+        thread.start();
+    }
+
+    @Override
+    public long read()
+    {
+        if (!running) {
+            return ticker.read();
+        }
+        return nanos;
+    }
+
+    public long getResolutionNanos()
+    {
+        return resolutionNanos;
+    }
+
+    void update()
+    {
+        nanos = ticker.read();
+    }
+
+    @PreDestroy
+    @Override
+    public synchronized void close()
+    {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+}
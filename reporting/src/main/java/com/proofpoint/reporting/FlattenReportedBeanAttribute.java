@@ -19,19 +19,23 @@ import javax.management.AttributeNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanException;
 import javax.management.ReflectionException;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
 
+import static com.proofpoint.reporting.ReflectionUtils.getterHandle;
 import static com.proofpoint.reporting.ReflectionUtils.invoke;
 
 class FlattenReportedBeanAttribute implements ReportedBeanAttribute
 {
-    private final Method flattenGetter;
+    private final MethodHandle flattenGetter;
+    private final String flattenGetterName;
     private final ReportedBeanAttribute delegate;
     private final MBeanAttributeInfo info;
 
     public FlattenReportedBeanAttribute(String prefix, Method flattenGetter, ReportedBeanAttribute delegate)
     {
-        this.flattenGetter = flattenGetter;
+        this.flattenGetter = getterHandle(flattenGetter);
+        flattenGetterName = flattenGetter.getName();
         this.delegate = delegate;
         this.info = delegate.getInfo();
     }
@@ -50,7 +54,7 @@ class FlattenReportedBeanAttribute implements ReportedBeanAttribute
             throws AttributeNotFoundException, MBeanException, ReflectionException
     {
         if (target != null) {
-            target = invoke(target, flattenGetter);
+            target = invoke(target, flattenGetter, flattenGetterName);
         }
         return delegate.getValue(target);
     }
@@ -20,36 +20,66 @@ import com.google.inject.Inject;
 
 import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.System.currentTimeMillis;
 
+/**
+ * Provides bucket ids that advance every {@code reporting.bucket-width}, one minute
+ * by default, from the time the provider was created.
+ */
 public class MinuteBucketIdProvider
     implements BucketIdProvider
 {
     private static final long ONE_MINUTE_IN_NANOS = 60_000_000_000L;
     private final Ticker ticker;
     private final long initialValue;
+    private volatile long bucketWidthNanos = ONE_MINUTE_IN_NANOS;
 
-    @Inject
     public MinuteBucketIdProvider()
     {
         this(Ticker.systemTicker());
     }
 
-    public MinuteBucketIdProvider(Ticker ticker)
+    @Inject
+    public MinuteBucketIdProvider(@ForStats Ticker ticker)
     {
-        this.ticker = ticker;
+        this.ticker = checkNotNull(ticker, "ticker is null");
         this.initialValue = ticker.read();
     }
 
+    public MinuteBucketIdProvider(Ticker ticker, ReportingConfig config)
+    {
+        this(ticker);
+        setConfig(config);
+    }
+
+    /**
+     * The config is only bound by applications that report, which are the only ones
+     * for which the bucket width matters.
+     */
+    @Inject(optional = true)
+    public void setConfig(ReportingConfig config)
+    {
+        long bucketWidthNanos = checkNotNull(config, "config is null").getBucketWidth().roundTo(TimeUnit.NANOSECONDS);
+        checkArgument(bucketWidthNanos > 0, "bucket width must be positive");
+        this.bucketWidthNanos = bucketWidthNanos;
+    }
+
     @Override
     public int get()
     {
-        return (int) ((ticker.read() - initialValue) / ONE_MINUTE_IN_NANOS);
+        return (int) ((ticker.read() - initialValue) / bucketWidthNanos);
+    }
+
+    public long getBucketWidthMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(bucketWidthNanos);
     }
 
     public long getLastSystemTimeMillis()
     {
-        long nanosSinceBoundary = (ticker.read() - initialValue) % ONE_MINUTE_IN_NANOS;
+        long nanosSinceBoundary = (ticker.read() - initialValue) % bucketWidthNanos;
         return currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(nanosSinceBoundary);
     }
 }
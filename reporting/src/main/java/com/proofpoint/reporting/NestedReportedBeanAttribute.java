@@ -19,19 +19,23 @@ import javax.management.AttributeNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanException;
 import javax.management.ReflectionException;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
 
+import static com.proofpoint.reporting.ReflectionUtils.getterHandle;
 import static com.proofpoint.reporting.ReflectionUtils.invoke;
 
 class NestedReportedBeanAttribute implements ReportedBeanAttribute
 {
-    private final Method nestedGetter;
+    private final MethodHandle nestedGetter;
+    private final String nestedGetterName;
     private final ReportedBeanAttribute delegate;
     private final MBeanAttributeInfo info;
 
     public NestedReportedBeanAttribute(String prefix, Method nestedGetter, ReportedBeanAttribute delegate)
     {
-        this.nestedGetter = nestedGetter;
+        this.nestedGetter = getterHandle(nestedGetter);
+        nestedGetterName = nestedGetter.getName();
         this.delegate = delegate;
 
         MBeanAttributeInfo delegateInfo = delegate.getInfo();
@@ -58,7 +62,7 @@ class NestedReportedBeanAttribute implements ReportedBeanAttribute
             throws AttributeNotFoundException, MBeanException, ReflectionException
     {
         if (target != null) {
-            target = invoke(target, nestedGetter);
+            target = invoke(target, nestedGetter, nestedGetterName);
         }
         return delegate.getValue(target);
     }
@@ -20,10 +20,12 @@ import javax.management.AttributeNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanException;
 import javax.management.ReflectionException;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
 
 import static com.google.common.base.Objects.firstNonNull;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.proofpoint.reporting.ReflectionUtils.getterHandle;
 import static com.proofpoint.reporting.ReflectionUtils.invoke;
 
 class NumberReportedBeanAttribute implements ReportedBeanAttribute
@@ -31,14 +33,17 @@ class NumberReportedBeanAttribute implements ReportedBeanAttribute
     private final MBeanAttributeInfo info;
     private final Object target;
     private final String name;
-    private final Method getter;
+    private final MethodHandle getter;
+    private final String getterName;
 
     public NumberReportedBeanAttribute(MBeanAttributeInfo info, Object target, Method getter)
     {
         this.info = checkNotNull(info, "info is null");
         this.target = checkNotNull(target, "target is null");
         this.name = info.getName();
-        this.getter = checkNotNull(getter, "getter is null");
+        checkNotNull(getter, "getter is null");
+        this.getter = getterHandle(getter);
+        getterName = getter.getName();
     }
 
     public MBeanAttributeInfo getInfo()
@@ -54,6 +59,6 @@ class NumberReportedBeanAttribute implements ReportedBeanAttribute
     public Number getValue(@Nullable Object target)
             throws AttributeNotFoundException, MBeanException, ReflectionException
     {
-        return (Number) invoke(firstNonNull(target, this.target), getter);
+        return (Number) invoke(firstNonNull(target, this.target), getter, getterName);
     }
 }
\ No newline at end of file
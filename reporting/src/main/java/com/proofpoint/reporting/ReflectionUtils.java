@@ -18,8 +18,9 @@ package com.proofpoint.reporting;
 import javax.management.MBeanException;
 import javax.management.ReflectionException;
 import javax.management.RuntimeErrorException;
-import javax.management.RuntimeOperationsException;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -36,68 +37,57 @@ final class ReflectionUtils
     }
 
     private static final Pattern getterOrSetterPattern = Pattern.compile("(get|set|is)(.+)");
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
 
-    public static Object invoke(Object target, Method method)
+    /**
+     * Converts a getter to a method handle taking the target as an {@link Object} and
+     * returning an {@link Object}, so it can be invoked with
+     * {@link #invoke(Object, MethodHandle, String)} without the access checks and argument
+     * array of {@link Method#invoke}.
+     */
+    public static MethodHandle getterHandle(Method getter)
+    {
+        checkNotNull(getter, "getter is null");
+        getter.setAccessible(true);
+        try {
+            return MethodHandles.lookup().unreflect(getter).asType(GETTER_TYPE);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("getter is not accessible: " + getter.toGenericString(), e);
+        }
+    }
+
+    /**
+     * Invokes a handle created by {@link #getterHandle(Method)}, wrapping any exception
+     * thrown by the getter in a JMX exception.
+     */
+    public static Object invoke(Object target, MethodHandle getter, String getterName)
             throws MBeanException, ReflectionException
     {
         checkNotNull(target, "target is null");
-        checkNotNull(method, "method is null");
+        checkNotNull(getter, "getter is null");
 
         try {
-            Object result = method.invoke(target);
-            return result;
+            return (Object) getter.invokeExact(target);
         }
-        catch (InvocationTargetException e) {
-            // unwrap exception
-            Throwable targetException = e.getTargetException();
-            if (targetException instanceof RuntimeException) {
-                throw new MBeanException(
-                        (RuntimeException) targetException,
-                        "RuntimeException occured while invoking " + toSimpleName(method));
-            }
-            else if (targetException instanceof ReflectionException) {
-                // allow ReflectionException to passthrough
-                throw (ReflectionException) targetException;
-            }
-            else if (targetException instanceof MBeanException) {
-                // allow MBeanException to passthrough
-                throw (MBeanException) targetException;
-            }
-            else if (targetException instanceof Exception) {
-                throw new MBeanException(
-                        (Exception) targetException,
-                        "Exception occured while invoking " + toSimpleName(method));
-            }
-            else if (targetException instanceof Error) {
-                throw new RuntimeErrorException(
-                        (Error) targetException,
-                        "Error occured while invoking " + toSimpleName(method));
-            }
-            else {
-                throw new RuntimeErrorException(
-                        new AssertionError(targetException),
-                        "Unexpected throwable occured while invoking " + toSimpleName(method));
-            }
+        catch (ReflectionException | MBeanException e) {
+            // allow ReflectionException and MBeanException to passthrough
+            throw e;
         }
         catch (RuntimeException e) {
-            throw new RuntimeOperationsException(e, "RuntimeException occured while invoking " + toSimpleName(method));
+            throw new MBeanException(e, "RuntimeException occured while invoking " + getterName + "()");
         }
-        catch (IllegalAccessException e) {
-            throw new ReflectionException(e, "IllegalAccessException occured while invoking " + toSimpleName(method));
+        catch (Exception e) {
+            throw new MBeanException(e, "Exception occured while invoking " + getterName + "()");
         }
-        catch (Error err) {
-            throw new RuntimeErrorException(err, "Error occured while invoking " + toSimpleName(method));
+        catch (Error e) {
+            throw new RuntimeErrorException(e, "Error occured while invoking " + getterName + "()");
         }
-        catch (Exception e) {
-            throw new ReflectionException(e, "Exception occured while invoking " + toSimpleName(method));
+        catch (Throwable t) {
+            throw new RuntimeErrorException(new AssertionError(t), "Unexpected throwable occured while invoking " + getterName + "()");
         }
     }
 
-    private static String toSimpleName(Method method)
-    {
-        return method.getName() + "()";
-    }
-
     public static boolean isGetter(Method method)
     {
         String methodName = method.getName();
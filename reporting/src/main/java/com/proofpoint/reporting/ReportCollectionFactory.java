@@ -17,11 +17,6 @@ package com.proofpoint.reporting;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Ticker;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
@@ -29,12 +24,14 @@ import com.google.inject.Inject;
 import org.weakref.jmx.ObjectNameBuilder;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +39,8 @@ import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static com.google.common.base.CaseFormat.LOWER_CAMEL;
 import static com.google.common.base.CaseFormat.UPPER_CAMEL;
@@ -51,6 +50,10 @@ import static java.lang.reflect.Proxy.newProxyInstance;
 
 public class ReportCollectionFactory
 {
+    private static final String OVERFLOW_KEY = "_other";
+    private static final long EXPIRATION_NANOS = TimeUnit.MINUTES.toNanos(15);
+    private static final long ACCESS_RESOLUTION_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private final Ticker ticker;
     private final ReportExporter reportExporter;
 
@@ -87,12 +90,11 @@ public class ReportCollectionFactory
 
     private class StatInvocationHandler implements InvocationHandler
     {
-        private final Map<Method,LoadingCache<List<Optional<String>>,Object>> cacheMap;
-        private final ConcurrentMap<Object, String> objectNameMap = new ConcurrentHashMap<>();
+        private final Map<Method, KeyedCollection> collectionMap;
 
         public <T> StatInvocationHandler(Class<T> aClass, @Nullable String name)
         {
-            Builder<Method, LoadingCache<List<Optional<String>>, Object>> cacheBuilder = ImmutableMap.builder();
+            Builder<Method, KeyedCollection> collectionBuilder = ImmutableMap.builder();
 
             for (final Method method : aClass.getMethods()) {
                 final Constructor<?> constructor;
@@ -173,64 +175,398 @@ public class ReportCollectionFactory
                 final String upperMethodName = LOWER_CAMEL.to(UPPER_CAMEL, method.getName());
                 final List<String> keyNames = keyNameBuilder.build();
 
-                cacheBuilder.put(method, CacheBuilder.newBuilder()
-                        .ticker(ticker)
-                        .expireAfterAccess(15, TimeUnit.MINUTES)
-                        .removalListener(new UnexportRemovalListener())
-                        .build(new CacheLoader<List<Optional<String>>, Object>()
-                        {
-                            @Override
-                            public Object load(List<Optional<String>> key)
-                                    throws Exception
-                            {
-                                Object stat = constructor.newInstance();
-
-                                ObjectNameBuilder objectNameBuilder = new ObjectNameBuilder(packageName);
-                                for (Entry<String, String> entry : properties.entrySet()) {
-                                    objectNameBuilder = objectNameBuilder.withProperty(entry.getKey(), entry.getValue());
-                                }
-                                objectNameBuilder = objectNameBuilder.withProperty("name", upperMethodName);
-                                for (int i = 0; i < keyNames.size(); ++i) {
-                                    if (key.get(i).isPresent()) {
-                                        objectNameBuilder = objectNameBuilder.withProperty(keyNames.get(i), key.get(i).get());
-                                    }
-                                }
-                                String objectName = objectNameBuilder.build();
-                                reportExporter.export(objectName, stat);
-                                objectNameMap.put(stat, objectName);
-                                return stat;
-                            }
-                        })
-                );
+                MaxKeys maxKeys = method.getAnnotation(MaxKeys.class);
+                if (maxKeys != null && maxKeys.value() < 1) {
+                    throw new RuntimeException(methodName(method) + " @MaxKeys value must be at least 1");
+                }
+
+                ObjectNameBuilder objectNameBuilder = new ObjectNameBuilder(packageName);
+                for (Entry<String, String> entry : properties.entrySet()) {
+                    objectNameBuilder = objectNameBuilder.withProperty(entry.getKey(), entry.getValue());
+                }
+
+                KeyStats keyStats = new KeyStats();
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                boolean intKeyed = parameterTypes.length == 1 && isIntKeyType(parameterTypes[0]);
+                collectionBuilder.put(method, new KeyedCollection(constructor, packageName, properties, upperMethodName, keyNames,
+                        intKeyed, maxKeys == null ? Integer.MAX_VALUE : maxKeys.value(), keyStats));
+
+                if (maxKeys != null) {
+                    reportExporter.export(objectNameBuilder.withProperty("name", upperMethodName + ".Keys").build(), keyStats);
+                }
             }
-            cacheMap = cacheBuilder.build();
+            collectionMap = collectionBuilder.build();
         }
 
         @Override
         public Object invoke(Object proxy, Method method, Object[] args)
                 throws Throwable
         {
-            ImmutableList.Builder<Optional<String>> argBuilder = ImmutableList.builder();
-            for (Object arg : args) {
-                if (arg == null) {
-                    argBuilder.add(Optional.<String>absent());
+            return collectionMap.get(method).get(args);
+        }
+    }
+
+    private static boolean isIntKeyType(Class<?> type)
+    {
+        return type == int.class || type == Integer.class
+                || type == short.class || type == Short.class
+                || type == byte.class || type == Byte.class
+                || type == char.class || type == Character.class
+                || type == boolean.class || type == Boolean.class
+                || Enum.class.isAssignableFrom(type);
+    }
+
+    private static int intKey(Object arg)
+    {
+        if (arg instanceof Enum) {
+            return ((Enum<?>) arg).ordinal();
+        }
+        if (arg instanceof Boolean) {
+            return ((Boolean) arg) ? 1 : 0;
+        }
+        if (arg instanceof Character) {
+            return (Character) arg;
+        }
+        return ((Number) arg).intValue();
+    }
+
+    private static List<Optional<String>> toKey(@Nullable Object[] args)
+    {
+        if (args == null) {
+            return ImmutableList.of();
+        }
+        ImmutableList.Builder<Optional<String>> argBuilder = ImmutableList.builder();
+        for (Object arg : args) {
+            if (arg == null) {
+                argBuilder.add(Optional.<String>absent());
+            }
+            else {
+                argBuilder.add(Optional.of(arg.toString()));
+            }
+        }
+        return argBuilder.build();
+    }
+
+    /**
+     * The stats of one method of a report collection.
+     * <p>
+     * Stats are looked up without locking. Methods with a single int, enum, boolean
+     * or other primitive key look up their stats by the key's int value in an
+     * {@link IntIndex}, so a call for an existing key does not allocate. Creating
+     * and expiring stats is done while holding the lock.
+     * <p>
+     * Once the key limit is reached, calls with a new key get the overflow stat
+     * without taking the lock. An int key that overflowed is mapped to the overflow
+     * stat in the index until the next expiration, when it may get its own stats.
+     */
+    private class KeyedCollection
+    {
+        private final Constructor<?> constructor;
+        private final String packageName;
+        private final Map<String, String> properties;
+        private final String upperMethodName;
+        private final List<String> keyNames;
+        private final int maxKeys;
+        private final List<Optional<String>> overflowKey;
+        private final KeyStats keyStats;
+
+        private final ConcurrentMap<List<Optional<String>>, StatEntry> entries = new ConcurrentHashMap<>();
+        @Nullable
+        private final IntIndex intIndex;
+
+        private volatile long nextExpirationNanos = Long.MAX_VALUE;
+
+        private volatile StatEntry overflowEntry;
+
+        KeyedCollection(Constructor<?> constructor, String packageName, Map<String, String> properties, String upperMethodName,
+                List<String> keyNames, boolean intKeyed, int maxKeys, KeyStats keyStats)
+        {
+            this.constructor = constructor;
+            this.packageName = packageName;
+            this.properties = ImmutableMap.copyOf(properties);
+            this.upperMethodName = upperMethodName;
+            this.keyNames = keyNames;
+            this.maxKeys = maxKeys;
+            this.keyStats = keyStats;
+
+            ImmutableList.Builder<Optional<String>> overflowKeyBuilder = ImmutableList.builder();
+            for (int i = 0; i < keyNames.size(); ++i) {
+                overflowKeyBuilder.add(Optional.of(OVERFLOW_KEY));
+            }
+            overflowKey = overflowKeyBuilder.build();
+
+            if (intKeyed) {
+                intIndex = new IntIndex();
+            }
+            else {
+                intIndex = null;
+            }
+        }
+
+        Object get(@Nullable Object[] args)
+                throws Exception
+        {
+            long now = ticker.read();
+            if (now >= nextExpirationNanos) {
+                expire(now);
+            }
+
+            StatEntry entry;
+            List<Optional<String>> key = null;
+            if (intIndex != null && args[0] != null) {
+                entry = intIndex.get(intKey(args[0]));
+            }
+            else {
+                key = toKey(args);
+                entry = entries.get(key);
+            }
+
+            if (entry == null) {
+                StatEntry overflowEntry = this.overflowEntry;
+                if (overflowEntry != null && entries.size() >= maxKeys) {
+                    if (key == null || !key.equals(overflowKey)) {
+                        keyStats.overflows.incrementAndGet();
+                    }
+                    return overflowEntry.stat;
+                }
+                return load(args, key, now);
+            }
+            if (entry == overflowEntry) {
+                keyStats.overflows.incrementAndGet();
+                return entry.stat;
+            }
+            if (now - entry.lastAccessNanos >= ACCESS_RESOLUTION_NANOS) {
+                entry.lastAccessNanos = now;
+            }
+            return entry.stat;
+        }
+
+        private synchronized Object load(Object[] args, @Nullable List<Optional<String>> key, long now)
+                throws Exception
+        {
+            if (key == null) {
+                key = toKey(args);
+            }
+
+            StatEntry entry = entries.get(key);
+            if (entry == null) {
+                if (key.equals(overflowKey)) {
+                    return getOverflowEntry().stat;
+                }
+                if (entries.size() >= maxKeys) {
+                    keyStats.overflows.incrementAndGet();
+                    StatEntry overflowEntry = getOverflowEntry();
+                    // bound the overflowed int keys held by the index to the key limit
+                    if (intIndex != null && args[0] != null && intIndex.size() - entries.size() < maxKeys) {
+                        intIndex.put(intKey(args[0]), overflowEntry);
+                    }
+                    return overflowEntry.stat;
+                }
+                entry = createEntry(key);
+                entries.put(key, entry);
+                if (nextExpirationNanos == Long.MAX_VALUE) {
+                    nextExpirationNanos = now + EXPIRATION_NANOS;
+                }
+            }
+
+            entry.lastAccessNanos = now;
+            if (intIndex != null && args[0] != null) {
+                intIndex.put(intKey(args[0]), entry);
+            }
+            return entry.stat;
+        }
+
+        @GuardedBy("this")
+        private StatEntry getOverflowEntry()
+                throws Exception
+        {
+            // the overflow stat is kept out of the entries, so it neither counts against the limit nor expires
+            if (overflowEntry == null) {
+                overflowEntry = createEntry(overflowKey);
+            }
+            return overflowEntry;
+        }
+
+        private StatEntry createEntry(List<Optional<String>> key)
+                throws Exception
+        {
+            Object stat = constructor.newInstance();
+
+            ObjectNameBuilder objectNameBuilder = new ObjectNameBuilder(packageName);
+            for (Entry<String, String> entry : properties.entrySet()) {
+                objectNameBuilder = objectNameBuilder.withProperty(entry.getKey(), entry.getValue());
+            }
+            objectNameBuilder = objectNameBuilder.withProperty("name", upperMethodName);
+            for (int i = 0; i < keyNames.size(); ++i) {
+                if (key.get(i).isPresent()) {
+                    objectNameBuilder = objectNameBuilder.withProperty(keyNames.get(i), key.get(i).get());
+                }
+            }
+            String objectName = objectNameBuilder.build();
+            reportExporter.export(objectName, stat);
+            return new StatEntry(stat, objectName);
+        }
+
+        private synchronized void expire(long now)
+        {
+            if (now < nextExpirationNanos) {
+                return;
+            }
+
+            long nextExpiration = Long.MAX_VALUE;
+            boolean expired = false;
+            for (Iterator<StatEntry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+                StatEntry entry = iterator.next();
+                if (now - entry.lastAccessNanos >= EXPIRATION_NANOS) {
+                    iterator.remove();
+                    entry.expired = true;
+                    expired = true;
+                    keyStats.evictions.incrementAndGet();
+                    reportExporter.unexport(entry.objectName);
                 }
                 else {
-                    argBuilder.add(Optional.of(arg.toString()));
+                    nextExpiration = Math.min(nextExpiration, entry.lastAccessNanos + EXPIRATION_NANOS);
+                }
+            }
+            if (expired && intIndex != null) {
+                intIndex.removeExpired(overflowEntry);
+            }
+            nextExpirationNanos = nextExpiration;
+        }
+    }
+
+    private static class StatEntry
+    {
+        private final Object stat;
+        private final String objectName;
+        private volatile long lastAccessNanos;
+        private volatile boolean expired;
+
+        StatEntry(Object stat, String objectName)
+        {
+            this.stat = stat;
+            this.objectName = objectName;
+        }
+    }
+
+    /**
+     * Open addressing map from int keys to stat entries. Reads are not locked;
+     * writes must be made while holding the owning collection's lock.
+     */
+    private static class IntIndex
+    {
+        private volatile AtomicReferenceArray<IntIndexNode> table = new AtomicReferenceArray<>(16);
+        private int size = 0;
+
+        @Nullable
+        StatEntry get(int key)
+        {
+            AtomicReferenceArray<IntIndexNode> table = this.table;
+            int mask = table.length() - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                IntIndexNode node = table.get(i);
+                if (node == null) {
+                    return null;
+                }
+                if (node.key == key) {
+                    return node.entry;
+                }
+            }
+        }
+
+        void put(int key, StatEntry entry)
+        {
+            if ((size + 1) * 2 > table.length()) {
+                rebuild(table.length() * 2, null);
+            }
+            if (insert(table, new IntIndexNode(key, entry))) {
+                ++size;
+            }
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        /**
+         * Removes the expired entries and the keys mapped to the overflow entry.
+         */
+        void removeExpired(@Nullable StatEntry overflowEntry)
+        {
+            rebuild(table.length(), overflowEntry);
+        }
+
+        private void rebuild(int capacity, @Nullable StatEntry removedEntry)
+        {
+            AtomicReferenceArray<IntIndexNode> oldTable = table;
+            AtomicReferenceArray<IntIndexNode> newTable = new AtomicReferenceArray<>(capacity);
+            size = 0;
+            for (int i = 0; i < oldTable.length(); i++) {
+                IntIndexNode node = oldTable.get(i);
+                if (node != null && !node.entry.expired && node.entry != removedEntry) {
+                    insert(newTable, node);
+                    ++size;
                 }
             }
-            return cacheMap.get(method).get(argBuilder.build());
+            table = newTable;
         }
 
-        private class UnexportRemovalListener implements RemovalListener<List<Optional<String>>, Object>
+        private static boolean insert(AtomicReferenceArray<IntIndexNode> table, IntIndexNode node)
         {
-            @Override
-            public void onRemoval(RemovalNotification<List<Optional<String>>, Object> notification)
-            {
-                String objectName = objectNameMap.remove(notification.getValue());
-                reportExporter.unexport(objectName);
+            int mask = table.length() - 1;
+            for (int i = hash(node.key) & mask; ; i = (i + 1) & mask) {
+                IntIndexNode existing = table.get(i);
+                if (existing == null) {
+                    table.set(i, node);
+                    return true;
+                }
+                if (existing.key == node.key) {
+                    table.set(i, node);
+                    return false;
+                }
             }
         }
+
+        private static int hash(int key)
+        {
+            int hash = key * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    private static class IntIndexNode
+    {
+        private final int key;
+        private final StatEntry entry;
+
+        IntIndexNode(int key, StatEntry entry)
+        {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    public static class KeyStats
+    {
+        private final AtomicLong evictions = new AtomicLong();
+        private final AtomicLong overflows = new AtomicLong();
+
+        KeyStats()
+        {
+        }
+
+        @Gauge(description = "Number of keys that expired after not being used")
+        public long getEvictions()
+        {
+            return evictions.get();
+        }
+
+        @Gauge(description = "Number of calls with a new key made while the key limit was reached")
+        public long getOverflows()
+        {
+            return overflows.get();
+        }
     }
 
     private String methodName(Method method)
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.Immutable;
+import javax.management.ObjectName;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.CaseFormat.LOWER_CAMEL;
+import static com.google.common.base.CaseFormat.UPPER_CAMEL;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The metric name prefix and tags under which the attributes of a reported bean
+ * are reported, derived from its {@link ObjectName}.
+ * <p>
+ * The "type" and "name" properties form the name prefix. The domain is reported as
+ * the "package" tag and the other properties as tags of the same name. Names and tag
+ * values are dequoted and have characters other than {@code [-A-Za-z0-9./_]}
+ * replaced with underscores.
+ */
+@Immutable
+final class ReportName
+{
+    private static final Pattern QUOTED_PATTERN = Pattern.compile("\"(.*)\"");
+    private static final Pattern BACKQUOTE_PATTERN = Pattern.compile("\\\\(.)");
+
+    private final ObjectName objectName;
+    private final String namePrefix;
+    private final Map<String, String> tags;
+    private final String serializedTags;
+    private volatile MergedTags mergedTags = null;
+
+    ReportName(ObjectName objectName)
+    {
+        this.objectName = checkNotNull(objectName, "objectName is null");
+        Map<String, String> propertyList = objectName.getKeyPropertyList();
+
+        StringBuilder nameBuilder = new StringBuilder();
+        if (propertyList.containsKey("type")) {
+            nameBuilder.append(LOWER_CAMEL.to(UPPER_CAMEL, dequote(propertyList.get("type"))))
+                    .append(".");
+        }
+        if (propertyList.containsKey("name")) {
+            nameBuilder.append(LOWER_CAMEL.to(UPPER_CAMEL, dequote(propertyList.get("name"))))
+                    .append(".");
+        }
+        namePrefix = sanitize(nameBuilder.toString());
+
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("package", objectName.getDomain());
+        for (Entry<String, String> entry : propertyList.entrySet()) {
+            if (!entry.getKey().equals("type") && !entry.getKey().equals("name")) {
+                tags.put(entry.getKey(), sanitize(dequote(entry.getValue())));
+            }
+        }
+        this.tags = ImmutableMap.copyOf(tags);
+
+        StringBuilder tagsBuilder = new StringBuilder();
+        for (Entry<String, String> entry : this.tags.entrySet()) {
+            if (tagsBuilder.length() != 0) {
+                tagsBuilder.append(',');
+            }
+            appendJsonString(tagsBuilder, entry.getKey());
+            tagsBuilder.append(':');
+            appendJsonString(tagsBuilder, entry.getValue());
+        }
+        serializedTags = tagsBuilder.toString();
+    }
+
+    public ObjectName getObjectName()
+    {
+        return objectName;
+    }
+
+    /**
+     * The sanitized prefix of the names of the metrics, either empty or ending in ".".
+     */
+    public String getNamePrefix()
+    {
+        return namePrefix;
+    }
+
+    public Map<String, String> getTags()
+    {
+        return tags;
+    }
+
+    /**
+     * The tags as the members of a JSON object, without the enclosing braces.
+     */
+    public String getSerializedTags()
+    {
+        return serializedTags;
+    }
+
+    /**
+     * The given tags followed by the tags of this name as a JSON object, a tag of
+     * this name replacing a given tag with the same key. The result for the last
+     * tags given is kept, so tags that don't change are merged once per name.
+     */
+    public String getSerializedTags(Map<String, String> baseTags)
+    {
+        MergedTags mergedTags = this.mergedTags;
+        if (mergedTags != null && mergedTags.baseTags == baseTags) {
+            return mergedTags.serializedTags;
+        }
+
+        StringBuilder builder = new StringBuilder("{");
+        for (Entry<String, String> entry : baseTags.entrySet()) {
+            if (!tags.containsKey(entry.getKey())) {
+                appendJsonString(builder, entry.getKey());
+                builder.append(':');
+                appendJsonString(builder, entry.getValue());
+                builder.append(',');
+            }
+        }
+        builder.append(serializedTags).append('}');
+        this.mergedTags = new MergedTags(baseTags, builder.toString());
+        return this.mergedTags.serializedTags;
+    }
+
+    /**
+     * Replaces the characters not accepted in metric names and tag values with
+     * underscores.
+     */
+    public static char sanitize(char c)
+    {
+        if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '/' || c == '_') {
+            return c;
+        }
+        return '_';
+    }
+
+    private static String sanitize(String value)
+    {
+        char[] chars = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            char sanitized = sanitize(c);
+            if (sanitized != c) {
+                if (chars == null) {
+                    chars = value.toCharArray();
+                }
+                chars[i] = sanitized;
+            }
+        }
+        if (chars == null) {
+            return value;
+        }
+        return new String(chars);
+    }
+
+    private static String dequote(String value)
+    {
+        Matcher matcher = QUOTED_PATTERN.matcher(value);
+        String dequoted;
+        if (matcher.matches()) {
+            dequoted = BACKQUOTE_PATTERN.matcher(matcher.group(1)).replaceAll("$1");
+        }
+        else {
+            dequoted = value;
+        }
+        return dequoted;
+    }
+
+    private static void appendJsonString(StringBuilder builder, String value)
+    {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("objectName", objectName)
+                .add("namePrefix", namePrefix)
+                .add("tags", tags)
+                .toString();
+    }
+
+    private static class MergedTags
+    {
+        private final Map<String, String> baseTags;
+        private final String serializedTags;
+
+        private MergedTags(Map<String, String> baseTags, String serializedTags)
+        {
+            this.baseTags = baseTags;
+            this.serializedTags = serializedTags;
+        }
+    }
+}
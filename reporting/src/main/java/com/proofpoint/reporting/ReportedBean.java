@@ -22,6 +22,7 @@ import javax.management.MBeanInfo;
 import javax.management.ReflectionException;
 import javax.management.modelmbean.ModelMBeanConstructorInfo;
 import javax.management.modelmbean.ModelMBeanNotificationInfo;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -32,23 +33,23 @@ import java.util.TreeMap;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.proofpoint.reporting.ReflectionUtils.getAttributeName;
+import static com.proofpoint.reporting.ReflectionUtils.getterHandle;
+import static com.proofpoint.reporting.ReflectionUtils.invoke;
 import static com.proofpoint.reporting.ReflectionUtils.isGetter;
 
 class ReportedBean
 {
-    static Method GET_PREVIOUS_BUCKET;
+    static final MethodHandle GET_PREVIOUS_BUCKET;
 
     private final MBeanInfo mbeanInfo;
     private final Map<String, ReportedBeanAttribute> attributes;
 
     static {
         try {
-            Method getPreviousBucket = Bucketed.class.getDeclaredMethod("getPreviousBucket");
-            getPreviousBucket.setAccessible(true);
-            GET_PREVIOUS_BUCKET = getPreviousBucket;
+            GET_PREVIOUS_BUCKET = getterHandle(Bucketed.class.getDeclaredMethod("getPreviousBucket"));
         }
-        catch (NoSuchMethodException ignored) {
-            GET_PREVIOUS_BUCKET = null;
+        catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
         }
     }
 
@@ -101,7 +102,7 @@ class ReportedBean
 
             Object value = null;
             try {
-                value = GET_PREVIOUS_BUCKET.invoke(target);
+                value = invoke(target, GET_PREVIOUS_BUCKET, "getPreviousBucket");
             }
             catch (Exception ignored) {
                 // todo log me
@@ -20,18 +20,35 @@ import com.google.common.collect.ImmutableMap;
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.InstanceNotFoundException;
 import javax.management.ObjectName;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.Maps.newConcurrentMap;
 
 class ReportedBeanRegistry
 {
-    private ConcurrentMap<ObjectName, ReportedBean> reportedBeans = newConcurrentMap();
+    private final ConcurrentMap<ObjectName, RegisteredBean> reportedBeans = newConcurrentMap();
 
     Map<ObjectName, ReportedBean> getReportedBeans()
     {
-        return ImmutableMap.copyOf(reportedBeans);
+        ImmutableMap.Builder<ObjectName, ReportedBean> builder = ImmutableMap.builder();
+        for (RegisteredBean registeredBean : reportedBeans.values()) {
+            builder.put(registeredBean.getReportName().getObjectName(), registeredBean.getReportedBean());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns a live view of the registered beans along with their cached
+     * {@link ReportName}s. Iteration reflects registrations made during it
+     * on a best-effort basis.
+     */
+    Collection<RegisteredBean> getRegisteredBeans()
+    {
+        return Collections.unmodifiableCollection(reportedBeans.values());
     }
 
     public void register(ReportedBean reportedBean, ObjectName name)
@@ -40,7 +57,7 @@ class ReportedBeanRegistry
         if (name == null) {
             throw new UnsupportedOperationException("Only explicit name supported at this time");
         }
-        if (reportedBeans.putIfAbsent(name, reportedBean) != null) {
+        if (reportedBeans.putIfAbsent(name, new RegisteredBean(reportedBean, new ReportName(name))) != null) {
             throw new InstanceAlreadyExistsException(name + " is already registered");
         }
     }
@@ -52,4 +69,26 @@ class ReportedBeanRegistry
             throw new InstanceNotFoundException(name.getCanonicalName() + "not found");
         }
     }
+
+    static final class RegisteredBean
+    {
+        private final ReportedBean reportedBean;
+        private final ReportName reportName;
+
+        private RegisteredBean(ReportedBean reportedBean, ReportName reportName)
+        {
+            this.reportedBean = checkNotNull(reportedBean, "reportedBean is null");
+            this.reportName = reportName;
+        }
+
+        ReportedBean getReportedBean()
+        {
+            return reportedBean;
+        }
+
+        ReportName getReportName()
+        {
+            return reportName;
+        }
+    }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.proofpoint.configuration.Config;
+import com.proofpoint.configuration.ConfigDescription;
+import com.proofpoint.units.Duration;
+import com.proofpoint.units.MaxDuration;
+import com.proofpoint.units.MinDuration;
+
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.TimeUnit;
+
+public class ReportingConfig
+{
+    private Duration bucketWidth = new Duration(1, TimeUnit.MINUTES);
+
+    @NotNull
+    @MinDuration("1s")
+    @MaxDuration("1m")
+    public Duration getBucketWidth()
+    {
+        return bucketWidth;
+    }
+
+    @Config("reporting.bucket-width")
+    @ConfigDescription("Width of the buckets of bucketed stats and interval between reports")
+    public ReportingConfig setBucketWidth(Duration bucketWidth)
+    {
+        this.bucketWidth = bucketWidth;
+        return this;
+    }
+}
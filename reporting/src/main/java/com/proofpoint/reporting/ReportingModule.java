@@ -15,6 +15,7 @@
  */
 package com.proofpoint.reporting;
 
+import com.google.common.base.Ticker;
 import com.google.inject.Binder;
 import com.google.inject.Module;
 import com.google.inject.Scopes;
@@ -31,6 +32,8 @@ public class ReportingModule
         binder.bind(ReportExporter.class).asEagerSingleton();
         binder.bind(GuiceReportExporter.class).asEagerSingleton();
         binder.bind(ReportedBeanRegistry.class).in(Scopes.SINGLETON);
+        binder.bind(CoarseTicker.class).in(Scopes.SINGLETON);
+        binder.bind(Ticker.class).annotatedWith(ForStats.class).to(CoarseTicker.class);
         binder.bind(MinuteBucketIdProvider.class).in(Scopes.SINGLETON);
         binder.bind(BucketIdProvider.class).to(MinuteBucketIdProvider.class).in(Scopes.SINGLETON);
         binder.bind(ReportCollectionFactory.class).in(Scopes.SINGLETON);
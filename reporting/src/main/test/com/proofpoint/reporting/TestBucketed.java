@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class TestBucketed
+{
+    private static final int THREADS = 8;
+
+    @Test
+    public void testRotationCreatesBucketsOnce()
+            throws Exception
+    {
+        final AtomicInteger bucketId = new AtomicInteger();
+        final CountingBucketed bucketed = new CountingBucketed();
+        bucketed.setBucketIdProvider(new BucketIdProvider()
+        {
+            @Override
+            public int get()
+            {
+                return bucketId.get();
+            }
+        });
+        assertEquals(bucketed.created.get(), 2);
+
+        ExecutorService executor = newFixedThreadPool(THREADS);
+        try {
+            for (int rotation = 1; rotation <= 100; rotation++) {
+                bucketId.set(rotation);
+                final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+                List<Future<Object>> futures = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    futures.add(executor.submit(new Callable<Object>()
+                    {
+                        @Override
+                        public Object call()
+                                throws Exception
+                        {
+                            barrier.await();
+                            return bucketed.getCurrentBucket();
+                        }
+                    }));
+                }
+                Object current = futures.get(0).get();
+                for (Future<Object> future : futures) {
+                    assertSame(future.get(), current);
+                }
+                assertEquals(bucketed.created.get(), 2 + rotation);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class CountingBucketed
+            extends Bucketed<Object>
+    {
+        private final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        protected Object createBucket()
+        {
+            created.incrementAndGet();
+            return new Object();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.proofpoint.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestCoarseTicker
+{
+    @Test
+    public void testReadsCachedValue()
+    {
+        TestingTicker ticker = new TestingTicker();
+        ticker.increment(5, TimeUnit.SECONDS);
+        try (CoarseTicker coarseTicker = new CoarseTicker(1, TimeUnit.HOURS, ticker)) {
+            coarseTicker.start();
+            assertEquals(coarseTicker.read(), TimeUnit.SECONDS.toNanos(5));
+
+            ticker.increment(1, TimeUnit.SECONDS);
+            assertEquals(coarseTicker.read(), TimeUnit.SECONDS.toNanos(5));
+
+            coarseTicker.update();
+            assertEquals(coarseTicker.read(), TimeUnit.SECONDS.toNanos(6));
+        }
+    }
+
+    @Test
+    public void testReadsThroughWhenNotRunning()
+    {
+        TestingTicker ticker = new TestingTicker();
+        CoarseTicker coarseTicker = new CoarseTicker(1, TimeUnit.HOURS, ticker);
+        ticker.increment(1, TimeUnit.SECONDS);
+        assertEquals(coarseTicker.read(), TimeUnit.SECONDS.toNanos(1));
+
+        coarseTicker.start();
+        ticker.increment(1, TimeUnit.SECONDS);
+        assertEquals(coarseTicker.read(), TimeUnit.SECONDS.toNanos(1));
+
+        coarseTicker.close();
+        assertEquals(coarseTicker.read(), TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    public void testBackgroundUpdate()
+            throws Exception
+    {
+        try (CoarseTicker coarseTicker = new CoarseTicker(1, TimeUnit.MILLISECONDS)) {
+            coarseTicker.start();
+            long initial = coarseTicker.read();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (coarseTicker.read() == initial && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(coarseTicker.read() > initial);
+        }
+    }
+
+    @Test
+    public void testMinuteBucketIdProvider()
+    {
+        TestingTicker ticker = new TestingTicker();
+        try (CoarseTicker coarseTicker = new CoarseTicker(1, TimeUnit.HOURS, ticker)) {
+            coarseTicker.start();
+            MinuteBucketIdProvider idProvider = new MinuteBucketIdProvider(coarseTicker);
+            ticker.increment(1, TimeUnit.MINUTES);
+            assertEquals(idProvider.get(), 0);
+            coarseTicker.update();
+            assertEquals(idProvider.get(), 1);
+        }
+    }
+}
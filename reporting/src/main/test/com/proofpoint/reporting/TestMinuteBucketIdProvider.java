@@ -16,6 +16,7 @@
 package com.proofpoint.reporting;
 
 import com.proofpoint.testing.TestingTicker;
+import com.proofpoint.units.Duration;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -54,4 +55,18 @@ public class TestMinuteBucketIdProvider
         ticker.increment(1, TimeUnit.NANOSECONDS);
         assertEquals(idProvider.get(), 1, "on minute boundary");
     }
+
+    @Test
+    public void testBucketWidth()
+    {
+        MinuteBucketIdProvider idProvider = new MinuteBucketIdProvider(ticker, new ReportingConfig().setBucketWidth(new Duration(10, TimeUnit.SECONDS)));
+        assertEquals(idProvider.getBucketWidthMillis(), 10_000);
+        assertEquals(idProvider.get(), 0, "initial state");
+        ticker.increment(9_999_999_999L, TimeUnit.NANOSECONDS);
+        assertEquals(idProvider.get(), 0, "before bucket boundary");
+        ticker.increment(1, TimeUnit.NANOSECONDS);
+        assertEquals(idProvider.get(), 1, "on bucket boundary");
+        ticker.increment(50, TimeUnit.SECONDS);
+        assertEquals(idProvider.get(), 6, "one minute later");
+    }
 }
@@ -16,6 +16,7 @@
 package com.proofpoint.reporting;
 
 import com.google.common.base.Ticker;
+import com.proofpoint.reporting.ReportCollectionFactory.KeyStats;
 import org.mockito.ArgumentCaptor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -25,10 +26,12 @@ import javax.validation.constraints.NotNull;
 import java.util.concurrent.TimeUnit;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertSame;
 
 public class TestReportCollectionFactory
@@ -103,6 +106,158 @@ public class TestReportCollectionFactory
         SomeObject add(@Key("foo") String key, @NotNull @Key("bar") boolean bool);
     }
 
+    @Test
+    public void testIntKeys()
+            throws Exception
+    {
+        IntKeyedDistribution keyedDistribution = reportCollectionFactory.createReportCollection(IntKeyedDistribution.class);
+        SomeObject ok = keyedDistribution.add(200);
+        SomeObject notFound = keyedDistribution.add(404);
+        assertNotSame(ok, notFound);
+        assertSame(keyedDistribution.add(200), ok);
+        assertSame(keyedDistribution.add(404), notFound);
+        SomeObject absent = keyedDistribution.add(null);
+        assertSame(keyedDistribution.add(null), absent);
+
+        verify(reportExporter).export("com.proofpoint.reporting:type=IntKeyedDistribution,name=Add,code=200", ok);
+        verify(reportExporter).export("com.proofpoint.reporting:type=IntKeyedDistribution,name=Add,code=404", notFound);
+        verify(reportExporter).export("com.proofpoint.reporting:type=IntKeyedDistribution,name=Add", absent);
+
+        ticker.advance(10, TimeUnit.MINUTES);
+        assertSame(keyedDistribution.add(200), ok);
+        ticker.advance(5, TimeUnit.MINUTES);
+        assertSame(keyedDistribution.add(200), ok);
+
+        verify(reportExporter).unexport("com.proofpoint.reporting:type=IntKeyedDistribution,name=Add,code=404");
+        verify(reportExporter).unexport("com.proofpoint.reporting:type=IntKeyedDistribution,name=Add");
+        verify(reportExporter, never()).unexport("com.proofpoint.reporting:type=IntKeyedDistribution,name=Add,code=200");
+
+        SomeObject newNotFound = keyedDistribution.add(404);
+        assertNotSame(newNotFound, notFound);
+        assertSame(keyedDistribution.add(404), newNotFound);
+    }
+
+    private interface IntKeyedDistribution
+    {
+        SomeObject add(@Key("code") Integer code);
+    }
+
+    @Test
+    public void testEnumKeys()
+            throws Exception
+    {
+        EnumKeyedDistribution keyedDistribution = reportCollectionFactory.createReportCollection(EnumKeyedDistribution.class);
+        SomeObject seconds = keyedDistribution.add(TimeUnit.SECONDS);
+        SomeObject minutes = keyedDistribution.add(TimeUnit.MINUTES);
+        assertNotSame(seconds, minutes);
+        assertSame(keyedDistribution.add(TimeUnit.SECONDS), seconds);
+
+        verify(reportExporter).export("com.proofpoint.reporting:type=EnumKeyedDistribution,name=Add,unit=SECONDS", seconds);
+        verify(reportExporter).export("com.proofpoint.reporting:type=EnumKeyedDistribution,name=Add,unit=MINUTES", minutes);
+    }
+
+    private interface EnumKeyedDistribution
+    {
+        SomeObject add(@Key("unit") TimeUnit unit);
+    }
+
+    @Test
+    public void testNoKeys()
+            throws Exception
+    {
+        UnkeyedDistribution unkeyedDistribution = reportCollectionFactory.createReportCollection(UnkeyedDistribution.class);
+        SomeObject someObject = unkeyedDistribution.get();
+        assertSame(unkeyedDistribution.get(), someObject);
+
+        verify(reportExporter).export("com.proofpoint.reporting:type=UnkeyedDistribution,name=Get", someObject);
+    }
+
+    private interface UnkeyedDistribution
+    {
+        SomeObject get();
+    }
+
+    @Test
+    public void testMaxKeys()
+            throws Exception
+    {
+        LimitedDistribution limitedDistribution = reportCollectionFactory.createReportCollection(LimitedDistribution.class);
+
+        ArgumentCaptor<KeyStats> keyStatsCaptor = ArgumentCaptor.forClass(KeyStats.class);
+        verify(reportExporter).export(eq("com.proofpoint.reporting:type=LimitedDistribution,name=Add.Keys"), keyStatsCaptor.capture());
+        KeyStats keyStats = keyStatsCaptor.getValue();
+
+        SomeObject first = limitedDistribution.add("first");
+        SomeObject second = limitedDistribution.add("second");
+        assertNotSame(first, second);
+        assertSame(limitedDistribution.add("first"), first);
+
+        SomeObject overflow = limitedDistribution.add("third");
+        assertNotSame(overflow, first);
+        assertNotSame(overflow, second);
+        assertSame(limitedDistribution.add("fourth"), overflow);
+        assertSame(limitedDistribution.add("_other"), overflow);
+        assertSame(limitedDistribution.add("second"), second);
+
+        verify(reportExporter).export("com.proofpoint.reporting:type=LimitedDistribution,name=Add,foo=_other", overflow);
+        verify(reportExporter, never()).export(eq("com.proofpoint.reporting:type=LimitedDistribution,name=Add,foo=third"), any());
+        assertEquals(keyStats.getOverflows(), 2);
+        assertEquals(keyStats.getEvictions(), 0);
+
+        ticker.advance(15, TimeUnit.MINUTES);
+        SomeObject third = limitedDistribution.add("third");
+        assertNotSame(third, overflow);
+        verify(reportExporter).export("com.proofpoint.reporting:type=LimitedDistribution,name=Add,foo=third", third);
+        verify(reportExporter, never()).unexport("com.proofpoint.reporting:type=LimitedDistribution,name=Add,foo=_other");
+        assertEquals(keyStats.getOverflows(), 2);
+        assertEquals(keyStats.getEvictions(), 2);
+    }
+
+    private interface LimitedDistribution
+    {
+        @MaxKeys(2)
+        SomeObject add(@Key("foo") String key);
+    }
+
+    @Test
+    public void testIntKeyedMaxKeys()
+            throws Exception
+    {
+        LimitedIntKeyedDistribution limitedDistribution = reportCollectionFactory.createReportCollection(LimitedIntKeyedDistribution.class);
+
+        ArgumentCaptor<KeyStats> keyStatsCaptor = ArgumentCaptor.forClass(KeyStats.class);
+        verify(reportExporter).export(eq("com.proofpoint.reporting:type=LimitedIntKeyedDistribution,name=Add.Keys"), keyStatsCaptor.capture());
+        KeyStats keyStats = keyStatsCaptor.getValue();
+
+        SomeObject first = limitedDistribution.add(1);
+        SomeObject second = limitedDistribution.add(2);
+        assertNotSame(first, second);
+
+        SomeObject overflow = limitedDistribution.add(3);
+        assertNotSame(overflow, first);
+        assertNotSame(overflow, second);
+        assertSame(limitedDistribution.add(3), overflow);
+        assertSame(limitedDistribution.add(4), overflow);
+        assertSame(limitedDistribution.add(2), second);
+
+        verify(reportExporter).export("com.proofpoint.reporting:type=LimitedIntKeyedDistribution,name=Add,foo=_other", overflow);
+        assertEquals(keyStats.getOverflows(), 3);
+
+        ticker.advance(15, TimeUnit.MINUTES);
+        SomeObject third = limitedDistribution.add(3);
+        assertNotSame(third, overflow);
+        verify(reportExporter).export("com.proofpoint.reporting:type=LimitedIntKeyedDistribution,name=Add,foo=3", third);
+        assertSame(limitedDistribution.add(3), third);
+        assertEquals(keyStats.getOverflows(), 3);
+        assertEquals(keyStats.getEvictions(), 2);
+    }
+
+    private interface LimitedIntKeyedDistribution
+    {
+        @MaxKeys(2)
+        SomeObject add(@Key("foo") int key);
+    }
+
     @Test
     public void testNamedCollection()
             throws Exception
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.reporting;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import org.testng.annotations.Test;
+
+import javax.management.ObjectName;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestReportName
+{
+    @Test
+    public void testNameAndTags()
+            throws Exception
+    {
+        ReportName reportName = new ReportName(ObjectName.getInstance("com.example:type=fooBar,name=\"ba:r\",tag1=\"B\\\\a\\\"z\""));
+        assertEquals(reportName.getNamePrefix(), "FooBar.Ba_r.");
+        assertEquals(reportName.getTags(), ImmutableMap.of("package", "com.example", "tag1", "B_a_z"));
+        assertEquals(reportName.getSerializedTags(), "\"package\":\"com.example\",\"tag1\":\"B_a_z\"");
+    }
+
+    @Test
+    public void testNoTypeOrName()
+            throws Exception
+    {
+        ReportName reportName = new ReportName(ObjectName.getInstance("com.example:tag1=a b"));
+        assertEquals(reportName.getNamePrefix(), "");
+        assertEquals(reportName.getTags(), ImmutableMap.of("package", "com.example", "tag1", "a_b"));
+    }
+
+    @Test
+    public void testSerializedTagsEscaped()
+            throws Exception
+    {
+        ReportName reportName = new ReportName(ObjectName.getInstance("com.\"example\\:name=Foo"));
+        assertEquals(reportName.getSerializedTags(), "\"package\":\"com.\\\"example\\\\\"");
+    }
+
+    @Test
+    public void testSerializedTagsMerged()
+            throws Exception
+    {
+        ReportName reportName = new ReportName(ObjectName.getInstance("com.example:name=Foo,host=bar"));
+        Map<String, String> baseTags = ImmutableMap.of("application", "app", "host", "\"baz\"");
+        String serializedTags = reportName.getSerializedTags(baseTags);
+        assertEquals(serializedTags, "{\"application\":\"app\",\"package\":\"com.example\",\"host\":\"bar\"}");
+        assertSame(reportName.getSerializedTags(baseTags), serializedTags);
+
+        assertEquals(reportName.getSerializedTags(ImmutableMap.<String, String>of()), "{\"package\":\"com.example\",\"host\":\"bar\"}");
+        assertEquals(reportName.getSerializedTags(ImmutableMap.of("pool", "\"general\"")), "{\"pool\":\"\\\"general\\\"\",\"package\":\"com.example\",\"host\":\"bar\"}");
+    }
+
+    @Test
+    public void testRegistryCachesUntilUnregistered()
+            throws Exception
+    {
+        ReportedBeanRegistry registry = new ReportedBeanRegistry();
+        ObjectName objectName = ObjectName.getInstance("com.example:name=Foo");
+        registry.register(ReportedBean.forTarget(new SimpleObject()), objectName);
+
+        ReportName reportName = Iterables.getOnlyElement(registry.getRegisteredBeans()).getReportName();
+        assertEquals(reportName.getObjectName(), objectName);
+        assertSame(Iterables.getOnlyElement(registry.getRegisteredBeans()).getReportName(), reportName);
+
+        registry.unregister(objectName);
+        assertTrue(registry.getRegisteredBeans().isEmpty());
+    }
+}
@@ -35,7 +35,7 @@ public final class BucketedCounter
             @Override
             public Void apply(Counter input)
             {
-                input.count += count;
+                input.count.add(count);
                 return null;
             }
         });
@@ -49,12 +49,12 @@ public final class BucketedCounter
 
     protected static class Counter
     {
-        private double count = 0;
+        private final StripedDoubleAdder count = new StripedDoubleAdder();
 
         @Reported
         public double getCount()
         {
-            return count;
+            return count.sum();
         }
     }
 }
@@ -15,110 +15,114 @@
  */
 package com.proofpoint.stats;
 
-import com.google.common.base.Function;
 import com.proofpoint.reporting.Bucketed;
 import com.proofpoint.reporting.Reported;
 
-import javax.annotation.concurrent.GuardedBy;
+import static com.google.common.base.Preconditions.checkArgument;
 
 public final class BucketedDistribution
     extends Bucketed<BucketedDistribution.Distribution>
 {
-    public void add(final long value)
+    private final int stripeCount;
+
+    public BucketedDistribution()
     {
-        applyToCurrentBucket(new Function<Distribution, Void>()
-        {
-            @Override
-            public Void apply(Distribution input)
-            {
-                synchronized (input) {
-                    input.digest.add(value);
-                    input.total += value;
-                }
-                return null;
-            }
-        });
+        stripeCount = 0;
+    }
+
+    /**
+     * Create a bucketed distribution whose buckets record into {@code stripeCount}
+     * stripes.
+     *
+     * @see com.proofpoint.stats.Distribution#Distribution(double, int)
+     */
+    public BucketedDistribution(int stripeCount)
+    {
+        checkArgument(stripeCount > 0, "stripeCount must be > 0");
+        this.stripeCount = stripeCount;
+    }
+
+    public void add(long value)
+    {
+        getCurrentBucket().distribution.add(value);
     }
 
     @Override
     protected Distribution createBucket()
     {
-        return new Distribution();
+        if (stripeCount == 0) {
+            return new Distribution(new com.proofpoint.stats.Distribution());
+        }
+        return new Distribution(new com.proofpoint.stats.Distribution(0, stripeCount));
     }
 
     protected static class Distribution
     {
-        private final static double MAX_ERROR = 0.01;
-    
-        @GuardedBy("this")
-        private final QuantileDigest digest;
-
-        @GuardedBy("this")
-        private long total = 0;
-    
-        public Distribution()
+        private final com.proofpoint.stats.Distribution distribution;
+
+        private Distribution(com.proofpoint.stats.Distribution distribution)
         {
-            digest = new QuantileDigest(MAX_ERROR);
+            this.distribution = distribution;
         }
-    
+
         @Reported
-        public synchronized double getMaxError()
+        public double getMaxError()
         {
-            return digest.getConfidenceFactor();
+            return distribution.getMaxError();
         }
-    
+
         @Reported
-        public synchronized double getCount()
+        public double getCount()
         {
-            return digest.getCount();
+            return distribution.getCount();
         }
 
         @Reported
-        public synchronized long getTotal()
+        public long getTotal()
         {
-            return total;
+            return (long) distribution.getTotal();
         }
-    
+
         @Reported
-        public synchronized long getP50()
+        public long getP50()
         {
-            return digest.getQuantile(0.5);
+            return distribution.getP50();
         }
-    
+
         @Reported
-        public synchronized long getP75()
+        public long getP75()
         {
-            return digest.getQuantile(0.75);
+            return distribution.getP75();
         }
-    
+
         @Reported
-        public synchronized long getP90()
+        public long getP90()
         {
-            return digest.getQuantile(0.90);
+            return distribution.getP90();
         }
-    
+
         @Reported
-        public synchronized long getP95()
+        public long getP95()
         {
-            return digest.getQuantile(0.95);
+            return distribution.getP95();
         }
-    
+
         @Reported
-        public synchronized long getP99()
+        public long getP99()
         {
-            return digest.getQuantile(0.99);
+            return distribution.getP99();
         }
-    
+
         @Reported
-        public synchronized long getMin()
+        public long getMin()
         {
-            return digest.getMin();
+            return distribution.getMin();
         }
-    
+
         @Reported
-        public synchronized long getMax()
+        public long getMax()
         {
-            return digest.getMax();
+            return distribution.getMax();
         }
     }
 }
@@ -24,6 +24,22 @@ import javax.annotation.concurrent.GuardedBy;
 public final class BucketedTimeDistribution
     extends Bucketed<BucketedTimeDistribution.Distribution>
 {
+    private final boolean useHistogram;
+
+    public BucketedTimeDistribution()
+    {
+        this(false);
+    }
+
+    /**
+     * @param useHistogram whether buckets record into a {@link LogLinearHistogram}
+     * instead of a {@link QuantileDigest}
+     */
+    BucketedTimeDistribution(boolean useHistogram)
+    {
+        this.useHistogram = useHistogram;
+    }
+
     public void add(final long value)
     {
         applyToCurrentBucket(new Function<Distribution, Void>()
@@ -31,9 +47,7 @@ public final class BucketedTimeDistribution
             @Override
             public Void apply(Distribution input)
             {
-                synchronized (input) {
-                    input.digest.add(value);
-                }
+                input.add(value);
                 return null;
             }
         });
@@ -42,6 +56,9 @@ public final class BucketedTimeDistribution
     @Override
     protected Distribution createBucket()
     {
+        if (useHistogram) {
+            return new Distribution(new LogLinearHistogram());
+        }
         return new Distribution();
     }
 
@@ -49,66 +66,107 @@ public final class BucketedTimeDistribution
     {
         private final static double MAX_ERROR = 0.01;
     
+        // exactly one of digest and histogram is non-null
         @GuardedBy("this")
         private final QuantileDigest digest;
+
+        private final LogLinearHistogram histogram;
+
+        @GuardedBy("this")
+        private DigestSummary summary;
     
         public Distribution()
         {
             digest = new QuantileDigest(MAX_ERROR);
+            histogram = null;
+        }
+
+        private Distribution(LogLinearHistogram histogram)
+        {
+            digest = null;
+            this.histogram = histogram;
+        }
+
+        private void add(long value)
+        {
+            if (histogram != null) {
+                histogram.add(value);
+                return;
+            }
+
+            synchronized (this) {
+                digest.add(value);
+                summary = null;
+            }
         }
     
         @Reported
         public synchronized double getMaxError()
         {
-            return digest.getConfidenceFactor();
+            return summary().getMaxError();
         }
     
         @Reported
         public synchronized double getCount()
         {
+            if (histogram != null) {
+                return histogram.getCount();
+            }
             return digest.getCount();
         }
     
         @Reported
         public synchronized double getP50()
         {
-            return convertToSeconds(digest.getQuantile(0.5));
+            return convertToSeconds(summary().getP50());
         }
     
         @Reported
         public synchronized double getP75()
         {
-            return convertToSeconds(digest.getQuantile(0.75));
+            return convertToSeconds(summary().getP75());
         }
     
         @Reported
         public synchronized double getP90()
         {
-            return convertToSeconds(digest.getQuantile(0.90));
+            return convertToSeconds(summary().getP90());
         }
     
         @Reported
         public synchronized double getP95()
         {
-            return convertToSeconds(digest.getQuantile(0.95));
+            return convertToSeconds(summary().getP95());
         }
     
         @Reported
         public synchronized double getP99()
         {
-            return convertToSeconds(digest.getQuantile(0.99));
+            return convertToSeconds(summary().getP99());
         }
     
         @Reported
         public synchronized double getMin()
         {
-            return convertToSeconds(digest.getMin());
+            return convertToSeconds(summary().getMin());
         }
     
         @Reported
         public synchronized double getMax()
         {
-            return convertToSeconds(digest.getMax());
+            return convertToSeconds(summary().getMax());
+        }
+
+        @GuardedBy("this")
+        private DigestSummary summary()
+        {
+            if (histogram != null) {
+                return histogram.summary();
+            }
+            if (summary == null) {
+                summary = digest.summarize();
+            }
+            return summary;
         }
 
         private static double convertToSeconds(long nanos)
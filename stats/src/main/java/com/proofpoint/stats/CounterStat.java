@@ -18,49 +18,110 @@ package com.proofpoint.stats;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.annotations.Beta;
+import com.google.common.base.Ticker;
 import com.proofpoint.stats.DecayCounter.DecayCounterSnapshot;
 import org.weakref.jmx.Flatten;
 import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
 
-import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * A count with one, five and fifteen minute decayed counts.
+ * <p>
+ * Updates go to a striped raw count. The raw count that has not yet been applied to
+ * the decayed counters is folded into them once a second, or when they are read, so
+ * an update does not compute any decay weights or take any locks.
+ */
 @Beta
+@ThreadSafe
 public class CounterStat
 {
-    private final AtomicLong count = new AtomicLong(0);
-    private final DecayCounter oneMinute = new DecayCounter(ExponentialDecay.oneMinute());
-    private final DecayCounter fiveMinute = new DecayCounter(ExponentialDecay.fiveMinutes());
-    private final DecayCounter fifteenMinute = new DecayCounter(ExponentialDecay.fifteenMinutes());
+    private final StripedLongAdder count = new StripedLongAdder();
+    private final Ticker ticker;
+    private final DecayCounter oneMinute;
+    private final DecayCounter fiveMinute;
+    private final DecayCounter fifteenMinute;
     private final BucketedCounter bucket = new BucketedCounter();
 
+    // the second during which the updates not yet folded were made
+    private volatile long pendingSecond;
+
+    // the raw count already folded into the decayed counters
+    @GuardedBy("this")
+    private long foldedCount;
+
+    // added to the raw count to get the total count, so the total can be reset
+    private volatile long countOffset;
+
+    public CounterStat()
+    {
+        this(Ticker.systemTicker());
+    }
+
+    /**
+     * Create a stat whose counters decay according to {@code ticker}, such as a
+     * {@link com.proofpoint.reporting.CoarseTicker}.
+     */
+    public CounterStat(Ticker ticker)
+    {
+        this.ticker = checkNotNull(ticker, "ticker is null");
+        Runnable flushPending = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        };
+        oneMinute = new DecayCounter(ExponentialDecay.oneMinute(), ticker, flushPending);
+        fiveMinute = new DecayCounter(ExponentialDecay.fiveMinutes(), ticker, flushPending);
+        fifteenMinute = new DecayCounter(ExponentialDecay.fifteenMinutes(), ticker, flushPending);
+        pendingSecond = getTickInSeconds();
+    }
+
     public void update(long count)
     {
-        oneMinute.add(count);
-        fiveMinute.add(count);
-        fifteenMinute.add(count);
+        long nowInSeconds = getTickInSeconds();
+        if (nowInSeconds > pendingSecond) {
+            foldIfBehind(nowInSeconds);
+        }
+        this.count.add(count);
         bucket.add(count);
-        this.count.addAndGet(count);
     }
 
     public void merge(CounterStat counterStat)
     {
         checkNotNull(counterStat, "counterStat is null");
-        oneMinute.merge(counterStat.getOneMinute());
-        fiveMinute.merge(counterStat.getFiveMinute());
-        fifteenMinute.merge(counterStat.getFifteenMinute());
-        count.addAndGet(counterStat.getTotalCount());
+
+        // flush the other stat before taking this one's lock, so two stats merging
+        // into each other do not deadlock
+        counterStat.flush();
+        synchronized (this) {
+            flush();
+            oneMinute.mergeFlushed(counterStat.getOneMinute());
+            fiveMinute.mergeFlushed(counterStat.getFiveMinute());
+            fifteenMinute.mergeFlushed(counterStat.getFifteenMinute());
+
+            // the merged count is already in the decayed counters
+            long mergedCount = counterStat.getTotalCount();
+            count.add(mergedCount);
+            foldedCount += mergedCount;
+        }
     }
 
     @Managed
-    public void reset()
+    public synchronized void reset()
     {
+        foldedCount = count.sum();
+        countOffset = -foldedCount;
         oneMinute.reset();
         fiveMinute.reset();
         fifteenMinute.reset();
-        count.set(0);
     }
 
     /**
@@ -69,16 +130,20 @@ public class CounterStat
     @Deprecated
     public void resetTo(CounterStat counterStat)
     {
-        oneMinute.resetTo(counterStat.getOneMinute());
-        fiveMinute.resetTo(counterStat.getFiveMinute());
-        fifteenMinute.resetTo(counterStat.getFifteenMinute());
-        count.set(counterStat.getTotalCount());
+        counterStat.flush();
+        synchronized (this) {
+            foldedCount = count.sum();
+            countOffset = counterStat.getTotalCount() - foldedCount;
+            oneMinute.resetToFlushed(counterStat.getOneMinute());
+            fiveMinute.resetToFlushed(counterStat.getFiveMinute());
+            fifteenMinute.resetToFlushed(counterStat.getFifteenMinute());
+        }
     }
 
     @Managed
     public long getTotalCount()
     {
-        return count.get();
+        return count.sum() + countOffset;
     }
 
     @Nested
@@ -105,6 +170,48 @@ public class CounterStat
         return bucket;
     }
 
+    private void flush()
+    {
+        fold(getTickInSeconds());
+    }
+
+    private synchronized void foldIfBehind(long nowInSeconds)
+    {
+        // another thread may have folded while this one waited for the lock
+        if (nowInSeconds <= pendingSecond) {
+            return;
+        }
+        fold(nowInSeconds);
+    }
+
+    /**
+     * Applies the updates made since the last fold to the decayed counters, as of the
+     * second they were made in.
+     */
+    private synchronized void fold(long nowInSeconds)
+    {
+        // a thread with an older reading of the ticker must not move the pending second back
+        long foldSecond = pendingSecond;
+        if (nowInSeconds < foldSecond) {
+            return;
+        }
+
+        long rawCount = count.sum();
+        long delta = rawCount - foldedCount;
+        if (delta != 0) {
+            oneMinute.add(delta, foldSecond);
+            fiveMinute.add(delta, foldSecond);
+            fifteenMinute.add(delta, foldSecond);
+            foldedCount = rawCount;
+        }
+        pendingSecond = nowInSeconds;
+    }
+
+    private long getTickInSeconds()
+    {
+        return TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+    }
+
     public CounterStatSnapshot snapshot()
     {
         return new CounterStatSnapshot(getTotalCount(), getOneMinute().snapshot(), getFiveMinute().snapshot(), getFifteenMinute().snapshot());
@@ -27,6 +27,9 @@ public final class DecayCounter
     private final double alpha;
     private final Ticker ticker;
 
+    // brings in updates held elsewhere before the count is read; null if all updates are added directly
+    private final Runnable flushPending;
+
     private long landmarkInSeconds;
     private double count = 0.0;
 
@@ -36,10 +39,16 @@ public final class DecayCounter
     }
 
     public DecayCounter(double alpha, Ticker ticker)
+    {
+        this(alpha, ticker, null);
+    }
+
+    DecayCounter(double alpha, Ticker ticker, Runnable flushPending)
     {
         checkArgument(alpha >= 0.0, "alpha is negative");
         this.alpha = alpha;
         this.ticker = ticker;
+        this.flushPending = flushPending;
         landmarkInSeconds = getTickInSeconds();
     }
 
@@ -48,30 +57,55 @@ public final class DecayCounter
         add((double) value);
     }
 
-    public synchronized void add(double value)
+    public void add(double value)
     {
-        long nowInSeconds = getTickInSeconds();
+        add(value, getTickInSeconds());
+    }
 
-        if (nowInSeconds - landmarkInSeconds >= RESCALE_THRESHOLD_SECONDS) {
-            rescaleToNewLandmark(nowInSeconds);
+    /**
+     * Adds a value as of a time in seconds of the ticker, which may be in the past.
+     */
+    synchronized void add(double value, long timestampInSeconds)
+    {
+        if (timestampInSeconds - landmarkInSeconds >= RESCALE_THRESHOLD_SECONDS) {
+            rescaleToNewLandmark(timestampInSeconds);
         }
-        count += value * weight(nowInSeconds, landmarkInSeconds);
+        count += value * weight(timestampInSeconds, landmarkInSeconds);
     }
 
     public void merge(DecayCounter decayCounter)
     {
         checkNotNull(decayCounter, "decayCounter is null");
+        decayCounter.flush();
+        mergeFlushed(decayCounter);
+    }
+
+    /**
+     * Merges a counter whose pending updates the caller has already flushed. Only one
+     * counter's lock is held at a time.
+     */
+    void mergeFlushed(DecayCounter decayCounter)
+    {
         checkArgument(decayCounter.alpha == alpha, "Expected decayCounter to have alpha %s, but was %s", alpha, decayCounter.alpha);
 
-        // if the landmark this counter is behind the other counter
-        if (landmarkInSeconds < decayCounter.landmarkInSeconds) {
-            // rescale this counter to the other counter, and add
-            rescaleToNewLandmark(decayCounter.landmarkInSeconds);
-            count += decayCounter.count;
-        } else {
-            // rescale the other counter and add
-            double otherRescaledCount = decayCounter.count / weight(landmarkInSeconds, decayCounter.landmarkInSeconds);
-            count += otherRescaledCount;
+        long otherLandmarkInSeconds;
+        double otherCount;
+        synchronized (decayCounter) {
+            otherLandmarkInSeconds = decayCounter.landmarkInSeconds;
+            otherCount = decayCounter.count;
+        }
+
+        synchronized (this) {
+            // if the landmark this counter is behind the other counter
+            if (landmarkInSeconds < otherLandmarkInSeconds) {
+                // rescale this counter to the other counter, and add
+                rescaleToNewLandmark(otherLandmarkInSeconds);
+                count += otherCount;
+            } else {
+                // rescale the other counter and add
+                double otherRescaledCount = otherCount / weight(landmarkInSeconds, otherLandmarkInSeconds);
+                count += otherRescaledCount;
+            }
         }
     }
 
@@ -93,21 +127,38 @@ public final class DecayCounter
      * This is a hack to work around limitations in Jmxutils.
      */
     @Deprecated
-    public synchronized void resetTo(DecayCounter counter)
+    public void resetTo(DecayCounter counter)
+    {
+        counter.flush();
+        resetToFlushed(counter);
+    }
+
+    void resetToFlushed(DecayCounter counter)
     {
-        landmarkInSeconds = counter.landmarkInSeconds;
-        count = counter.count;
+        long otherLandmarkInSeconds;
+        double otherCount;
+        synchronized (counter) {
+            otherLandmarkInSeconds = counter.landmarkInSeconds;
+            otherCount = counter.count;
+        }
+        synchronized (this) {
+            landmarkInSeconds = otherLandmarkInSeconds;
+            count = otherCount;
+        }
     }
 
     @Managed
-    public synchronized double getCount()
+    public double getCount()
     {
-        long nowInSeconds = getTickInSeconds();
-        return count / weight(nowInSeconds, landmarkInSeconds);
+        flush();
+        synchronized (this) {
+            long nowInSeconds = getTickInSeconds();
+            return count / weight(nowInSeconds, landmarkInSeconds);
+        }
     }
 
     @Managed
-    public synchronized double getRate()
+    public double getRate()
     {
         // The total time covered by this counter is equivalent to the integral of the weight function from 0 to Infinity,
         // which equals 1/alpha. The count per unit time is, therefore, count / (1/alpha)
@@ -115,6 +166,14 @@ public final class DecayCounter
     }
 
 
+    // must not be called while holding the lock, as the flush adds to other counters
+    private void flush()
+    {
+        if (flushPending != null) {
+            flushPending.run();
+        }
+    }
+
     private double weight(long timestampInSeconds, long landmarkInSeconds)
     {
         return Math.exp(alpha * (timestampInSeconds - landmarkInSeconds));
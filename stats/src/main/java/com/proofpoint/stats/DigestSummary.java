@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * The reported percentiles, min, max and error bound of a {@link QuantileDigest} or
+ * {@link LogLinearHistogram}. For a digest they are computed in a single traversal by
+ * {@link QuantileDigest#summarize()}.
+ * <p>
+ * Decay scales every node of a digest by the same factor, so none of these values
+ * change until the next value is added to the digest. Holders of a digest cache an
+ * instance and discard it on add; the decaying count and total are not part of the
+ * summary.
+ */
+final class DigestSummary
+{
+    static final List<Double> QUANTILES = ImmutableList.of(0.01, 0.05, 0.10, 0.25, 0.5, 0.75, 0.90, 0.95, 0.99);
+
+    private final double maxError;
+    private final long p01;
+    private final long p05;
+    private final long p10;
+    private final long p25;
+    private final long p50;
+    private final long p75;
+    private final long p90;
+    private final long p95;
+    private final long p99;
+    private final long min;
+    private final long max;
+
+    DigestSummary(double maxError, List<Long> quantiles, long min, long max)
+    {
+        this.maxError = maxError;
+        p01 = quantiles.get(0);
+        p05 = quantiles.get(1);
+        p10 = quantiles.get(2);
+        p25 = quantiles.get(3);
+        p50 = quantiles.get(4);
+        p75 = quantiles.get(5);
+        p90 = quantiles.get(6);
+        p95 = quantiles.get(7);
+        p99 = quantiles.get(8);
+        this.min = min;
+        this.max = max;
+    }
+
+    double getMaxError()
+    {
+        return maxError;
+    }
+
+    long getP01()
+    {
+        return p01;
+    }
+
+    long getP05()
+    {
+        return p05;
+    }
+
+    long getP10()
+    {
+        return p10;
+    }
+
+    long getP25()
+    {
+        return p25;
+    }
+
+    long getP50()
+    {
+        return p50;
+    }
+
+    long getP75()
+    {
+        return p75;
+    }
+
+    long getP90()
+    {
+        return p90;
+    }
+
+    long getP95()
+    {
+        return p95;
+    }
+
+    long getP99()
+    {
+        return p99;
+    }
+
+    long getMin()
+    {
+        return min;
+    }
+
+    long getMax()
+    {
+        return max;
+    }
+}
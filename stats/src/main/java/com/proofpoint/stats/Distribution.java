@@ -3,7 +3,7 @@ package com.proofpoint.stats;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
-import com.google.common.collect.ImmutableList;
+import com.google.common.base.Ticker;
 import org.weakref.jmx.Managed;
 
 import javax.annotation.concurrent.GuardedBy;
@@ -13,6 +13,10 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 @ThreadSafe
 public class Distribution
@@ -24,119 +28,245 @@ public class Distribution
 
     private final DecayCounter total;
 
+    private final Stripe[] stripes;
+
+    @GuardedBy("this")
+    private DigestSummary summary;
+
     public Distribution()
     {
         digest = new QuantileDigest(MAX_ERROR);
         total = new DecayCounter(0);
+        stripes = null;
     }
 
     public Distribution(double alpha)
     {
-        digest = new QuantileDigest(MAX_ERROR, alpha);
-        total = new DecayCounter(alpha);
+        this(alpha, Ticker.systemTicker());
+    }
+
+    /**
+     * Create a distribution that decays according to {@code ticker}, such as a
+     * {@link com.proofpoint.reporting.CoarseTicker}.
+     */
+    public Distribution(double alpha, Ticker ticker)
+    {
+        checkNotNull(ticker, "ticker is null");
+        digest = new QuantileDigest(MAX_ERROR, alpha, ticker, true);
+        total = new DecayCounter(alpha, ticker);
+        stripes = null;
+    }
+
+    /**
+     * Create a distribution that records into {@code stripeCount} independently locked
+     * digests. Concurrent calls to {@link #add(long)} from different threads normally land
+     * on different stripes, so they do not contend with each other. A call never parks
+     * waiting for a stripe: while every stripe is busy it keeps trying them in turn. The
+     * stripes are merged into the distribution when it is read.
+     */
+    public Distribution(double alpha, int stripeCount)
+    {
+        this(alpha, stripeCount, Ticker.systemTicker());
+    }
+
+    public Distribution(double alpha, int stripeCount, Ticker ticker)
+    {
+        checkArgument(stripeCount > 0, "stripeCount must be > 0");
+        checkNotNull(ticker, "ticker is null");
+        digest = new QuantileDigest(MAX_ERROR, alpha, ticker, true);
+        total = new DecayCounter(alpha, ticker);
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(alpha, ticker);
+        }
     }
 
     public Distribution(Distribution distribution)
     {
-        digest = new QuantileDigest(distribution.digest);
-        total = new DecayCounter(distribution.digest.getAlpha());
-        total.merge(distribution.total);
+        synchronized (distribution) {
+            distribution.mergeStripes();
+            digest = new QuantileDigest(distribution.digest);
+            total = new DecayCounter(distribution.digest.getAlpha());
+            total.merge(distribution.total);
+        }
+        stripes = null;
+    }
+
+    public void add(long value)
+    {
+        add(value, 1);
+    }
+
+    public void add(long value, long count)
+    {
+        if (stripes == null) {
+            synchronized (this) {
+                digest.add(value, count);
+                total.add(value * count);
+                summary = null;
+            }
+            return;
+        }
+
+        Stripe stripe = lockStripe();
+        try {
+            stripe.digest.add(value, count);
+            stripe.total.add(value * count);
+            if (!stripe.dirty) {
+                stripe.dirty = true;
+            }
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private Stripe lockStripe()
+    {
+        int home = (int) (Thread.currentThread().getId() % stripes.length);
+        while (true) {
+            for (int i = 0; i < stripes.length; i++) {
+                Stripe stripe = stripes[(home + i) % stripes.length];
+                if (stripe.lock.tryLock()) {
+                    return stripe;
+                }
+            }
+            // every stripe is busy; each is only held for a single add or swap
+            Thread.yield();
+        }
     }
 
-    public synchronized void add(long value)
+    @GuardedBy("this")
+    private void mergeStripes()
     {
-        digest.add(value);
-        total.add(value);
+        if (stripes == null) {
+            return;
+        }
+
+        for (Stripe stripe : stripes) {
+            // only merges clear the flag, and they hold this distribution's lock
+            if (!stripe.dirty) {
+                continue;
+            }
+
+            // swap out the stripe's contents so writers are not held up by the merge;
+            // the replacements are built before taking the stripe's lock
+            QuantileDigest stripeDigest = stripe.newDigest();
+            DecayCounter stripeTotal = stripe.newTotal();
+            stripe.lock.lock();
+            try {
+                QuantileDigest mergedDigest = stripe.digest;
+                DecayCounter mergedTotal = stripe.total;
+                stripe.digest = stripeDigest;
+                stripe.total = stripeTotal;
+                stripe.dirty = false;
+                stripeDigest = mergedDigest;
+                stripeTotal = mergedTotal;
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+
+            digest.merge(stripeDigest);
+            total.merge(stripeTotal);
+            summary = null;
+        }
     }
 
-    public synchronized void add(long value, long count)
+    @GuardedBy("this")
+    private DigestSummary summary()
     {
-        digest.add(value, count);
-        total.add(value * count);
+        mergeStripes();
+        if (summary == null) {
+            summary = digest.summarize();
+        }
+        return summary;
     }
 
     @Managed
     public synchronized double getMaxError()
     {
-        return digest.getConfidenceFactor();
+        return summary().getMaxError();
     }
 
     @Managed
     public synchronized double getCount()
     {
+        mergeStripes();
         return digest.getCount();
     }
 
     @Managed
     public synchronized double getTotal()
     {
+        mergeStripes();
         return total.getCount();
     }
 
     @Managed
     public synchronized long getP01()
     {
-        return digest.getQuantile(0.01);
+        return summary().getP01();
     }
 
     @Managed
     public synchronized long getP05()
     {
-        return digest.getQuantile(0.05);
+        return summary().getP05();
     }
 
     @Managed
     public synchronized long getP10()
     {
-        return digest.getQuantile(0.10);
+        return summary().getP10();
     }
 
     @Managed
     public synchronized long getP25()
     {
-        return digest.getQuantile(0.25);
+        return summary().getP25();
     }
 
     @Managed
     public synchronized long getP50()
     {
-        return digest.getQuantile(0.5);
+        return summary().getP50();
     }
 
     @Managed
     public synchronized long getP75()
     {
-        return digest.getQuantile(0.75);
+        return summary().getP75();
     }
 
     @Managed
     public synchronized long getP90()
     {
-        return digest.getQuantile(0.90);
+        return summary().getP90();
     }
 
     @Managed
     public synchronized long getP95()
     {
-        return digest.getQuantile(0.95);
+        return summary().getP95();
     }
 
     @Managed
     public synchronized long getP99()
     {
-        return digest.getQuantile(0.99);
+        return summary().getP99();
     }
 
     @Managed
     public synchronized long getMin()
     {
-        return digest.getMin();
+        return summary().getMin();
     }
 
     @Managed
     public synchronized long getMax()
     {
-        return digest.getMax();
+        return summary().getMax();
     }
 
     @Managed
@@ -149,6 +279,7 @@ public class Distribution
 
         List<Long> values;
         synchronized (this) {
+            mergeStripes();
             values = digest.getQuantiles(percentiles);
         }
 
@@ -162,27 +293,77 @@ public class Distribution
 
     public synchronized List<Long> getPercentiles(List<Double> percentiles)
     {
+        mergeStripes();
         return digest.getQuantiles(percentiles);
     }
 
     public synchronized DistributionSnapshot snapshot()
     {
-        List<Long> quantiles = digest.getQuantiles(ImmutableList.of(0.01, 0.05, 0.10, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99));
+        DigestSummary summary = summary();
         return new DistributionSnapshot(
-                getMaxError(),
-                getCount(),
-                getTotal(),
-                quantiles.get(0),
-                quantiles.get(1),
-                quantiles.get(2),
-                quantiles.get(3),
-                quantiles.get(4),
-                quantiles.get(5),
-                quantiles.get(6),
-                quantiles.get(7),
-                quantiles.get(8),
-                getMin(),
-                getMax());
+                summary.getMaxError(),
+                digest.getCount(),
+                total.getCount(),
+                summary.getP01(),
+                summary.getP05(),
+                summary.getP10(),
+                summary.getP25(),
+                summary.getP50(),
+                summary.getP75(),
+                summary.getP90(),
+                summary.getP95(),
+                summary.getP99(),
+                summary.getMin(),
+                summary.getMax());
+    }
+
+    /**
+     * Creates a sketch of this distribution that can be merged with sketches of other
+     * distributions with the same decay.
+     */
+    public DistributionSketch sketch()
+    {
+        return sketch(System.currentTimeMillis());
+    }
+
+    synchronized DistributionSketch sketch(long timestamp)
+    {
+        mergeStripes();
+        return new DistributionSketch(digest, total.getCount(), timestamp);
+    }
+
+    private static class Stripe
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final double alpha;
+        private final Ticker ticker;
+
+        @GuardedBy("lock")
+        private QuantileDigest digest;
+
+        @GuardedBy("lock")
+        private DecayCounter total;
+
+        // set by writers holding the lock, cleared by merges
+        private volatile boolean dirty;
+
+        private Stripe(double alpha, Ticker ticker)
+        {
+            this.alpha = alpha;
+            this.ticker = ticker;
+            digest = newDigest();
+            total = newTotal();
+        }
+
+        private QuantileDigest newDigest()
+        {
+            return new QuantileDigest(MAX_ERROR, alpha, ticker, true);
+        }
+
+        private DecayCounter newTotal()
+        {
+            return new DecayCounter(alpha, ticker);
+        }
     }
 
     public static class DistributionSnapshot
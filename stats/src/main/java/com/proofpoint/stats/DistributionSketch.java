@@ -0,0 +1,267 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import com.proofpoint.stats.Distribution.DistributionSnapshot;
+import com.proofpoint.stats.TimeDistribution.TimeDistributionSnapshot;
+
+import javax.annotation.concurrent.Immutable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.proofpoint.stats.TimeDistribution.convertToSeconds;
+
+/**
+ * A mergeable snapshot of a {@link Distribution} or {@link TimeDistribution}. Unlike
+ * their percentile snapshots, sketches taken on different machines can be merged into
+ * a sketch of the combined distribution, so an aggregator can compute true percentiles
+ * across all of them.
+ * <p>
+ * A sketch carries the underlying {@link QuantileDigest} and the decayed total. Its decay
+ * landmark is the wall clock time the sketch was taken at, so sketches from machines with
+ * unrelated tickers share a time base; merging decays the older sketch to the time of the
+ * newer one.
+ */
+@Immutable
+public final class DistributionSketch
+{
+    private static final byte FORMAT_VERSION = 1;
+
+    private final long timestamp;
+    private final double total;
+
+    // never modified after construction; reads the time of the sketch
+    private final QuantileDigest digest;
+
+    /**
+     * @param digest the digest to copy; it is not modified
+     * @param total the decayed total as of now
+     * @param timestamp the current wall clock time in milliseconds
+     */
+    DistributionSketch(QuantileDigest digest, double total, long timestamp)
+    {
+        this(timestamp, total, checkNotNull(digest, "digest is null").copy(new FixedTicker(timestamp)));
+    }
+
+    private DistributionSketch(long timestamp, double total, QuantileDigest digest)
+    {
+        this.timestamp = timestamp;
+        this.total = total;
+        this.digest = digest;
+    }
+
+    /**
+     * The wall clock time in milliseconds as of which the counts are decayed
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public double getAlpha()
+    {
+        return digest.getAlpha();
+    }
+
+    public double getMaxError()
+    {
+        return digest.getConfidenceFactor();
+    }
+
+    public double getCount()
+    {
+        return digest.getCount();
+    }
+
+    public double getTotal()
+    {
+        return total;
+    }
+
+    public long getMin()
+    {
+        return digest.getMin();
+    }
+
+    public long getMax()
+    {
+        return digest.getMax();
+    }
+
+    public List<Long> getQuantiles(List<Double> quantiles)
+    {
+        return digest.getQuantiles(quantiles);
+    }
+
+    /**
+     * Returns a sketch of the values in both sketches, as of the later of their timestamps.
+     * The sketches must have the same decay factor.
+     */
+    public DistributionSketch merge(DistributionSketch other)
+    {
+        checkNotNull(other, "other is null");
+        checkArgument(other.getAlpha() == getAlpha(), "Expected sketch to have alpha %s, but was %s", getAlpha(), other.getAlpha());
+
+        long timestamp = Math.max(this.timestamp, other.timestamp);
+        Ticker ticker = new FixedTicker(timestamp);
+
+        // both digests are on the wall clock time base, so they only need the later ticker
+        QuantileDigest merged = withTicker(digest, ticker);
+        merged.merge(withTicker(other.digest, ticker));
+
+        double total = decay(this.total, this.timestamp, timestamp) + decay(other.total, other.timestamp, timestamp);
+        return new DistributionSketch(timestamp, total, merged);
+    }
+
+    public DistributionSnapshot toDistributionSnapshot()
+    {
+        DigestSummary summary = digest.summarize();
+        return new DistributionSnapshot(
+                summary.getMaxError(),
+                getCount(),
+                total,
+                summary.getP01(),
+                summary.getP05(),
+                summary.getP10(),
+                summary.getP25(),
+                summary.getP50(),
+                summary.getP75(),
+                summary.getP90(),
+                summary.getP95(),
+                summary.getP99(),
+                summary.getMin(),
+                summary.getMax());
+    }
+
+    /**
+     * Summarizes a sketch of a {@link TimeDistribution}, whose values are in nanoseconds.
+     */
+    public TimeDistributionSnapshot toTimeDistributionSnapshot()
+    {
+        DigestSummary summary = digest.summarize();
+        return new TimeDistributionSnapshot(
+                summary.getMaxError(),
+                getCount(),
+                convertToSeconds(summary.getP50()),
+                convertToSeconds(summary.getP75()),
+                convertToSeconds(summary.getP90()),
+                convertToSeconds(summary.getP95()),
+                convertToSeconds(summary.getP99()),
+                convertToSeconds(summary.getMin()),
+                convertToSeconds(summary.getMax()));
+    }
+
+    public int estimatedSerializedSizeInBytes()
+    {
+        return 1 + // version
+                8 + // timestamp
+                8 + // total
+                digest.estimatedSerializedSizeInBytes();
+    }
+
+    public void serialize(DataOutput output)
+    {
+        try {
+            output.writeByte(FORMAT_VERSION);
+            output.writeLong(timestamp);
+            output.writeDouble(total);
+            digest.serialize(output);
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public byte[] toByteArray()
+    {
+        ByteArrayDataOutput output = ByteStreams.newDataOutput(estimatedSerializedSizeInBytes());
+        serialize(output);
+        return output.toByteArray();
+    }
+
+    public static DistributionSketch deserialize(DataInput input)
+    {
+        try {
+            byte version = input.readByte();
+            checkArgument(version == FORMAT_VERSION, "Unsupported sketch format version %s", version);
+            long timestamp = input.readLong();
+            double total = input.readDouble();
+            QuantileDigest digest = QuantileDigest.deserialize(input, new FixedTicker(timestamp));
+            return new DistributionSketch(timestamp, total, digest);
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public static DistributionSketch fromByteArray(byte[] bytes)
+    {
+        return deserialize(ByteStreams.newDataInput(bytes));
+    }
+
+    private static QuantileDigest withTicker(QuantileDigest digest, Ticker ticker)
+    {
+        ByteArrayDataOutput output = ByteStreams.newDataOutput(digest.estimatedSerializedSizeInBytes());
+        digest.serialize(output);
+        return QuantileDigest.deserialize(ByteStreams.newDataInput(output.toByteArray()), ticker);
+    }
+
+    private double decay(double value, long fromMillis, long toMillis)
+    {
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(toMillis) - TimeUnit.MILLISECONDS.toSeconds(fromMillis);
+        return value * Math.exp(-getAlpha() * seconds);
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("timestamp", timestamp)
+                .add("alpha", getAlpha())
+                .add("count", getCount())
+                .add("total", total)
+                .add("min", getMin())
+                .add("max", getMax())
+                .toString();
+    }
+
+    private static class FixedTicker
+            extends Ticker
+    {
+        private final long nanos;
+
+        private FixedTicker(long timestampInMillis)
+        {
+            nanos = TimeUnit.MILLISECONDS.toNanos(timestampInMillis);
+        }
+
+        @Override
+        public long read()
+        {
+            return nanos;
+        }
+    }
+}
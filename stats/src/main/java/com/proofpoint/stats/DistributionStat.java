@@ -3,24 +3,60 @@ package com.proofpoint.stats;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
+import com.google.common.base.Ticker;
 import com.proofpoint.stats.Distribution.DistributionSnapshot;
 import org.weakref.jmx.Flatten;
 import org.weakref.jmx.Nested;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
 public class DistributionStat
 {
     private final Distribution oneMinute;
     private final Distribution fiveMinutes;
     private final Distribution fifteenMinutes;
     private final Distribution allTime;
-    private final BucketedDistribution bucket = new BucketedDistribution();
+    private final BucketedDistribution bucket;
 
     public DistributionStat()
     {
-        oneMinute = new Distribution(ExponentialDecay.oneMinute());
-        fiveMinutes = new Distribution(ExponentialDecay.fiveMinutes());
-        fifteenMinutes = new Distribution(ExponentialDecay.fifteenMinutes());
-        allTime = new Distribution();
+        this(Ticker.systemTicker());
+    }
+
+    /**
+     * Create a stat whose distributions decay according to {@code ticker}, such as a
+     * {@link com.proofpoint.reporting.CoarseTicker}.
+     */
+    public DistributionStat(Ticker ticker)
+    {
+        oneMinute = new Distribution(ExponentialDecay.oneMinute(), ticker);
+        fiveMinutes = new Distribution(ExponentialDecay.fiveMinutes(), ticker);
+        fifteenMinutes = new Distribution(ExponentialDecay.fifteenMinutes(), ticker);
+        allTime = new Distribution(0, ticker);
+        bucket = new BucketedDistribution();
+    }
+
+    /**
+     * Create a stat whose distributions record into {@code stripeCount} stripes,
+     * for stats that are updated concurrently by many threads.
+     *
+     * @see Distribution#Distribution(double, int)
+     */
+    public DistributionStat(int stripeCount)
+    {
+        this(stripeCount, Ticker.systemTicker());
+    }
+
+    public DistributionStat(int stripeCount, Ticker ticker)
+    {
+        oneMinute = new Distribution(ExponentialDecay.oneMinute(), stripeCount, ticker);
+        fiveMinutes = new Distribution(ExponentialDecay.fiveMinutes(), stripeCount, ticker);
+        fifteenMinutes = new Distribution(ExponentialDecay.fifteenMinutes(), stripeCount, ticker);
+        allTime = new Distribution(0, stripeCount, ticker);
+        bucket = new BucketedDistribution(stripeCount);
     }
 
     public void add(long value)
@@ -71,6 +107,20 @@ public class DistributionStat
                 getAllTime().snapshot());
     }
 
+    /**
+     * Creates sketches of the distributions that can be merged with those of other
+     * stats, for computing percentiles across machines.
+     */
+    public DistributionStatSketch sketch()
+    {
+        long timestamp = System.currentTimeMillis();
+        return new DistributionStatSketch(
+                getOneMinute().sketch(timestamp),
+                getFiveMinutes().sketch(timestamp),
+                getFifteenMinutes().sketch(timestamp),
+                getAllTime().sketch(timestamp));
+    }
+
     public static class DistributionStatSnapshot
     {
         private final DistributionSnapshot oneMinute;
@@ -126,4 +176,86 @@ public class DistributionStat
                     .toString();
         }
     }
+
+    public static class DistributionStatSketch
+    {
+        private final DistributionSketch oneMinute;
+        private final DistributionSketch fiveMinutes;
+        private final DistributionSketch fifteenMinutes;
+        private final DistributionSketch allTime;
+
+        public DistributionStatSketch(DistributionSketch oneMinute, DistributionSketch fiveMinutes, DistributionSketch fifteenMinutes, DistributionSketch allTime)
+        {
+            this.oneMinute = checkNotNull(oneMinute, "oneMinute is null");
+            this.fiveMinutes = checkNotNull(fiveMinutes, "fiveMinutes is null");
+            this.fifteenMinutes = checkNotNull(fifteenMinutes, "fifteenMinutes is null");
+            this.allTime = checkNotNull(allTime, "allTime is null");
+        }
+
+        public DistributionSketch getOneMinute()
+        {
+            return oneMinute;
+        }
+
+        public DistributionSketch getFiveMinutes()
+        {
+            return fiveMinutes;
+        }
+
+        public DistributionSketch getFifteenMinutes()
+        {
+            return fifteenMinutes;
+        }
+
+        public DistributionSketch getAllTime()
+        {
+            return allTime;
+        }
+
+        public DistributionStatSketch merge(DistributionStatSketch other)
+        {
+            return new DistributionStatSketch(
+                    oneMinute.merge(other.oneMinute),
+                    fiveMinutes.merge(other.fiveMinutes),
+                    fifteenMinutes.merge(other.fifteenMinutes),
+                    allTime.merge(other.allTime));
+        }
+
+        public DistributionStatSnapshot toSnapshot()
+        {
+            return new DistributionStatSnapshot(
+                    oneMinute.toDistributionSnapshot(),
+                    fiveMinutes.toDistributionSnapshot(),
+                    fifteenMinutes.toDistributionSnapshot(),
+                    allTime.toDistributionSnapshot());
+        }
+
+        public void serialize(DataOutput output)
+        {
+            oneMinute.serialize(output);
+            fiveMinutes.serialize(output);
+            fifteenMinutes.serialize(output);
+            allTime.serialize(output);
+        }
+
+        public static DistributionStatSketch deserialize(DataInput input)
+        {
+            return new DistributionStatSketch(
+                    DistributionSketch.deserialize(input),
+                    DistributionSketch.deserialize(input),
+                    DistributionSketch.deserialize(input),
+                    DistributionSketch.deserialize(input));
+        }
+
+        @Override
+        public String toString()
+        {
+            return Objects.toStringHelper(this)
+                    .add("oneMinute", oneMinute)
+                    .add("fiveMinutes", fiveMinutes)
+                    .add("fifteenMinutes", fifteenMinutes)
+                    .add("allTime", allTime)
+                    .toString();
+        }
+    }
 }
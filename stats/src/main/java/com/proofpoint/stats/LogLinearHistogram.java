@@ -0,0 +1,402 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.PeekingIterator;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Iterators.peekingIterator;
+
+/**
+ * <p>A fixed-memory histogram of non-negative values with log-linear buckets, in the style of
+ * HdrHistogram. Values below 64 get a bucket each; above that every power of two is split into
+ * 32 equal buckets, so a reported value is within 1/32 of the value that was added.</p>
+ *
+ * <p>Adding a value computes its bucket with bit arithmetic and atomically increments a counter,
+ * without taking a lock. With a non-zero decay factor "alpha" the histogram decays exponentially
+ * like {@link QuantileDigest}: once a second the recorded counts are folded into decayed weights,
+ * so values are weighted to within a second of when they were added.</p>
+ */
+@ThreadSafe
+public class LogLinearHistogram
+{
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+    static final double MAX_RELATIVE_ERROR = 1.0 / SUB_BUCKET_HALF;
+
+    // needs to be such that Math.exp(alpha * seconds) does not grow too big
+    static final long RESCALE_THRESHOLD_SECONDS = 50;
+    static final double ZERO_WEIGHT_THRESHOLD = 1e-5;
+
+    private final double alpha;
+    private final Ticker ticker;
+
+    private final AtomicLongArray pending = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    // null when there is no decay, in which case the pending counts are never folded
+    @GuardedBy("this")
+    private final double[] weights;
+
+    @GuardedBy("this")
+    private long landmarkInSeconds;
+
+    private volatile long pendingSecond;
+
+    // set by every change that can affect the summary; read before written so adds
+    // do not contend on it while it is already set
+    private volatile boolean changed = true;
+
+    @GuardedBy("this")
+    private DigestSummary summary;
+
+    /**
+     * Create a histogram with no decay.
+     */
+    public LogLinearHistogram()
+    {
+        this(0);
+    }
+
+    /**
+     * Create a histogram with exponential decay factor "alpha".
+     *
+     * @param alpha the exponential decay factor
+     */
+    public LogLinearHistogram(double alpha)
+    {
+        this(alpha, Ticker.systemTicker());
+    }
+
+    public LogLinearHistogram(double alpha, Ticker ticker)
+    {
+        checkArgument(alpha >= 0 && alpha < 1, "alpha must be in range [0, 1)");
+        this.alpha = alpha;
+        this.ticker = checkNotNull(ticker, "ticker is null");
+
+        if (alpha == 0) {
+            weights = null;
+        }
+        else {
+            weights = new double[BUCKET_COUNT];
+            landmarkInSeconds = getTickInSeconds();
+            pendingSecond = landmarkInSeconds;
+        }
+    }
+
+    public double getAlpha()
+    {
+        return alpha;
+    }
+
+    public void add(long value)
+    {
+        add(value, 1);
+    }
+
+    /**
+     * Adds a value to this histogram. The value must be >= 0
+     */
+    public void add(long value, long count)
+    {
+        checkArgument(value >= 0, "value must be >= 0");
+        checkArgument(count > 0, "count must be > 0");
+
+        if (weights != null) {
+            long nowInSeconds = getTickInSeconds();
+            if (nowInSeconds > pendingSecond) {
+                foldIfBehind(nowInSeconds);
+            }
+        }
+
+        pending.addAndGet(bucketIndex(value), count);
+        if (!changed) {
+            changed = true;
+        }
+
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // retry
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Number (decayed) of values added to this histogram
+     */
+    public synchronized double getCount()
+    {
+        long nowInSeconds = refresh();
+
+        double count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += weight(i);
+        }
+
+        if (weights == null) {
+            return count;
+        }
+        return count / Math.exp(alpha * (nowInSeconds - landmarkInSeconds));
+    }
+
+    /**
+     * Gets the values at the specified quantiles, each within {@link #MAX_RELATIVE_ERROR} of
+     * a value that was added. The list of quantiles must be sorted in increasing order, and
+     * each value must be in the range [0, 1]
+     */
+    public synchronized List<Long> getQuantiles(List<Double> quantiles)
+    {
+        checkArgument(Ordering.natural().isOrdered(quantiles), "quantiles must be sorted in increasing order");
+        for (double quantile : quantiles) {
+            checkArgument(quantile >= 0 && quantile <= 1, "quantile must be between [0,1]");
+        }
+
+        refresh();
+        return computeQuantiles(quantiles);
+    }
+
+    public synchronized long getMin()
+    {
+        refresh();
+        return computeMin();
+    }
+
+    public synchronized long getMax()
+    {
+        refresh();
+        return computeMax();
+    }
+
+    synchronized DigestSummary summary()
+    {
+        refresh();
+        if (changed || summary == null) {
+            // cleared before the scan, so an add the scan misses sets it again
+            changed = false;
+            summary = new DigestSummary(MAX_RELATIVE_ERROR, computeQuantiles(DigestSummary.QUANTILES), computeMin(), computeMax());
+        }
+        return summary;
+    }
+
+    /**
+     * Creates a {@link QuantileDigest} with the same decay that holds each non-empty
+     * bucket as a single value, so it carries the error of both.
+     */
+    synchronized QuantileDigest toDigest(double maxError)
+    {
+        long nowInSeconds = refresh();
+        double factor = 1;
+        if (weights != null) {
+            factor = Math.exp(-alpha * (nowInSeconds - landmarkInSeconds));
+        }
+
+        QuantileDigest digest = new QuantileDigest(maxError, alpha, ticker, true);
+        long max = this.max.get();
+        boolean first = true;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (isNonZero(i)) {
+                // the lowest bucket stands for the min so the digest keeps the known bounds
+                long value = first ? computeMin() : Math.min(upperBound(i), max);
+                digest.addWeighted(value, weight(i) * factor);
+                first = false;
+            }
+        }
+        return digest;
+    }
+
+    @GuardedBy("this")
+    private List<Long> computeQuantiles(List<Double> quantiles)
+    {
+        double totalWeight = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            totalWeight += weight(i);
+        }
+
+        long max = this.max.get();
+        ImmutableList.Builder<Long> builder = ImmutableList.builder();
+        PeekingIterator<Double> iterator = peekingIterator(quantiles.iterator());
+
+        double sum = 0;
+        for (int i = 0; i < BUCKET_COUNT && iterator.hasNext(); i++) {
+            sum += weight(i);
+
+            while (iterator.hasNext() && sum > iterator.peek() * totalWeight) {
+                iterator.next();
+
+                // we know the max value ever seen, so cap the percentile to provide better error
+                // bounds in this case
+                builder.add(Math.min(upperBound(i), max));
+            }
+        }
+
+        // the remaining quantiles correspond to the max known value
+        while (iterator.hasNext()) {
+            builder.add(max);
+            iterator.next();
+        }
+
+        return builder.build();
+    }
+
+    @GuardedBy("this")
+    private long computeMin()
+    {
+        long min = this.min.get();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (isNonZero(i)) {
+                return Math.max(min, lowerBound(i));
+            }
+        }
+        return min;
+    }
+
+    @GuardedBy("this")
+    private long computeMax()
+    {
+        long max = this.max.get();
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            if (isNonZero(i)) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    @GuardedBy("this")
+    private double weight(int bucket)
+    {
+        if (weights == null) {
+            return pending.get(bucket);
+        }
+        return weights[bucket];
+    }
+
+    @GuardedBy("this")
+    private boolean isNonZero(int bucket)
+    {
+        if (weights == null) {
+            return pending.get(bucket) != 0;
+        }
+        return weights[bucket] >= ZERO_WEIGHT_THRESHOLD;
+    }
+
+    /**
+     * Folds the pending counts into the decayed weights, returning the current time in seconds
+     */
+    @GuardedBy("this")
+    private long refresh()
+    {
+        long nowInSeconds = getTickInSeconds();
+        if (weights != null) {
+            fold(nowInSeconds);
+        }
+        return nowInSeconds;
+    }
+
+    private synchronized void foldIfBehind(long nowInSeconds)
+    {
+        // another thread may have folded while this one waited for the lock
+        if (nowInSeconds <= pendingSecond) {
+            return;
+        }
+        fold(nowInSeconds);
+    }
+
+    @GuardedBy("this")
+    private void fold(long nowInSeconds)
+    {
+        if (nowInSeconds - landmarkInSeconds >= RESCALE_THRESHOLD_SECONDS) {
+            rescale(nowInSeconds);
+        }
+
+        // the pending counts were recorded during pendingSecond
+        double weight = Math.exp(alpha * (pendingSecond - landmarkInSeconds));
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (pending.get(i) != 0) {
+                weights[i] += pending.getAndSet(i, 0) * weight;
+            }
+        }
+
+        // a caller with a stale tick must not move pendingSecond backwards
+        pendingSecond = Math.max(pendingSecond, nowInSeconds);
+    }
+
+    @GuardedBy("this")
+    private void rescale(long newLandmarkInSeconds)
+    {
+        // rescale the weights based on a new landmark to avoid numerical overflow issues
+        double factor = Math.exp(-alpha * (newLandmarkInSeconds - landmarkInSeconds));
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            weights[i] *= factor;
+        }
+        landmarkInSeconds = newLandmarkInSeconds;
+        // weights may have fallen below ZERO_WEIGHT_THRESHOLD
+        changed = true;
+    }
+
+    private long getTickInSeconds()
+    {
+        return TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+    }
+
+    static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        // shift the value so that its highest SUB_BUCKET_BITS bits select the bucket
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return (shift + 1) * SUB_BUCKET_HALF + (int) (value >>> shift) - SUB_BUCKET_HALF;
+    }
+
+    static long lowerBound(int bucket)
+    {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKET_HALF - 1;
+        return (long) (bucket % SUB_BUCKET_HALF + SUB_BUCKET_HALF) << shift;
+    }
+
+    static long upperBound(int bucket)
+    {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKET_HALF - 1;
+        return lowerBound(bucket) + (1L << shift) - 1;
+    }
+}
@@ -2,7 +2,6 @@ package com.proofpoint.stats;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
-import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.base.Ticker;
@@ -12,6 +11,8 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.PeekingIterator;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.AtomicDouble;
 import org.openjdk.jol.info.ClassLayout;
 
@@ -19,10 +20,9 @@ import javax.annotation.concurrent.NotThreadSafe;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -49,6 +49,10 @@ import static java.lang.String.format;
  *
  * <p>This class also supports exponential decay. The implementation is based on the ideas laid out
  * in http://citeseerx.ist.psu.edu/viewdoc/summary?doi=10.1.1.159.3978</p>
+ *
+ * <p>The tree is stored in parallel primitive arrays indexed by node id rather than as linked
+ * objects. Nodes removed by compression go on a free list and are reused by later inserts, so
+ * once the digest reaches its working size adding values does not allocate.</p>
  */
 @NotThreadSafe
 public class QuantileDigest
@@ -56,6 +60,11 @@ public class QuantileDigest
     private static final int MAX_BITS = 64;
     private static final double MAX_SIZE_FACTOR = 1.5;
 
+    private static final int INITIAL_CAPACITY = 1;
+    // capacity reserved up front when deserializing; larger digests grow as their nodes are read
+    private static final int MAX_DESERIALIZED_CAPACITY = 1024;
+    private static final int NULL = -1;
+
     // needs to be such that Math.exp(alpha * seconds) does not grow too big
     static final long RESCALE_THRESHOLD_SECONDS = 50;
     static final double ZERO_WEIGHT_THRESHOLD = 1e-5;
@@ -65,7 +74,20 @@ public class QuantileDigest
     private final double alpha;
     private final boolean compressAutomatically;
 
-    private Node root;
+    // node storage: a node id is an index into these arrays
+    private double[] counts = new double[INITIAL_CAPACITY];
+    private byte[] levels = new byte[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private int[] lefts = new int[INITIAL_CAPACITY];
+    private int[] rights = new int[INITIAL_CAPACITY];
+
+    // number of slots handed out so far; slots below this that are not in the tree are on the free list
+    private int nextNode = 0;
+    // free nodes are chained through the lefts array
+    private int firstFree = NULL;
+    private int freeCount = 0;
+
+    private int root = NULL;
 
     private double weightedCount;
     private long max = Long.MIN_VALUE;
@@ -169,12 +191,32 @@ public class QuantileDigest
         insert(longToBits(value), weight);
     }
 
+    /**
+     * Adds a value with a fractional, already decayed weight, as if {@code weight} values
+     * had been added with {@link #add(long, long)} and decayed to the current time.
+     */
+    void addWeighted(long value, double weight)
+    {
+        checkArgument(weight > 0, "weight must be > 0");
+
+        long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        if (nowInSeconds - landmarkInSeconds >= RESCALE_THRESHOLD_SECONDS) {
+            rescale(nowInSeconds);
+            compress();
+        }
+
+        max = Math.max(max, value);
+        min = Math.min(min, value);
+
+        insert(longToBits(value), weight(nowInSeconds) * weight);
+    }
+
     public void merge(QuantileDigest other)
     {
         rescaleToCommonLandmark(this, other);
 
         // 2. merge other into this (don't modify other)
-        root = merge(root, other.root);
+        root = merge(root, other, other.root);
 
         max = Math.max(max, other.max);
         min = Math.min(min, other.min);
@@ -201,16 +243,16 @@ public class QuantileDigest
         {
             private double sum = 0;
 
-            public boolean process(Node node)
+            public boolean process(int node)
             {
-                sum += node.weightedCount;
+                sum += counts[node];
 
                 while (iterator.hasNext() && sum > iterator.peek() * weightedCount) {
                     iterator.next();
 
                     // we know the max value ever seen, so cap the percentile to provide better error
                     // bounds in this case
-                    long value = Math.min(node.getUpperBound(), max);
+                    long value = Math.min(upperBound(node), max);
 
                     builder.add(value);
                 }
@@ -270,10 +312,10 @@ public class QuantileDigest
 
         postOrderTraversal(root, new Callback()
         {
-            public boolean process(Node node)
+            public boolean process(int node)
             {
 
-                while (iterator.hasNext() && iterator.peek() <= node.getUpperBound()) {
+                while (iterator.hasNext() && iterator.peek() <= upperBound(node)) {
                     double bucketCount = sum.get() - lastSum.get();
 
                     Bucket bucket = new Bucket(bucketCount / normalizationFactor, bucketWeightedSum.get() / bucketCount);
@@ -284,8 +326,8 @@ public class QuantileDigest
                     iterator.next();
                 }
 
-                bucketWeightedSum.addAndGet(node.getMiddle() * node.weightedCount);
-                sum.addAndGet(node.weightedCount);
+                bucketWeightedSum.addAndGet(middle(node) * counts[node]);
+                sum.addAndGet(counts[node]);
                 return iterator.hasNext();
             }
         });
@@ -307,10 +349,10 @@ public class QuantileDigest
         final AtomicLong chosen = new AtomicLong(min);
         postOrderTraversal(root, new Callback()
         {
-            public boolean process(Node node)
+            public boolean process(int node)
             {
-                if (node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
-                    chosen.set(node.getLowerBound());
+                if (counts[node] >= ZERO_WEIGHT_THRESHOLD) {
+                    chosen.set(lowerBound(node));
                     return false;
                 }
                 return true;
@@ -325,10 +367,10 @@ public class QuantileDigest
         final AtomicLong chosen = new AtomicLong(max);
         postOrderTraversal(root, new Callback()
         {
-            public boolean process(Node node)
+            public boolean process(int node)
             {
-                if (node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
-                    chosen.set(node.getUpperBound());
+                if (counts[node] >= ZERO_WEIGHT_THRESHOLD) {
+                    chosen.set(upperBound(node));
                     return false;
                 }
                 return true;
@@ -338,9 +380,93 @@ public class QuantileDigest
         return Math.min(max, chosen.get());
     }
 
+    /**
+     * Computes the reported quantiles, min, max and confidence factor in a single
+     * post-order traversal. The results are those of {@link #getQuantiles(List)},
+     * {@link #getMin()}, {@link #getMax()} and {@link #getConfidenceFactor()}.
+     */
+    DigestSummary summarize()
+    {
+        List<Double> quantiles = DigestSummary.QUANTILES;
+        ImmutableList.Builder<Long> builder = ImmutableList.builder();
+        int nextQuantile = 0;
+        double sum = 0;
+        double maxPathWeight = 0;
+        int minNode = NULL;
+        int maxNode = NULL;
+
+        if (root != NULL) {
+            int[] stack = new int[MAX_BITS + 1];
+            // the weight of the path from the root to each node on the stack, as in computeMaxPathWeight
+            double[] pathWeights = new double[MAX_BITS + 1];
+            int top = 0;
+            int current = root;
+            int lastProcessed = NULL;
+
+            while (current != NULL || top > 0) {
+                if (current != NULL) {
+                    double parentPathWeight = top == 0 ? 0 : pathWeights[top - 1];
+                    pathWeights[top] = parentPathWeight + (levels[current] == 0 ? 0 : counts[current]);
+                    stack[top++] = current;
+                    current = lefts[current];
+                    continue;
+                }
+
+                int node = stack[top - 1];
+                int right = rights[node];
+                if (right != NULL && right != lastProcessed) {
+                    current = right;
+                    continue;
+                }
+
+                maxPathWeight = Math.max(maxPathWeight, pathWeights[top - 1]);
+
+                sum += counts[node];
+                while (nextQuantile < quantiles.size() && sum > quantiles.get(nextQuantile) * weightedCount) {
+                    builder.add(Math.min(upperBound(node), max));
+                    ++nextQuantile;
+                }
+
+                if (counts[node] >= ZERO_WEIGHT_THRESHOLD) {
+                    if (minNode == NULL) {
+                        minNode = node;
+                    }
+                    // getMax() takes the first non-zero node of a reverse post-order traversal, which is the
+                    // last in pre-order. A node processed after the candidate comes later in pre-order unless
+                    // it is the candidate's ancestor.
+                    if (maxNode == NULL || !containsRange(node, maxNode)) {
+                        maxNode = node;
+                    }
+                }
+
+                lastProcessed = node;
+                --top;
+            }
+        }
+
+        // the remaining quantiles correspond to the max known value
+        for (; nextQuantile < quantiles.size(); ++nextQuantile) {
+            builder.add(max);
+        }
+
+        long summaryMin = minNode == NULL ? min : Math.max(min, lowerBound(minNode));
+        long summaryMax = maxNode == NULL ? max : Math.min(max, upperBound(maxNode));
+        return new DigestSummary(maxPathWeight / weightedCount, builder.build(), summaryMin, summaryMax);
+    }
+
+    private boolean containsRange(int node, int other)
+    {
+        return lowerBound(node) <= lowerBound(other) && upperBound(other) <= upperBound(node);
+    }
+
     public int estimatedInMemorySizeInBytes()
     {
-        return SizeOf.QUANTILE_DIGEST + totalNodeCount * SizeOf.NODE;
+        return SizeOf.QUANTILE_DIGEST +
+                SizeOf.sizeOf(counts) +
+                SizeOf.sizeOf(levels) +
+                SizeOf.sizeOf(values) +
+                SizeOf.sizeOf(lefts) +
+                SizeOf.sizeOf(rights);
     }
 
     public int estimatedSerializedSizeInBytes()
@@ -372,7 +498,7 @@ public class QuantileDigest
             postOrderTraversal(root, new Callback()
             {
                 @Override
-                public boolean process(Node node)
+                public boolean process(int node)
                 {
                     try {
                         serializeNode(output, node);
@@ -389,61 +515,82 @@ public class QuantileDigest
         }
     }
 
-    private void serializeNode(DataOutput output, Node node)
+    private void serializeNode(DataOutput output, int node)
             throws IOException
     {
         int flags = 0;
-        if (node.left != null) {
+        if (lefts[node] != NULL) {
             flags |= Flags.HAS_LEFT;
         }
-        if (node.right != null) {
+        if (rights[node] != NULL) {
             flags |= Flags.HAS_RIGHT;
         }
 
         output.writeByte(flags);
-        output.writeByte(node.level);
-        output.writeLong(node.bits);
-        output.writeDouble(node.weightedCount);
+        output.writeByte(levels[node]);
+        output.writeLong(values[node]);
+        output.writeDouble(counts[node]);
     }
 
     public static QuantileDigest deserialize(DataInput input)
+    {
+        return deserialize(input, Ticker.systemTicker());
+    }
+
+    /**
+     * Deserializes a digest that decays according to {@code ticker}. The landmark is read
+     * as is, so {@code ticker} must be on the same time base as the serialized digest.
+     */
+    static QuantileDigest deserialize(DataInput input, Ticker ticker)
     {
         try {
             double maxError = input.readDouble();
             double alpha = input.readDouble();
 
-            QuantileDigest result = new QuantileDigest(maxError, alpha);
+            QuantileDigest result = new QuantileDigest(maxError, alpha, ticker, true);
 
             result.landmarkInSeconds = input.readLong();
             result.min = input.readLong();
             result.max = input.readLong();
             result.totalNodeCount = input.readInt();
+            checkArgument(result.totalNodeCount >= 0, "Node count is negative: %s", result.totalNodeCount);
+            // the count is untrusted input, so don't let it size the arrays
+            result.ensureCapacity(Math.min(result.totalNodeCount, MAX_DESERIALIZED_CAPACITY));
 
-            Deque<Node> stack = new ArrayDeque<>();
+            // every node on the stack is a completed subtree, so its depth is bounded by the number of levels
+            int[] stack = new int[MAX_BITS + 1];
+            int top = 0;
             for (int i = 0; i < result.totalNodeCount; i++) {
                 int flags = input.readByte();
 
-                Node node = deserializeNode(input);
+                int level = input.readUnsignedByte();
+                long value = input.readLong();
+                double weight = input.readDouble();
+
+                int node = result.allocateNode(value, level, weight);
 
                 if ((flags & Flags.HAS_RIGHT) != 0) {
-                    node.right = stack.pop();
+                    checkArgument(top > 0, "Tree is corrupted. Missing right child");
+                    result.rights[node] = stack[--top];
                 }
 
                 if ((flags & Flags.HAS_LEFT) != 0) {
-                    node.left = stack.pop();
+                    checkArgument(top > 0, "Tree is corrupted. Missing left child");
+                    result.lefts[node] = stack[--top];
                 }
 
-                stack.push(node);
-                result.weightedCount += node.weightedCount;
-                if (node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
+                checkArgument(top < stack.length, "Tree is corrupted. Too many levels");
+                stack[top++] = node;
+                result.weightedCount += weight;
+                if (weight >= ZERO_WEIGHT_THRESHOLD) {
                     result.nonZeroNodeCount++;
                 }
             }
 
 
-            if (!stack.isEmpty()) {
-                Preconditions.checkArgument(stack.size() == 1, "Tree is corrupted. Expected a single root node");
-                result.root = stack.pop();
+            if (top != 0) {
+                Preconditions.checkArgument(top == 1, "Tree is corrupted. Expected a single root node");
+                result.root = stack[0];
             }
 
             return result;
@@ -453,14 +600,18 @@ public class QuantileDigest
         }
     }
 
-    private static Node deserializeNode(DataInput input)
-            throws IOException
+    /**
+     * Creates a copy of this digest that decays according to {@code ticker}. The landmark is
+     * shifted by the difference between the two tickers, so the copy has the same decayed
+     * counts when read through {@code ticker} now as this digest has when read now.
+     */
+    QuantileDigest copy(Ticker ticker)
     {
-        int level = input.readUnsignedByte();
-        long value = input.readLong();
-        double weight = input.readDouble();
-
-        return new Node(value, level, weight);
+        ByteArrayDataOutput output = ByteStreams.newDataOutput(estimatedSerializedSizeInBytes());
+        serialize(output);
+        QuantileDigest copy = deserialize(ByteStreams.newDataInput(output.toByteArray()), ticker);
+        copy.landmarkInSeconds += TimeUnit.NANOSECONDS.toSeconds(ticker.read()) - TimeUnit.NANOSECONDS.toSeconds(this.ticker.read());
+        return copy;
     }
 
     @VisibleForTesting
@@ -490,42 +641,45 @@ public class QuantileDigest
 
         postOrderTraversal(root, new Callback()
         {
-            public boolean process(Node node)
+            public boolean process(int node)
             {
-                if (node.isLeaf()) {
+                if (isLeaf(node)) {
                     return true;
                 }
 
                 // if children's weights are ~0 remove them and shift the weight to their parent
 
+                int left = lefts[node];
+                int right = rights[node];
+
                 double leftWeight = 0;
-                if (node.left != null) {
-                    leftWeight = node.left.weightedCount;
+                if (left != NULL) {
+                    leftWeight = counts[left];
                 }
 
                 double rightWeight = 0;
-                if (node.right != null) {
-                    rightWeight = node.right.weightedCount;
+                if (right != NULL) {
+                    rightWeight = counts[right];
                 }
 
-                boolean shouldCompress = node.weightedCount + leftWeight + rightWeight < (int) (weightedCount / compressionFactor);
+                boolean shouldCompress = counts[node] + leftWeight + rightWeight < (int) (weightedCount / compressionFactor);
 
-                double oldNodeWeight = node.weightedCount;
+                double oldNodeWeight = counts[node];
                 if (shouldCompress || leftWeight < ZERO_WEIGHT_THRESHOLD) {
-                    node.left = tryRemove(node.left);
+                    lefts[node] = tryRemove(left);
 
                     weightedCount += leftWeight;
-                    node.weightedCount += leftWeight;
+                    counts[node] += leftWeight;
                 }
 
                 if (shouldCompress || rightWeight < ZERO_WEIGHT_THRESHOLD) {
-                    node.right = tryRemove(node.right);
+                    rights[node] = tryRemove(right);
 
                     weightedCount += rightWeight;
-                    node.weightedCount += rightWeight;
+                    counts[node] += rightWeight;
                 }
 
-                if (oldNodeWeight < ZERO_WEIGHT_THRESHOLD && node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
+                if (oldNodeWeight < ZERO_WEIGHT_THRESHOLD && counts[node] >= ZERO_WEIGHT_THRESHOLD) {
                     ++nonZeroNodeCount;
                 }
 
@@ -533,7 +687,7 @@ public class QuantileDigest
             }
         });
 
-        if (root != null && root.weightedCount < ZERO_WEIGHT_THRESHOLD) {
+        if (root != NULL && counts[root] < ZERO_WEIGHT_THRESHOLD) {
             root = tryRemove(root);
         }
     }
@@ -551,59 +705,54 @@ public class QuantileDigest
 
         weightedCount *= factor;
 
-        postOrderTraversal(root, new Callback()
-        {
-            public boolean process(Node node)
-            {
-                double oldWeight = node.weightedCount;
-
-                node.weightedCount *= factor;
+        // free slots always have a zero count, so a linear scan over the arrays is equivalent to walking the tree
+        for (int node = 0; node < nextNode; node++) {
+            double oldWeight = counts[node];
 
-                if (oldWeight >= ZERO_WEIGHT_THRESHOLD && node.weightedCount < ZERO_WEIGHT_THRESHOLD) {
-                    --nonZeroNodeCount;
-                }
+            counts[node] *= factor;
 
-                return true;
+            if (oldWeight >= ZERO_WEIGHT_THRESHOLD && counts[node] < ZERO_WEIGHT_THRESHOLD) {
+                --nonZeroNodeCount;
             }
-        });
+        }
 
         landmarkInSeconds = newLandmarkInSeconds;
     }
 
     private int calculateCompressionFactor()
     {
-        if (root == null) {
+        if (root == NULL) {
             return 1;
         }
 
-        return Math.max((int) ((root.level + 1) / maxError), 1);
+        return Math.max((int) ((levels[root] + 1) / maxError), 1);
     }
 
     private void insert(long bits, double weight)
     {
         long lastBranch = 0;
-        Node parent = null;
-        Node current = root;
+        int parent = NULL;
+        int current = root;
 
         while (true) {
-            if (current == null) {
+            if (current == NULL) {
                 setChild(parent, lastBranch, createLeaf(bits, weight));
                 return;
             }
-            else if (!inSameSubtree(bits, current.bits, current.level)) {
+            else if (!inSameSubtree(bits, values[current], levels[current])) {
                 // if bits and node.bits are not in the same branch given node's level,
                 // insert a parent above them at the point at which branches diverge
                 setChild(parent, lastBranch, makeSiblings(current, createLeaf(bits, weight)));
                 return;
             }
-            else if (current.level == 0 && current.bits == bits) {
+            else if (levels[current] == 0 && values[current] == bits) {
                 // found the node
 
-                double oldWeight = current.weightedCount;
+                double oldWeight = counts[current];
 
-                current.weightedCount += weight;
+                counts[current] += weight;
 
-                if (current.weightedCount >= ZERO_WEIGHT_THRESHOLD && oldWeight < ZERO_WEIGHT_THRESHOLD) {
+                if (counts[current] >= ZERO_WEIGHT_THRESHOLD && oldWeight < ZERO_WEIGHT_THRESHOLD) {
                     ++nonZeroNodeCount;
                 }
 
@@ -613,115 +762,176 @@ public class QuantileDigest
             }
 
             // we're on the correct branch of the tree and we haven't reached a leaf, so keep going down
-            long branch = bits & current.getBranchMask();
+            long branch = bits & branchMask(levels[current]);
 
             parent = current;
             lastBranch = branch;
 
             if (branch == 0) {
-                current = current.left;
+                current = lefts[current];
             }
             else {
-                current = current.right;
+                current = rights[current];
             }
         }
     }
 
-    private void setChild(Node parent, long branch, Node child)
+    private void setChild(int parent, long branch, int child)
     {
-        if (parent == null) {
+        if (parent == NULL) {
             root = child;
         }
         else if (branch == 0) {
-            parent.left = child;
+            lefts[parent] = child;
         }
         else {
-            parent.right = child;
+            rights[parent] = child;
         }
     }
 
-    private Node makeSiblings(Node node, Node sibling)
+    private int makeSiblings(int node, int sibling)
     {
-        int parentLevel = MAX_BITS - Long.numberOfLeadingZeros(node.bits ^ sibling.bits);
+        int parentLevel = MAX_BITS - Long.numberOfLeadingZeros(values[node] ^ values[sibling]);
 
-        Node parent = createNode(node.bits, parentLevel, 0);
+        int parent = createNode(values[node], parentLevel, 0);
 
         // the branch is given by the bit at the level one below parent
-        long branch = sibling.bits & parent.getBranchMask();
+        long branch = values[sibling] & branchMask(levels[parent]);
         if (branch == 0) {
-            parent.left = sibling;
-            parent.right = node;
+            lefts[parent] = sibling;
+            rights[parent] = node;
         }
         else {
-            parent.left = node;
-            parent.right = sibling;
+            lefts[parent] = node;
+            rights[parent] = sibling;
         }
 
         return parent;
     }
 
-    private Node createLeaf(long bits, double weight)
+    private int createLeaf(long bits, double weight)
     {
         return createNode(bits, 0, weight);
     }
 
-    private Node createNode(long bits, int level, double weight)
+    private int createNode(long bits, int level, double weight)
     {
         weightedCount += weight;
         ++totalNodeCount;
         if (weight >= ZERO_WEIGHT_THRESHOLD) {
             nonZeroNodeCount++;
         }
-        return new Node(bits, level, weight);
+        return allocateNode(bits, level, weight);
     }
 
-    private Node merge(Node node, Node other)
+    /**
+     * Takes a slot from the free list, or from the end of the arrays if the free list is empty.
+     * Does not update any of the summary counters.
+     */
+    private int allocateNode(long bits, int level, double weight)
     {
-        if (node == null) {
-            return copyRecursive(other);
+        int node;
+        if (firstFree != NULL) {
+            node = firstFree;
+            firstFree = lefts[node];
+            --freeCount;
         }
-        else if (other == null) {
+        else {
+            ensureCapacity(nextNode + 1);
+            node = nextNode++;
+        }
+
+        values[node] = bits;
+        levels[node] = (byte) level;
+        counts[node] = weight;
+        lefts[node] = NULL;
+        rights[node] = NULL;
+
+        return node;
+    }
+
+    private void freeNode(int node)
+    {
+        counts[node] = 0;
+        rights[node] = NULL;
+        lefts[node] = firstFree;
+        firstFree = node;
+        ++freeCount;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity <= counts.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, counts.length + (counts.length >> 1) + 1);
+
+        counts = Arrays.copyOf(counts, newCapacity);
+        levels = Arrays.copyOf(levels, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+        lefts = Arrays.copyOf(lefts, newCapacity);
+        rights = Arrays.copyOf(rights, newCapacity);
+    }
+
+    // Note: any call here may grow the arrays, so results are stored via locals rather than
+    // "lefts[node] = merge(...)", which would write into the array as it was before the call.
+    private int merge(int node, QuantileDigest other, int otherNode)
+    {
+        if (node == NULL) {
+            return copyRecursive(other, otherNode);
+        }
+        else if (otherNode == NULL) {
             return node;
         }
-        else if (!inSameSubtree(node.bits, other.bits, Math.max(node.level, other.level))) {
-            return makeSiblings(node, copyRecursive(other));
+        else if (!inSameSubtree(values[node], other.values[otherNode], Math.max(levels[node], other.levels[otherNode]))) {
+            int copy = copyRecursive(other, otherNode);
+            return makeSiblings(node, copy);
         }
-        else if (node.level > other.level) {
-            long branch = other.bits & node.getBranchMask();
+        else if (levels[node] > other.levels[otherNode]) {
+            long branch = other.values[otherNode] & branchMask(levels[node]);
 
             if (branch == 0) {
-                node.left = merge(node.left, other);
+                int left = merge(lefts[node], other, otherNode);
+                lefts[node] = left;
             }
             else {
-                node.right = merge(node.right, other);
+                int right = merge(rights[node], other, otherNode);
+                rights[node] = right;
             }
             return node;
         }
-        else if (node.level < other.level) {
-            Node result = createNode(other.bits, other.level, other.weightedCount);
+        else if (levels[node] < other.levels[otherNode]) {
+            int result = createNode(other.values[otherNode], other.levels[otherNode], other.counts[otherNode]);
 
-            long branch = node.bits & other.getBranchMask();
+            long branch = values[node] & branchMask(other.levels[otherNode]);
+            int left;
+            int right;
             if (branch == 0) {
-                result.left = merge(node, other.left);
-                result.right = copyRecursive(other.right);
+                left = merge(node, other, other.lefts[otherNode]);
+                right = copyRecursive(other, other.rights[otherNode]);
             }
             else {
-                result.left = copyRecursive(other.left);
-                result.right = merge(node, other.right);
+                left = copyRecursive(other, other.lefts[otherNode]);
+                right = merge(node, other, other.rights[otherNode]);
             }
+            lefts[result] = left;
+            rights[result] = right;
 
             return result;
         }
 
         // else, they must be at the same level and on the same path, so just bump the counts
-        double oldWeight = node.weightedCount;
+        double oldWeight = counts[node];
 
-        weightedCount += other.weightedCount;
-        node.weightedCount = node.weightedCount + other.weightedCount;
-        node.left = merge(node.left, other.left);
-        node.right = merge(node.right, other.right);
+        weightedCount += other.counts[otherNode];
+        counts[node] = counts[node] + other.counts[otherNode];
+        int left = merge(lefts[node], other, other.lefts[otherNode]);
+        lefts[node] = left;
+        int right = merge(rights[node], other, other.rights[otherNode]);
+        rights[node] = right;
 
-        if (oldWeight < ZERO_WEIGHT_THRESHOLD && node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
+        if (oldWeight < ZERO_WEIGHT_THRESHOLD && counts[node] >= ZERO_WEIGHT_THRESHOLD) {
             nonZeroNodeCount++;
         }
 
@@ -733,14 +943,16 @@ public class QuantileDigest
         return level == MAX_BITS || (bitsA >>> level) == (bitsB >>> level);
     }
 
-    private Node copyRecursive(Node node)
+    private int copyRecursive(QuantileDigest other, int otherNode)
     {
-        Node result = null;
-
-        if (node != null) {
-            result = createNode(node.bits, node.level, node.weightedCount);
-            result.left = copyRecursive(node.left);
-            result.right = copyRecursive(node.right);
+        int result = NULL;
+
+        if (otherNode != NULL) {
+            result = createNode(other.values[otherNode], other.levels[otherNode], other.counts[otherNode]);
+            int left = copyRecursive(other, other.lefts[otherNode]);
+            lefts[result] = left;
+            int right = copyRecursive(other, other.rights[otherNode]);
+            rights[result] = right;
         }
 
         return result;
@@ -750,67 +962,137 @@ public class QuantileDigest
      * Remove the node if possible or set its count to 0 if it has children and
      * it needs to be kept around
      */
-    private Node tryRemove(Node node)
+    private int tryRemove(int node)
     {
-        if (node == null) {
-            return null;
+        if (node == NULL) {
+            return NULL;
         }
 
-        if (node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
+        if (counts[node] >= ZERO_WEIGHT_THRESHOLD) {
             --nonZeroNodeCount;
         }
 
-        weightedCount -= node.weightedCount;
+        weightedCount -= counts[node];
 
-        Node result = null;
-        if (node.isLeaf()) {
+        int result = NULL;
+        if (isLeaf(node)) {
             --totalNodeCount;
+            freeNode(node);
         }
-        else if (node.hasSingleChild()) {
-            result = node.getSingleChild();
+        else if (hasSingleChild(node)) {
+            result = getSingleChild(node);
             --totalNodeCount;
+            freeNode(node);
         }
         else {
-            node.weightedCount = 0;
+            counts[node] = 0;
             result = node;
         }
 
         return result;
     }
 
-    private boolean postOrderTraversal(Node node, Callback callback)
+    private boolean isLeaf(int node)
+    {
+        return lefts[node] == NULL && rights[node] == NULL;
+    }
+
+    private boolean hasSingleChild(int node)
+    {
+        return lefts[node] == NULL && rights[node] != NULL || lefts[node] != NULL && rights[node] == NULL;
+    }
+
+    private int getSingleChild(int node)
+    {
+        checkState(hasSingleChild(node), "Node does not have a single child");
+        return lefts[node] != NULL ? lefts[node] : rights[node];
+    }
+
+    private long upperBound(int node)
+    {
+        // set all lsb below level to 1 (we're looking for the highest value of the range covered by this node)
+        long mask = 0;
+
+        if (levels[node] > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
+            mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - levels[node]);
+        }
+        return bitsToLong(values[node] | mask);
+    }
+
+    private long lowerBound(int node)
+    {
+        // set all lsb below level to 0 (we're looking for the lowest value of the range covered by this node)
+        long mask = 0;
+
+        if (levels[node] > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
+            mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - levels[node]);
+        }
+
+        return bitsToLong(values[node] & (~mask));
+    }
+
+    private long middle(int node)
+    {
+        return lowerBound(node) + (upperBound(node) - lowerBound(node)) / 2;
+    }
+
+    private static long branchMask(int level)
+    {
+        return (1L << (level - 1));
+    }
+
+    private boolean postOrderTraversal(int node, Callback callback)
     {
         return postOrderTraversal(node, callback, TraversalOrder.FORWARD);
     }
 
     // returns true if traversal should continue
-    private boolean postOrderTraversal(Node node, Callback callback, TraversalOrder order)
+    private boolean postOrderTraversal(int node, Callback callback, TraversalOrder order)
     {
-        if (node == null) {
+        if (node == NULL) {
             return false;
         }
 
-        Node first;
-        Node second;
+        int[] first;
+        int[] second;
 
         if (order == TraversalOrder.FORWARD) {
-            first = node.left;
-            second = node.right;
+            first = lefts;
+            second = rights;
         }
         else {
-            first = node.right;
-            second = node.left;
+            first = rights;
+            second = lefts;
         }
 
-        if (first != null && !postOrderTraversal(first, callback, order)) {
-            return false;
-        }
+        // levels strictly decrease going down the tree, so a root-to-leaf path has at most MAX_BITS + 1 nodes
+        int[] stack = new int[MAX_BITS + 1];
+        int top = 0;
+        int current = node;
+        int lastProcessed = NULL;
 
-        if (second != null && !postOrderTraversal(second, callback, order)) {
-            return false;
+        while (current != NULL || top > 0) {
+            if (current != NULL) {
+                stack[top++] = current;
+                current = first[current];
+            }
+            else {
+                int candidate = stack[top - 1];
+                int secondChild = second[candidate];
+                if (secondChild != NULL && secondChild != lastProcessed) {
+                    current = secondChild;
+                }
+                else {
+                    if (!callback.process(candidate)) {
+                        return false;
+                    }
+                    lastProcessed = candidate;
+                    --top;
+                }
+            }
         }
 
-        return callback.process(node);
+        return true;
     }
 
     /**
@@ -830,7 +1112,20 @@ public class QuantileDigest
                 min == other.min &&
                 max == other.max &&
                 weightedCount == other.weightedCount &&
-                Objects.equal(root, other.root));
+                equivalentSubtree(root, other, other.root));
+    }
+
+    private boolean equivalentSubtree(int node, QuantileDigest other, int otherNode)
+    {
+        if (node == NULL || otherNode == NULL) {
+            return node == NULL && otherNode == NULL;
+        }
+
+        return Double.compare(counts[node], other.counts[otherNode]) == 0 &&
+                levels[node] == other.levels[otherNode] &&
+                values[node] == other.values[otherNode] &&
+                equivalentSubtree(lefts[node], other, other.lefts[otherNode]) &&
+                equivalentSubtree(rights[node], other, other.rights[otherNode]);
     }
 
     private void rescaleToCommonLandmark(QuantileDigest one, QuantileDigest two)
@@ -857,16 +1152,16 @@ public class QuantileDigest
      * Computes the max "weight" of any path starting at node and ending at a leaf in the
      * hypothetical complete tree. The weight is the sum of counts in the ancestors of a given node
      */
-    private double computeMaxPathWeight(Node node)
+    private double computeMaxPathWeight(int node)
     {
-        if (node == null || node.level == 0) {
+        if (node == NULL || levels[node] == 0) {
             return 0;
         }
 
-        double leftMaxWeight = computeMaxPathWeight(node.left);
-        double rightMaxWeight = computeMaxPathWeight(node.right);
+        double leftMaxWeight = computeMaxPathWeight(lefts[node]);
+        double rightMaxWeight = computeMaxPathWeight(rights[node]);
 
-        return Math.max(leftMaxWeight, rightMaxWeight) + node.weightedCount;
+        return Math.max(leftMaxWeight, rightMaxWeight) + counts[node];
     }
 
     @VisibleForTesting
@@ -876,18 +1171,18 @@ public class QuantileDigest
         final AtomicInteger actualNodeCount = new AtomicInteger();
         final AtomicInteger actualNonZeroNodeCount = new AtomicInteger();
 
-        if (root != null) {
+        if (root != NULL) {
             validateStructure(root);
 
             postOrderTraversal(root, new Callback()
             {
                 @Override
-                public boolean process(Node node)
+                public boolean process(int node)
                 {
-                    sumOfWeights.addAndGet(node.weightedCount);
+                    sumOfWeights.addAndGet(counts[node]);
                     actualNodeCount.incrementAndGet();
 
-                    if (node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
+                    if (counts[node] >= ZERO_WEIGHT_THRESHOLD) {
                         actualNonZeroNodeCount.incrementAndGet();
                     }
 
@@ -907,32 +1202,36 @@ public class QuantileDigest
         checkState(actualNonZeroNodeCount.get() == nonZeroNodeCount,
                 "Actual non-zero node count (%s) doesn't match summary (%s)",
                 actualNonZeroNodeCount.get(), nonZeroNodeCount);
+
+        checkState(totalNodeCount + freeCount == nextNode,
+                "Node count (%s) plus free count (%s) doesn't match allocated count (%s)",
+                totalNodeCount, freeCount, nextNode);
     }
 
-    private void validateStructure(Node node)
+    private void validateStructure(int node)
     {
-        checkState(node.level >= 0);
+        checkState(levels[node] >= 0);
 
-        if (node.left != null) {
-            validateBranchStructure(node, node.left, node.right, true);
-            validateStructure(node.left);
+        if (lefts[node] != NULL) {
+            validateBranchStructure(node, lefts[node], rights[node], true);
+            validateStructure(lefts[node]);
         }
 
-        if (node.right != null) {
-            validateBranchStructure(node, node.right, node.left, false);
-            validateStructure(node.right);
+        if (rights[node] != NULL) {
+            validateBranchStructure(node, rights[node], lefts[node], false);
+            validateStructure(rights[node]);
         }
     }
 
-    private void validateBranchStructure(Node parent, Node child, Node otherChild, boolean isLeft)
+    private void validateBranchStructure(int parent, int child, int otherChild, boolean isLeft)
     {
-        checkState(child.level < parent.level, "Child level (%s) should be smaller than parent level (%s)", child.level, parent.level);
+        checkState(levels[child] < levels[parent], "Child level (%s) should be smaller than parent level (%s)", levels[child], levels[parent]);
 
-        long branch = child.bits & (1L << (parent.level - 1));
+        long branch = values[child] & (1L << (levels[parent] - 1));
         checkState(branch == 0 && isLeft || branch != 0 && !isLeft, "Value of child node is inconsistent with its branch");
 
-        Preconditions.checkState(parent.weightedCount >= ZERO_WEIGHT_THRESHOLD ||
-                child.weightedCount >= ZERO_WEIGHT_THRESHOLD || otherChild != null,
+        Preconditions.checkState(counts[parent] >= ZERO_WEIGHT_THRESHOLD ||
+                counts[child] >= ZERO_WEIGHT_THRESHOLD || otherChild != NULL,
                 "Found a linear chain of zero-weight nodes");
     }
 
@@ -943,50 +1242,50 @@ public class QuantileDigest
         builder.append("digraph QuantileDigest {\n")
                 .append("\tgraph [ordering=\"out\"];");
 
-        final List<Node> nodes = new ArrayList<>();
+        final List<Integer> nodes = new ArrayList<>();
         postOrderTraversal(root, new Callback()
         {
             @Override
-            public boolean process(Node node)
+            public boolean process(int node)
             {
                 nodes.add(node);
                 return true;
             }
         });
 
-        Multimap<Integer, Node> nodesByLevel = Multimaps.index(nodes, new Function<Node, Integer>()
+        Multimap<Integer, Integer> nodesByLevel = Multimaps.index(nodes, new Function<Integer, Integer>()
         {
             @Override
-            public Integer apply(Node input)
+            public Integer apply(Integer input)
             {
-                return input.level;
+                return (int) levels[input];
             }
         });
 
-        for (Map.Entry<Integer, Collection<Node>> entry : nodesByLevel.asMap().entrySet()) {
+        for (Map.Entry<Integer, Collection<Integer>> entry : nodesByLevel.asMap().entrySet()) {
             builder.append("\tsubgraph level_" + entry.getKey() + " {\n")
                     .append("\t\trank = same;\n");
 
-            for (Node node : entry.getValue()) {
+            for (int node : entry.getValue()) {
                 builder.append(String.format("\t\t%s [label=\"[%s..%s]@%s\\n%s\", shape=rect, style=filled,color=%s];\n",
                         idFor(node),
-                        node.getLowerBound(),
-                        node.getUpperBound(),
-                        node.level,
-                        node.weightedCount,
-                        node.weightedCount > 0 ? "salmon2" : "white")
+                        lowerBound(node),
+                        upperBound(node),
+                        levels[node],
+                        counts[node],
+                        counts[node] > 0 ? "salmon2" : "white")
                 );
             }
 
             builder.append("\t}\n");
         }
 
-        for (Node node : nodes) {
-            if (node.left != null) {
-                builder.append(format("\t%s -> %s;\n", idFor(node), idFor(node.left)));
+        for (int node : nodes) {
+            if (lefts[node] != NULL) {
+                builder.append(format("\t%s -> %s;\n", idFor(node), idFor(lefts[node])));
             }
-            if (node.right != null) {
-                builder.append(format("\t%s -> %s;\n", idFor(node), idFor(node.right)));
+            if (rights[node] != NULL) {
+                builder.append(format("\t%s -> %s;\n", idFor(node), idFor(rights[node])));
             }
         }
 
@@ -995,9 +1294,9 @@ public class QuantileDigest
         return builder.toString();
     }
 
-    private static String idFor(Node node)
+    private String idFor(int node)
     {
-        return String.format("node_%x_%x", node.bits, node.level);
+        return String.format("node_%x_%x", values[node], levels[node]);
     }
 
     /**
@@ -1077,106 +1376,13 @@ public class QuantileDigest
         }
     }
 
-    private static class Node
-    {
-        private double weightedCount;
-        private int level;
-        private long bits;
-        private Node left;
-        private Node right;
-
-        private Node(long bits, int level, double weightedCount)
-        {
-            this.bits = bits;
-            this.level = level;
-            this.weightedCount = weightedCount;
-        }
-
-        public boolean isLeaf()
-        {
-            return left == null && right == null;
-        }
-
-        public boolean hasSingleChild()
-        {
-            return left == null && right != null || left != null && right == null;
-        }
-
-        public Node getSingleChild()
-        {
-            checkState(hasSingleChild(), "Node does not have a single child");
-            return Objects.firstNonNull(left, right);
-        }
-
-        public long getUpperBound()
-        {
-            // set all lsb below level to 1 (we're looking for the highest value of the range covered by this node)
-            long mask = 0;
-
-            if (level > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
-                mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - level);
-            }
-            return bitsToLong(bits | mask);
-        }
-
-        public long getBranchMask()
-        {
-            return (1L << (level - 1));
-        }
-
-        public long getLowerBound()
-        {
-            // set all lsb below level to 0 (we're looking for the lowest value of the range covered by this node)
-            long mask = 0;
-
-            if (level > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
-                mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - level);
-            }
-
-            return bitsToLong(bits & (~mask));
-        }
-
-        public long getMiddle()
-        {
-            return getLowerBound() + (getUpperBound() - getLowerBound()) / 2;
-        }
-
-        public String toString()
-        {
-            return format("%s (level = %d, count = %s, left = %s, right = %s)", bits, level, weightedCount, left != null, right != null);
-        }
-
-        @Override
-        public int hashCode()
-        {
-            return Objects.hashCode(weightedCount, level, bits, left, right);
-        }
-
-        @Override
-        public boolean equals(Object obj)
-        {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null || getClass() != obj.getClass()) {
-                return false;
-            }
-            final Node other = (Node) obj;
-            return Objects.equal(this.weightedCount, other.weightedCount) &&
-                    Objects.equal(this.level, other.level) &&
-                    Objects.equal(this.bits, other.bits) &&
-                    Objects.equal(this.left, other.left) &&
-                    Objects.equal(this.right, other.right);
-        }
-    }
-
     private static interface Callback
     {
         /**
          * @param node the node to process
          * @return true if processing should continue
          */
-        boolean process(Node node);
+        boolean process(int node);
     }
 
     private static class SizeOf
@@ -1188,7 +1394,28 @@ public class QuantileDigest
         public static final int DOUBLE = 8;
 
         public static final int QUANTILE_DIGEST = ClassLayout.parseClass(QuantileDigest.class).instanceSize();
-        public static final int NODE = ClassLayout.parseClass(Node.class).instanceSize();
+
+        private static final int ARRAY_HEADER = ClassLayout.parseClass(int[].class).headerSize();
+
+        public static int sizeOf(double[] array)
+        {
+            return ARRAY_HEADER + array.length * DOUBLE;
+        }
+
+        public static int sizeOf(long[] array)
+        {
+            return ARRAY_HEADER + array.length * LONG;
+        }
+
+        public static int sizeOf(int[] array)
+        {
+            return ARRAY_HEADER + array.length * INTEGER;
+        }
+
+        public static int sizeOf(byte[] array)
+        {
+            return ARRAY_HEADER + array.length * BYTE;
+        }
     }
 
     private static class Flags
@@ -1197,4 +1424,3 @@ public class QuantileDigest
         public static final int HAS_RIGHT = 1 << 1;
     }
 }
-
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free sum in the style of LongAdder, over values encoded as longs. Adds go to
+ * a single base value until two threads collide on it, after which each thread adds
+ * into one of a set of cells that sit on separate cache lines. The sum is computed on
+ * read by combining the base and the cells.
+ */
+@ThreadSafe
+abstract class StripedAdder
+{
+    // longs per 64-byte cache line
+    private static final int CELL_SPACING = 8;
+    private static final int CELL_COUNT = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    // the base and the cells hold encoded values; 0L encodes zero
+    private final AtomicLong base = new AtomicLong();
+    private volatile AtomicLongArray cells;
+
+    /**
+     * Returns the encoding of the sum of the values encoded by {@code current} and {@code value}.
+     */
+    abstract long combine(long current, long value);
+
+    final void addEncoded(long value)
+    {
+        AtomicLongArray cells = this.cells;
+        if (cells == null) {
+            long current = base.get();
+            if (base.compareAndSet(current, combine(current, value))) {
+                return;
+            }
+            cells = createCells();
+        }
+
+        int cell = hash(Thread.currentThread().getId()) & (CELL_COUNT - 1);
+        while (true) {
+            int index = cell * CELL_SPACING;
+            long current = cells.get(index);
+            if (cells.compareAndSet(index, current, combine(current, value))) {
+                return;
+            }
+            // contended, so try the next cell
+            cell = (cell + 1) & (CELL_COUNT - 1);
+        }
+    }
+
+    /**
+     * Returns the encoded sum of the base and the cells.
+     */
+    final long sumEncoded()
+    {
+        long sum = base.get();
+        AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int i = 0; i < CELL_COUNT; i++) {
+                sum = combine(sum, cells.get(i * CELL_SPACING));
+            }
+        }
+        return sum;
+    }
+
+    private synchronized AtomicLongArray createCells()
+    {
+        if (cells == null) {
+            cells = new AtomicLongArray(CELL_COUNT * CELL_SPACING);
+        }
+        return cells;
+    }
+
+    private static int hash(long threadId)
+    {
+        // spread sequential thread ids across the cells
+        long hash = threadId * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32);
+    }
+}
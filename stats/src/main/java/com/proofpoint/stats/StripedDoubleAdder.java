@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.lang.Double.doubleToRawLongBits;
+import static java.lang.Double.longBitsToDouble;
+
+/**
+ * A lock-free sum of doubles, stored as raw double bits.
+ *
+ * @see StripedAdder
+ */
+@ThreadSafe
+final class StripedDoubleAdder
+        extends StripedAdder
+{
+    void add(double value)
+    {
+        addEncoded(doubleToRawLongBits(value));
+    }
+
+    double sum()
+    {
+        return longBitsToDouble(sumEncoded());
+    }
+
+    @Override
+    long combine(long current, long value)
+    {
+        return doubleToRawLongBits(longBitsToDouble(current) + longBitsToDouble(value));
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A lock-free sum of longs.
+ *
+ * @see StripedAdder
+ */
+@ThreadSafe
+final class StripedLongAdder
+        extends StripedAdder
+{
+    void add(long value)
+    {
+        addEncoded(value);
+    }
+
+    long sum()
+    {
+        return sumEncoded();
+    }
+
+    @Override
+    long combine(long current, long value)
+    {
+        return current + value;
+    }
+}
@@ -3,6 +3,7 @@ package com.proofpoint.stats;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
+import com.google.common.base.Ticker;
 import org.weakref.jmx.Managed;
 
 import javax.annotation.concurrent.GuardedBy;
@@ -11,80 +12,120 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 public class TimeDistribution
 {
     private static final double MAX_ERROR = 0.01;
 
+    // exactly one of digest and histogram is non-null
     @GuardedBy("this")
     private final QuantileDigest digest;
 
+    private final LogLinearHistogram histogram;
+
+    @GuardedBy("this")
+    private DigestSummary summary;
+
     public TimeDistribution()
     {
         digest = new QuantileDigest(MAX_ERROR);
+        histogram = null;
     }
 
     public TimeDistribution(double alpha)
     {
-        digest = new QuantileDigest(MAX_ERROR, alpha);
+        this(alpha, Ticker.systemTicker());
+    }
+
+    /**
+     * Create a distribution that decays according to {@code ticker}, such as a
+     * {@link com.proofpoint.reporting.CoarseTicker}.
+     */
+    public TimeDistribution(double alpha, Ticker ticker)
+    {
+        digest = new QuantileDigest(MAX_ERROR, alpha, checkNotNull(ticker, "ticker is null"), true);
+        histogram = null;
     }
 
-    public synchronized void add(long value)
+    /**
+     * Create a distribution that records into a {@link LogLinearHistogram} instead of a
+     * {@link QuantileDigest}. Adding a value does not lock the distribution.
+     */
+    TimeDistribution(LogLinearHistogram histogram)
     {
-        digest.add(value);
+        digest = null;
+        this.histogram = checkNotNull(histogram, "histogram is null");
+    }
+
+    public void add(long value)
+    {
+        if (histogram != null) {
+            histogram.add(value);
+            return;
+        }
+
+        synchronized (this) {
+            digest.add(value);
+            summary = null;
+        }
     }
 
     @Managed
     public synchronized double getMaxError()
     {
-        return digest.getConfidenceFactor();
+        return summary().getMaxError();
     }
 
     @Managed
     public synchronized double getCount()
     {
+        if (histogram != null) {
+            return histogram.getCount();
+        }
         return digest.getCount();
     }
 
     @Managed
     public synchronized double getP50()
     {
-        return convertToSeconds(digest.getQuantile(0.5));
+        return convertToSeconds(summary().getP50());
     }
 
     @Managed
     public synchronized double getP75()
     {
-        return convertToSeconds(digest.getQuantile(0.75));
+        return convertToSeconds(summary().getP75());
     }
 
     @Managed
     public synchronized double getP90()
     {
-        return convertToSeconds(digest.getQuantile(0.90));
+        return convertToSeconds(summary().getP90());
     }
 
     @Managed
     public synchronized double getP95()
     {
-        return convertToSeconds(digest.getQuantile(0.95));
+        return convertToSeconds(summary().getP95());
     }
 
     @Managed
     public synchronized double getP99()
     {
-        return convertToSeconds(digest.getQuantile(0.99));
+        return convertToSeconds(summary().getP99());
     }
 
     @Managed
     public synchronized double getMin()
     {
-        return convertToSeconds(digest.getMin());
+        return convertToSeconds(summary().getMin());
     }
 
     @Managed
     public synchronized double getMax()
     {
-        return convertToSeconds(digest.getMax());
+        return convertToSeconds(summary().getMax());
     }
 
     @Managed
@@ -97,7 +138,12 @@ public class TimeDistribution
 
         List<Long> values;
         synchronized (this) {
-            values = digest.getQuantiles(percentiles);
+            if (histogram != null) {
+                values = histogram.getQuantiles(percentiles);
+            }
+            else {
+                values = digest.getQuantiles(percentiles);
+            }
         }
 
         Map<Double, Double> result = new LinkedHashMap<>(values.size());
@@ -108,7 +154,19 @@ public class TimeDistribution
         return result;
     }
 
-    private static double convertToSeconds(long nanos)
+    @GuardedBy("this")
+    private DigestSummary summary()
+    {
+        if (histogram != null) {
+            return histogram.summary();
+        }
+        if (summary == null) {
+            summary = digest.summarize();
+        }
+        return summary;
+    }
+
+    static double convertToSeconds(long nanos)
     {
         if (nanos == Long.MAX_VALUE || nanos == Long.MIN_VALUE) {
             return Double.NaN;
@@ -116,18 +174,36 @@ public class TimeDistribution
         return nanos * 0.000_000_001;
     }
 
-    public TimeDistributionSnapshot snapshot()
+    public synchronized TimeDistributionSnapshot snapshot()
     {
+        DigestSummary summary = summary();
         return new TimeDistributionSnapshot(
-                getMaxError(),
+                summary.getMaxError(),
                 getCount(),
-                getP50(),
-                getP75(),
-                getP90(),
-                getP95(),
-                getP99(),
-                getMin(),
-                getMax());
+                convertToSeconds(summary.getP50()),
+                convertToSeconds(summary.getP75()),
+                convertToSeconds(summary.getP90()),
+                convertToSeconds(summary.getP95()),
+                convertToSeconds(summary.getP99()),
+                convertToSeconds(summary.getMin()),
+                convertToSeconds(summary.getMax()));
+    }
+
+    /**
+     * Creates a sketch of this distribution that can be merged with sketches of other
+     * time distributions with the same decay.
+     */
+    public DistributionSketch sketch()
+    {
+        return sketch(System.currentTimeMillis());
+    }
+
+    synchronized DistributionSketch sketch(long timestamp)
+    {
+        if (histogram != null) {
+            return new DistributionSketch(histogram.toDigest(MAX_ERROR), 0, timestamp);
+        }
+        return new DistributionSketch(digest, 0, timestamp);
     }
 
     public static class TimeDistributionSnapshot
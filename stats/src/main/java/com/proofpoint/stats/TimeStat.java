@@ -24,30 +24,77 @@ import com.proofpoint.units.Duration;
 import org.weakref.jmx.Flatten;
 import org.weakref.jmx.Nested;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 public class TimeStat
 {
     private final TimeDistribution oneMinute;
     private final TimeDistribution fiveMinutes;
     private final TimeDistribution fifteenMinutes;
     private final TimeDistribution allTime;
-    private final BucketedTimeDistribution bucket = new BucketedTimeDistribution();
+    private final BucketedTimeDistribution bucket;
     private final Ticker ticker;
 
+    /**
+     * The data structure a {@link TimeStat} records its distributions into.
+     */
+    public enum Backend
+    {
+        /**
+         * {@link QuantileDigest}, with a rank error of at most 1%. Each add locks each distribution.
+         */
+        QUANTILE_DIGEST,
+
+        /**
+         * {@link LogLinearHistogram}, with fixed memory and a value error of at most 1/32.
+         * Adds to the decayed and all-time distributions do not lock.
+         */
+        LOG_LINEAR_HISTOGRAM
+    }
+
     public TimeStat()
     {
         this(Ticker.systemTicker());
     }
 
+    /**
+     * @param ticker the ticker used by {@link #time(Callable)} and {@link #time()} and
+     * for decaying the one, five and fifteen minute distributions
+     */
     public TimeStat(Ticker ticker)
     {
-        this.ticker = ticker;
-        oneMinute = new TimeDistribution(ExponentialDecay.oneMinute());
-        fiveMinutes = new TimeDistribution(ExponentialDecay.fiveMinutes());
-        fifteenMinutes = new TimeDistribution(ExponentialDecay.fifteenMinutes());
-        allTime = new TimeDistribution();
+        this(ticker, Backend.QUANTILE_DIGEST);
+    }
+
+    public TimeStat(Backend backend)
+    {
+        this(Ticker.systemTicker(), backend);
+    }
+
+    public TimeStat(Ticker ticker, Backend backend)
+    {
+        this.ticker = checkNotNull(ticker, "ticker is null");
+        checkNotNull(backend, "backend is null");
+
+        if (backend == Backend.LOG_LINEAR_HISTOGRAM) {
+            oneMinute = new TimeDistribution(new LogLinearHistogram(ExponentialDecay.oneMinute(), ticker));
+            fiveMinutes = new TimeDistribution(new LogLinearHistogram(ExponentialDecay.fiveMinutes(), ticker));
+            fifteenMinutes = new TimeDistribution(new LogLinearHistogram(ExponentialDecay.fifteenMinutes(), ticker));
+            allTime = new TimeDistribution(new LogLinearHistogram());
+            bucket = new BucketedTimeDistribution(true);
+        }
+        else {
+            oneMinute = new TimeDistribution(ExponentialDecay.oneMinute(), ticker);
+            fiveMinutes = new TimeDistribution(ExponentialDecay.fiveMinutes(), ticker);
+            fifteenMinutes = new TimeDistribution(ExponentialDecay.fifteenMinutes(), ticker);
+            allTime = new TimeDistribution();
+            bucket = new BucketedTimeDistribution();
+        }
     }
 
     public void add(double value, TimeUnit timeUnit)
@@ -132,6 +179,20 @@ public class TimeStat
                 getAllTime().snapshot());
     }
 
+    /**
+     * Creates sketches of the distributions that can be merged with those of other
+     * stats, for computing percentiles across machines.
+     */
+    public TimeStatSketch sketch()
+    {
+        long timestamp = System.currentTimeMillis();
+        return new TimeStatSketch(
+                getOneMinute().sketch(timestamp),
+                getFiveMinutes().sketch(timestamp),
+                getFifteenMinutes().sketch(timestamp),
+                getAllTime().sketch(timestamp));
+    }
+
     public static class TimeDistributionStatSnapshot
     {
         private final TimeDistributionSnapshot oneMinute;
@@ -187,4 +248,86 @@ public class TimeStat
                     .toString();
         }
     }
+
+    public static class TimeStatSketch
+    {
+        private final DistributionSketch oneMinute;
+        private final DistributionSketch fiveMinutes;
+        private final DistributionSketch fifteenMinutes;
+        private final DistributionSketch allTime;
+
+        public TimeStatSketch(DistributionSketch oneMinute, DistributionSketch fiveMinutes, DistributionSketch fifteenMinutes, DistributionSketch allTime)
+        {
+            this.oneMinute = checkNotNull(oneMinute, "oneMinute is null");
+            this.fiveMinutes = checkNotNull(fiveMinutes, "fiveMinutes is null");
+            this.fifteenMinutes = checkNotNull(fifteenMinutes, "fifteenMinutes is null");
+            this.allTime = checkNotNull(allTime, "allTime is null");
+        }
+
+        public DistributionSketch getOneMinute()
+        {
+            return oneMinute;
+        }
+
+        public DistributionSketch getFiveMinutes()
+        {
+            return fiveMinutes;
+        }
+
+        public DistributionSketch getFifteenMinutes()
+        {
+            return fifteenMinutes;
+        }
+
+        public DistributionSketch getAllTime()
+        {
+            return allTime;
+        }
+
+        public TimeStatSketch merge(TimeStatSketch other)
+        {
+            return new TimeStatSketch(
+                    oneMinute.merge(other.oneMinute),
+                    fiveMinutes.merge(other.fiveMinutes),
+                    fifteenMinutes.merge(other.fifteenMinutes),
+                    allTime.merge(other.allTime));
+        }
+
+        public TimeDistributionStatSnapshot toSnapshot()
+        {
+            return new TimeDistributionStatSnapshot(
+                    oneMinute.toTimeDistributionSnapshot(),
+                    fiveMinutes.toTimeDistributionSnapshot(),
+                    fifteenMinutes.toTimeDistributionSnapshot(),
+                    allTime.toTimeDistributionSnapshot());
+        }
+
+        public void serialize(DataOutput output)
+        {
+            oneMinute.serialize(output);
+            fiveMinutes.serialize(output);
+            fifteenMinutes.serialize(output);
+            allTime.serialize(output);
+        }
+
+        public static TimeStatSketch deserialize(DataInput input)
+        {
+            return new TimeStatSketch(
+                    DistributionSketch.deserialize(input),
+                    DistributionSketch.deserialize(input),
+                    DistributionSketch.deserialize(input),
+                    DistributionSketch.deserialize(input));
+        }
+
+        @Override
+        public String toString()
+        {
+            return Objects.toStringHelper(this)
+                    .add("oneMinute", oneMinute)
+                    .add("fiveMinutes", fiveMinutes)
+                    .add("fifteenMinutes", fifteenMinutes)
+                    .add("allTime", allTime)
+                    .toString();
+        }
+    }
 }
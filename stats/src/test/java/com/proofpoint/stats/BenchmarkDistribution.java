@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import com.google.common.collect.ImmutableList;
+import com.proofpoint.units.Duration;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+public class BenchmarkDistribution
+{
+    public static void main(String[] args)
+            throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+        Duration warmupTime = new Duration(3, TimeUnit.SECONDS);
+        Duration benchmarkTime = new Duration(5, TimeUnit.SECONDS);
+
+        ExecutorService executor = newFixedThreadPool(threads);
+        try {
+            run("synchronized", new Distribution(ExponentialDecay.oneMinute()), threads, executor, warmupTime, benchmarkTime);
+            run("striped", new Distribution(ExponentialDecay.oneMinute(), threads), threads, executor, warmupTime, benchmarkTime);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void run(String name, final Distribution distribution, int threads, ExecutorService executor, final Duration warmupTime, final Duration benchmarkTime)
+            throws Exception
+    {
+        ImmutableList.Builder<Callable<Benchmark.Results>> tasks = ImmutableList.builder();
+        for (int i = 0; i < threads; i++) {
+            tasks.add(new Callable<Benchmark.Results>()
+            {
+                @Override
+                public Benchmark.Results call()
+                        throws Exception
+                {
+                    return Benchmark.run(new Runnable()
+                    {
+                        public void run()
+                        {
+                            distribution.add(ThreadLocalRandom.current().nextInt(100000));
+                        }
+                    }, warmupTime, benchmarkTime);
+                }
+            });
+        }
+
+        List<Future<Benchmark.Results>> futures = executor.invokeAll(tasks.build());
+
+        long operations = 0;
+        double operationsPerSecond = 0;
+        for (Future<Benchmark.Results> future : futures) {
+            Benchmark.Results results = future.get();
+            operations += results.getOperations();
+            operationsPerSecond += results.getOperationsPerSecond();
+        }
+
+        // include the cost of merging the stripes in the first read
+        long start = System.nanoTime();
+        long p99 = distribution.getP99();
+        Duration readTime = new Duration(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        System.out.println(String.format("%s: %s threads processed %s entries. Insertion rate = %.0f entries/s, first read took %s (p99 = %s)",
+                name,
+                threads,
+                operations,
+                operationsPerSecond,
+                readTime.convertToMostSuccinctTimeUnit(),
+                p99));
+    }
+}
@@ -7,7 +7,14 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.testng.Assert.assertEquals;
 
 public class TestBucketedCounter
@@ -70,6 +77,47 @@ public class TestBucketedCounter
         assertPreviousCount(counter, 0);
     }
 
+    @Test
+    public void testConcurrentAdds()
+            throws Exception
+    {
+        final BucketedCounter counter = new BucketedCounter();
+        counter.setBucketIdProvider(bucketIdProvider);
+
+        int threads = 4;
+        final int addsPerThread = 100_000;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                            throws Exception
+                    {
+                        start.await();
+                        for (int j = 0; j < addsPerThread; j++) {
+                            counter.add(1);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        ++bucketIdProvider.id;
+        assertPreviousCount(counter, threads * addsPerThread);
+    }
+
     private void assertPreviousCount(BucketedCounter counter, double expected)
             throws Exception
     {
@@ -6,6 +6,8 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.testng.Assert.assertEquals;
 
@@ -69,6 +71,34 @@ public class TestBucketedDistribution
         assertPreviousDistributionEmpty(distribution);
     }
 
+    @Test
+    public void testStriped()
+            throws Exception
+    {
+        final BucketedDistribution distribution = new BucketedDistribution(4);
+        distribution.setBucketIdProvider(bucketIdProvider);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 1; j <= 1000; j++) {
+                        distribution.add(j);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ++bucketIdProvider.id;
+        assertPreviousDistribution(distribution, 4000, 1, 1000);
+    }
+
     private void assertPreviousDistributionEmpty(BucketedDistribution distribution)
             throws Exception
     {
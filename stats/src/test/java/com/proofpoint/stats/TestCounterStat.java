@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import com.proofpoint.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestCounterStat
+{
+    @Test
+    public void testMatchesDecayCounters()
+    {
+        TestingTicker ticker = new TestingTicker();
+        CounterStat counterStat = new CounterStat(ticker);
+        DecayCounter oneMinute = new DecayCounter(ExponentialDecay.oneMinute(), ticker);
+        DecayCounter fiveMinutes = new DecayCounter(ExponentialDecay.fiveMinutes(), ticker);
+        DecayCounter fifteenMinutes = new DecayCounter(ExponentialDecay.fifteenMinutes(), ticker);
+
+        for (int i = 0; i < 200; i++) {
+            counterStat.update(i);
+            oneMinute.add(i);
+            fiveMinutes.add(i);
+            fifteenMinutes.add(i);
+            ticker.increment(i % 3 * 500, TimeUnit.MILLISECONDS);
+
+            if (i % 10 == 0) {
+                assertEquals(counterStat.getOneMinute().getCount(), oneMinute.getCount(), 1e-9);
+            }
+        }
+
+        assertEquals(counterStat.getTotalCount(), 199 * 200 / 2);
+        assertEquals(counterStat.getOneMinute().getCount(), oneMinute.getCount(), 1e-9);
+        assertEquals(counterStat.getOneMinute().getRate(), oneMinute.getRate(), 1e-9);
+        assertEquals(counterStat.getFiveMinute().getCount(), fiveMinutes.getCount(), 1e-9);
+        assertEquals(counterStat.getFifteenMinute().getCount(), fifteenMinutes.getCount(), 1e-9);
+    }
+
+    @Test
+    public void testPendingUpdatesDecayFromTheirSecond()
+    {
+        TestingTicker ticker = new TestingTicker();
+        CounterStat counterStat = new CounterStat(ticker);
+
+        counterStat.update(1);
+        ticker.increment(1, TimeUnit.MINUTES);
+
+        assertEquals(counterStat.getOneMinute().getCount(), 1 / Math.E, 1e-9);
+        assertEquals(counterStat.snapshot().getOneMinute().getCount(), 1 / Math.E, 1e-9);
+    }
+
+    @Test
+    public void testReset()
+    {
+        TestingTicker ticker = new TestingTicker();
+        CounterStat counterStat = new CounterStat(ticker);
+        counterStat.update(5);
+        counterStat.reset();
+
+        assertEquals(counterStat.getTotalCount(), 0);
+        assertEquals(counterStat.getOneMinute().getCount(), 0.0);
+
+        counterStat.update(2);
+        assertEquals(counterStat.getTotalCount(), 2);
+        assertEquals(counterStat.getOneMinute().getCount(), 2.0, 1e-9);
+    }
+
+    @Test
+    public void testMerge()
+    {
+        TestingTicker ticker = new TestingTicker();
+        CounterStat counterStat = new CounterStat(ticker);
+        CounterStat other = new CounterStat(ticker);
+        counterStat.update(3);
+        other.update(4);
+
+        counterStat.merge(other);
+        assertEquals(counterStat.getTotalCount(), 7);
+        assertEquals(counterStat.getFiveMinute().getCount(), 7.0, 1e-9);
+
+        // the merged count is not applied to the decayed counters a second time
+        ticker.increment(1, TimeUnit.SECONDS);
+        counterStat.update(1);
+        assertEquals(counterStat.getTotalCount(), 8);
+        assertEquals(counterStat.getFiveMinute().getCount(), 7 * Math.exp(-ExponentialDecay.fiveMinutes()) + 1, 1e-9);
+    }
+
+    @Test(timeOut = 60_000)
+    public void testConcurrentCrossMerge()
+            throws Exception
+    {
+        final CounterStat first = new CounterStat();
+        final CounterStat second = new CounterStat();
+
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < 10_000; i++) {
+                    first.merge(second);
+                }
+            }
+        });
+        thread.start();
+        for (int i = 0; i < 10_000; i++) {
+            second.merge(first);
+        }
+        thread.join();
+    }
+
+    @Test
+    public void testResetTo()
+    {
+        TestingTicker ticker = new TestingTicker();
+        CounterStat counterStat = new CounterStat(ticker);
+        CounterStat other = new CounterStat(ticker);
+        counterStat.update(3);
+        other.update(4);
+
+        counterStat.resetTo(other);
+        assertEquals(counterStat.getTotalCount(), 4);
+        assertEquals(counterStat.getOneMinute().getCount(), 4.0, 1e-9);
+
+        counterStat.update(1);
+        assertEquals(counterStat.getTotalCount(), 5);
+        assertEquals(counterStat.getOneMinute().getCount(), 5.0, 1e-9);
+    }
+
+    @Test
+    public void testConcurrentUpdates()
+            throws Exception
+    {
+        final CounterStat counterStat = new CounterStat();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int j = 0; j < 10_000; j++) {
+                        counterStat.update(1);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(counterStat.getTotalCount(), 80_000);
+        assertEquals(counterStat.getFifteenMinute().getCount(), 80_000, 80_000 * 0.01);
+    }
+}
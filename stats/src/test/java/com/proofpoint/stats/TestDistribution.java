@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.testng.Assert.assertEquals;
+
+public class TestDistribution
+{
+    @Test
+    public void testStripedMatchesUnstriped()
+    {
+        Distribution unstriped = new Distribution();
+        Distribution striped = new Distribution(0, 4);
+
+        for (int i = 0; i < 1000; i++) {
+            unstriped.add(i);
+            striped.add(i);
+        }
+
+        assertEquals(striped.getCount(), unstriped.getCount());
+        assertEquals(striped.getTotal(), unstriped.getTotal());
+        assertEquals(striped.getMin(), unstriped.getMin());
+        assertEquals(striped.getMax(), unstriped.getMax());
+        assertEquals(striped.getP50(), unstriped.getP50());
+        assertEquals(striped.getP99(), unstriped.getP99());
+    }
+
+    @Test
+    public void testStripedAddAfterRead()
+    {
+        Distribution distribution = new Distribution(0, 2);
+        distribution.add(1);
+        assertEquals(distribution.getCount(), 1.0);
+        distribution.add(3, 2);
+        assertEquals(distribution.getCount(), 3.0);
+        assertEquals(distribution.getTotal(), 7.0);
+        assertEquals(distribution.getMin(), 1);
+        assertEquals(distribution.getMax(), 3);
+    }
+
+    @Test
+    public void testPercentilesRefreshedAfterAdd()
+    {
+        for (Distribution distribution : new Distribution[] {new Distribution(), new Distribution(0, 2)}) {
+            distribution.add(10);
+            assertEquals(distribution.getP50(), 10);
+            assertEquals(distribution.getMax(), 10);
+
+            distribution.add(20);
+            distribution.add(30);
+            assertEquals(distribution.getP50(), 20);
+            assertEquals(distribution.getMax(), 30);
+            assertEquals(distribution.snapshot().getP50(), 20);
+        }
+    }
+
+    @Test
+    public void testCopyStriped()
+    {
+        Distribution distribution = new Distribution(0, 2);
+        distribution.add(1);
+        distribution.add(2);
+
+        Distribution copy = new Distribution(distribution);
+        assertEquals(copy.getCount(), 2.0);
+        assertEquals(copy.getTotal(), 3.0);
+        assertEquals(distribution.getCount(), 2.0);
+    }
+
+    @Test
+    public void testConcurrentStripedAdds()
+            throws Exception
+    {
+        final int threads = 8;
+        final int valuesPerThread = 10_000;
+        final Distribution distribution = new Distribution(0, 4);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                            throws Exception
+                    {
+                        start.await();
+                        for (int value = 0; value < valuesPerThread; value++) {
+                            distribution.add(value);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+
+            // read while the writers are running
+            while (!futures.get(0).isDone()) {
+                distribution.getP50();
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(distribution.getCount(), (double) threads * valuesPerThread);
+        assertEquals(distribution.getMin(), 0);
+        assertEquals(distribution.getMax(), valuesPerThread - 1);
+    }
+}
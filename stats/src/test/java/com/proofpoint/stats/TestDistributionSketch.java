@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import com.proofpoint.stats.Distribution.DistributionSnapshot;
+import com.proofpoint.stats.DistributionStat.DistributionStatSketch;
+import com.proofpoint.stats.TimeStat.TimeStatSketch;
+import com.proofpoint.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestDistributionSketch
+{
+    private static final List<Double> QUANTILES = ImmutableList.of(0.1, 0.5, 0.9, 0.99);
+
+    @Test
+    public void testMergeMatchesCombinedDistribution()
+    {
+        Distribution first = new Distribution();
+        Distribution second = new Distribution();
+        Distribution combined = new Distribution();
+        for (int i = 0; i < 1000; i++) {
+            first.add(i);
+            combined.add(i);
+        }
+        for (int i = 0; i < 100; i++) {
+            second.add(10_000 + i);
+            combined.add(10_000 + i);
+        }
+
+        DistributionSketch merged = first.sketch().merge(second.sketch());
+
+        assertEquals(merged.getCount(), 1100.0);
+        assertEquals(merged.getTotal(), combined.getTotal());
+        assertEquals(merged.getMin(), 0);
+        assertEquals(merged.getMax(), 10_099);
+
+        // the p99 of the fleet is in the second distribution, which neither p99 shows on its own
+        List<Long> quantiles = merged.getQuantiles(QUANTILES);
+        List<Long> expected = combined.getPercentiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.size(); i++) {
+            assertTrue(Math.abs(quantiles.get(i) - expected.get(i)) <= 1100 * 0.01 * 2, String.format("%s vs %s", quantiles, expected));
+        }
+        assertTrue(quantiles.get(3) >= 10_000);
+        assertTrue(first.getP99() < 1000);
+    }
+
+    @Test
+    public void testMergeIsIndependentOfTicker()
+    {
+        TestingTicker firstTicker = new TestingTicker();
+        TestingTicker secondTicker = new TestingTicker();
+        secondTicker.increment(1000, TimeUnit.DAYS);
+
+        Distribution first = new Distribution(ExponentialDecay.oneMinute(), firstTicker);
+        Distribution second = new Distribution(ExponentialDecay.oneMinute(), secondTicker);
+        first.add(1);
+        second.add(2);
+
+        DistributionSketch merged = first.sketch(10_000).merge(second.sketch(10_000));
+        assertEquals(merged.getCount(), 2.0, 1e-9);
+        assertEquals(merged.getTotal(), 3.0, 1e-9);
+        assertEquals(merged.getTimestamp(), 10_000);
+    }
+
+    @Test
+    public void testMergeDecaysOlderSketch()
+    {
+        TestingTicker ticker = new TestingTicker();
+        Distribution distribution = new Distribution(ExponentialDecay.computeAlpha(0.5, 60), ticker);
+        distribution.add(1);
+
+        DistributionSketch older = distribution.sketch(1_000_000);
+        DistributionSketch newer = distribution.sketch(1_060_000);
+
+        DistributionSketch merged = older.merge(newer);
+        assertEquals(merged.getTimestamp(), 1_060_000);
+        assertEquals(merged.getCount(), 1.5, 1e-9);
+        assertEquals(merged.getTotal(), 1.5, 1e-9);
+        assertEquals(newer.merge(older).getCount(), 1.5, 1e-9);
+    }
+
+    @Test
+    public void testSketchPreservesDecayedCount()
+    {
+        TestingTicker ticker = new TestingTicker();
+        Distribution distribution = new Distribution(ExponentialDecay.computeAlpha(0.5, 60), ticker);
+        distribution.add(10);
+        ticker.increment(60, TimeUnit.SECONDS);
+
+        DistributionSketch sketch = distribution.sketch();
+        assertEquals(sketch.getCount(), 0.5, 1e-9);
+        assertEquals(sketch.getTotal(), 5.0, 1e-9);
+    }
+
+    @Test
+    public void testSerialization()
+    {
+        Distribution distribution = new Distribution(ExponentialDecay.oneMinute());
+        for (int i = 0; i < 1000; i++) {
+            distribution.add(i);
+        }
+
+        DistributionSketch sketch = distribution.sketch();
+        DistributionSketch deserialized = DistributionSketch.fromByteArray(sketch.toByteArray());
+
+        assertEquals(deserialized.getTimestamp(), sketch.getTimestamp());
+        assertEquals(deserialized.getAlpha(), sketch.getAlpha());
+        assertEquals(deserialized.getCount(), sketch.getCount(), 1e-9);
+        assertEquals(deserialized.getTotal(), sketch.getTotal());
+        assertEquals(deserialized.getQuantiles(QUANTILES), sketch.getQuantiles(QUANTILES));
+        assertEquals(deserialized.toDistributionSnapshot().toString(), sketch.toDistributionSnapshot().toString());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeRejectsDifferentAlpha()
+    {
+        new Distribution(ExponentialDecay.oneMinute()).sketch()
+                .merge(new Distribution(ExponentialDecay.fiveMinutes()).sketch());
+    }
+
+    @Test
+    public void testDistributionStatSketch()
+    {
+        DistributionStat first = new DistributionStat();
+        DistributionStat second = new DistributionStat();
+        first.add(10);
+        second.add(20);
+        second.add(30);
+
+        ByteArrayDataOutput output = ByteStreams.newDataOutput();
+        first.sketch().merge(second.sketch()).serialize(output);
+        DistributionStatSketch merged = DistributionStatSketch.deserialize(ByteStreams.newDataInput(output.toByteArray()));
+
+        DistributionSnapshot allTime = merged.toSnapshot().getAllTime();
+        assertEquals(allTime.getCount(), 3.0);
+        assertEquals(allTime.getTotal(), 60.0);
+        assertEquals(allTime.getMin(), 10);
+        assertEquals(allTime.getMax(), 30);
+        assertEquals(merged.toSnapshot().getOneMinute().getCount(), 3.0, 1e-9);
+    }
+
+    @Test
+    public void testTimeStatSketch()
+    {
+        for (TimeStat.Backend backend : TimeStat.Backend.values()) {
+            TimeStat first = new TimeStat(backend);
+            TimeStat second = new TimeStat(backend);
+            first.add(1, TimeUnit.MILLISECONDS);
+            second.add(3, TimeUnit.MILLISECONDS);
+
+            ByteArrayDataOutput output = ByteStreams.newDataOutput();
+            first.sketch().merge(second.sketch()).serialize(output);
+            TimeStatSketch merged = TimeStatSketch.deserialize(ByteStreams.newDataInput(output.toByteArray()));
+
+            assertEquals(merged.toSnapshot().getAllTime().getCount(), 2.0, 1e-9);
+            assertEquals(merged.toSnapshot().getFifteenMinutes().getCount(), 2.0, 1e-9);
+            assertEquals(merged.toSnapshot().getAllTime().getMin(), 0.001, 0.001 / 32);
+            assertEquals(merged.toSnapshot().getAllTime().getMax(), 0.003, 0.003 / 32);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.stats;
+
+import com.google.common.collect.ImmutableList;
+import com.proofpoint.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.proofpoint.stats.LogLinearHistogram.BUCKET_COUNT;
+import static com.proofpoint.stats.LogLinearHistogram.MAX_RELATIVE_ERROR;
+import static com.proofpoint.stats.LogLinearHistogram.bucketIndex;
+import static com.proofpoint.stats.LogLinearHistogram.lowerBound;
+import static com.proofpoint.stats.LogLinearHistogram.upperBound;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestLogLinearHistogram
+{
+    @Test
+    public void testBucketBoundaries()
+    {
+        assertEquals(bucketIndex(0), 0);
+        assertEquals(lowerBound(0), 0);
+        assertEquals(upperBound(BUCKET_COUNT - 1), Long.MAX_VALUE);
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            assertEquals(bucketIndex(lowerBound(bucket)), bucket);
+            assertEquals(bucketIndex(upperBound(bucket)), bucket);
+            if (bucket > 0) {
+                assertEquals(lowerBound(bucket), upperBound(bucket - 1) + 1);
+            }
+        }
+    }
+
+    @Test
+    public void testRelativeError()
+    {
+        for (int i = 0; i < 100_000; i++) {
+            long value = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+            int bucket = bucketIndex(value);
+            assertTrue(upperBound(bucket) - value <= value * MAX_RELATIVE_ERROR);
+        }
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        assertEquals(histogram.getCount(), 0.0);
+        assertEquals(histogram.getMin(), Long.MAX_VALUE);
+        assertEquals(histogram.getMax(), Long.MIN_VALUE);
+        assertEquals(histogram.getQuantiles(ImmutableList.of(0.5)), ImmutableList.of(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testSmallValuesAreExact()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int i = 0; i < 10; i++) {
+            histogram.add(i);
+        }
+
+        assertEquals(histogram.getCount(), 10.0);
+        assertEquals(histogram.getMin(), 0);
+        assertEquals(histogram.getMax(), 9);
+        assertEquals(histogram.getQuantiles(ImmutableList.of(0.0, 0.1, 0.5, 0.9, 1.0)), ImmutableList.of(0L, 1L, 5L, 9L, 9L));
+    }
+
+    @Test
+    public void testQuantiles()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int i = 1; i <= 100_000; i++) {
+            histogram.add(i * 1000L, 1);
+        }
+
+        List<Long> quantiles = histogram.getQuantiles(ImmutableList.of(0.5, 0.9, 0.99));
+        assertWithinError(quantiles.get(0), 50_000_000);
+        assertWithinError(quantiles.get(1), 90_000_000);
+        assertWithinError(quantiles.get(2), 99_000_000);
+        assertEquals(histogram.getMin(), 1000);
+        assertEquals(histogram.getMax(), 100_000_000);
+    }
+
+    @Test
+    public void testWeightedValues()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        histogram.add(0, 3);
+        histogram.add(2, 1);
+        histogram.add(4, 5);
+        histogram.add(5, 1);
+
+        assertEquals(histogram.getCount(), 10.0);
+        assertEquals(histogram.getQuantiles(ImmutableList.of(0.2, 0.3, 0.5, 0.9)), ImmutableList.of(0L, 2L, 4L, 5L));
+    }
+
+    @Test
+    public void testDecay()
+    {
+        TestingTicker ticker = new TestingTicker();
+        LogLinearHistogram histogram = new LogLinearHistogram(ExponentialDecay.computeAlpha(0.5, 60), ticker);
+
+        histogram.add(1);
+        ticker.increment(60, TimeUnit.SECONDS);
+        assertEquals(histogram.getCount(), 0.5, 1e-9);
+
+        histogram.add(10);
+        assertEquals(histogram.getCount(), 1.5, 1e-9);
+        // the newer value carries twice the weight of the older one
+        assertEquals(histogram.getQuantiles(ImmutableList.of(0.3, 0.4)), ImmutableList.of(1L, 10L));
+    }
+
+    @Test
+    public void testRescale()
+    {
+        TestingTicker ticker = new TestingTicker();
+        LogLinearHistogram histogram = new LogLinearHistogram(ExponentialDecay.computeAlpha(0.5, 60), ticker);
+
+        for (int i = 0; i < 10; i++) {
+            histogram.add(i);
+            ticker.increment(60, TimeUnit.SECONDS);
+        }
+
+        double expected = 0;
+        for (int i = 0; i < 10; i++) {
+            expected = (expected + 1) * 0.5;
+        }
+        assertEquals(histogram.getCount(), expected, 1e-9);
+        assertEquals(histogram.getMin(), 0);
+        assertEquals(histogram.getMax(), 9);
+    }
+
+    @Test
+    public void testSummaryCachedUntilChanged()
+    {
+        TestingTicker ticker = new TestingTicker();
+        LogLinearHistogram histogram = new LogLinearHistogram(ExponentialDecay.computeAlpha(0.5, 60), ticker);
+        histogram.add(1);
+
+        DigestSummary summary = histogram.summary();
+        ticker.increment(10, TimeUnit.SECONDS);
+        assertSame(histogram.summary(), summary);
+
+        histogram.add(10);
+        DigestSummary updated = histogram.summary();
+        assertNotSame(updated, summary);
+        assertEquals(updated.getMax(), 10);
+        assertSame(histogram.summary(), updated);
+    }
+
+    private static void assertWithinError(long actual, long expected)
+    {
+        assertTrue(Math.abs(actual - expected) <= expected * MAX_RELATIVE_ERROR, String.format("expected %s to be within error of %s", actual, expected));
+    }
+}
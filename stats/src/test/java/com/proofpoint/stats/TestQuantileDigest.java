@@ -10,6 +10,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
@@ -760,6 +761,58 @@ public class TestQuantileDigest
         assertTrue(digest.equivalent(deserialize(serialize(digest))), format("Serialization roundtrip failed for input: %s", values));
     }
 
+    @Test
+    public void testSerializationLarge()
+            throws Exception
+    {
+        QuantileDigest digest = new QuantileDigest(0.0001);
+        addRange(digest, 0, 10_000);
+        assertTrue(digest.getTotalNodeCount() > 1024);
+
+        assertTrue(digest.equivalent(deserialize(serialize(digest))));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Node count is negative: -1")
+    public void testDeserializeNegativeNodeCount()
+            throws Exception
+    {
+        deserialize(withNodeCount(serialize(new QuantileDigest(0.01)), -1));
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testDeserializeTruncated()
+            throws Exception
+    {
+        // a count far beyond the data must fail reading rather than allocate for it
+        QuantileDigest digest = new QuantileDigest(0.01);
+        digest.add(1);
+        deserialize(withNodeCount(serialize(digest), Integer.MAX_VALUE));
+    }
+
+    private static byte[] withNodeCount(byte[] serialized, int nodeCount)
+    {
+        // the node count follows the max error, alpha, landmark, min and max
+        ByteBuffer.wrap(serialized).putInt(2 * 8 + 3 * 8, nodeCount);
+        return serialized;
+    }
+
+    @Test
+    public void testReusesNodesAfterCompression()
+    {
+        QuantileDigest digest = new QuantileDigest(1, 0, Ticker.systemTicker(), false);
+        addRange(digest, 0, 1000);
+
+        int size = digest.estimatedInMemorySizeInBytes();
+
+        // the same range after a compression must fit in the slots that were freed
+        for (int i = 0; i < 10; i++) {
+            digest.compress();
+            addRange(digest, 0, 1000);
+        }
+
+        assertEquals(digest.estimatedInMemorySizeInBytes(), size);
+    }
+
     private QuantileDigest deserialize(byte[] result)
             throws IOException
     {
@@ -789,5 +842,41 @@ public class TestQuantileDigest
         }
         digest.validate();
     }
-}
 
+    @Test
+    public void testSummarizeMatchesSeparateQueries()
+    {
+        TestingTicker ticker = new TestingTicker();
+        QuantileDigest digest = new QuantileDigest(0.01, ExponentialDecay.computeAlpha(0.5, 60), ticker, true);
+        assertSummaryMatches(digest);
+
+        for (int i = 0; i < 10_000; i++) {
+            digest.add(ThreadLocalRandom.current().nextLong(1_000_000));
+            if (i % 1000 == 0) {
+                ticker.increment(30, TimeUnit.SECONDS);
+                assertSummaryMatches(digest);
+            }
+        }
+        digest.add(Long.MAX_VALUE);
+        digest.add(0);
+        assertSummaryMatches(digest);
+    }
+
+    private static void assertSummaryMatches(QuantileDigest digest)
+    {
+        DigestSummary summary = digest.summarize();
+        List<Long> quantiles = digest.getQuantiles(DigestSummary.QUANTILES);
+        assertEquals(asList(summary.getP01(), summary.getP05(), summary.getP10(), summary.getP25(), summary.getP50(),
+                summary.getP75(), summary.getP90(), summary.getP95(), summary.getP99()), quantiles);
+        assertEquals(summary.getMin(), digest.getMin());
+        assertEquals(summary.getMax(), digest.getMax());
+        double confidenceFactor = digest.getConfidenceFactor();
+        if (Double.isNaN(confidenceFactor)) {
+            assertTrue(Double.isNaN(summary.getMaxError()));
+        }
+        else {
+            // summed in a different order
+            assertEquals(summary.getMaxError(), confidenceFactor, confidenceFactor * 1e-12);
+        }
+    }
+}
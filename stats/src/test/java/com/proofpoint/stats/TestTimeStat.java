@@ -70,6 +70,43 @@ public class TestTimeStat
 
 
 
+    @Test
+    public void testBasicHistogram()
+    {
+        TimeStat stat = new TimeStat(TimeStat.Backend.LOG_LINEAR_HISTOGRAM);
+        List<Long> values = new ArrayList<>(VALUES);
+        for (long i = 0; i < VALUES; i++) {
+            values.add(i);
+        }
+        Collections.shuffle(values);
+        for (Long value : values) {
+            stat.add(value, TimeUnit.MILLISECONDS);
+        }
+        Collections.sort(values);
+
+        for (TimeDistribution distribution : new TimeDistribution[] {stat.getOneMinute(), stat.getAllTime()}) {
+            assertEquals(distribution.getCount(), (double) values.size());
+            assertTrue(fuzzyEquals(distribution.getMax(), values.get(values.size() - 1) * 0.001, 0.000_000_000_1));
+            assertEquals(distribution.getMin(), values.get(0) * 0.001);
+
+            assertHistogramPercentile("tp50", distribution.getP50(), values, 0.50);
+            assertHistogramPercentile("tp75", distribution.getP75(), values, 0.75);
+            assertHistogramPercentile("tp90", distribution.getP90(), values, 0.90);
+            assertHistogramPercentile("tp99", distribution.getP99(), values, 0.99);
+        }
+    }
+
+    @Test
+    public void testEmptyHistogram()
+    {
+        TimeStat stat = new TimeStat(TimeStat.Backend.LOG_LINEAR_HISTOGRAM);
+        TimeDistribution allTime = stat.getAllTime();
+        assertEquals(allTime.getMin(), Double.NaN);
+        assertEquals(allTime.getMax(), Double.NaN);
+        assertEquals(allTime.getP50(), Double.NaN);
+        assertEquals(allTime.getP99(), Double.NaN);
+    }
+
     @Test
     public void testEmpty()
     {
@@ -125,6 +162,12 @@ public class TestTimeStat
         assertBounded(name, value, values.get(index - 1) * 0.001, values.get(min(index + 1, values.size() - 1)) * 0.001);
     }
 
+    private static void assertHistogramPercentile(String name, double value, List<Long> values, double percentile)
+    {
+        int index = (int) (values.size() * percentile);
+        assertBounded(name, value, values.get(index - 1) * 0.001, values.get(min(index + 1, values.size() - 1)) * 0.001 * (1 + LogLinearHistogram.MAX_RELATIVE_ERROR));
+    }
+
     private static void assertBounded(String name, double value, double minValue, double maxValue)
     {
         if (value >= minValue && value <= maxValue) {